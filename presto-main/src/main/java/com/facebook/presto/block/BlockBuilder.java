@@ -147,6 +147,20 @@ public class BlockBuilder
         return this;
     }
 
+    /**
+     * Appends a run of consecutive tuples stored in the specified region of the slice.
+     */
+    public BlockBuilder appendTuples(Slice slice, int offset, int length, int tupleCount)
+    {
+        checkState(!tupleBuilder.isPartial(), "Tuple is not complete");
+
+        // copy tuples to output
+        sliceOutput.writeBytes(slice, offset, length);
+        count += tupleCount;
+
+        return this;
+    }
+
     private void flushTupleIfNecessary()
     {
         if (tupleBuilder.isComplete()) {
@@ -3,7 +3,6 @@
  */
 package com.facebook.presto.block;
 
-import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -176,8 +175,7 @@ public final class BlockIterables
                     if (blocks == null || !blocks.hasNext()) {
                         return endOfData();
                     }
-                    UncompressedBlock block = (UncompressedBlock) blocks.next();
-                    return block;
+                    return blocks.next();
                 }
             };
         }
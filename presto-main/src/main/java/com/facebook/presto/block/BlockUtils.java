@@ -3,6 +3,9 @@
  */
 package com.facebook.presto.block;
 
+import com.facebook.presto.block.array.DoubleArrayBlock;
+import com.facebook.presto.block.array.LongArrayBlock;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Optional;
@@ -118,6 +121,30 @@ public class BlockUtils
         }
     }
 
+    /**
+     * Returns the block itself if it is uncompressed, otherwise an uncompressed copy of the block
+     */
+    public static UncompressedBlock toUncompressedBlock(Block block)
+    {
+        Preconditions.checkNotNull(block, "block is null");
+        if (block instanceof UncompressedBlock) {
+            return (UncompressedBlock) block;
+        }
+        if (block instanceof LongArrayBlock) {
+            return ((LongArrayBlock) block).toUncompressedBlock();
+        }
+        if (block instanceof DoubleArrayBlock) {
+            return ((DoubleArrayBlock) block).toUncompressedBlock();
+        }
+
+        BlockBuilder blockBuilder = new BlockBuilder(block.getTupleInfo());
+        BlockCursor cursor = block.cursor();
+        while (cursor.advanceNextPosition()) {
+            cursor.appendTupleTo(blockBuilder);
+        }
+        return blockBuilder.build();
+    }
+
     public static Iterable<Tuple> toTupleIterable(Block block)
     {
         Preconditions.checkNotNull(block, "block is null");
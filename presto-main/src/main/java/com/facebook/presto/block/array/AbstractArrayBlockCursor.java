@@ -0,0 +1,188 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.block.array;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Preconditions;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.util.BitSet;
+
+/**
+ * Cursor over a single fixed width column stored as a dense array of values and
+ * a null bitmap.  The raw tuple of the current position is only materialized
+ * when it is requested.
+ */
+abstract class AbstractArrayBlockCursor
+        implements BlockCursor
+{
+    private final TupleInfo tupleInfo;
+    private final BitSet nulls;
+    protected final int offset;
+    private final int positionCount;
+
+    protected int position = -1;
+
+    private final Slice rawSlice;
+    private int rawPosition = -1;
+
+    protected AbstractArrayBlockCursor(TupleInfo tupleInfo, BitSet nulls, int offset, int positionCount)
+    {
+        this.tupleInfo = tupleInfo;
+        this.nulls = nulls;
+        this.offset = offset;
+        this.positionCount = positionCount;
+        this.rawSlice = Slices.allocate(tupleInfo.getFixedSize());
+    }
+
+    /**
+     * Writes the value at the specified index of the value array to field 0 of the tuple slice.
+     */
+    protected abstract void setRawValue(Slice slice, int index);
+
+    protected abstract Block createRegion(int offset, int length);
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public int getRemainingPositions()
+    {
+        return positionCount - (position + 1);
+    }
+
+    @Override
+    public boolean isValid()
+    {
+        return 0 <= position && position < positionCount;
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        return position >= positionCount;
+    }
+
+    protected void checkReadablePosition()
+    {
+        Preconditions.checkState(isValid(), "cursor is not valid");
+    }
+
+    @Override
+    public boolean advanceNextPosition()
+    {
+        if (position >= positionCount - 1) {
+            position = positionCount;
+            return false;
+        }
+
+        position++;
+        return true;
+    }
+
+    @Override
+    public boolean advanceToPosition(int newPosition)
+    {
+        // if new position is out of range, return false
+        if (newPosition >= positionCount) {
+            position = positionCount;
+            return false;
+        }
+
+        Preconditions.checkArgument(newPosition >= this.position, "Can't advance backwards");
+
+        position = newPosition;
+        return true;
+    }
+
+    @Override
+    public Block getRegionAndAdvance(int length)
+    {
+        // view port starts at next position
+        int startPosition = position + 1;
+        length = Math.min(length, getRemainingPositions());
+
+        // advance to end of view port
+        position += length;
+
+        return createRegion(offset + startPosition, length);
+    }
+
+    @Override
+    public int getPosition()
+    {
+        checkReadablePosition();
+        return position;
+    }
+
+    @Override
+    public Tuple getTuple()
+    {
+        Slice raw = getRawSlice();
+        Slice copy = Slices.allocate(raw.length());
+        copy.setBytes(0, raw);
+        return new Tuple(copy, tupleInfo);
+    }
+
+    @Override
+    public Slice getSlice(int field)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isNull(int field)
+    {
+        checkReadablePosition();
+        Preconditions.checkElementIndex(field, 1, "field");
+        return nulls.get(offset + position);
+    }
+
+    @Override
+    public boolean currentTupleEquals(Tuple value)
+    {
+        Slice raw = getRawSlice();
+        Slice tupleSlice = value.getTupleSlice();
+        return raw.equals(0, raw.length(), tupleSlice, 0, tupleSlice.length());
+    }
+
+    @Override
+    public int getRawOffset()
+    {
+        return 0;
+    }
+
+    @Override
+    public Slice getRawSlice()
+    {
+        checkReadablePosition();
+        if (rawPosition != position) {
+            int index = offset + position;
+            setRawValue(rawSlice, index);
+            if (nulls.get(index)) {
+                tupleInfo.setNull(rawSlice, 0, 0);
+            }
+            else {
+                tupleInfo.setNotNull(rawSlice, 0, 0);
+            }
+            rawPosition = position;
+        }
+        return rawSlice;
+    }
+
+    @Override
+    public void appendTupleTo(BlockBuilder blockBuilder)
+    {
+        Slice raw = getRawSlice();
+        blockBuilder.appendTuple(raw, 0, raw.length());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.block.array;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.serde.ArrayBlockEncoding;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+
+import java.util.BitSet;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static io.airlift.slice.SizeOf.SIZE_OF_BYTE;
+import static io.airlift.slice.SizeOf.SIZE_OF_DOUBLE;
+
+/**
+ * A single double column stored as a dense array of values and a separate null
+ * bitmap.  The value of a null position is zero.
+ */
+public class DoubleArrayBlock
+        implements Block
+{
+    private static final int ENTRY_SIZE = SIZE_OF_DOUBLE + SIZE_OF_BYTE;
+
+    private final int positionCount;
+    private final double[] values;
+    private final BitSet nulls;
+    private final int offset;
+
+    public DoubleArrayBlock(int positionCount, double[] values, BitSet nulls)
+    {
+        this(positionCount, values, nulls, 0);
+    }
+
+    public DoubleArrayBlock(int positionCount, double[] values, BitSet nulls, int offset)
+    {
+        Preconditions.checkArgument(positionCount >= 0, "positionCount is negative");
+        Preconditions.checkNotNull(values, "values is null");
+        Preconditions.checkNotNull(nulls, "nulls is null");
+        Preconditions.checkPositionIndexes(offset, offset + positionCount, values.length);
+
+        this.positionCount = positionCount;
+        this.values = values;
+        this.nulls = nulls;
+        this.offset = offset;
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return SINGLE_DOUBLE;
+    }
+
+    @Override
+    public int getPositionCount()
+    {
+        return positionCount;
+    }
+
+    /**
+     * Gets the value array shared by all regions of this block.  Position 0 of this block is at index {@link #getOffset()}.
+     */
+    public double[] getValues()
+    {
+        return values;
+    }
+
+    /**
+     * Gets the null bitmap shared by all regions of this block.  Position 0 of this block is at index {@link #getOffset()}.
+     */
+    public BitSet getNulls()
+    {
+        return nulls;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Returns the number of null positions in this block.
+     */
+    public int getNullCount()
+    {
+        return nulls.get(offset, offset + positionCount).cardinality();
+    }
+
+    @Override
+    public DataSize getDataSize()
+    {
+        return new DataSize((long) positionCount * SIZE_OF_DOUBLE + (positionCount + 7) / 8, Unit.BYTE);
+    }
+
+    @Override
+    public DoubleArrayBlockCursor cursor()
+    {
+        return new DoubleArrayBlockCursor(values, nulls, offset, positionCount);
+    }
+
+    @Override
+    public ArrayBlockEncoding getEncoding()
+    {
+        return new ArrayBlockEncoding(SINGLE_DOUBLE);
+    }
+
+    /**
+     * Copies this block into the tuple format of an uncompressed block with one pass over the
+     * arrays, instead of appending each position through a cursor.
+     */
+    public UncompressedBlock toUncompressedBlock()
+    {
+        Slice slice = Slices.allocate(positionCount * ENTRY_SIZE);
+        for (int position = 0; position < positionCount; position++) {
+            slice.setDouble(position * ENTRY_SIZE + SIZE_OF_BYTE, values[offset + position]);
+        }
+
+        // the allocated slice is zeroed, so only the null flags must be set
+        // the null flag of the only field is the low bit of the first byte of the tuple
+        for (int index = nulls.nextSetBit(offset); index >= 0 && index < offset + positionCount; index = nulls.nextSetBit(index + 1)) {
+            slice.setByte((index - offset) * ENTRY_SIZE, 1);
+        }
+        return new UncompressedBlock(positionCount, SINGLE_DOUBLE, slice);
+    }
+
+    @Override
+    public Block getRegion(int positionOffset, int length)
+    {
+        Preconditions.checkPositionIndexes(positionOffset, positionOffset + length, positionCount);
+        return new DoubleArrayBlock(length, values, nulls, offset + positionOffset);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("positionCount", positionCount)
+                .add("offset", offset)
+                .toString();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.block.array;
+
+import com.facebook.presto.block.Block;
+import com.google.common.base.Preconditions;
+import io.airlift.slice.Slice;
+
+import java.util.BitSet;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+
+public class DoubleArrayBlockCursor
+        extends AbstractArrayBlockCursor
+{
+    private final double[] values;
+    private final BitSet nulls;
+
+    public DoubleArrayBlockCursor(double[] values, BitSet nulls, int offset, int positionCount)
+    {
+        super(SINGLE_DOUBLE, nulls, offset, positionCount);
+        this.values = values;
+        this.nulls = nulls;
+    }
+
+    @Override
+    public long getLong(int field)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public double getDouble(int field)
+    {
+        checkReadablePosition();
+        Preconditions.checkElementIndex(field, 1, "field");
+        return values[offset + position];
+    }
+
+    @Override
+    protected void setRawValue(Slice slice, int index)
+    {
+        SINGLE_DOUBLE.setDouble(slice, 0, 0, values[index]);
+    }
+
+    @Override
+    protected Block createRegion(int offset, int length)
+    {
+        return new DoubleArrayBlock(length, values, nulls, offset);
+    }
+}
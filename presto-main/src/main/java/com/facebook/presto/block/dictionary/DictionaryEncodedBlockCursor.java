@@ -31,6 +31,11 @@ public class DictionaryEncodedBlockCursor implements BlockCursor
         return dictionary.getTupleInfo();
     }
 
+    public Dictionary getDictionary()
+    {
+        return dictionary;
+    }
+
     @Override
     public int getRemainingPositions()
     {
@@ -112,13 +117,13 @@ public class DictionaryEncodedBlockCursor implements BlockCursor
     @Override
     public int getRawOffset()
     {
-        throw new UnsupportedOperationException();
+        return 0;
     }
 
     @Override
     public Slice getRawSlice()
     {
-        throw new UnsupportedOperationException();
+        return dictionary.getTupleSlice(getDictionaryKey());
     }
 
     @Override
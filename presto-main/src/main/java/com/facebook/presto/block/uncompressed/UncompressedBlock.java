@@ -54,6 +54,11 @@ public class UncompressedBlock
         return slice;
     }
 
+    public int getSliceOffset()
+    {
+        return sliceOffset;
+    }
+
     public int getPositionCount()
     {
         return positionCount;
@@ -93,7 +98,13 @@ public class UncompressedBlock
     public Block getRegion(int positionOffset, int length)
     {
         Preconditions.checkPositionIndexes(positionOffset, positionOffset + length, positionCount);
-        return cursor().getRegionAndAdvance(length);
+
+        // the region starts at the position after the cursor
+        BlockCursor cursor = cursor();
+        if (positionOffset > 0) {
+            cursor.advanceToPosition(positionOffset - 1);
+        }
+        return cursor.getRegionAndAdvance(length);
     }
 
     @Override
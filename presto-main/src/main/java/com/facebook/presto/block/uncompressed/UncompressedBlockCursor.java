@@ -113,7 +113,9 @@ public class UncompressedBlockCursor
             size = tupleInfo.size(slice, offset);
         }
 
-        return new UncompressedBlock(length, tupleInfo, slice, startOffset);
+        // the positions were walked to find the end, so the region is a view of exactly its own tuples
+        int endOffset = offset + size;
+        return new UncompressedBlock(length, tupleInfo, slice.slice(startOffset, endOffset - startOffset));
     }
 
     @Override
@@ -115,7 +115,9 @@ public class UncompressedSliceBlockCursor
             size = slice.getInt(offset + SIZE_OF_BYTE);
         }
 
-        return new UncompressedBlock(length, SINGLE_VARBINARY, slice, startOffset);
+        // the positions were walked to find the end, so the region is a view of exactly its own tuples
+        int endOffset = offset + size;
+        return new UncompressedBlock(length, SINGLE_VARBINARY, slice.slice(startOffset, endOffset - startOffset));
     }
 
     @Override
@@ -9,11 +9,11 @@ import javax.annotation.concurrent.GuardedBy;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -34,27 +34,55 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  * <p>The first task of a batch will not execute before the first task of a previously submitted task, therefore
  * guaranteeing that no batch will get starved.</p>
+ *
+ * <p>A task that waits for another task, which may still be queued, marks its thread blocked with
+ * {@link #beginBlocking()}, and the executor runs an extra thread until {@link #endBlocking()}, so
+ * queued tasks keep running even if every thread is blocked.  At most {@code maxBlockedThreads}
+ * extra threads are started, so the executor never runs more than {@code threads + maxBlockedThreads}
+ * threads, and further tasks wait in the queue.</p>
  */
 public class FairBatchExecutor
 {
     private final static Logger log = Logger.get(FairBatchExecutor.class);
 
+    public static final int DEFAULT_MAX_BLOCKED_THREADS = 8;
+
+    private static final ThreadLocal<FairBatchExecutor> currentExecutor = new ThreadLocal<>();
+
     private final AtomicBoolean shutdown = new AtomicBoolean();
     private final int threads;
-    private final ExecutorService executor;
+    private final int maxBlockedThreads;
+    private final ThreadPoolExecutor executor;
     private final PriorityBlockingQueue<PrioritizedFutureTask> queue = new PriorityBlockingQueue<>();
 
     @GuardedBy("this")
     private long basePriority;
 
+    @GuardedBy("this")
+    private int workers;
+
+    @GuardedBy("this")
+    private int blockedWorkers;
+
     public FairBatchExecutor(int threads, ThreadFactory threadFactory)
     {
+        this(threads, DEFAULT_MAX_BLOCKED_THREADS, threadFactory);
+    }
+
+    public FairBatchExecutor(int threads, int maxBlockedThreads, ThreadFactory threadFactory)
+    {
+        Preconditions.checkArgument(threads > 0, "threads must be at least 1");
+        Preconditions.checkArgument(maxBlockedThreads >= 0, "maxBlockedThreads is negative");
         this.threads = threads;
-        this.executor = new ThreadPoolExecutor(threads, threads,
+        this.maxBlockedThreads = maxBlockedThreads;
+
+        // startWorkers never runs more workers than the maximum number of threads, but a retired
+        // worker may still hold its thread for a moment, so a new worker waits for it in the queue
+        this.executor = new ThreadPoolExecutor(threads + maxBlockedThreads, threads + maxBlockedThreads,
                 1, TimeUnit.MINUTES,
-                new SynchronousQueue<Runnable>(),
-                threadFactory,
-                new ThreadPoolExecutor.DiscardPolicy());
+                new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
     }
 
     public void shutdown()
@@ -62,8 +90,13 @@ public class FairBatchExecutor
         shutdown.set(true);
         executor.shutdown();
 
+        int workers;
+        synchronized (this) {
+            workers = this.workers;
+        }
+
         // poison pills
-        for (int i = 0; i < threads; i++) {
+        for (int i = 0; i < workers; i++) {
             queue.add(new PrioritizedFutureTask<>(-1, new Callable<Void>()
             {
                 @Override
@@ -92,19 +125,83 @@ public class FairBatchExecutor
             result.add(future);
         }
 
-        // Make sure we have enough processors to achieve the desired concurrency level
-        for (int i = 0; i < Math.min(threads, tasks.size()); ++i) {
-            executor.execute(new Runnable()
-            {
-                @Override
-                public void run()
+        startWorkers();
+
+        return result.build();
+    }
+
+    /**
+     * Marks the current thread blocked until {@link #endBlocking()}, if it is a thread of an executor, and
+     * starts another thread in its place, unless {@code maxBlockedThreads} threads are already blocked.
+     * A task calls this before it waits for the result of another task.
+     */
+    public static void beginBlocking()
+    {
+        FairBatchExecutor executor = currentExecutor.get();
+        if (executor != null) {
+            synchronized (executor) {
+                executor.blockedWorkers++;
+            }
+            executor.startWorkers();
+        }
+    }
+
+    /**
+     * Marks the current thread running again.  The thread started in its place stops after its current task.
+     */
+    public static void endBlocking()
+    {
+        FairBatchExecutor executor = currentExecutor.get();
+        if (executor != null) {
+            synchronized (executor) {
+                executor.blockedWorkers--;
+            }
+        }
+    }
+
+    // Make sure we have enough processors to achieve the desired concurrency level
+    private void startWorkers()
+    {
+        while (true) {
+            synchronized (this) {
+                if (workers >= getTargetWorkers()) {
+                    return;
+                }
+                workers++;
+            }
+            try {
+                executor.execute(new Runnable()
                 {
-                    trigger();
+                    @Override
+                    public void run()
+                    {
+                        trigger();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // the executor is shut down
+                synchronized (this) {
+                    workers--;
                 }
-            });
+                return;
+            }
         }
+    }
 
-        return result.build();
+    private synchronized boolean retireWorker()
+    {
+        if (workers > getTargetWorkers()) {
+            workers--;
+            return true;
+        }
+        return false;
+    }
+
+    @GuardedBy("this")
+    private int getTargetWorkers()
+    {
+        return threads + Math.min(blockedWorkers, maxBlockedThreads);
     }
 
     private long computeStartingPriority()
@@ -130,7 +227,9 @@ public class FairBatchExecutor
 
     private void trigger()
     {
+        currentExecutor.set(this);
         boolean interrupted = false;
+        boolean retired = false;
         try {
             while (!Thread.currentThread().isInterrupted() && !shutdown.get()) {
                 PrioritizedFutureTask<?> task = queue.take();
@@ -140,22 +239,27 @@ public class FairBatchExecutor
                 finally {
                     updateStartingPriority(task.priority);
                 }
+
+                // an extra thread stops once the thread it replaced is no longer blocked
+                if (retireWorker()) {
+                    retired = true;
+                    break;
+                }
             }
         }
         catch (InterruptedException e) {
             interrupted = true;
         }
         finally {
-            if (!shutdown.get()) {
-                // attempt to submit a new task in case we died due to unexpected reasons
-                executor.execute(new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        trigger();
-                    }
-                });
+            currentExecutor.remove();
+            if (!retired) {
+                synchronized (this) {
+                    workers--;
+                }
+                if (!shutdown.get()) {
+                    // attempt to start a new thread in case we died due to unexpected reasons
+                    startWorkers();
+                }
             }
         }
 
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.operator.Page;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Pages read from a {@link PageBuffer}.  The pages of a buffer are numbered in the order
+ * they are read, starting at zero, so a reader with several reads in flight can restore
+ * the order of the pages.
+ */
+public class BufferResult
+{
+    private final long startingSequence;
+    private final List<Page> pages;
+
+    public BufferResult(long startingSequence, List<Page> pages)
+    {
+        Preconditions.checkArgument(startingSequence >= 0, "startingSequence is negative");
+        Preconditions.checkNotNull(pages, "pages is null");
+        this.startingSequence = startingSequence;
+        this.pages = ImmutableList.copyOf(pages);
+    }
+
+    /**
+     * Returns the sequence number of the first page.
+     */
+    public long getStartingSequence()
+    {
+        return startingSequence;
+    }
+
+    public List<Page> getPages()
+    {
+        return pages;
+    }
+
+    public boolean isEmpty()
+    {
+        return pages.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("startingSequence", startingSequence)
+                .add("pages", pages.size())
+                .toString();
+    }
+}
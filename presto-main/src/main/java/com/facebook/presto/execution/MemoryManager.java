@@ -0,0 +1,80 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.execution;
+
+import com.facebook.presto.operator.MemoryPool;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import io.airlift.units.DataSize;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Owns the memory pool of a node.  Each query gets a child pool that limits the memory
+ * of the query on this node, and each task of the query gets an unlimited child of the
+ * query pool, so all memory of a task can be released when the task is removed.
+ */
+@ThreadSafe
+public class MemoryManager
+{
+    public static final String QUERY_LIMIT = "max memory per node";
+    public static final String NODE_LIMIT = "max total memory per node";
+
+    private final MemoryPool nodePool;
+    private final DataSize maxQueryMemoryUsage;
+
+    @GuardedBy("this")
+    private final Map<String, MemoryPool> queryPools = new HashMap<>();
+
+    public MemoryManager(DataSize maxTotalMemoryUsage, DataSize maxQueryMemoryUsage)
+    {
+        Preconditions.checkNotNull(maxTotalMemoryUsage, "maxTotalMemoryUsage is null");
+        Preconditions.checkNotNull(maxQueryMemoryUsage, "maxQueryMemoryUsage is null");
+
+        this.nodePool = new MemoryPool(NODE_LIMIT, maxTotalMemoryUsage);
+        this.maxQueryMemoryUsage = maxQueryMemoryUsage;
+    }
+
+    public DataSize getReservedSize()
+    {
+        return nodePool.getReservedSize();
+    }
+
+    public synchronized MemoryPool createTaskPool(String queryId)
+    {
+        Preconditions.checkNotNull(queryId, "queryId is null");
+
+        MemoryPool queryPool = queryPools.get(queryId);
+        if (queryPool == null) {
+            queryPool = new MemoryPool(QUERY_LIMIT, maxQueryMemoryUsage, nodePool);
+            queryPools.put(queryId, queryPool);
+        }
+        return new MemoryPool(queryPool);
+    }
+
+    /**
+     * Releases all memory still held by the query.  Must only be called once no task of the query remains on this node.
+     */
+    public synchronized void removeQueryPool(String queryId)
+    {
+        Preconditions.checkNotNull(queryId, "queryId is null");
+
+        MemoryPool queryPool = queryPools.remove(queryId);
+        if (queryPool != null) {
+            queryPool.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("nodePool", nodePool)
+                .add("queryCount", queryPools.size())
+                .toString();
+    }
+}
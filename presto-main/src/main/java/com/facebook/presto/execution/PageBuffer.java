@@ -3,25 +3,50 @@
  */
 package com.facebook.presto.execution;
 
+import com.facebook.presto.operator.MemoryPool;
 import com.facebook.presto.operator.Page;
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.log.Logger;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * QueryState contains the current state of the query and output buffer.
+ * <p/>
+ * The buffer is bounded by the retained size of the buffered pages instead of the
+ * number of pages.  A page may be added whenever the buffered size is below the
+ * limit, so a single page larger than the limit does not block forever.
+ * <p/>
+ * Pages are added without a shared lock.  Threads waiting for space or for pages
+ * block on a future that is completed and replaced every time the buffer changes,
+ * so a waiter must read the future before checking the buffer.  Readers remove
+ * pages under a lock that is not used by writers, so the pages are numbered in the
+ * order they are read.
+ * <p/>
+ * The memory of the buffered pages is reserved from a memory pool, so the query
+ * fails instead of filling the heap if a consumer falls behind while the pool is
+ * exhausted.
  */
 @ThreadSafe
 public class PageBuffer
@@ -61,33 +86,44 @@ public class PageBuffer
     }
 
     private final String bufferId;
+    private final long maxBufferedBytes;
+    private final MemoryPool memoryPool;
 
-    @GuardedBy("pageBuffer")
-    private final ArrayDeque<Page> pageBuffer;
+    private final Queue<Page> pageBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedPageCount = new AtomicInteger();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicLong reservedBytes = new AtomicLong();
 
-    @GuardedBy("pageBuffer")
-    private BufferState bufferState = BufferState.CREATED;
+    // readers remove a batch of pages under this lock, so each batch has consecutive sequence numbers
+    private final Object readLock = new Object();
 
-    @GuardedBy("pageBuffer")
-    private final List<Throwable> causes = new ArrayList<>();
+    @GuardedBy("readLock")
+    private long nextPageSequence;
 
-    @GuardedBy("pageBuffer")
-    private int sourceCount;
+    private final AtomicReference<BufferState> bufferState = new AtomicReference<>(BufferState.CREATED);
+    private final List<Throwable> causes = new CopyOnWriteArrayList<>();
+    private final AtomicInteger sourceCount;
 
-    private final Semaphore notFull;
-    private final Semaphore notEmpty;
+    private final AtomicReference<SettableFuture<Object>> notFull = new AtomicReference<>(SettableFuture.create());
+    private final AtomicReference<SettableFuture<Object>> notEmpty = new AtomicReference<>(SettableFuture.create());
 
-    public PageBuffer(String bufferId, int sourceCount, int pageBufferMax)
+    public PageBuffer(String bufferId, int sourceCount, DataSize maxBufferSize)
+    {
+        this(bufferId, sourceCount, maxBufferSize, new MemoryPool());
+    }
+
+    public PageBuffer(String bufferId, int sourceCount, DataSize maxBufferSize, MemoryPool memoryPool)
     {
         Preconditions.checkNotNull(bufferId, "bufferId is null");
         Preconditions.checkArgument(sourceCount > 0, "sourceCount must be at least 1");
-        Preconditions.checkArgument(pageBufferMax > 0, "pageBufferMax must be at least 1");
+        Preconditions.checkNotNull(maxBufferSize, "maxBufferSize is null");
+        Preconditions.checkArgument(maxBufferSize.toBytes() > 0, "maxBufferSize must be at least 1 byte");
+        Preconditions.checkNotNull(memoryPool, "memoryPool is null");
 
         this.bufferId = bufferId;
-        this.sourceCount = sourceCount;
-        this.pageBuffer = new ArrayDeque<>(pageBufferMax);
-        this.notFull = new Semaphore(pageBufferMax);
-        this.notEmpty = new Semaphore(0);
+        this.maxBufferedBytes = maxBufferSize.toBytes();
+        this.memoryPool = memoryPool;
+        this.sourceCount = new AtomicInteger(sourceCount);
     }
 
     public PageBufferInfo getBufferInfo()
@@ -97,49 +133,73 @@ public class PageBuffer
 
     public BufferState getState()
     {
-        synchronized (pageBuffer) {
-            return bufferState;
-        }
+        return bufferState.get();
     }
 
     public boolean isDone()
     {
-        synchronized (pageBuffer) {
-            return bufferState.isDone();
-        }
+        return bufferState.get().isDone();
     }
 
     public boolean isFailed()
     {
-        synchronized (pageBuffer) {
-            return bufferState == BufferState.FAILED;
-        }
+        return bufferState.get() == BufferState.FAILED;
     }
 
     public int getBufferedPageCount()
     {
-        synchronized (pageBuffer) {
-            return pageBuffer.size();
+        return bufferedPageCount.get();
+    }
+
+    public DataSize getBufferedSize()
+    {
+        return new DataSize(bufferedBytes.get(), DataSize.Unit.BYTE);
+    }
+
+    public DataSize getReservedSize()
+    {
+        return new DataSize(reservedBytes.get(), DataSize.Unit.BYTE);
+    }
+
+    /**
+     * Reserves room for pages that will be added later, such as the response of a request that is in flight.
+     * The reservation counts against the size limit until it is released, but does not block writers.
+     *
+     * @return false if the buffered and reserved size would exceed the limit
+     */
+    public boolean tryReserve(DataSize size)
+    {
+        long bytes = size.toBytes();
+        while (true) {
+            long reserved = reservedBytes.get();
+            if (bufferedBytes.get() + reserved + bytes > maxBufferedBytes) {
+                return false;
+            }
+            if (reservedBytes.compareAndSet(reserved, reserved + bytes)) {
+                return true;
+            }
         }
     }
 
+    public void release(DataSize size)
+    {
+        long reserved = reservedBytes.addAndGet(-size.toBytes());
+        Preconditions.checkState(reserved >= 0, "released more than was reserved");
+    }
+
     /**
      * Marks a source as finished and drop all buffered pages.  Once all sources are finished, no more pages can be added to the buffer.
      */
     public void finish()
     {
-        synchronized (pageBuffer) {
-            if (isDone()) {
-                return;
-            }
-
-            bufferState = BufferState.FINISHED;
-            sourceCount = 0;
-            pageBuffer.clear();
-            // free up threads quickly
-            notEmpty.release();
-            notFull.release();
+        if (!transitionToDone(BufferState.FINISHED)) {
+            return;
         }
+        sourceCount.set(0);
+        clearBuffer();
+        // free up threads quickly
+        signal(notEmpty);
+        signal(notFull);
     }
 
     /**
@@ -147,19 +207,14 @@ public class PageBuffer
      */
     public void sourceFinished()
     {
-        synchronized (pageBuffer) {
-            if (isDone()) {
-                return;
-            }
-            sourceCount--;
-            if (sourceCount == 0) {
-                if (pageBuffer.isEmpty()) {
-                    bufferState = BufferState.FINISHED;
-                }
-                // free up threads quickly
-                notEmpty.release();
-                notFull.release();
-            }
+        if (isDone()) {
+            return;
+        }
+        if (sourceCount.decrementAndGet() == 0) {
+            checkFinished();
+            // free up threads quickly
+            signal(notEmpty);
+            signal(notFull);
         }
     }
 
@@ -169,20 +224,41 @@ public class PageBuffer
     public void queryFailed(Throwable cause)
     {
         log.error(cause, "Query buffer failed");
-        synchronized (pageBuffer) {
-            // if query is already done, nothing can be done here
-            if (isDone()) {
-                causes.add(cause);
-                return;
-            }
-            bufferState = BufferState.FAILED;
-            causes.add(cause);
-            sourceCount = 0;
-            pageBuffer.clear();
-            // free up threads quickly
-            notEmpty.release();
-            notFull.release();
+        // record the cause before the state changes, so a reader that sees the failure also sees the cause
+        causes.add(cause);
+        // if query is already done, nothing can be done here
+        if (!transitionToDone(BufferState.FAILED)) {
+            return;
+        }
+        sourceCount.set(0);
+        clearBuffer();
+        // free up threads quickly
+        signal(notEmpty);
+        signal(notFull);
+    }
+
+    /**
+     * Returns a future that completes when the buffer has room for another page or is done.
+     */
+    public ListenableFuture<?> waitForSpace()
+    {
+        SettableFuture<Object> future = notFull.get();
+        if (bufferedBytes.get() < maxBufferedBytes || isDone()) {
+            return Futures.immediateFuture(null);
+        }
+        return future;
+    }
+
+    /**
+     * Returns a future that completes when pages are available or the buffer is done.
+     */
+    public ListenableFuture<?> waitForPages()
+    {
+        SettableFuture<Object> future = notEmpty.get();
+        if (!pageBuffer.isEmpty() || isDone()) {
+            return Futures.immediateFuture(null);
         }
+        return future;
     }
 
     /**
@@ -191,26 +267,53 @@ public class PageBuffer
      *
      * @return true if the page was added; false if the query has already been canceled or failed
      * @throws InterruptedException if the thread is interrupted while waiting for buffer space to be freed
+     * @throws IllegalStateException if the memory pool does not have room for the page
      */
     public boolean addPage(Page page)
             throws InterruptedException
     {
-        // acquire write permit
-        while (!isDone() && !notFull.tryAcquire(1, TimeUnit.SECONDS)) {
+        Preconditions.checkNotNull(page, "page is null");
+
+        ListenableFuture<?> space = waitForSpace();
+        while (!space.isDone()) {
+            waitFor(space);
+            space = waitForSpace();
         }
 
-        synchronized (pageBuffer) {
-            // don't throw an exception if the query was canceled or failed as the caller may not be aware of this
-            if (bufferState.isDone()) {
-                // release an additional thread blocked in the code above
-                // all blocked threads will be release due to the chain reaction
-                notFull.release();
-                return false;
-            }
+        return enqueuePage(page);
+    }
+
+    /**
+     * Add a page to the buffer without waiting for space.  A producer that must not block calls
+     * this only once {@link #waitForSpace()} is done, so the buffer exceeds its limit by at most
+     * one page per producer.
+     *
+     * @return true if the page was added; false if the query has already been canceled or failed
+     * @throws IllegalStateException if the memory pool does not have room for the page
+     */
+    public boolean enqueuePage(Page page)
+    {
+        Preconditions.checkNotNull(page, "page is null");
+
+        // don't throw an exception if the query was canceled or failed as the caller may not be aware of this
+        if (isDone()) {
+            return false;
+        }
+
+        long pageBytes = page.getDataSize().toBytes();
+        memoryPool.reserve(pageBytes);
 
-            bufferState = BufferState.RUNNING;
-            pageBuffer.addLast(page);
-            notEmpty.release();
+        // count the page before it is visible, so a reader never sees a negative count
+        bufferedPageCount.incrementAndGet();
+        bufferedBytes.addAndGet(pageBytes);
+        pageBuffer.add(page);
+        bufferState.compareAndSet(BufferState.CREATED, BufferState.RUNNING);
+        signal(notEmpty);
+
+        // the buffer may have been finished or failed while the page was added
+        if (isDone()) {
+            clearBuffer();
+            return false;
         }
         return true;
     }
@@ -226,68 +329,158 @@ public class PageBuffer
     public List<Page> getNextPages(int maxPageCount, Duration maxWait)
             throws InterruptedException
     {
-        Preconditions.checkArgument(maxPageCount > 0, "pageBufferMax must be at least 1");
+        Preconditions.checkArgument(maxPageCount > 0, "maxPageCount must be at least 1");
+        return getNextPages(maxPageCount, Long.MAX_VALUE, maxWait).getPages();
+    }
 
-        long start = System.nanoTime();
-        long maxWaitNanos = (long) maxWait.convertTo(TimeUnit.NANOSECONDS);
+    /**
+     * Gets the next pages from the buffer, up to {@code maxSize} bytes.  The first page is returned
+     * even if it is larger than {@code maxSize}.  The caller will block until at least one page is
+     * available, the query is canceled, the query fails or the max wait period elapses.
+     *
+     * @throws FailedQueryException if the query failed
+     * @throws InterruptedException if the thread is interrupted while waiting for pages to be buffered
+     */
+    public BufferResult getNextPages(DataSize maxSize, Duration maxWait)
+            throws InterruptedException
+    {
+        Preconditions.checkNotNull(maxSize, "maxSize is null");
+        return getNextPages(Integer.MAX_VALUE, maxSize.toBytes(), maxWait);
+    }
+
+    private BufferResult getNextPages(int maxPageCount, long maxBytes, Duration maxWait)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + (long) maxWait.convertTo(TimeUnit.NANOSECONDS);
 
         // block until first page is available
-        while (!isDone() && !notEmpty.tryAcquire(1, TimeUnit.SECONDS)) {
-            if (System.nanoTime() - start  > maxWaitNanos) {
-                return ImmutableList.of();
+        ListenableFuture<?> pages = waitForPages();
+        while (!pages.isDone()) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return emptyResult();
             }
+            try {
+                pages.get(remainingNanos, TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e) {
+                return emptyResult();
+            }
+            catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+            pages = waitForPages();
         }
 
-        synchronized (pageBuffer) {
-            if (bufferState == BufferState.FAILED) {
-                // release an additional thread blocked in the code above
-                // all blocked threads will be release due to the chain reaction
-                notEmpty.release();
-                // todo remove this when airlift log prints suppressed exceptions
-                FailedQueryException failedQueryException = new FailedQueryException(causes);
-                failedQueryException.printStackTrace(System.err);
-                throw failedQueryException;
-            }
+        if (isFailed()) {
+            // todo remove this when airlift log prints suppressed exceptions
+            FailedQueryException failedQueryException = new FailedQueryException(causes);
+            failedQueryException.printStackTrace(System.err);
+            throw failedQueryException;
+        }
 
-            // verify state
-            if (bufferState.isDone()) {
-                // release an additional thread blocked in the code above
-                // all blocked threads will be release due to the chain reaction
-                notEmpty.release();
-                return ImmutableList.of();
-            }
+        // verify state
+        if (isDone()) {
+            return emptyResult();
+        }
 
-            // acquire all available pages up to the limit
+        // remove all available pages up to the limits
+        BufferResult result;
+        synchronized (readLock) {
             ImmutableList.Builder<Page> nextPages = ImmutableList.builder();
             int count = 0;
-            // use a do while because we have "reserved" a page in the above acquire call
-            do {
-                if (pageBuffer.isEmpty()) {
-                    // there is one extra permit when all sources are finished
-                    Preconditions.checkState(sourceCount == 0, "A read permit was acquired but no pages are available");
-
-                    // release an additional thread blocked in the code above
-                    // all blocked threads will be release due to the chain reaction
-                    notEmpty.release();
+            long bytes = 0;
+            while (count < maxPageCount) {
+                Page page = pageBuffer.peek();
+                if (page == null || (count > 0 && bytes + page.getDataSize().toBytes() > maxBytes)) {
                     break;
                 }
-                else {
-                    nextPages.add(pageBuffer.removeFirst());
+                // the buffer may have been cleared concurrently
+                page = pageBuffer.poll();
+                if (page == null) {
+                    break;
                 }
+                pageRemoved(page);
+                nextPages.add(page);
                 count++;
-                // tryAcquire can fail even if more pages are available, because the pages may have been "reserved" by the above acquire call
-            } while (count < maxPageCount && notEmpty.tryAcquire());
+                bytes += page.getDataSize().toBytes();
+            }
+            result = new BufferResult(nextPageSequence, nextPages.build());
+            nextPageSequence += count;
+        }
 
+        if (!result.isEmpty()) {
             // allow pages to be replaced
-            notFull.release(count);
+            signal(notFull);
+        }
+
+        // check for end condition
+        checkFinished();
+
+        return result;
+    }
 
-            // check for end condition
-            List<Page> pages = nextPages.build();
-            if (sourceCount == 0 && pageBuffer.isEmpty()) {
-                bufferState = BufferState.FINISHED;
+    private BufferResult emptyResult()
+    {
+        synchronized (readLock) {
+            return new BufferResult(nextPageSequence, ImmutableList.<Page>of());
+        }
+    }
+
+    /**
+     * Transitions to the finished state once all sources are finished and all pages are consumed.
+     * This is checked by both the last source and the reader, so the state can not be missed
+     * when the last page is read while the last source finishes.
+     */
+    private void checkFinished()
+    {
+        if (sourceCount.get() == 0 && pageBuffer.isEmpty() && transitionToDone(BufferState.FINISHED)) {
+            signal(notEmpty);
+            signal(notFull);
+        }
+    }
+
+    private boolean transitionToDone(BufferState newState)
+    {
+        while (true) {
+            BufferState state = bufferState.get();
+            if (state.isDone()) {
+                return false;
+            }
+            if (bufferState.compareAndSet(state, newState)) {
+                return true;
             }
+        }
+    }
+
+    private void clearBuffer()
+    {
+        for (Page page = pageBuffer.poll(); page != null; page = pageBuffer.poll()) {
+            pageRemoved(page);
+        }
+    }
+
+    private void pageRemoved(Page page)
+    {
+        long pageBytes = page.getDataSize().toBytes();
+        bufferedPageCount.decrementAndGet();
+        bufferedBytes.addAndGet(-pageBytes);
+        memoryPool.free(pageBytes);
+    }
+
+    private static void signal(AtomicReference<SettableFuture<Object>> condition)
+    {
+        condition.getAndSet(SettableFuture.create()).set(null);
+    }
 
-            return pages;
+    private static void waitFor(ListenableFuture<?> future)
+            throws InterruptedException
+    {
+        try {
+            future.get();
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
         }
     }
 
@@ -319,12 +512,13 @@ public class PageBuffer
     public String toString()
     {
         return Objects.toStringHelper(this)
-                .add("state", bufferState)
-                .add("pageBuffer", pageBuffer.size())
-                .add("sourceCount", sourceCount)
+                .add("state", bufferState.get())
+                .add("pageBuffer", bufferedPageCount.get())
+                .add("bufferedBytes", bufferedBytes.get())
+                .add("reservedBytes", reservedBytes.get())
+                .add("maxBufferedBytes", maxBufferedBytes)
+                .add("sourceCount", sourceCount.get())
                 .add("causes", causes)
-                .add("notFull", notFull.availablePermits())
-                .add("notEmpty", notEmpty.availablePermits())
                 .toString();
     }
 }
@@ -1,6 +1,8 @@
 package com.facebook.presto.execution;
 
+import com.facebook.presto.concurrent.FairBatchExecutor;
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
@@ -8,6 +10,7 @@ import io.airlift.units.MinDuration;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 public class QueryManagerConfig
@@ -15,8 +18,14 @@ public class QueryManagerConfig
     private boolean coordinator = true;
     private boolean importsEnabled = true;
     private DataSize maxOperatorMemoryUsage = new DataSize(256, Unit.MEGABYTE);
+    private DataSize maxQueryMemoryUsagePerNode = new DataSize(1, Unit.GIGABYTE);
+    private DataSize maxTotalMemoryUsagePerNode = new DataSize(2, Unit.GIGABYTE);
+    private DataSize maxOutputBufferSize = new DataSize(32, Unit.MEGABYTE);
+    private boolean exchangeCompressionEnabled;
+    private File operatorSpillPath;
     private long maxSplitCount = 100_000;
     private int maxShardProcessorThreads = Runtime.getRuntime().availableProcessors() * 4;
+    private int maxBlockedShardProcessorThreads = FairBatchExecutor.DEFAULT_MAX_BLOCKED_THREADS;
     private Duration maxQueryAge = new Duration(15, TimeUnit.MINUTES);
     private Duration clientTimeout = new Duration(1, TimeUnit.MINUTES);
 
@@ -69,6 +78,74 @@ public class QueryManagerConfig
         return this;
     }
 
+    @NotNull
+    public DataSize getMaxQueryMemoryUsagePerNode()
+    {
+        return maxQueryMemoryUsagePerNode;
+    }
+
+    @Config("query.max-memory-per-node")
+    @ConfigDescription("Max memory a single query may reserve on a node, summed over all of its tasks and buffers")
+    public QueryManagerConfig setMaxQueryMemoryUsagePerNode(DataSize maxQueryMemoryUsagePerNode)
+    {
+        this.maxQueryMemoryUsagePerNode = maxQueryMemoryUsagePerNode;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getMaxTotalMemoryUsagePerNode()
+    {
+        return maxTotalMemoryUsagePerNode;
+    }
+
+    @Config("query.max-total-memory-per-node")
+    @ConfigDescription("Max memory all queries together may reserve on a node")
+    public QueryManagerConfig setMaxTotalMemoryUsagePerNode(DataSize maxTotalMemoryUsagePerNode)
+    {
+        this.maxTotalMemoryUsagePerNode = maxTotalMemoryUsagePerNode;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getMaxOutputBufferSize()
+    {
+        return maxOutputBufferSize;
+    }
+
+    @Config("query.output.max-buffer-size")
+    @ConfigDescription("Retained size of the pages buffered for each task output before the task blocks")
+    public QueryManagerConfig setMaxOutputBufferSize(DataSize maxOutputBufferSize)
+    {
+        this.maxOutputBufferSize = maxOutputBufferSize;
+        return this;
+    }
+
+    public boolean isExchangeCompressionEnabled()
+    {
+        return exchangeCompressionEnabled;
+    }
+
+    @Config("exchange.compression-enabled")
+    @ConfigDescription("Ask source tasks to compress the pages sent to an exchange, which trades CPU for network bandwidth")
+    public QueryManagerConfig setExchangeCompressionEnabled(boolean exchangeCompressionEnabled)
+    {
+        this.exchangeCompressionEnabled = exchangeCompressionEnabled;
+        return this;
+    }
+
+    public File getOperatorSpillPath()
+    {
+        return operatorSpillPath;
+    }
+
+    @Config("query.operator.spill-path")
+    @ConfigDescription("Directory for operators to spill to when they exceed max-memory; spilling is disabled if not set")
+    public QueryManagerConfig setOperatorSpillPath(File operatorSpillPath)
+    {
+        this.operatorSpillPath = operatorSpillPath;
+        return this;
+    }
+
     @Min(1)
     public int getMaxShardProcessorThreads()
     {
@@ -82,6 +159,20 @@ public class QueryManagerConfig
         return this;
     }
 
+    @Min(0)
+    public int getMaxBlockedShardProcessorThreads()
+    {
+        return maxBlockedShardProcessorThreads;
+    }
+
+    @Config("query.shard.max-blocked-threads")
+    @ConfigDescription("Maximum number of extra shard threads started in place of threads blocked waiting for exchange pages")
+    public QueryManagerConfig setMaxBlockedShardProcessorThreads(int maxBlockedShardProcessorThreads)
+    {
+        this.maxBlockedShardProcessorThreads = maxBlockedShardProcessorThreads;
+        return this;
+    }
+
     @NotNull
     public Duration getMaxQueryAge()
     {
@@ -5,38 +5,51 @@ package com.facebook.presto.execution;
 
 import com.facebook.presto.concurrent.FairBatchExecutor;
 import com.facebook.presto.metadata.Metadata;
+import com.facebook.presto.operator.MemoryPool;
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorStats;
 import com.facebook.presto.operator.Page;
 import com.facebook.presto.operator.PageIterator;
+import com.facebook.presto.operator.SortedSplitsMergerFactory;
 import com.facebook.presto.operator.SourceHashProviderFactory;
 import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.analyzer.Symbol;
+import com.facebook.presto.sql.planner.ExpressionCompiler;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner;
 import com.facebook.presto.sql.planner.PlanFragment;
 import com.facebook.presto.sql.planner.PlanFragmentSource;
 import com.facebook.presto.sql.planner.PlanFragmentSourceProvider;
-import com.google.common.base.Function;
+import com.facebook.presto.sql.planner.plan.SinkNode;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SqlTaskExecution
         implements TaskExecution
 {
+    // the time a split runs before it yields its thread to other splits
+    private static final Duration SPLIT_QUANTUM = new Duration(1, TimeUnit.SECONDS);
+
     private final String taskId;
     private final TaskOutput taskOutput;
     private final List<PlanFragmentSource> splits;
@@ -46,6 +59,9 @@ public class SqlTaskExecution
     private final PlanFragment fragment;
     private final Metadata metadata;
     private final DataSize maxOperatorMemoryUsage;
+    private final Optional<File> operatorSpillPath;
+    private final ExpressionCompiler expressionCompiler;
+    private final MemoryPool memoryPool;
     private final Session session;
 
     public SqlTaskExecution(Session session,
@@ -57,11 +73,14 @@ public class SqlTaskExecution
             List<PlanFragmentSource> splits,
             Map<String, ExchangePlanFragmentSource> exchangeSources,
             List<String> outputIds,
-            int pageBufferMax,
+            DataSize maxBufferSize,
             PlanFragmentSourceProvider sourceProvider,
             Metadata metadata,
             FairBatchExecutor shardExecutor,
-            DataSize maxOperatorMemoryUsage)
+            DataSize maxOperatorMemoryUsage,
+            Optional<File> operatorSpillPath,
+            ExpressionCompiler expressionCompiler,
+            MemoryPool memoryPool)
     {
         Preconditions.checkNotNull(session, "session is null");
         Preconditions.checkNotNull(queryId, "queryId is null");
@@ -72,11 +91,14 @@ public class SqlTaskExecution
         Preconditions.checkNotNull(exchangeSources, "exchangeSources is null");
         Preconditions.checkNotNull(outputIds, "outputIds is null");
         Preconditions.checkArgument(!outputIds.isEmpty(), "outputIds is empty");
-        Preconditions.checkArgument(pageBufferMax > 0, "pageBufferMax must be at least 1");
+        Preconditions.checkNotNull(maxBufferSize, "maxBufferSize is null");
         Preconditions.checkNotNull(sourceProvider, "sourceProvider is null");
         Preconditions.checkNotNull(metadata, "metadata is null");
         Preconditions.checkNotNull(shardExecutor, "shardExecutor is null");
         Preconditions.checkNotNull(maxOperatorMemoryUsage, "maxOperatorMemoryUsage is null");
+        Preconditions.checkNotNull(operatorSpillPath, "operatorSpillPath is null");
+        Preconditions.checkNotNull(expressionCompiler, "expressionCompiler is null");
+        Preconditions.checkNotNull(memoryPool, "memoryPool is null");
 
         this.session = session;
         this.taskId = taskId;
@@ -87,9 +109,30 @@ public class SqlTaskExecution
         this.shardExecutor = shardExecutor;
         this.metadata = metadata;
         this.maxOperatorMemoryUsage = maxOperatorMemoryUsage;
+        this.operatorSpillPath = operatorSpillPath;
+        this.expressionCompiler = expressionCompiler;
+        this.memoryPool = memoryPool;
 
         // create output buffers
-        this.taskOutput = new TaskOutput(queryId, stageId, taskId, location, outputIds, pageBufferMax, splits.size());
+        this.taskOutput = new TaskOutput(queryId, stageId, taskId, location, outputIds, getPartitionChannels(fragment), maxBufferSize, splits.size(), memoryPool);
+    }
+
+    /**
+     * If the fragment ends in a partitioned sink, returns the output channels of the partition symbols.
+     * The output has one channel per symbol in the order of the sink output symbols.
+     */
+    private static List<Integer> getPartitionChannels(PlanFragment fragment)
+    {
+        if (!(fragment.getRoot() instanceof SinkNode)) {
+            return ImmutableList.of();
+        }
+
+        SinkNode sink = (SinkNode) fragment.getRoot();
+        ImmutableList.Builder<Integer> partitionChannels = ImmutableList.builder();
+        for (Symbol symbol : sink.getPartitionBy()) {
+            partitionChannels.add(sink.getOutputSymbols().indexOf(symbol));
+        }
+        return partitionChannels.build();
     }
 
     @Override
@@ -108,99 +151,63 @@ public class SqlTaskExecution
     public void run()
     {
         taskOutput.getStats().recordExecutionStart();
+        // join hashes are shared by all splits, so they are released once every split is finished
+        MemoryPool joinMemoryPool = new MemoryPool(memoryPool);
+        SourceHashProviderFactory sourceHashProviderFactory = new SourceHashProviderFactory(maxOperatorMemoryUsage, joinMemoryPool);
+        // a sort is merged over the splits of the task, so the task produces a single sorted output
+        SortedSplitsMergerFactory sortedSplitsMergerFactory = new SortedSplitsMergerFactory(Math.max(splits.size(), 1));
+
+        List<SplitWorker> workers = new ArrayList<>();
         try {
-            // if we have a single split, just execute in the current thread; otherwise use the thread pool
-            final SourceHashProviderFactory sourceHashProviderFactory = new SourceHashProviderFactory(maxOperatorMemoryUsage);
-            if (splits.size() <= 1) {
-                PlanFragmentSource split = splits.isEmpty() ? null : splits.get(0);
-                SplitWorker worker = new SplitWorker(session,
-                        taskOutput,
-                        fragment,
-                        split,
-                        exchangeSources,
-                        sourceHashProviderFactory,
-                        sourceProvider,
-                        metadata,
-                        maxOperatorMemoryUsage);
-
-                worker.call();
+            if (splits.isEmpty()) {
+                workers.add(createSplitWorker(null, sourceHashProviderFactory, sortedSplitsMergerFactory));
             }
-            else {
-                List<Callable<Void>> workers = ImmutableList.copyOf(Lists.transform(this.splits, new Function<PlanFragmentSource, Callable<Void>>()
-                {
-                    @Override
-                    public Callable<Void> apply(PlanFragmentSource split)
-                    {
-                        return new SplitWorker(session,
-                                taskOutput,
-                                fragment,
-                                split,
-                                exchangeSources,
-                                sourceHashProviderFactory,
-                                sourceProvider,
-                                metadata,
-                                maxOperatorMemoryUsage);
-                    }
-                }));
-
-                // Race the multithreaded executors in reverse order. This guarantees that at least
-                // one thread is allocated to processing this task.
-                // SplitWorkers are designed to be "once-only" callables and become no-ops once someone
-                // invokes "call" on them. Therefore it is safe to invoke them here
-                List<FutureTask<Void>> results = shardExecutor.processBatch(workers);
-                for (FutureTask<Void> worker : Lists.reverse(results)) {
-                    worker.run();
-                }
-
-                checkQueryResults(results);
+            for (PlanFragmentSource split : splits) {
+                workers.add(createSplitWorker(split, sourceHashProviderFactory, sortedSplitsMergerFactory));
             }
         }
-        catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            taskOutput.queryFailed(e);
-            throw Throwables.propagate(e);
-        }
         catch (Throwable e) {
             taskOutput.queryFailed(e);
-            throw Throwables.propagate(e);
-        }
-        finally {
+            joinMemoryPool.close();
+            sortedSplitsMergerFactory.close();
             taskOutput.finish();
+            throw Throwables.propagate(e);
         }
+
+        // the splits finish the task, so the task thread is not needed once they are scheduled
+        new SplitScheduler(workers, joinMemoryPool, sortedSplitsMergerFactory).start();
     }
 
-    private static void checkQueryResults(Iterable<? extends Future<Void>> results)
-            throws InterruptedException
+    private SplitWorker createSplitWorker(@Nullable PlanFragmentSource split, SourceHashProviderFactory sourceHashProviderFactory, SortedSplitsMergerFactory sortedSplitsMergerFactory)
     {
-        RuntimeException queryFailedException = null;
-        for (Future<Void> result : results) {
-            try {
-                result.get();
-            }
-            catch (ExecutionException e) {
-                if (queryFailedException == null) {
-                    queryFailedException = new RuntimeException("Query failed");
-                }
-                Throwable cause = e.getCause();
-                queryFailedException.addSuppressed(cause);
-            }
-        }
-        if (queryFailedException != null) {
-            throw queryFailedException;
-        }
+        return new SplitWorker(session,
+                taskOutput,
+                fragment,
+                split,
+                exchangeSources,
+                sourceHashProviderFactory,
+                sortedSplitsMergerFactory,
+                sourceProvider,
+                metadata,
+                maxOperatorMemoryUsage,
+                operatorSpillPath,
+                expressionCompiler,
+                memoryPool);
     }
 
     @Override
     public void cancel()
     {
         taskOutput.cancel();
+        // the buffers are cleared, and any operator still running is being abandoned
+        memoryPool.close();
     }
 
     @Override
-    public List<Page> getResults(String outputId, int maxPageCount, Duration maxWait)
+    public BufferResult getResults(String outputId, DataSize maxSize, Duration maxWait)
             throws InterruptedException
     {
-        return taskOutput.getResults(outputId, maxPageCount, maxWait);
+        return taskOutput.getResults(outputId, maxSize, maxWait);
     }
 
     @Override
@@ -219,23 +226,152 @@ public class SqlTaskExecution
                 .toString();
     }
 
+    /**
+     * Runs the splits of the task on the shard threads, which are shared with the splits of all other
+     * tasks.  A split runs for a quantum at a time, and is submitted again behind the waiting splits
+     * once it can continue, so no thread waits for a blocked split.
+     */
+    private class SplitScheduler
+    {
+        private final List<SplitRunner> runners;
+        private final MemoryPool joinMemoryPool;
+        private final SortedSplitsMergerFactory sortedSplitsMergerFactory;
+        private final AtomicInteger remainingSplits;
+
+        // splits that yielded, which are resubmitted when they can continue or the task is done
+        private final Set<SplitRunner> blockedRunners = Sets.newSetFromMap(new ConcurrentHashMap<SplitRunner, Boolean>());
+
+        private SplitScheduler(List<SplitWorker> workers, MemoryPool joinMemoryPool, SortedSplitsMergerFactory sortedSplitsMergerFactory)
+        {
+            ImmutableList.Builder<SplitRunner> runners = ImmutableList.builder();
+            for (SplitWorker worker : workers) {
+                runners.add(new SplitRunner(worker));
+            }
+            this.runners = runners.build();
+            this.joinMemoryPool = joinMemoryPool;
+            this.sortedSplitsMergerFactory = sortedSplitsMergerFactory;
+            this.remainingSplits = new AtomicInteger(workers.size());
+        }
+
+        public void start()
+        {
+            // a split waiting for another task must not wait forever if its own task is canceled or fails
+            taskOutput.waitForDone().addListener(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (SplitRunner runner : blockedRunners) {
+                        resubmit(runner);
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+
+            shardExecutor.processBatch(runners);
+        }
+
+        private void splitBlocked(final SplitRunner runner, ListenableFuture<?> blocked)
+        {
+            blockedRunners.add(runner);
+            blocked.addListener(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    resubmit(runner);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+
+            // the task may have been done before the split was added
+            if (taskOutput.waitForDone().isDone()) {
+                resubmit(runner);
+            }
+        }
+
+        private void resubmit(SplitRunner runner)
+        {
+            // only the first of the listeners resubmits the split
+            if (blockedRunners.remove(runner)) {
+                shardExecutor.processBatch(ImmutableList.of(runner));
+            }
+        }
+
+        private void splitFinished()
+        {
+            if (remainingSplits.decrementAndGet() == 0) {
+                joinMemoryPool.close();
+                // release the sorted runs of splits that never reached the merge
+                sortedSplitsMergerFactory.close();
+                taskOutput.finish();
+            }
+        }
+
+        /**
+         * Runs a split for a quantum.  A split is submitted again only after it yielded, so it runs on one thread at a time.
+         */
+        private class SplitRunner
+                implements Callable<Void>
+        {
+            private final SplitWorker worker;
+
+            private SplitRunner(SplitWorker worker)
+            {
+                this.worker = worker;
+            }
+
+            @Override
+            public Void call()
+            {
+                ListenableFuture<?> blocked;
+                try {
+                    blocked = worker.process();
+                }
+                catch (Throwable e) {
+                    // the worker has already failed the task
+                    blocked = null;
+                }
+
+                if (blocked == null) {
+                    splitFinished();
+                }
+                else {
+                    splitBlocked(this, blocked);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Pulls the pages of a split through the operators into the task output.  The worker does not
+     * wait for the task output or the exchanges it reads, but yields when the output is full, an
+     * exchange has no pages or the quantum has elapsed, so a few threads can run many splits.  The
+     * quantum is checked between pages, so an operator that takes long to produce a page still holds
+     * the thread until the page is produced.
+     */
     private static class SplitWorker
-            implements Callable<Void>
     {
-        private final AtomicBoolean started = new AtomicBoolean();
         private final TaskOutput taskOutput;
         private final Operator operator;
         private final OperatorStats operatorStats;
 
+        // a worker is only run by one thread at a time
+        private PageIterator pages;
+        private boolean finished;
+
         private SplitWorker(Session session,
                 TaskOutput taskOutput,
                 PlanFragment fragment,
                 @Nullable PlanFragmentSource split,
                 Map<String, ExchangePlanFragmentSource> exchangeSources,
                 SourceHashProviderFactory sourceHashProviderFactory,
+                SortedSplitsMergerFactory sortedSplitsMergerFactory,
                 PlanFragmentSourceProvider sourceProvider,
                 Metadata metadata,
-                DataSize maxOperatorMemoryUsage)
+                DataSize maxOperatorMemoryUsage,
+                Optional<File> operatorSpillPath,
+                ExpressionCompiler expressionCompiler,
+                MemoryPool memoryPool)
         {
             this.taskOutput = taskOutput;
 
@@ -250,35 +386,83 @@ public class SqlTaskExecution
                     exchangeSources,
                     operatorStats,
                     sourceHashProviderFactory,
-                    maxOperatorMemoryUsage
+                    sortedSplitsMergerFactory,
+                    maxOperatorMemoryUsage,
+                    operatorSpillPath,
+                    expressionCompiler,
+                    memoryPool
             );
 
             operator = planner.plan(fragment.getRoot());
         }
 
-        @Override
-        public Void call()
-                throws Exception
+        /**
+         * Moves pages to the task output until the split is finished, the output is full, an exchange has no pages or the quantum has elapsed.
+         *
+         * @return a future that completes when the worker can continue, or null if the split is finished
+         */
+        public ListenableFuture<?> process()
         {
-            if (!started.compareAndSet(false, true)) {
-                return null;
+            Preconditions.checkState(!finished, "split is already finished");
+
+            if (pages == null) {
+                operatorStats.start();
+                pages = operator.iterator(operatorStats);
+            }
+            else {
+                operatorStats.resume();
             }
 
-            operatorStats.start();
-            try (PageIterator pages = operator.iterator(operatorStats)) {
-                while (pages.hasNext()) {
+            long start = System.nanoTime();
+            try {
+                while (true) {
+                    ListenableFuture<?> space = taskOutput.waitForSpace();
+                    if (!space.isDone()) {
+                        operatorStats.pause();
+                        return space;
+                    }
+
+                    ListenableFuture<?> exchanges = operatorStats.waitForExchanges();
+                    if (!exchanges.isDone()) {
+                        operatorStats.pause();
+                        return exchanges;
+                    }
+
+                    if (!pages.hasNext()) {
+                        finish();
+                        return null;
+                    }
                     Page page = pages.next();
                     taskOutput.getStats().addOutputDataSize(page.getDataSize());
                     taskOutput.getStats().addOutputPositions(page.getPositionCount());
-                    if (!taskOutput.addPage(page)) {
-                        break;
+                    if (!taskOutput.enqueuePage(page)) {
+                        finish();
+                        return null;
+                    }
+
+                    if (Duration.nanosSince(start).compareTo(SPLIT_QUANTUM) >= 0) {
+                        operatorStats.pause();
+                        return Futures.immediateFuture(null);
                     }
                 }
-                return null;
             }
             catch (Throwable e) {
                 taskOutput.queryFailed(e);
-                throw e;
+                finish();
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private void finish()
+        {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                if (pages != null) {
+                    pages.close();
+                }
             }
             finally {
                 operatorStats.finish();
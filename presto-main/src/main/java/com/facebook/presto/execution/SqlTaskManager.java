@@ -5,12 +5,13 @@ package com.facebook.presto.execution;
 
 import com.facebook.presto.concurrent.FairBatchExecutor;
 import com.facebook.presto.metadata.Metadata;
-import com.facebook.presto.operator.Page;
 import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.planner.ExpressionCompiler;
 import com.facebook.presto.sql.planner.PlanFragment;
 import com.facebook.presto.sql.planner.PlanFragmentSource;
 import com.facebook.presto.sql.planner.PlanFragmentSourceProvider;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
@@ -21,6 +22,7 @@ import io.airlift.units.Duration;
 import org.joda.time.DateTime;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
@@ -44,14 +46,16 @@ public class SqlTaskManager
 {
     private static final Logger log = Logger.get(SqlTaskManager.class);
 
-    private final int pageBufferMax;
-
     private final ExecutorService taskExecutor;
     private final FairBatchExecutor shardExecutor;
     private final Metadata metadata;
     private final PlanFragmentSourceProvider sourceProvider;
     private final HttpServerInfo httpServerInfo;
     private final DataSize maxOperatorMemoryUsage;
+    private final DataSize maxOutputBufferSize;
+    private final Optional<File> operatorSpillPath;
+    private final ExpressionCompiler expressionCompiler;
+    private final MemoryManager memoryManager;
     private final Duration maxTaskAge;
     private final Duration clientTimeout;
 
@@ -72,15 +76,18 @@ public class SqlTaskManager
         this.metadata = metadata;
         this.sourceProvider = sourceProvider;
         this.httpServerInfo = httpServerInfo;
-        this.pageBufferMax = 20;
         this.maxOperatorMemoryUsage = config.getMaxOperatorMemoryUsage();
+        this.maxOutputBufferSize = config.getMaxOutputBufferSize();
+        this.operatorSpillPath = Optional.fromNullable(config.getOperatorSpillPath());
+        this.expressionCompiler = new ExpressionCompiler(metadata);
+        this.memoryManager = new MemoryManager(config.getMaxTotalMemoryUsagePerNode(), config.getMaxQueryMemoryUsagePerNode());
         // Just to be nice, allow tasks to live an extra 30 seconds so queries will be removed first
         this.maxTaskAge = new Duration(config.getMaxQueryAge().toMillis() + SECONDS.toMillis(30), MILLISECONDS);
         this.clientTimeout = config.getClientTimeout();
 
         taskExecutor = Executors.newCachedThreadPool(threadsNamed("task-processor-%d"));
 
-        shardExecutor = new FairBatchExecutor(config.getMaxShardProcessorThreads(), threadsNamed("shard-processor-%d"));
+        shardExecutor = new FairBatchExecutor(config.getMaxShardProcessorThreads(), config.getMaxBlockedShardProcessorThreads(), threadsNamed("shard-processor-%d"));
 
         ScheduledExecutorService taskManagementExecutor = Executors.newScheduledThreadPool(100, threadsNamed("task-management-%d"));
         taskManagementExecutor.scheduleAtFixedRate(new Runnable()
@@ -167,11 +174,14 @@ public class SqlTaskManager
                 splits,
                 exchangeSources,
                 outputIds,
-                pageBufferMax,
+                maxOutputBufferSize,
                 sourceProvider,
                 metadata,
                 shardExecutor,
-                maxOperatorMemoryUsage
+                maxOperatorMemoryUsage,
+                operatorSpillPath,
+                expressionCompiler,
+                memoryManager.createTaskPool(queryId)
         );
         
         taskExecutor.submit(new TaskStarter(taskExecution));
@@ -181,7 +191,7 @@ public class SqlTaskManager
     }
 
     @Override
-    public List<Page> getTaskResults(String taskId, String outputName, int maxPageCount, Duration maxWaitTime)
+    public BufferResult getTaskResults(String taskId, String outputName, DataSize maxSize, Duration maxWaitTime)
             throws InterruptedException
     {
         Preconditions.checkNotNull(taskId, "taskId is null");
@@ -191,7 +201,7 @@ public class SqlTaskManager
         if (taskExecution == null) {
             throw new NoSuchElementException("Unknown query task " + taskId);
         }
-        return taskExecution.getResults(outputName, maxPageCount, maxWaitTime);
+        return taskExecution.getResults(outputName, maxSize, maxWaitTime);
     }
 
     @Override
@@ -226,6 +236,15 @@ public class SqlTaskManager
         TaskExecution taskExecution = tasks.remove(taskId);
         if (taskExecution != null) {
             taskExecution.cancel();
+
+            // once the last task of the query is gone, release everything the query still holds on this node
+            String queryId = taskExecution.getTaskInfo().getQueryId();
+            for (TaskExecution remainingTask : tasks.values()) {
+                if (remainingTask.getTaskInfo().getQueryId().equals(queryId)) {
+                    return;
+                }
+            }
+            memoryManager.removeQueryPool(queryId);
         }
     }
 
@@ -3,11 +3,9 @@
  */
 package com.facebook.presto.execution;
 
-import com.facebook.presto.operator.Page;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
-import java.util.List;
-
 public interface TaskExecution
 {
     String getTaskId();
@@ -18,7 +16,7 @@ public interface TaskExecution
 
     void cancel();
 
-    List<Page> getResults(String outputId, int maxPageCount, Duration maxWait)
+    BufferResult getResults(String outputId, DataSize maxSize, Duration maxWait)
             throws InterruptedException;
 
     void abortResults(String outputId);
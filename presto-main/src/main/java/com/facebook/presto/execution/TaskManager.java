@@ -3,10 +3,10 @@
  */
 package com.facebook.presto.execution;
 
-import com.facebook.presto.operator.Page;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.planner.PlanFragment;
 import com.facebook.presto.sql.planner.PlanFragmentSource;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
 import java.util.List;
@@ -27,7 +27,7 @@ public interface TaskManager
 
     TaskInfo getTaskInfo(String taskId);
 
-    List<Page> getTaskResults(String taskId, String outputName, int maxPageCount, Duration maxWaitTime)
+    BufferResult getTaskResults(String taskId, String outputName, DataSize maxSize, Duration maxWaitTime)
             throws InterruptedException;
 
     void abortTaskResults(String taskId, String outputId);
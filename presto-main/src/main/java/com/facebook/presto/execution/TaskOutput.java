@@ -3,16 +3,29 @@
  */
 package com.facebook.presto.execution;
 
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.execution.PageBuffer.BufferState;
+import com.facebook.presto.operator.MemoryPool;
 import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.PageBuilder;
+import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.slice.Slice;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
+import it.unimi.dsi.fastutil.HashCommon;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -32,13 +45,28 @@ public class TaskOutput
     private final String taskId;
     private final URI location;
     private final Map<String, PageBuffer> outputBuffers;
+    private final List<PageBuffer> partitionBuffers;
+    private final int[] partitionChannels;
 
     private final ExecutionStats stats = new ExecutionStats();
     private final AtomicReference<TaskState> taskState = new AtomicReference<>(TaskState.RUNNING);
+    private final SettableFuture<Object> done = SettableFuture.create();
 
     private final LinkedBlockingQueue<Throwable> failureCauses = new LinkedBlockingQueue<>();
 
-    public TaskOutput(String queryId, String stageId, String taskId, URI location, List<String> outputIds, int pageBufferMax, int splits)
+    public TaskOutput(String queryId, String stageId, String taskId, URI location, List<String> outputIds, DataSize maxBufferSize, int splits)
+    {
+        this(queryId, stageId, taskId, location, outputIds, ImmutableList.<Integer>of(), maxBufferSize, splits, new MemoryPool());
+    }
+
+    /**
+     * @param partitionChannels if empty, every output receives all pages; otherwise each row is sent
+     * to the single output selected by the hash of these channels, and the outputs are numbered in
+     * the order of the output ids
+     * @param maxBufferSize the retained size of the pages each output buffers before the producers block
+     * @param memoryPool the pool charged for the buffered output pages
+     */
+    public TaskOutput(String queryId, String stageId, String taskId, URI location, List<String> outputIds, List<Integer> partitionChannels, DataSize maxBufferSize, int splits, MemoryPool memoryPool)
     {
         Preconditions.checkNotNull(queryId, "queryId is null");
         Preconditions.checkNotNull(stageId, "stageId is null");
@@ -46,8 +74,10 @@ public class TaskOutput
         Preconditions.checkNotNull(location, "location is null");
         Preconditions.checkNotNull(outputIds, "outputIds is null");
         Preconditions.checkArgument(!outputIds.isEmpty(), "outputIds is empty");
-        Preconditions.checkArgument(pageBufferMax > 0, "pageBufferMax must be at least 1");
+        Preconditions.checkNotNull(partitionChannels, "partitionChannels is null");
+        Preconditions.checkNotNull(maxBufferSize, "maxBufferSize is null");
         Preconditions.checkArgument(splits >= 0, "splits is negative");
+        Preconditions.checkNotNull(memoryPool, "memoryPool is null");
 
         this.queryId = queryId;
         this.stageId = stageId;
@@ -56,9 +86,11 @@ public class TaskOutput
         stats.addSplits(splits);
         ImmutableMap.Builder<String, PageBuffer> builder = ImmutableMap.builder();
         for (String outputId : outputIds) {
-            builder.put(outputId, new PageBuffer(outputId, 1, pageBufferMax));
+            builder.put(outputId, new PageBuffer(outputId, 1, maxBufferSize, memoryPool));
         }
         outputBuffers = builder.build();
+        partitionBuffers = ImmutableList.copyOf(outputBuffers.values());
+        this.partitionChannels = Ints.toArray(partitionChannels);
     }
 
     public String getTaskId()
@@ -71,6 +103,14 @@ public class TaskOutput
         return taskState.get();
     }
 
+    /**
+     * Returns a future that completes when the task is finished, canceled or failed.
+     */
+    public ListenableFuture<?> waitForDone()
+    {
+        return done;
+    }
+
     public ExecutionStats getStats()
     {
         return stats;
@@ -90,12 +130,14 @@ public class TaskOutput
             if (Iterables.any(bufferStates, equalTo(BufferState.FAILED))) {
                 taskState.set(TaskState.FAILED);
                 stats.recordEnd();
+                done.set(null);
                 // this shouldn't be necessary, but be safe
                 finishAllBuffers();
             }
             else if (Iterables.all(bufferStates, equalTo(BufferState.FINISHED))) {
                 taskState.set(TaskState.FINISHED);
                 stats.recordEnd();
+                done.set(null);
             }
         }
     }
@@ -122,6 +164,7 @@ public class TaskOutput
             }
             if (this.taskState.compareAndSet(taskState, TaskState.CANCELED)) {
                 stats.recordEnd();
+                done.set(null);
                 break;
             }
         }
@@ -144,31 +187,143 @@ public class TaskOutput
         failureCauses.add(cause);
         taskState.set(TaskState.FAILED);
         stats.recordEnd();
+        done.set(null);
         for (PageBuffer outputBuffer : outputBuffers.values()) {
             outputBuffer.queryFailed(cause);
         }
     }
 
+    /**
+     * Adds a page to the outputs, and waits while an output is full.
+     *
+     * @return false if the task is already done
+     */
     public boolean addPage(Page page)
             throws InterruptedException
+    {
+        return addPage(page, true);
+    }
+
+    /**
+     * Adds a page to the outputs without waiting for space, for producers that wait for
+     * {@link #waitForSpace()} instead of blocking.  A partitioned page is split over the
+     * outputs, so an output may exceed its limit by the size of the page.
+     *
+     * @return false if the task is already done
+     */
+    public boolean enqueuePage(Page page)
+    {
+        try {
+            return addPage(page, false);
+        }
+        catch (InterruptedException e) {
+            // pages are only added without waiting
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns a future that completes when a full output has room again or is done.  Other outputs may
+     * still be full at that point, so the caller checks again before adding a page.
+     */
+    public ListenableFuture<?> waitForSpace()
     {
         for (PageBuffer outputBuffer : outputBuffers.values()) {
-            if (!outputBuffer.addPage(page)) {
-                updateState();
-                TaskState state = getState();
-                Preconditions.checkState(state.isDone(), "Expected a done state but state is %s", state);
-                return false;
+            ListenableFuture<?> space = outputBuffer.waitForSpace();
+            if (!space.isDone()) {
+                return space;
+            }
+        }
+        return Futures.immediateFuture(null);
+    }
+
+    private boolean addPage(Page page, boolean waitForSpace)
+            throws InterruptedException
+    {
+        if (partitionChannels.length == 0 || partitionBuffers.size() == 1) {
+            for (PageBuffer outputBuffer : outputBuffers.values()) {
+                if (!addPage(outputBuffer, page, waitForSpace)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Block[] blocks = page.getBlocks();
+        List<TupleInfo> tupleInfos = new ArrayList<>(blocks.length);
+        BlockCursor[] cursors = new BlockCursor[blocks.length];
+        for (int channel = 0; channel < blocks.length; channel++) {
+            tupleInfos.add(blocks[channel].getTupleInfo());
+            cursors[channel] = blocks[channel].cursor();
+        }
+
+        PageBuilder[] pageBuilders = new PageBuilder[partitionBuffers.size()];
+        for (int partition = 0; partition < pageBuilders.length; partition++) {
+            pageBuilders[partition] = new PageBuilder(tupleInfos);
+        }
+
+        int rows = page.getPositionCount();
+        for (int position = 0; position < rows; position++) {
+            for (BlockCursor cursor : cursors) {
+                Preconditions.checkState(cursor.advanceNextPosition());
+            }
+
+            int partition = getPartition(cursors);
+            PageBuilder pageBuilder = pageBuilders[partition];
+            for (int channel = 0; channel < cursors.length; channel++) {
+                cursors[channel].appendTupleTo(pageBuilder.getBlockBuilder(channel));
+            }
+
+            if (pageBuilder.isFull()) {
+                if (!addPage(partitionBuffers.get(partition), pageBuilder.build(), waitForSpace)) {
+                    return false;
+                }
+                pageBuilders[partition] = new PageBuilder(tupleInfos);
             }
         }
+
+        for (int partition = 0; partition < pageBuilders.length; partition++) {
+            if (!pageBuilders[partition].isEmpty()) {
+                if (!addPage(partitionBuffers.get(partition), pageBuilders[partition].build(), waitForSpace)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int getPartition(BlockCursor[] cursors)
+    {
+        int hash = 0;
+        for (int channel : partitionChannels) {
+            BlockCursor cursor = cursors[channel];
+            Slice slice = cursor.getRawSlice();
+            int offset = cursor.getRawOffset();
+            int length = cursor.getTupleInfo().size(slice, offset);
+            hash = 31 * hash + slice.hashCode(offset, length);
+        }
+        return (HashCommon.murmurHash3(hash) & Integer.MAX_VALUE) % partitionBuffers.size();
+    }
+
+    private boolean addPage(PageBuffer outputBuffer, Page page, boolean waitForSpace)
+            throws InterruptedException
+    {
+        boolean added = waitForSpace ? outputBuffer.addPage(page) : outputBuffer.enqueuePage(page);
+        if (!added) {
+            updateState();
+            TaskState state = getState();
+            Preconditions.checkState(state.isDone(), "Expected a done state but state is %s", state);
+            return false;
+        }
         return true;
     }
 
-    public List<Page> getResults(String outputId, int maxPageCount, Duration maxWait)
+    public BufferResult getResults(String outputId, DataSize maxSize, Duration maxWait)
             throws InterruptedException
     {
         PageBuffer outputBuffer = outputBuffers.get(outputId);
         Preconditions.checkArgument(outputBuffer != null, "Unknown output %s: available outputs %s", outputId, outputBuffers.keySet());
-        return outputBuffer.getNextPages(maxPageCount, maxWait);
+        return outputBuffer.getNextPages(maxSize, maxWait);
     }
 
     public void abortResults(String outputId)
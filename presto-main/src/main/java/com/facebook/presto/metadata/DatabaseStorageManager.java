@@ -4,18 +4,23 @@ import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.block.BlockUtils;
 import com.facebook.presto.ingest.ImportingOperator;
-import com.facebook.presto.operator.AlignmentOperator;
 import com.facebook.presto.operator.Operator;
+import com.facebook.presto.serde.AdaptiveEncoder;
 import com.facebook.presto.serde.BlocksFileEncoding;
 import com.facebook.presto.serde.BlocksFileReader;
 import com.facebook.presto.serde.BlocksFileStats;
 import com.facebook.presto.serde.BlocksFileWriter;
+import com.facebook.presto.serde.EncoderFactory;
 import io.airlift.slice.Slice;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
@@ -28,13 +33,19 @@ import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
 import org.skife.jdbi.v2.TransactionStatus;
 import org.skife.jdbi.v2.VoidTransactionCallback;
+import org.weakref.jmx.Managed;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -47,27 +58,17 @@ import static java.nio.file.Files.createDirectories;
 public class DatabaseStorageManager
         implements StorageManager
 {
-    private static final boolean ENABLE_OPTIMIZATION = Boolean.valueOf("false");
-
-    private static final int RUN_LENGTH_AVERAGE_CUTOFF = 3;
-    private static final int DICTIONARY_CARDINALITY_CUTOFF = 1000;
     private static final int OUTPUT_BUFFER_SIZE = (int) new DataSize(1, MEGABYTE).toBytes();
 
     private final IDBI dbi;
     private final File baseStorageDir;
     private final File baseStagingDir;
     private final StorageManagerDao dao;
+    private final EncoderFactory encoderFactory;
 
-    private final LoadingCache<File, Slice> mappedFileCache = CacheBuilder.newBuilder().build(new CacheLoader<File, Slice>()
-    {
-        @Override
-        public Slice load(File file)
-                throws Exception
-        {
-            checkArgument(file.isAbsolute(), "file is not absolute");
-            return Slices.wrappedBuffer(Files.toByteArray(file));
-        }
-    });
+    // bounded by the total size of the cached files, least recently used files are evicted first
+    private final LoadingCache<File, Slice> fileCache;
+    private final AtomicLong cachedFileBytes = new AtomicLong();
 
     @Inject
     public DatabaseStorageManager(@ForStorageManager IDBI dbi, StorageManagerConfig config)
@@ -79,6 +80,40 @@ public class DatabaseStorageManager
         this.baseStagingDir = createDirectory(new File(baseDataDir, "staging"));
         this.dbi = checkNotNull(dbi, "dbi is null");
         this.dao = dbi.onDemand(StorageManagerDao.class);
+        this.encoderFactory = AdaptiveEncoder.createEncoderFactory(config.getMinRunLength(), config.getDictionaryCardinalityCutoff());
+
+        long fileCacheSize = checkNotNull(config.getFileCacheSize(), "fileCacheSize is null").toBytes();
+        this.fileCache = CacheBuilder.newBuilder()
+                .maximumWeight(fileCacheSize)
+                .weigher(new Weigher<File, Slice>()
+                {
+                    @Override
+                    public int weigh(File file, Slice slice)
+                    {
+                        return slice.length();
+                    }
+                })
+                .removalListener(new RemovalListener<File, Slice>()
+                {
+                    @Override
+                    public void onRemoval(RemovalNotification<File, Slice> notification)
+                    {
+                        cachedFileBytes.addAndGet(-notification.getValue().length());
+                    }
+                })
+                .recordStats()
+                .build(new CacheLoader<File, Slice>()
+                {
+                    @Override
+                    public Slice load(File file)
+                            throws IOException
+                    {
+                        checkArgument(file.isAbsolute(), "file is not absolute");
+                        Slice slice = mapFile(file);
+                        cachedFileBytes.addAndGet(slice.length());
+                        return slice;
+                    }
+                });
 
         dao.createTableColumns();
     }
@@ -93,8 +128,8 @@ public class DatabaseStorageManager
         // Locally stage the imported data
         List<File> files = stagingImport(shardId, columnIds, source);
 
-        // Process staged files to optimize encodings if necessary
-        List<File> finalOutputFiles = optimizeEncodings(shardId, columnIds, files);
+        // Move the staged files into storage, the encoding of each block was chosen while staging
+        List<File> finalOutputFiles = moveStagedFiles(shardId, files);
 
         // Commit all the columns at the same time once everything has been successfully imported
         commitShardColumns(shardId, columnIds, finalOutputFiles);
@@ -120,88 +155,39 @@ public class DatabaseStorageManager
     {
         ImmutableList.Builder<File> files = ImmutableList.builder();
         for (long columnId : columnIds) {
-            File file = getColumnFile(shardPath, columnId, BlocksFileEncoding.RAW);
+            File file = getColumnFile(shardPath, columnId, BlocksFileEncoding.AUTO);
             Files.createParentDirs(file);
             files.add(file);
         }
         return files.build();
     }
 
-    private static List<BlocksFileWriter> getFileWriters(List<File> files)
+    private List<BlocksFileWriter> getFileWriters(List<File> files)
     {
         ImmutableList.Builder<BlocksFileWriter> writers = ImmutableList.builder();
         for (File file : files) {
-            writers.add(new BlocksFileWriter(BlocksFileEncoding.RAW, createOutputSupplier(file)));
+            writers.add(new BlocksFileWriter(encoderFactory, createOutputSupplier(file)));
         }
         return writers.build();
     }
 
-    private List<File> optimizeEncodings(long shardId, List<Long> columnIds, List<File> stagedFiles)
+    private List<File> moveStagedFiles(long shardId, List<File> stagedFiles)
             throws IOException
     {
-        checkArgument(columnIds.size() == stagedFiles.size(), "columnId list does not match file list");
-
-        ImmutableList.Builder<BlockIterable> sourcesBuilder = ImmutableList.builder();
-        ImmutableList.Builder<BlocksFileWriter> writersBuilder = ImmutableList.builder();
-        ImmutableList.Builder<File> optimizedFilesBuilder = ImmutableList.builder();
-
         File shardPath = getShardPath(baseStorageDir, shardId);
 
-        // TODO: remove this hack when empty blocks are allowed
-        if (!stagedFiles.get(0).exists()) {
-            ImmutableList.Builder<File> outputFiles = ImmutableList.builder();
-            for (File file : stagedFiles) {
-                outputFiles.add(new File(shardPath, file.getName()));
-            }
-            return outputFiles.build();
-        }
-
-        for (int i = 0; i < stagedFiles.size(); i++) {
-            long columnId = columnIds.get(i);
-            File stagedFile = stagedFiles.get(i);
-            Slice slice = mappedFileCache.getUnchecked(stagedFile.getAbsoluteFile());
-
-            // Compute optimal encoding from stats
-            BlocksFileReader blocks = BlocksFileReader.readBlocks(slice);
-            BlocksFileStats stats = blocks.getStats();
-            boolean rleEncode = stats.getAvgRunLength() > RUN_LENGTH_AVERAGE_CUTOFF;
-            boolean dicEncode = stats.getUniqueCount() < DICTIONARY_CARDINALITY_CUTOFF;
-
-            BlocksFileEncoding encoding = BlocksFileEncoding.RAW;
-            if (dicEncode && rleEncode) {
-                encoding = BlocksFileEncoding.DIC_RLE;
-            }
-            else if (dicEncode) {
-                encoding = BlocksFileEncoding.DIC_RAW;
-            }
-            else if (rleEncode) {
-                encoding = BlocksFileEncoding.RLE;
-            }
-            if (!ENABLE_OPTIMIZATION) {
-                encoding = BlocksFileEncoding.RAW;
-            }
-
-            File outputFile = getColumnFile(shardPath, columnId, encoding);
-            Files.createParentDirs(outputFile);
-            optimizedFilesBuilder.add(outputFile);
+        ImmutableList.Builder<File> outputFiles = ImmutableList.builder();
+        for (File stagedFile : stagedFiles) {
+            File outputFile = new File(shardPath, stagedFile.getName());
 
-            if (encoding == BlocksFileEncoding.RAW) {
-                // Should already be raw, so just move
+            // TODO: remove this hack when empty blocks are allowed
+            if (stagedFile.exists()) {
+                Files.createParentDirs(outputFile);
                 Files.move(stagedFile, outputFile);
             }
-            else {
-                sourcesBuilder.add(blocks);
-                writersBuilder.add(new BlocksFileWriter(encoding, createOutputSupplier(outputFile)));
-            }
+            outputFiles.add(outputFile);
         }
-        List<BlockIterable> sources = sourcesBuilder.build();
-        List<BlocksFileWriter> writers = writersBuilder.build();
-
-        if (!sources.isEmpty()) {
-            AlignmentOperator source = new AlignmentOperator(sources);
-            ImportingOperator.importData(source, writers);
-        }
-        return optimizedFilesBuilder.build();
+        return outputFiles.build();
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
@@ -255,9 +241,7 @@ public class DatabaseStorageManager
     @Override
     public BlockIterable getBlocks(long shardId, long columnId)
     {
-        checkState(shardExists(shardId), "shard %s has not yet been imported", shardId);
-        String filename = dao.getColumnFilename(shardId, columnId);
-        File file = new File(getShardPath(baseStorageDir, shardId), filename);
+        File file = getColumnFile(shardId, columnId);
 
         // TODO: remove this hack when empty blocks are allowed
         if (!file.exists()) {
@@ -267,6 +251,27 @@ public class DatabaseStorageManager
         return convertFilesToBlocks(ImmutableList.of(file));
     }
 
+    @Override
+    public Optional<BlocksFileStats> getColumnStats(long shardId, long columnId)
+    {
+        File file = getColumnFile(shardId, columnId);
+
+        // TODO: remove this hack when empty blocks are allowed
+        if (!file.exists()) {
+            return Optional.absent();
+        }
+
+        Slice slice = fileCache.getUnchecked(file.getAbsoluteFile());
+        return Optional.of(BlocksFileReader.readBlocks(slice).getStats());
+    }
+
+    private File getColumnFile(long shardId, long columnId)
+    {
+        checkState(shardExists(shardId), "shard %s has not yet been imported", shardId);
+        String filename = dao.getColumnFilename(shardId, columnId);
+        return new File(getShardPath(baseStorageDir, shardId), filename);
+    }
+
     private BlockIterable convertFilesToBlocks(List<File> files)
     {
         Preconditions.checkArgument(!files.isEmpty(), "no files in stream");
@@ -274,7 +279,7 @@ public class DatabaseStorageManager
         List<Block> blocks = ImmutableList.copyOf(Iterables.concat(Iterables.transform(files, new Function<>() {
             @Override
             public Iterable<? extends Block> apply(File file) {
-                Slice slice = mappedFileCache.getUnchecked(file.getAbsoluteFile());
+                Slice slice = fileCache.getUnchecked(file.getAbsoluteFile());
                 return BlocksFileReader.readBlocks(slice);
             }
         })));
@@ -302,11 +307,54 @@ public class DatabaseStorageManager
         List<String> shardFiles = dao.getShardFiles(shardId);
         for (String shardFile : shardFiles) {
             File file = new File(getShardPath(baseStorageDir, shardId), shardFile);
+            fileCache.invalidate(file.getAbsoluteFile());
             java.nio.file.Files.deleteIfExists(file.toPath());
         }
         dao.dropShard(shardId);
     }
 
+    @Managed
+    public long getFileCacheBytes()
+    {
+        return cachedFileBytes.get();
+    }
+
+    @Managed
+    public long getFileCacheFileCount()
+    {
+        return fileCache.size();
+    }
+
+    @Managed
+    public long getFileCacheHitCount()
+    {
+        return fileCache.stats().hitCount();
+    }
+
+    @Managed
+    public long getFileCacheMissCount()
+    {
+        return fileCache.stats().missCount();
+    }
+
+    @Managed
+    public long getFileCacheEvictionCount()
+    {
+        return fileCache.stats().evictionCount();
+    }
+
+    private static Slice mapFile(File file)
+            throws IOException
+    {
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            // slices can only wrap heap memory, so the mapped file is copied in a single bulk transfer
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return Slices.wrappedBuffer(bytes);
+        }
+    }
+
     private static File createDirectory(File dir)
             throws IOException
     {
@@ -2,6 +2,8 @@ package com.facebook.presto.metadata;
 
 import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.operator.Operator;
+import com.facebook.presto.serde.BlocksFileStats;
+import com.google.common.base.Optional;
 
 import java.io.IOException;
 import java.util.List;
@@ -13,6 +15,11 @@ public interface StorageManager
 
     BlockIterable getBlocks(long shardId, long columnId);
 
+    /**
+     * Get the stats of the column data in the shard, or absent if the column has no data
+     */
+    Optional<BlocksFileStats> getColumnStats(long shardId, long columnId);
+
     boolean shardExists(long shardId);
 
     void dropShard(long shardId)
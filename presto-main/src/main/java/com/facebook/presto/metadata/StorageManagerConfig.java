@@ -1,14 +1,20 @@
 package com.facebook.presto.metadata;
 
+import com.facebook.presto.serde.AdaptiveEncoder;
 import io.airlift.configuration.Config;
 import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.io.File;
 
 public class StorageManagerConfig
 {
     private File dataDirectory = new File("var/data");
+    private DataSize fileCacheSize = new DataSize(1, DataSize.Unit.GIGABYTE);
+    private int minRunLength = AdaptiveEncoder.DEFAULT_MIN_RUN_LENGTH;
+    private int dictionaryCardinalityCutoff = AdaptiveEncoder.DEFAULT_DICTIONARY_CARDINALITY_CUTOFF;
 
     @NotNull
     public File getDataDirectory()
@@ -23,4 +29,46 @@ public class StorageManagerConfig
         this.dataDirectory = dataDirectory;
         return this;
     }
+
+    @NotNull
+    public DataSize getFileCacheSize()
+    {
+        return fileCacheSize;
+    }
+
+    @Config("storage-manager.file-cache-size")
+    @ConfigDescription("Maximum total size of the shard column files cached in memory")
+    public StorageManagerConfig setFileCacheSize(DataSize fileCacheSize)
+    {
+        this.fileCacheSize = fileCacheSize;
+        return this;
+    }
+
+    @Min(0)
+    public int getMinRunLength()
+    {
+        return minRunLength;
+    }
+
+    @Config("storage-manager.min-run-length")
+    @ConfigDescription("Runs of equal values at least this long are stored run length encoded")
+    public StorageManagerConfig setMinRunLength(int minRunLength)
+    {
+        this.minRunLength = minRunLength;
+        return this;
+    }
+
+    @Min(0)
+    public int getDictionaryCardinalityCutoff()
+    {
+        return dictionaryCardinalityCutoff;
+    }
+
+    @Config("storage-manager.dictionary-cardinality-cutoff")
+    @ConfigDescription("Blocks with fewer unique values are stored dictionary encoded")
+    public StorageManagerConfig setDictionaryCardinalityCutoff(int dictionaryCardinalityCutoff)
+    {
+        this.dictionaryCardinalityCutoff = dictionaryCardinalityCutoff;
+        return this;
+    }
 }
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+
+/**
+ * A projection that can project a batch of selected positions directly from the blocks of a page,
+ * instead of being called once per row with cursors.
+ */
+public interface BatchProjectionFunction
+        extends ProjectionFunction
+{
+    /**
+     * Returns true if the positions of these blocks can be projected with {@link #project(Block[], int[], int, BlockBuilder)}.
+     */
+    boolean canProject(Block[] blocks);
+
+    /**
+     * Projects the first positionCount positions in the positions array, which must be in increasing order.
+     */
+    void project(Block[] blocks, int[] positions, int positionCount, BlockBuilder output);
+}
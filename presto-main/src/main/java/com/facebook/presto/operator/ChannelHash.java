@@ -3,26 +3,23 @@
  */
 package com.facebook.presto.operator;
 
-import com.facebook.presto.block.BlockCursor;
 import io.airlift.slice.Slice;
 import com.facebook.presto.tuple.TupleInfo;
-import com.google.common.base.Preconditions;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.longs.Long2IntMap;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenCustomHashMap;
-import it.unimi.dsi.fastutil.longs.LongHash;
-import it.unimi.dsi.fastutil.longs.LongHash.Strategy;
+import it.unimi.dsi.fastutil.HashCommon;
 
 import java.util.Arrays;
 
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
 import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
-import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
 import static io.airlift.slice.SizeOf.sizeOf;
 
-
+/**
+ * An immutable hash of the values of a channel index.  The hash is fully built in the
+ * constructor and does not keep any lookup state, so a single instance can be probed
+ * concurrently by any number of threads.
+ */
 public class ChannelHash
 {
     //
@@ -31,145 +28,98 @@ public class ChannelHash
     // The key address is a SyntheticAddress and the position is the position of the key withing the
     // channel index.
     //
-    // The multimap itself is formed out of a regular map and position chaining array.  To perform a
-    // lookup, the "lookup" slice is set in the hash, and a synthetic address within the "lookup" slice
-    // is created. The "lookup" slice is given index -1 as to not conflict with any slices
-    // in the channel index.  Then first position is retrieved from the main address to position map.
-    // If a position was found, the remaining value positions are located using the position links array.
+    // The multimap itself is formed out of an open addressing table and position chaining array.  The
+    // table contains the last position of each distinct key, and the remaining positions of the key
+    // are located using the position links array.  A lookup hashes the probe tuple directly from the
+    // probe slice, so the probe is passed to each call instead of being stored in the hash.
     //
 
-    private static final int LOOKUP_SLICE_INDEX = 0xFF_FF_FF_FF;
+    private final TupleInfo tupleInfo;
+    private final Slice[] slices;
+    private final long[] valueAddresses;
+    private final int[] positionLinks;
 
-    private final SliceHashStrategy hashStrategy;
-    private final AddressToPositionMap addressToPositionMap;
-    private final IntArrayList positionLinks;
+    private final int mask;
+    private final int[] keyPositions;
+    private final int[] keyHashes;
 
-    public ChannelHash(ChannelIndex channelIndex, DataSize maxHashSize)
+    public ChannelHash(ChannelIndex channelIndex, MemoryPool memoryPool)
     {
-        hashStrategy = new SliceHashStrategy(channelIndex.getTupleInfo(), channelIndex.getSlices().elements());
-        addressToPositionMap = new AddressToPositionMap(channelIndex.getPositionCount(), hashStrategy);
-        addressToPositionMap.defaultReturnValue(-1);
-        positionLinks = new IntArrayList(new int[channelIndex.getValueAddresses().size()]);
-        Arrays.fill(positionLinks.elements(), -1);
-        long maxHashSizeBytes = maxHashSize.toBytes();
-        for (int position = 0; position < channelIndex.getValueAddresses().size(); position++) {
-            Preconditions.checkState(getEstimatedSize().toBytes() <= maxHashSizeBytes, "Query exceeded max operator memory size");
-            long sliceAddress = channelIndex.getValueAddresses().elements()[position];
-            int oldPosition = addressToPositionMap.put(sliceAddress, position);
-            if (oldPosition >= 0) {
-                // link the new position to the old position
-                positionLinks.set(position, oldPosition);
+        tupleInfo = channelIndex.getTupleInfo();
+        slices = channelIndex.getSlices().elements();
+        valueAddresses = channelIndex.getValueAddresses().elements();
+
+        int positionCount = channelIndex.getValueAddresses().size();
+        int tableSize = HashCommon.arraySize(positionCount, 0.75f);
+        mask = tableSize - 1;
+        keyPositions = new int[tableSize];
+        Arrays.fill(keyPositions, -1);
+        keyHashes = new int[tableSize];
+        positionLinks = new int[positionCount];
+        Arrays.fill(positionLinks, -1);
+
+        memoryPool.reserve(getEstimatedSize().toBytes());
+
+        for (int position = 0; position < positionCount; position++) {
+            long sliceAddress = valueAddresses[position];
+            Slice slice = slices[decodeSliceIndex(sliceAddress)];
+            int offset = decodeSliceOffset(sliceAddress);
+            int length = tupleInfo.size(slice, offset);
+            int hashCode = slice.hashCode(offset, length);
+
+            int slot = HashCommon.murmurHash3(hashCode) & mask;
+            while (keyPositions[slot] != -1) {
+                if (keyHashes[slot] == hashCode && positionEquals(keyPositions[slot], slice, offset, length)) {
+                    // link the new position to the old position
+                    positionLinks[position] = keyPositions[slot];
+                    break;
+                }
+                slot = (slot + 1) & mask;
             }
+            keyPositions[slot] = position;
+            keyHashes[slot] = hashCode;
         }
     }
 
-    public ChannelHash(ChannelHash hash)
-    {
-        // hash strategy can not be shared across threads, but everything else can
-        this.hashStrategy = new SliceHashStrategy(hash.hashStrategy.tupleInfo, hash.hashStrategy.slices);
-        this.addressToPositionMap = new AddressToPositionMap(hash.addressToPositionMap, hashStrategy);
-        addressToPositionMap.defaultReturnValue(-1);
-        this.positionLinks = hash.positionLinks;
-    }
-
     /**
      * Size of this hash alone without the underlying slices.
      */
     public DataSize getEstimatedSize()
     {
-        long addressToPositionSize = addressToPositionMap.getEstimatedSize().toBytes();
-        long positionLinksSize = sizeOf(positionLinks.elements());
-        return new DataSize(addressToPositionSize + positionLinksSize, Unit.BYTE);
+        return new DataSize(sizeOf(keyPositions) + sizeOf(keyHashes) + sizeOf(positionLinks), Unit.BYTE);
     }
 
-    public void setLookupSlice(Slice lookupSlice)
+    /**
+     * Gets the last position of the tuple at the specified offset in the probe slice, or -1 if the
+     * tuple is not in this hash.
+     */
+    public int get(Slice probeSlice, int probeOffset)
     {
-        hashStrategy.setLookupSlice(lookupSlice);
-    }
+        int length = tupleInfo.size(probeSlice, probeOffset);
+        int hashCode = probeSlice.hashCode(probeOffset, length);
 
-    public int get(BlockCursor cursor)
-    {
-        int position = addressToPositionMap.get(encodeSyntheticAddress(LOOKUP_SLICE_INDEX, cursor.getRawOffset()));
-        return position;
+        int slot = HashCommon.murmurHash3(hashCode) & mask;
+        while (keyPositions[slot] != -1) {
+            if (keyHashes[slot] == hashCode && positionEquals(keyPositions[slot], probeSlice, probeOffset, length)) {
+                return keyPositions[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
     }
 
     public int getNextPosition(int currentPosition)
     {
-        return positionLinks.getInt(currentPosition);
+        return positionLinks[currentPosition];
     }
 
-    public static class SliceHashStrategy
-            implements Strategy
+    private boolean positionEquals(int position, Slice rightSlice, int rightOffset, int rightLength)
     {
-        private final TupleInfo tupleInfo;
-        private final Slice[] slices;
-        private Slice lookupSlice;
-
-        public SliceHashStrategy(TupleInfo tupleInfo, Slice[] slices)
-        {
-            this.tupleInfo = tupleInfo;
-            this.slices = slices;
-        }
-
-        public void setLookupSlice(Slice lookupSlice)
-        {
-            this.lookupSlice = lookupSlice;
-        }
-
-        @Override
-        public int hashCode(long sliceAddress)
-        {
-            Slice slice = getSliceForSyntheticAddress(sliceAddress);
-            int offset = (int) sliceAddress;
-            int length = tupleInfo.size(slice, offset);
-            int hashCode = slice.hashCode(offset, length);
-            return hashCode;
-        }
-
-        @Override
-        public boolean equals(long leftSliceAddress, long rightSliceAddress)
-        {
-            Slice leftSlice = getSliceForSyntheticAddress(leftSliceAddress);
-            int leftOffset = decodeSliceOffset(leftSliceAddress);
-            int leftLength = tupleInfo.size(leftSlice, leftOffset);
-
-            Slice rightSlice = getSliceForSyntheticAddress(rightSliceAddress);
-            int rightOffset = decodeSliceOffset(rightSliceAddress);
-            int rightLength = tupleInfo.size(rightSlice, rightOffset);
-
-            return leftSlice.equals(leftOffset, leftLength, rightSlice, rightOffset, rightLength);
-
-        }
-
-        private Slice getSliceForSyntheticAddress(long sliceAddress)
-        {
-            int sliceIndex = decodeSliceIndex(sliceAddress);
-            Slice slice;
-            if (sliceIndex == LOOKUP_SLICE_INDEX) {
-                slice = lookupSlice;
-            }
-            else {
-                slice = slices[sliceIndex];
-            }
-            return slice;
-        }
-    }
+        long sliceAddress = valueAddresses[position];
+        Slice leftSlice = slices[decodeSliceIndex(sliceAddress)];
+        int leftOffset = decodeSliceOffset(sliceAddress);
+        int leftLength = tupleInfo.size(leftSlice, leftOffset);
 
-    private static class AddressToPositionMap
-            extends Long2IntOpenCustomHashMap {
-        private AddressToPositionMap(int expected, LongHash.Strategy strategy)
-        {
-            super(expected, strategy);
-        }
-
-        private AddressToPositionMap(Long2IntMap m, LongHash.Strategy strategy)
-        {
-            super(m, strategy);
-        }
-
-        public DataSize getEstimatedSize()
-        {
-            return new DataSize(sizeOf(this.key) + sizeOf(this.value) + sizeOf(this.used), Unit.BYTE);
-        }
+        return leftSlice.equals(leftOffset, leftLength, rightSlice, rightOffset, rightLength);
     }
 }
@@ -12,6 +12,7 @@ import com.google.common.base.Preconditions;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongIterable;
 import it.unimi.dsi.fastutil.longs.LongListIterator;
@@ -35,6 +36,8 @@ import static io.airlift.slice.SizeOf.sizeOf;
 public class ChannelIndex
         implements LongIterable, Swapper
 {
+    private static final long MIN_UNUSED_BYTES_TO_COPY = 4096;
+
     private int positionCount;
     private final LongArrayList valueAddresses;
     private final ObjectArrayList<Slice> slices;
@@ -95,8 +98,7 @@ public class ChannelIndex
 
         // index the block
         int blockIndex = slices.size();
-        slices.add(blockIndex, block.getSlice());
-        slicesMemorySize += block.getSlice().length();
+        addSlice(block.getSlice());
         BlockCursor cursor = block.cursor();
         for (int position = 0; position < block.getPositionCount(); position++) {
             checkState(cursor.advanceNextPosition());
@@ -111,6 +113,36 @@ public class ChannelIndex
         }
     }
 
+    /**
+     * Indexes only the specified positions of the block, which must be in increasing order.
+     * The data of the whole block is retained.
+     */
+    public void indexBlock(UncompressedBlock block, IntList positions)
+    {
+        positionCount += positions.size();
+
+        int blockIndex = slices.size();
+        addSlice(block.getSlice());
+        BlockCursor cursor = block.cursor();
+        for (int i = 0; i < positions.size(); i++) {
+            checkState(cursor.advanceToPosition(positions.getInt(i)));
+            valueAddresses.add(encodeSyntheticAddress(blockIndex, cursor.getRawOffset()));
+        }
+    }
+
+    private void addSlice(Slice slice)
+    {
+        // a block may be a view of a much larger buffer, such as a response body or a builder
+        // buffer with spare capacity, which the index would keep alive, so the view is copied;
+        // tuple offsets are relative to the start of the slice, so they remain valid
+        long unusedBytes = slice.getRetainedSize() - slice.length();
+        if (unusedBytes > slice.length() && unusedBytes > MIN_UNUSED_BYTES_TO_COPY) {
+            slice = slice.copy();
+        }
+        slices.add(slice);
+        slicesMemorySize += slice.getRetainedSize();
+    }
+
     public void appendTo(int position, BlockBuilder output)
     {
         // get slice an offset for the position
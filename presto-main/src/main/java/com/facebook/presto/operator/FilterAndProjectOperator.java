@@ -6,14 +6,31 @@ package com.facebook.presto.operator;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.tuple.TupleReadable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 
 import java.util.List;
 
 import static com.facebook.presto.operator.ProjectionFunctions.toTupleInfos;
 import static com.google.common.base.Preconditions.checkState;
 
+/**
+ * Filters the rows of the source and projects the selected rows.
+ * <p>
+ * A page is processed with a selection vector when at least one projection implements
+ * {@link BatchProjectionFunction} and can copy its column from the page, or when a single
+ * channel filter reads a dictionary or run length encoded block.  The filter then selects the
+ * positions of the whole page first: the always true filter and the value filters select
+ * positions without calling the filter for each row, but any other filter, including compiled
+ * filters, is still called once per row.  Batch projections copy the selected tuples from the
+ * {@code UncompressedBlock} slice in a tight loop, and the other projections, including compiled
+ * expressions, are still called once per selected row.  All other pages are processed row by row.
+ */
 public class FilterAndProjectOperator implements Operator
 {
     private final Operator source;
@@ -62,6 +79,11 @@ public class FilterAndProjectOperator implements Operator
         private final PageIterator pageIterator;
         private final FilterFunction filterFunction;
         private final List<ProjectionFunction> projections;
+        private int[] selectedPositions = new int[0];
+
+        // filter result of each entry of the last filtered dictionary
+        private Dictionary filteredDictionary;
+        private boolean[] dictionaryFilterResults;
 
         public FilterAndProjectIterator(PageIterator pageIterator, FilterFunction filterFunction, List<ProjectionFunction> projections)
         {
@@ -84,7 +106,13 @@ public class FilterAndProjectOperator implements Operator
             while (!isFull(outputs) && pageIterator.hasNext()) {
                 Page page = pageIterator.next();
                 Block[] blocks = page.getBlocks();
-                outputCount += filterAndProjectRowOriented(blocks, outputs);
+                boolean[] batchProjections = getBatchProjections(blocks);
+                if (batchProjections != null || canFilterByValue(blocks)) {
+                    outputCount += filterAndProjectSelectedPositions(blocks, batchProjections, outputs);
+                }
+                else {
+                    outputCount += filterAndProjectRowOriented(blocks, outputs);
+                }
             }
 
             if (outputCount == 0) {
@@ -116,6 +144,179 @@ public class FilterAndProjectOperator implements Operator
             return false;
         }
 
+        /**
+         * Returns which projections can copy their column from these blocks, or null if none can.
+         */
+        private boolean[] getBatchProjections(Block[] blocks)
+        {
+            boolean[] batchProjections = null;
+            for (int i = 0; i < projections.size(); i++) {
+                ProjectionFunction projection = projections.get(i);
+                if (projection instanceof BatchProjectionFunction && ((BatchProjectionFunction) projection).canProject(blocks)) {
+                    if (batchProjections == null) {
+                        batchProjections = new boolean[projections.size()];
+                    }
+                    batchProjections[i] = true;
+                }
+            }
+            return batchProjections;
+        }
+
+        /**
+         * Selects the positions of the page, copies the selected tuples for the batch projections,
+         * and calls the other projections once for each selected position.
+         */
+        private int filterAndProjectSelectedPositions(Block[] blocks, boolean[] batchProjections, BlockBuilder[] outputs)
+        {
+            int selectedCount = selectPositions(blocks);
+            if (selectedCount == 0) {
+                return 0;
+            }
+
+            boolean hasRowProjections = false;
+            for (int i = 0; i < projections.size(); i++) {
+                if (batchProjections != null && batchProjections[i]) {
+                    ((BatchProjectionFunction) projections.get(i)).project(blocks, selectedPositions, selectedCount, outputs[i]);
+                }
+                else {
+                    hasRowProjections = true;
+                }
+            }
+            if (!hasRowProjections) {
+                return selectedCount;
+            }
+
+            BlockCursor[] cursors = new BlockCursor[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                cursors[i] = blocks[i].cursor();
+            }
+
+            for (int i = 0; i < selectedCount; i++) {
+                for (BlockCursor cursor : cursors) {
+                    checkState(cursor.advanceToPosition(selectedPositions[i]));
+                }
+                for (int j = 0; j < projections.size(); j++) {
+                    if (batchProjections == null || !batchProjections[j]) {
+                        projections.get(j).project(cursors, outputs[j]);
+                    }
+                }
+            }
+            return selectedCount;
+        }
+
+        /**
+         * Records the positions of the page selected by the filter in selectedPositions.  Only the always
+         * true filter and the value filters avoid calling the filter once per row.
+         */
+        private int selectPositions(Block[] blocks)
+        {
+            int rows = blocks[0].getPositionCount();
+            if (selectedPositions.length < rows) {
+                selectedPositions = new int[rows];
+            }
+
+            if (filterFunction == FilterFunctions.TRUE_FUNCTION) {
+                for (int position = 0; position < rows; position++) {
+                    selectedPositions[position] = position;
+                }
+                return rows;
+            }
+
+            if (canFilterByValue(blocks)) {
+                Block block = blocks[((SingleChannelFilterFunction) filterFunction).getChannel()];
+                if (block instanceof RunLengthEncodedBlock) {
+                    return selectRunLengthEncodedPositions(blocks);
+                }
+                return selectDictionaryPositions(blocks);
+            }
+
+            BlockCursor[] cursors = new BlockCursor[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                cursors[i] = blocks[i].cursor();
+            }
+
+            int selectedCount = 0;
+            for (int position = 0; position < rows; position++) {
+                for (BlockCursor cursor : cursors) {
+                    checkState(cursor.advanceNextPosition());
+                }
+
+                if (filterFunction.filter(cursors)) {
+                    selectedPositions[selectedCount] = position;
+                    selectedCount++;
+                }
+            }
+
+            for (BlockCursor cursor : cursors) {
+                checkState(!cursor.advanceNextPosition());
+            }
+
+            return selectedCount;
+        }
+
+        private boolean canFilterByValue(Block[] blocks)
+        {
+            if (!(filterFunction instanceof SingleChannelFilterFunction)) {
+                return false;
+            }
+            Block block = blocks[((SingleChannelFilterFunction) filterFunction).getChannel()];
+            return block instanceof DictionaryEncodedBlock || block instanceof RunLengthEncodedBlock;
+        }
+
+        /**
+         * Evaluates the filter once for the single value of the run and selects either all positions or none.
+         */
+        private int selectRunLengthEncodedPositions(Block[] blocks)
+        {
+            int channel = ((SingleChannelFilterFunction) filterFunction).getChannel();
+            RunLengthEncodedBlock block = (RunLengthEncodedBlock) blocks[channel];
+
+            TupleReadable[] inputs = new TupleReadable[channel + 1];
+            inputs[channel] = block.getSingleValue();
+            if (!filterFunction.filter(inputs)) {
+                return 0;
+            }
+
+            int rows = block.getPositionCount();
+            for (int position = 0; position < rows; position++) {
+                selectedPositions[position] = position;
+            }
+            return rows;
+        }
+
+        /**
+         * Evaluates the filter once per dictionary entry and selects the positions whose dictionary entry matched.
+         */
+        private int selectDictionaryPositions(Block[] blocks)
+        {
+            int channel = ((SingleChannelFilterFunction) filterFunction).getChannel();
+            DictionaryEncodedBlock block = (DictionaryEncodedBlock) blocks[channel];
+
+            // blocks read from the same part of a column share a dictionary, so the results are kept until the dictionary changes
+            Dictionary dictionary = block.getDictionary();
+            if (dictionary != filteredDictionary) {
+                TupleReadable[] inputs = new TupleReadable[channel + 1];
+                dictionaryFilterResults = new boolean[dictionary.size()];
+                for (int dictionaryKey = 0; dictionaryKey < dictionary.size(); dictionaryKey++) {
+                    inputs[channel] = dictionary.getTuple(dictionaryKey);
+                    dictionaryFilterResults[dictionaryKey] = filterFunction.filter(inputs);
+                }
+                filteredDictionary = dictionary;
+            }
+
+            int selectedCount = 0;
+            int position = 0;
+            BlockCursor idCursor = block.getIdBlock().cursor();
+            while (idCursor.advanceNextPosition()) {
+                if (dictionaryFilterResults[Ints.checkedCast(idCursor.getLong(0))]) {
+                    selectedPositions[selectedCount] = position;
+                    selectedCount++;
+                }
+                position++;
+            }
+            return selectedCount;
+        }
+
         private int filterAndProjectRowOriented(Block[] blocks, BlockBuilder[] outputs)
         {
             int rows = blocks[0].getPositionCount();
@@ -0,0 +1,349 @@
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlockCursor;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenCustomHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongHash.Strategy;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
+import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
+import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * GroupByHash assigns a dense group id to each distinct combination of values
+ * in a set of group by channels.
+ * <p/>
+ * The key tuples of each group are copied into per-channel slices which are
+ * rolled over together, so the key blocks of all channels always contain the
+ * same groups and can be emitted directly as the key channels of the output.
+ * The hash map itself stores group ids and the lookup row is referenced by
+ * the special {@code LOOKUP_GROUP_ID} key, so rows are hashed and compared
+ * directly from the source blocks without first packing the key fields into
+ * a single tuple.
+ * <p/>
+ * When the key is a single dictionary encoded channel, the group id of each
+ * dictionary entry is remembered, so each distinct key of a dictionary is only
+ * hashed once and the other rows are grouped by their dictionary id.
+ */
+public class GroupByHash
+{
+    private static final long LOOKUP_GROUP_ID = -1;
+
+    private final List<TupleInfo> tupleInfos;
+    private final int channelCount;
+    private final int[] fixedSizes;
+
+    private final List<ObjectArrayList<Slice>> channelSlices;
+    private final List<LongArrayList> groupAddresses;
+    private final IntArrayList groupHashes;
+    private final List<Block[]> keyBlocks = new ArrayList<>();
+    private final GroupIdHashStrategy hashStrategy;
+    private final Long2IntOpenCustomHashMap groupIds;
+
+    private final BlockBuilder[] blockBuilders;
+
+    private final Slice[] lookupSlices;
+    private final int[] lookupOffsets;
+    private final int[] lookupLengths;
+    private int lookupHash;
+
+    private long slicesMemorySize;
+    private int nextGroupId;
+
+    private Dictionary dictionary;
+    private int[] dictionaryGroupIds;
+
+    public GroupByHash(List<TupleInfo> tupleInfos, int expectedGroups)
+    {
+        checkNotNull(tupleInfos, "tupleInfos is null");
+        checkArgument(!tupleInfos.isEmpty(), "tupleInfos is empty");
+
+        this.tupleInfos = ImmutableList.copyOf(tupleInfos);
+        this.channelCount = tupleInfos.size();
+
+        this.fixedSizes = new int[channelCount];
+        ImmutableList.Builder<ObjectArrayList<Slice>> channelSlices = ImmutableList.builder();
+        ImmutableList.Builder<LongArrayList> groupAddresses = ImmutableList.builder();
+        for (int channel = 0; channel < channelCount; channel++) {
+            fixedSizes[channel] = tupleInfos.get(channel).getFixedSize();
+            channelSlices.add(ObjectArrayList.wrap(new Slice[1024], 0));
+            groupAddresses.add(new LongArrayList(expectedGroups));
+        }
+        this.channelSlices = channelSlices.build();
+        this.groupAddresses = groupAddresses.build();
+        this.groupHashes = new IntArrayList(expectedGroups);
+
+        this.blockBuilders = new BlockBuilder[channelCount];
+        startNewKeyBlocks(0);
+
+        this.lookupSlices = new Slice[channelCount];
+        this.lookupOffsets = new int[channelCount];
+        this.lookupLengths = new int[channelCount];
+
+        this.hashStrategy = new GroupIdHashStrategy();
+        this.groupIds = new Long2IntOpenCustomHashMap(expectedGroups, hashStrategy);
+        this.groupIds.defaultReturnValue(-1);
+    }
+
+    public List<TupleInfo> getTupleInfos()
+    {
+        return tupleInfos;
+    }
+
+    public int getGroupCount()
+    {
+        return nextGroupId;
+    }
+
+    public long getEstimatedSize()
+    {
+        long size = slicesMemorySize + sizeOf(groupHashes.elements());
+        for (LongArrayList addresses : groupAddresses) {
+            size += sizeOf(addresses.elements());
+        }
+        // map key, value and used arrays
+        size += (long) groupIds.size() * (8 + 4 + 1) * 2;
+        if (dictionaryGroupIds != null) {
+            size += sizeOf(dictionaryGroupIds);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the group id for the row at the current position of the cursors,
+     * adding a new group if the row has not been seen before.
+     *
+     * @param cursors the cursors of the source page, all positioned on the same row
+     * @param keyChannels the channels of the cursors that form the group key, in key order
+     */
+    public int putIfAbsent(BlockCursor[] cursors, int[] keyChannels)
+    {
+        if (channelCount == 1 && cursors[keyChannels[0]] instanceof DictionaryEncodedBlockCursor) {
+            return putDictionaryKeyIfAbsent((DictionaryEncodedBlockCursor) cursors[keyChannels[0]], cursors, keyChannels);
+        }
+        return putKeyIfAbsent(cursors, keyChannels);
+    }
+
+    private int putDictionaryKeyIfAbsent(DictionaryEncodedBlockCursor cursor, BlockCursor[] cursors, int[] keyChannels)
+    {
+        // blocks read from the same part of a column share a dictionary, so the group ids are kept until the dictionary changes
+        if (cursor.getDictionary() != dictionary) {
+            dictionary = cursor.getDictionary();
+            dictionaryGroupIds = new int[dictionary.size()];
+            Arrays.fill(dictionaryGroupIds, -1);
+        }
+
+        int dictionaryKey = cursor.getDictionaryKey();
+        int groupId = dictionaryGroupIds[dictionaryKey];
+        if (groupId < 0) {
+            groupId = putKeyIfAbsent(cursors, keyChannels);
+            dictionaryGroupIds[dictionaryKey] = groupId;
+        }
+        return groupId;
+    }
+
+    private int putKeyIfAbsent(BlockCursor[] cursors, int[] keyChannels)
+    {
+        // capture the key tuples of the current row
+        int hash = 0;
+        for (int channel = 0; channel < channelCount; channel++) {
+            BlockCursor cursor = cursors[keyChannels[channel]];
+            Slice slice = cursor.getRawSlice();
+            int offset = cursor.getRawOffset();
+            int length = fixedSizes[channel];
+            if (length < 0) {
+                length = tupleInfos.get(channel).size(slice, offset);
+            }
+            lookupSlices[channel] = slice;
+            lookupOffsets[channel] = offset;
+            lookupLengths[channel] = length;
+            hash = 31 * hash + slice.hashCode(offset, length);
+        }
+        lookupHash = hash;
+
+        int groupId = groupIds.get(LOOKUP_GROUP_ID);
+        if (groupId < 0) {
+            groupId = addNewGroup();
+        }
+        return groupId;
+    }
+
+    public int getGroupHash(int groupId)
+    {
+        return groupHashes.getInt(groupId);
+    }
+
+    /**
+     * Appends the key tuple of the specified group and key channel to the output.
+     */
+    public void appendGroupKeyTo(int groupId, int channel, BlockBuilder output)
+    {
+        long address = groupAddresses.get(channel).getLong(groupId);
+        Slice slice = channelSlices.get(channel).get(decodeSliceIndex(address));
+        int offset = decodeSliceOffset(address);
+        int length = fixedSizes[channel];
+        if (length < 0) {
+            length = tupleInfos.get(channel).size(slice, offset);
+        }
+        output.appendTuple(slice, offset, length);
+    }
+
+    /**
+     * Finishes the current key blocks and returns the key blocks for all groups.
+     * Each element contains one block per key channel, and the blocks are in
+     * group id order.  No more groups can be added after this method is called.
+     */
+    public List<Block[]> build()
+    {
+        if (!blockBuilders[0].isEmpty()) {
+            finishKeyBlocks();
+        }
+        return keyBlocks;
+    }
+
+    private int addNewGroup()
+    {
+        // if any of the channels is out of space, roll all channels over so the key blocks stay aligned
+        for (int channel = 0; channel < channelCount; channel++) {
+            if (blockBuilders[channel].writableBytes() < lookupLengths[channel]) {
+                finishKeyBlocks();
+                startNewKeyBlocks(maxLookupLength());
+                break;
+            }
+        }
+
+        // copy the key tuples into the hash
+        int blockIndex = keyBlocks.size();
+        for (int channel = 0; channel < channelCount; channel++) {
+            BlockBuilder blockBuilder = blockBuilders[channel];
+            int rawOffset = blockBuilder.size();
+            blockBuilder.appendTuple(lookupSlices[channel], lookupOffsets[channel], lookupLengths[channel]);
+            groupAddresses.get(channel).add(encodeSyntheticAddress(blockIndex, rawOffset));
+        }
+        groupHashes.add(lookupHash);
+
+        int groupId = nextGroupId++;
+        groupIds.put(groupId, groupId);
+        return groupId;
+    }
+
+    private int maxLookupLength()
+    {
+        int length = 0;
+        for (int lookupLength : lookupLengths) {
+            length = Math.max(length, lookupLength);
+        }
+        return length;
+    }
+
+    private void startNewKeyBlocks(int minimumSize)
+    {
+        for (int channel = 0; channel < channelCount; channel++) {
+            Slice slice = Slices.allocate(Math.max((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes(), minimumSize));
+            channelSlices.get(channel).add(slice);
+            slicesMemorySize += slice.length();
+            blockBuilders[channel] = new BlockBuilder(tupleInfos.get(channel), slice.length(), slice.getOutput());
+        }
+    }
+
+    private void finishKeyBlocks()
+    {
+        Block[] blocks = new Block[channelCount];
+        for (int channel = 0; channel < channelCount; channel++) {
+            blocks[channel] = blockBuilders[channel].build();
+        }
+        keyBlocks.add(blocks);
+    }
+
+    private class GroupIdHashStrategy
+            implements Strategy
+    {
+        @Override
+        public int hashCode(long groupId)
+        {
+            if (groupId == LOOKUP_GROUP_ID) {
+                return lookupHash;
+            }
+            return groupHashes.getInt((int) groupId);
+        }
+
+        @Override
+        public boolean equals(long leftGroupId, long rightGroupId)
+        {
+            if (leftGroupId == rightGroupId) {
+                return true;
+            }
+            if (hashCode(leftGroupId) != hashCode(rightGroupId)) {
+                return false;
+            }
+
+            for (int channel = 0; channel < channelCount; channel++) {
+                if (!channelEquals(channel, leftGroupId, rightGroupId)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean channelEquals(int channel, long leftGroupId, long rightGroupId)
+        {
+            Slice leftSlice;
+            int leftOffset;
+            int leftLength;
+            if (leftGroupId == LOOKUP_GROUP_ID) {
+                leftSlice = lookupSlices[channel];
+                leftOffset = lookupOffsets[channel];
+                leftLength = lookupLengths[channel];
+            }
+            else {
+                long address = groupAddresses.get(channel).getLong((int) leftGroupId);
+                leftSlice = channelSlices.get(channel).get(decodeSliceIndex(address));
+                leftOffset = decodeSliceOffset(address);
+                leftLength = tupleSize(channel, leftSlice, leftOffset);
+            }
+
+            Slice rightSlice;
+            int rightOffset;
+            int rightLength;
+            if (rightGroupId == LOOKUP_GROUP_ID) {
+                rightSlice = lookupSlices[channel];
+                rightOffset = lookupOffsets[channel];
+                rightLength = lookupLengths[channel];
+            }
+            else {
+                long address = groupAddresses.get(channel).getLong((int) rightGroupId);
+                rightSlice = channelSlices.get(channel).get(decodeSliceIndex(address));
+                rightOffset = decodeSliceOffset(address);
+                rightLength = tupleSize(channel, rightSlice, rightOffset);
+            }
+
+            return leftSlice.equals(leftOffset, leftLength, rightSlice, rightOffset, rightLength);
+        }
+
+        private int tupleSize(int channel, Slice slice, int offset)
+        {
+            int size = fixedSizes[channel];
+            if (size < 0) {
+                size = tupleInfos.get(channel).size(slice, offset);
+            }
+            return size;
+        }
+    }
+}
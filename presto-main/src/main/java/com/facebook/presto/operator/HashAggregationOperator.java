@@ -3,7 +3,7 @@ package com.facebook.presto.operator;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
-import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.operator.aggregation.AggregationFunction;
 import com.facebook.presto.operator.aggregation.FixedWidthAggregationFunction;
 import com.facebook.presto.operator.aggregation.VariableWidthAggregationFunction;
@@ -11,61 +11,124 @@ import io.airlift.slice.SizeOf;
 import io.airlift.slice.Slice;
 import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 import io.airlift.slice.Slices;
 import io.airlift.units.DataSize;
-import it.unimi.dsi.fastutil.longs.Long2IntOpenCustomHashMap;
-import it.unimi.dsi.fastutil.longs.LongHash.Strategy;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 
-import static com.facebook.presto.operator.SyntheticAddress.decodeSliceIndex;
-import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
-import static com.facebook.presto.operator.SyntheticAddress.encodeSyntheticAddress;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Group input data and produce a single block for each sequence of identical values.
+ * The group by channels are hashed and compared directly from the source blocks and
+ * are emitted unchanged as the leading channels of the output.
+ * <p/>
+ * The memory of the hash is reserved from a memory pool that is limited to the max
+ * operator memory size.  If a spill directory is provided, the operator does not fail
+ * when the reservation fails.  Instead the current groups are written to disk as
+ * intermediate values, partitioned by the hash of the group key, and the hash is
+ * cleared.  Once the input is exhausted, each partition is read back and merged
+ * independently, so only one partition must fit in memory at a time.  If a partition
+ * does not fit either, it is spilled again into partitions selected by a different
+ * hash of the group key, up to {@code MAX_SPILL_LEVEL} times.
+ * <p/>
+ * A partial aggregation only exists to reduce the data sent to the final
+ * aggregation.  If the number of groups stays close to the number of input rows,
+ * the partial aggregation flushes the current groups and converts the remaining
+ * input rows directly to intermediate values without hashing them.
+ * <p/>
+ * If every group by channel of a page is run length encoded, the whole page
+ * belongs to a single group, so the group is looked up once and each aggregation
+ * consumes its input block at once.
  */
 public class HashAggregationOperator
         implements Operator
 {
-    private static final int LOOKUP_SLICE_INDEX = 0xFF_FF_FF_FF;
+    private static final int SPILL_PARTITION_COUNT = 16;
+    // a partition is split again at most this many times, so 16^5 partitions in total, before the operator fails
+    private static final int MAX_SPILL_LEVEL = 4;
+
+    // a partial aggregation stops hashing if, after this many rows, the hash has not reduced the row count enough
+    private static final int PARTIAL_AGGREGATION_MIN_ROWS = 10_000;
+    private static final double PARTIAL_AGGREGATION_MAX_GROUP_RATIO = 0.8;
 
     private final Operator source;
-    private final int groupByChannel;
+    private final List<Integer> groupByChannels;
     private final Step step;
     private final List<AggregationFunctionDefinition> functionDefinitions;
     private final List<TupleInfo> tupleInfos;
     private final int expectedGroups;
     private final DataSize maxSize;
+    private final Optional<File> spillDirectory;
+    private final MemoryPool memoryPool;
 
     public HashAggregationOperator(Operator source,
-            int groupByChannel,
+            List<Integer> groupByChannels,
             Step step,
             List<AggregationFunctionDefinition> functionDefinitions,
             int expectedGroups,
             DataSize maxSize)
+    {
+        this(source, groupByChannels, step, functionDefinitions, expectedGroups, maxSize, Optional.<File>absent());
+    }
+
+    public HashAggregationOperator(Operator source,
+            List<Integer> groupByChannels,
+            Step step,
+            List<AggregationFunctionDefinition> functionDefinitions,
+            int expectedGroups,
+            DataSize maxSize,
+            Optional<File> spillDirectory)
+    {
+        this(source, groupByChannels, step, functionDefinitions, expectedGroups, maxSize, spillDirectory, new MemoryPool());
+    }
+
+    public HashAggregationOperator(Operator source,
+            List<Integer> groupByChannels,
+            Step step,
+            List<AggregationFunctionDefinition> functionDefinitions,
+            int expectedGroups,
+            DataSize maxSize,
+            Optional<File> spillDirectory,
+            MemoryPool memoryPool)
     {
         Preconditions.checkNotNull(source, "source is null");
-        Preconditions.checkArgument(groupByChannel >= 0, "groupByChannel is negative");
+        Preconditions.checkNotNull(groupByChannels, "groupByChannels is null");
+        Preconditions.checkArgument(!groupByChannels.isEmpty(), "groupByChannels is empty");
         Preconditions.checkNotNull(step, "step is null");
         Preconditions.checkNotNull(functionDefinitions, "functionDefinitions is null");
         Preconditions.checkNotNull(maxSize, "maxSize is null");
+        Preconditions.checkNotNull(spillDirectory, "spillDirectory is null");
+        Preconditions.checkNotNull(memoryPool, "memoryPool is null");
 
         this.source = source;
-        this.groupByChannel = groupByChannel;
+        this.groupByChannels = ImmutableList.copyOf(groupByChannels);
         this.step = step;
         this.functionDefinitions = ImmutableList.copyOf(functionDefinitions);
         this.expectedGroups = expectedGroups;
         this.maxSize = maxSize;
+        this.spillDirectory = spillDirectory;
+        this.memoryPool = memoryPool;
 
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
-        tupleInfos.add(source.getTupleInfos().get(groupByChannel));
+        for (int groupByChannel : groupByChannels) {
+            Preconditions.checkArgument(groupByChannel >= 0, "groupByChannel is negative");
+            tupleInfos.add(source.getTupleInfos().get(groupByChannel));
+        }
         for (AggregationFunctionDefinition functionDefinition : functionDefinitions) {
             if (step != Step.PARTIAL) {
                 tupleInfos.add(functionDefinition.getFunction().getFinalTupleInfo());
@@ -92,189 +155,522 @@ public class HashAggregationOperator
     @Override
     public PageIterator iterator(OperatorStats operatorStats)
     {
-        return new HashAggregationIterator(tupleInfos, source, groupByChannel, step, expectedGroups, functionDefinitions, maxSize, operatorStats);
+        return new HashAggregationIterator(tupleInfos, source, groupByChannels, step, expectedGroups, functionDefinitions, new MemoryPool(MemoryPool.OPERATOR_LIMIT, maxSize, memoryPool), spillDirectory, operatorStats);
     }
 
     private static class HashAggregationIterator
             extends AbstractPageIterator
     {
-        private final List<Aggregator> aggregates;
         private final PageIterator iterator;
-        private final int groupChannel;
+        private final int[] groupByChannels;
+        private final List<TupleInfo> groupByTupleInfos;
+        private final Step step;
+        private final List<AggregationFunctionDefinition> functionDefinitions;
         private final int expectedGroups;
-        private final DataSize maxSize;
-        private Iterator<UncompressedBlock> groupByBlocksIterator;
-        private int currentPosition;
+        private final MemoryPool memoryPool;
+        private final Optional<File> spillDirectory;
+
+        private long reservedBytes;
+        private List<SpillFile> spillPartitions;
+        // the spilled partitions that have not been merged, in output order
+        private final Deque<SpillPartition> pendingPartitions = new ArrayDeque<>();
+        private Iterator<Page> outputPages;
+        private boolean bypassHash;
 
         public HashAggregationIterator(List<TupleInfo> tupleInfos,
                 Operator source,
-                int groupChannel,
+                List<Integer> groupByChannels,
                 Step step,
                 int expectedGroups,
                 List<AggregationFunctionDefinition> functionDefinitions,
-                DataSize maxSize,
+                MemoryPool memoryPool,
+                Optional<File> spillDirectory,
                 OperatorStats operatorStats)
         {
             super(tupleInfos);
-            this.groupChannel = groupChannel;
+            this.groupByChannels = Ints.toArray(groupByChannels);
+            this.groupByTupleInfos = tupleInfos.subList(0, groupByChannels.size());
+            this.step = step;
+            this.functionDefinitions = functionDefinitions;
             this.expectedGroups = expectedGroups;
-            this.maxSize = maxSize;
+            this.memoryPool = memoryPool;
+            this.spillDirectory = spillDirectory;
 
             iterator = source.iterator(operatorStats);
-
-            // wrapper each function with an aggregator
-            ImmutableList.Builder<Aggregator> builder = ImmutableList.builder();
-            for (AggregationFunctionDefinition functionDefinition : functionDefinitions) {
-                builder.add(createAggregator(functionDefinition, step, expectedGroups));
-            }
-            aggregates = builder.build();
         }
 
-        private Iterator<UncompressedBlock> aggregate(PageIterator iterator,
-                int groupChannel,
-                DataSize maxSize,
-                TupleInfo groupByTupleInfo,
-                SliceHashStrategy hashStrategy,
-                Long2IntOpenCustomHashMap addressToGroupId)
+        @Override
+        protected Page computeNext()
         {
-            // allocate the first group by (key side) slice
-            Slice slice = Slices.allocate((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes());
-            hashStrategy.addSlice(slice);
-            BlockBuilder blockBuilder = new BlockBuilder(groupByTupleInfo, slice.length(), slice.getOutput());
+            if (outputPages == null) {
+                GroupedAggregation aggregation = aggregate();
+                if (spillPartitions == null) {
+                    outputPages = aggregation.getOutput();
+                }
+                else {
+                    // some groups are already on disk, so everything must be merged through the partitions
+                    aggregation.spill(spillPartitions, 0);
+                    freeMemory();
+                    for (SpillFile partition : spillPartitions) {
+                        pendingPartitions.addLast(new SpillPartition(partition, 0));
+                    }
+                    outputPages = ImmutableList.<Page>of().iterator();
+                }
+            }
+
+            // once the current output is exhausted, stream the remaining input or merge the next spilled partition
+            while (!outputPages.hasNext()) {
+                if (bypassHash && iterator.hasNext()) {
+                    outputPages = Iterators.singletonIterator(toIntermediatePage(iterator.next()));
+                    continue;
+                }
+                if (pendingPartitions.isEmpty()) {
+                    endOfData();
+                    return null;
+                }
+                outputPages = mergeSpilledPartition(pendingPartitions.removeFirst());
+            }
 
-            int nextGroupId = 0;
+            return outputPages.next();
+        }
 
-            List<UncompressedBlock> groupByBlocks = new ArrayList<>();
-            BlockCursor[] cursors = new BlockCursor[iterator.getChannelCount()];
+        private GroupedAggregation aggregate()
+        {
+            GroupedAggregation aggregation = new GroupedAggregation(groupByTupleInfos, groupByChannels, createAggregators(), expectedGroups);
+            long inputRows = 0;
             while (iterator.hasNext()) {
-                checkMaxMemory(maxSize, hashStrategy);
+                if (!tryReserveMemory(aggregation)) {
+                    if (!spillDirectory.isPresent()) {
+                        // fails with the exhausted limit
+                        reserveMemory(aggregation);
+                    }
+                    if (spillPartitions == null) {
+                        spillPartitions = createSpillPartitions();
+                    }
+                    aggregation.spill(spillPartitions, 0);
+                    freeMemory();
+                    aggregation = new GroupedAggregation(groupByTupleInfos, groupByChannels, createAggregators(), expectedGroups);
+                    inputRows = 0;
+                }
 
                 Page page = iterator.next();
-                Block[] blocks = page.getBlocks();
-                Slice groupBySlice = ((UncompressedBlock) blocks[groupChannel]).getSlice();
-                hashStrategy.setLookupSlice(groupBySlice);
+                aggregation.addPage(page);
+                inputRows += page.getPositionCount();
 
-                for (int i = 0; i < blocks.length; i++) {
-                    cursors[i] = blocks[i].cursor();
+                if (step == Step.PARTIAL && inputRows >= PARTIAL_AGGREGATION_MIN_ROWS && aggregation.getGroupCount() > inputRows * PARTIAL_AGGREGATION_MAX_GROUP_RATIO) {
+                    // the hash is not reducing the data, so flush the current groups and stream the rest of the input
+                    bypassHash = true;
+                    break;
                 }
+            }
+            return aggregation;
+        }
 
-                int rows = page.getPositionCount();
-                for (int position = 0; position < rows; position++) {
-                    for (BlockCursor cursor : cursors) {
-                        checkState(cursor.advanceNextPosition());
-                    }
+        /**
+         * Converts each row of the page to a group of its own, without hashing the group by channels.
+         */
+        private Page toIntermediatePage(Page page)
+        {
+            Block[] blocks = new Block[groupByChannels.length + functionDefinitions.size()];
+            for (int i = 0; i < groupByChannels.length; i++) {
+                blocks[i] = page.getBlock(groupByChannels[i]);
+            }
 
-                    // lookup the group id (row number of the key)
-                    int rawOffset = cursors[groupChannel].getRawOffset();
-                    int groupId = addressToGroupId.get(encodeSyntheticAddress(LOOKUP_SLICE_INDEX, rawOffset));
-                    if (groupId < 0) {
-                        // new group
-
-                        // copy group by tuple (key) to hash
-                        int length = groupByTupleInfo.size(groupBySlice, rawOffset);
-                        if (blockBuilder.writableBytes() < length) {
-                            UncompressedBlock block = blockBuilder.build();
-                            groupByBlocks.add(block);
-                            slice = Slices.allocate(Math.max((int) BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes(), length));
-                            blockBuilder = new BlockBuilder(groupByTupleInfo, slice.length(), slice.getOutput());
-                            hashStrategy.addSlice(slice);
-                        }
-                        int groupByValueRawOffset = blockBuilder.size();
-                        blockBuilder.appendTuple(groupBySlice, rawOffset, length);
+            Block[] sourceBlocks = page.getBlocks();
+            BlockCursor[] cursors = new BlockCursor[sourceBlocks.length];
+            for (int i = 0; i < sourceBlocks.length; i++) {
+                cursors[i] = sourceBlocks[i].cursor();
+            }
 
-                        // record group id in hash
-                        groupId = nextGroupId++;
-                        addressToGroupId.put(encodeSyntheticAddress(groupByBlocks.size(), groupByValueRawOffset), groupId);
+            List<Aggregator> aggregators = createAggregators();
+            BlockBuilder[] blockBuilders = new BlockBuilder[aggregators.size()];
+            for (int i = 0; i < aggregators.size(); i++) {
+                blockBuilders[i] = new BlockBuilder(aggregators.get(i).getTupleInfo());
+            }
 
-                        // initialize the value
-                        for (Aggregator aggregate : aggregates) {
-                            aggregate.initialize(groupId);
+            int rows = page.getPositionCount();
+            for (int position = 0; position < rows; position++) {
+                for (BlockCursor cursor : cursors) {
+                    checkState(cursor.advanceNextPosition());
+                }
+                for (int i = 0; i < aggregators.size(); i++) {
+                    Aggregator aggregator = aggregators.get(i);
+                    aggregator.initialize(position);
+                    aggregator.addValue(cursors, position);
+                    aggregator.evaluate(position, blockBuilders[i]);
+                }
+            }
+
+            for (int i = 0; i < blockBuilders.length; i++) {
+                blocks[groupByChannels.length + i] = blockBuilders[i].build();
+            }
+            return new Page(blocks);
+        }
+
+        private Iterator<Page> mergeSpilledPartition(SpillPartition partition)
+        {
+            // the groups of the previous partition are no longer needed
+            freeMemory();
+            GroupedAggregation aggregation = createMergeAggregation();
+            List<SpillFile> subPartitions = null;
+            try {
+                Iterator<Page> pages = partition.getFile().read();
+                while (pages.hasNext()) {
+                    if (!tryReserveMemory(aggregation)) {
+                        if (partition.getLevel() >= MAX_SPILL_LEVEL) {
+                            // fails with the exhausted limit
+                            reserveMemory(aggregation);
+                        }
+                        if (subPartitions == null) {
+                            subPartitions = createSpillPartitions();
                         }
+                        aggregation.spill(subPartitions, partition.getLevel() + 1);
+                        freeMemory();
+                        aggregation = createMergeAggregation();
                     }
-
-                    // process the row
-                    for (Aggregator aggregate : aggregates) {
-                        aggregate.addValue(cursors, groupId);
+                    aggregation.addPage(pages.next());
+                }
+            }
+            catch (RuntimeException e) {
+                if (subPartitions != null) {
+                    for (SpillFile subPartition : subPartitions) {
+                        subPartition.close();
                     }
                 }
+                throw e;
+            }
+            finally {
+                partition.getFile().close();
+            }
 
-                for (BlockCursor cursor : cursors) {
-                    checkState(!cursor.advanceNextPosition());
-                }
+            if (subPartitions == null) {
+                return aggregation.getOutput();
             }
 
-            // add the last block if it is not empty
-            if (!blockBuilder.isEmpty()) {
-                UncompressedBlock block = blockBuilder.build();
-                groupByBlocks.add(block);
+            // the partition did not fit in memory, so merge its sub partitions before the remaining partitions
+            aggregation.spill(subPartitions, partition.getLevel() + 1);
+            freeMemory();
+            for (SpillFile subPartition : Lists.reverse(subPartitions)) {
+                pendingPartitions.addFirst(new SpillPartition(subPartition, partition.getLevel() + 1));
             }
+            return ImmutableList.<Page>of().iterator();
+        }
 
-            return groupByBlocks.iterator();
+        private GroupedAggregation createMergeAggregation()
+        {
+            // spilled pages contain the group by channels followed by one intermediate value channel per aggregation
+            int groupByCount = groupByChannels.length;
+            int[] keyChannels = new int[groupByCount];
+            for (int i = 0; i < groupByCount; i++) {
+                keyChannels[i] = i;
+            }
+
+            ImmutableList.Builder<Aggregator> aggregators = ImmutableList.builder();
+            for (int i = 0; i < functionDefinitions.size(); i++) {
+                AggregationFunction function = functionDefinitions.get(i).getFunction();
+                Input input = new Input(groupByCount + i, 0);
+                aggregators.add(createAggregator(function, input, true, step == Step.PARTIAL, expectedGroups));
+            }
+            return new GroupedAggregation(groupByTupleInfos, keyChannels, aggregators.build(), expectedGroups);
         }
 
-        private void checkMaxMemory(DataSize maxSize, SliceHashStrategy hashStrategy)
+        /**
+         * Updates the memory reservation to the current size of the aggregation.
+         *
+         * @return false if the memory is not available
+         */
+        private boolean tryReserveMemory(GroupedAggregation aggregation)
         {
-            long memorySize = hashStrategy.getEstimatedSize();
+            long estimatedSize = aggregation.getEstimatedSize();
+            if (estimatedSize > reservedBytes && !memoryPool.tryReserve(estimatedSize - reservedBytes)) {
+                return false;
+            }
+            if (estimatedSize < reservedBytes) {
+                memoryPool.free(reservedBytes - estimatedSize);
+            }
+            reservedBytes = estimatedSize;
+            return true;
+        }
+
+        private void reserveMemory(GroupedAggregation aggregation)
+        {
+            long estimatedSize = aggregation.getEstimatedSize();
+            if (estimatedSize > reservedBytes) {
+                memoryPool.reserve(estimatedSize - reservedBytes);
+            }
+            else {
+                memoryPool.free(reservedBytes - estimatedSize);
+            }
+            reservedBytes = estimatedSize;
+        }
+
+        private void freeMemory()
+        {
+            memoryPool.free(reservedBytes);
+            reservedBytes = 0;
+        }
+
+        private List<SpillFile> createSpillPartitions()
+        {
+            ImmutableList.Builder<SpillFile> partitions = ImmutableList.builder();
+            for (int partition = 0; partition < SPILL_PARTITION_COUNT; partition++) {
+                partitions.add(new SpillFile(spillDirectory.get()));
+            }
+            return partitions.build();
+        }
+
+        private List<Aggregator> createAggregators()
+        {
+            // wrapper each function with an aggregator
+            ImmutableList.Builder<Aggregator> builder = ImmutableList.builder();
+            for (AggregationFunctionDefinition functionDefinition : functionDefinitions) {
+                builder.add(createAggregator(functionDefinition.getFunction(), functionDefinition.getInput(), step == Step.FINAL, step == Step.PARTIAL, expectedGroups));
+            }
+            return builder.build();
+        }
+
+        @Override
+        protected void doClose()
+        {
+            try {
+                iterator.close();
+            }
+            finally {
+                memoryPool.close();
+                if (spillPartitions != null) {
+                    for (SpillFile partition : spillPartitions) {
+                        partition.close();
+                    }
+                }
+                for (SpillPartition partition : pendingPartitions) {
+                    partition.getFile().close();
+                }
+            }
+        }
+    }
+
+    private static class SpillPartition
+    {
+        private final SpillFile file;
+        // the number of times the groups of this partition have been split, which selects the hash of the next split
+        private final int level;
+
+        private SpillPartition(SpillFile file, int level)
+        {
+            this.file = file;
+            this.level = level;
+        }
+
+        public SpillFile getFile()
+        {
+            return file;
+        }
+
+        public int getLevel()
+        {
+            return level;
+        }
+    }
+
+    private static class GroupedAggregation
+    {
+        private final List<TupleInfo> groupByTupleInfos;
+        private final int[] groupByChannels;
+        private final List<Aggregator> aggregates;
+        private final GroupByHash groupByHash;
+
+        private GroupedAggregation(List<TupleInfo> groupByTupleInfos, int[] groupByChannels, List<Aggregator> aggregates, int expectedGroups)
+        {
+            this.groupByTupleInfos = groupByTupleInfos;
+            this.groupByChannels = groupByChannels;
+            this.aggregates = aggregates;
+            this.groupByHash = new GroupByHash(groupByTupleInfos, expectedGroups);
+        }
+
+        public int getGroupCount()
+        {
+            return groupByHash.getGroupCount();
+        }
+
+        public long getEstimatedSize()
+        {
+            long memorySize = groupByHash.getEstimatedSize();
             for (Aggregator aggregate : aggregates) {
                 memorySize += aggregate.getEstimatedSize();
             }
-            Preconditions.checkState(memorySize <= maxSize.toBytes(), "Query exceeded max operator memory size of %s", maxSize);
+            return memorySize;
         }
 
-        @Override
-        protected Page computeNext()
+        public void addPage(Page page)
         {
-            if (groupByBlocksIterator == null) {
-                // initialize hash
-                TupleInfo groupByTupleInfo = iterator.getTupleInfos().get(groupChannel);
-                SliceHashStrategy hashStrategy = new SliceHashStrategy(groupByTupleInfo);
-                Long2IntOpenCustomHashMap addressToGroupId = new Long2IntOpenCustomHashMap(expectedGroups, hashStrategy);
-                addressToGroupId.defaultReturnValue(-1);
+            Block[] blocks = page.getBlocks();
+            if (isSingleGroup(blocks)) {
+                addSingleGroupPage(page);
+                return;
+            }
 
-                groupByBlocksIterator = aggregate(iterator, groupChannel, maxSize, groupByTupleInfo, hashStrategy, addressToGroupId);
+            BlockCursor[] cursors = new BlockCursor[blocks.length];
+            for (int i = 0; i < blocks.length; i++) {
+                cursors[i] = blocks[i].cursor();
             }
 
-            // if no more data, return null
-            if (!groupByBlocksIterator.hasNext()) {
-                endOfData();
-                return null;
+            int rows = page.getPositionCount();
+            for (int position = 0; position < rows; position++) {
+                for (BlockCursor cursor : cursors) {
+                    checkState(cursor.advanceNextPosition());
+                }
+
+                // lookup the group id (row number of the key)
+                int groupCount = groupByHash.getGroupCount();
+                int groupId = groupByHash.putIfAbsent(cursors, groupByChannels);
+                if (groupId == groupCount) {
+                    // new group, so initialize the value
+                    for (Aggregator aggregate : aggregates) {
+                        aggregate.initialize(groupId);
+                    }
+                }
+
+                // process the row
+                for (Aggregator aggregate : aggregates) {
+                    aggregate.addValue(cursors, groupId);
+                }
+            }
+
+            for (BlockCursor cursor : cursors) {
+                checkState(!cursor.advanceNextPosition());
             }
+        }
 
-            // build  the page channel at at time
-            Block[] blocks = new Block[getChannelCount()];
-            blocks[0] = groupByBlocksIterator.next();
-            int pagePositionCount = blocks[0].getPositionCount();
-            for (int channel = 1; channel < getChannelCount(); channel++) {
-                Aggregator aggregator = aggregates.get(channel - 1);
-                // todo there is no need to eval for intermediates since buffer is already in block form
-                BlockBuilder blockBuilder = new BlockBuilder(aggregator.getTupleInfo());
-                for (int position = 0; position < pagePositionCount; position++) {
-                    aggregator.evaluate(currentPosition + position, blockBuilder);
+        private boolean isSingleGroup(Block[] blocks)
+        {
+            for (int channel : groupByChannels) {
+                if (!(blocks[channel] instanceof RunLengthEncodedBlock)) {
+                    return false;
                 }
-                blocks[channel] = blockBuilder.build();
             }
+            return true;
+        }
 
-            Page page = new Page(blocks);
-            currentPosition += pagePositionCount;
-            return page;
+        private void addSingleGroupPage(Page page)
+        {
+            if (page.getPositionCount() == 0) {
+                return;
+            }
+
+            // the group by values are the same at every position, so lookup the group at the first position
+            Block[] blocks = page.getBlocks();
+            BlockCursor[] cursors = new BlockCursor[blocks.length];
+            for (int channel : groupByChannels) {
+                cursors[channel] = blocks[channel].cursor();
+                checkState(cursors[channel].advanceNextPosition());
+            }
+
+            int groupCount = groupByHash.getGroupCount();
+            int groupId = groupByHash.putIfAbsent(cursors, groupByChannels);
+            if (groupId == groupCount) {
+                // new group, so initialize the value
+                for (Aggregator aggregate : aggregates) {
+                    aggregate.initialize(groupId);
+                }
+            }
+
+            for (Aggregator aggregate : aggregates) {
+                aggregate.addPage(page, groupId);
+            }
         }
 
-        @Override
-        protected void doClose()
+        /**
+         * Produces the output pages for all groups.  No more pages can be added after this method is called.
+         */
+        public Iterator<Page> getOutput()
+        {
+            final Iterator<Block[]> groupByBlocksIterator = groupByHash.build().iterator();
+            return new AbstractIterator<Page>()
+            {
+                private int currentPosition;
+
+                @Override
+                protected Page computeNext()
+                {
+                    if (!groupByBlocksIterator.hasNext()) {
+                        return endOfData();
+                    }
+
+                    // build  the page channel at at time
+                    Block[] groupByBlocks = groupByBlocksIterator.next();
+                    Block[] blocks = new Block[groupByBlocks.length + aggregates.size()];
+                    System.arraycopy(groupByBlocks, 0, blocks, 0, groupByBlocks.length);
+                    int pagePositionCount = groupByBlocks[0].getPositionCount();
+                    for (int channel = groupByBlocks.length; channel < blocks.length; channel++) {
+                        Aggregator aggregator = aggregates.get(channel - groupByBlocks.length);
+                        // todo there is no need to eval for intermediates since buffer is already in block form
+                        BlockBuilder blockBuilder = new BlockBuilder(aggregator.getTupleInfo());
+                        for (int position = 0; position < pagePositionCount; position++) {
+                            aggregator.evaluate(currentPosition + position, blockBuilder);
+                        }
+                        blocks[channel] = blockBuilder.build();
+                    }
+
+                    Page page = new Page(blocks);
+                    currentPosition += pagePositionCount;
+                    return page;
+                }
+            };
+        }
+
+        /**
+         * Writes the group keys and the intermediate value of every group to the partition
+         * selected by the hash of the group key.  Each spill level uses a different hash, so
+         * the groups of a partition are spread over all partitions when it is spilled again.
+         */
+        public void spill(List<SpillFile> partitions, int level)
         {
-            iterator.close();
+            ImmutableList.Builder<TupleInfo> spillTupleInfos = ImmutableList.builder();
+            spillTupleInfos.addAll(groupByTupleInfos);
+            for (Aggregator aggregate : aggregates) {
+                spillTupleInfos.add(aggregate.getIntermediateTupleInfo());
+            }
+            List<TupleInfo> tupleInfos = spillTupleInfos.build();
+
+            PageBuilder[] pageBuilders = new PageBuilder[partitions.size()];
+            for (int partition = 0; partition < pageBuilders.length; partition++) {
+                pageBuilders[partition] = new PageBuilder(tupleInfos);
+            }
+
+            int groupByCount = groupByTupleInfos.size();
+            for (int groupId = 0; groupId < groupByHash.getGroupCount(); groupId++) {
+                int partition = (HashCommon.murmurHash3(groupByHash.getGroupHash(groupId) + level) & Integer.MAX_VALUE) % partitions.size();
+                PageBuilder pageBuilder = pageBuilders[partition];
+
+                for (int channel = 0; channel < groupByCount; channel++) {
+                    groupByHash.appendGroupKeyTo(groupId, channel, pageBuilder.getBlockBuilder(channel));
+                }
+                for (int i = 0; i < aggregates.size(); i++) {
+                    aggregates.get(i).evaluateIntermediate(groupId, pageBuilder.getBlockBuilder(groupByCount + i));
+                }
+
+                if (pageBuilder.isFull()) {
+                    partitions.get(partition).append(pageBuilder.build());
+                    pageBuilders[partition] = new PageBuilder(tupleInfos);
+                }
+            }
+
+            for (int partition = 0; partition < pageBuilders.length; partition++) {
+                if (!pageBuilders[partition].isEmpty()) {
+                    partitions.get(partition).append(pageBuilders[partition].build());
+                }
+            }
         }
     }
 
     @SuppressWarnings("rawtypes")
-    private static Aggregator createAggregator(AggregationFunctionDefinition functionDefinition, Step step, int expectedGroups)
+    private static Aggregator createAggregator(AggregationFunction function, Input input, boolean intermediateInput, boolean intermediateOutput, int expectedGroups)
     {
-        AggregationFunction function = functionDefinition.getFunction();
         if (function instanceof VariableWidthAggregationFunction) {
-            return new VariableWidthAggregator((VariableWidthAggregationFunction) functionDefinition.getFunction(), functionDefinition.getInput(), step, expectedGroups);
+            return new VariableWidthAggregator((VariableWidthAggregationFunction) function, input, intermediateInput, intermediateOutput, expectedGroups);
         }
         else {
-            return new FixedWidthAggregator((FixedWidthAggregationFunction) functionDefinition.getFunction(), functionDefinition.getInput(), step);
+            return new FixedWidthAggregator((FixedWidthAggregationFunction) function, input, intermediateInput, intermediateOutput);
         }
     }
 
@@ -284,11 +680,20 @@ public class HashAggregationOperator
 
         TupleInfo getTupleInfo();
 
+        TupleInfo getIntermediateTupleInfo();
+
         void initialize(int position);
 
         void addValue(BlockCursor[] cursors, int position);
 
+        /**
+         * Adds every position of the page to the specified group.
+         */
+        void addPage(Page page, int position);
+
         void evaluate(int position, BlockBuilder output);
+
+        void evaluateIntermediate(int position, BlockBuilder output);
     }
 
     private static class FixedWidthAggregator
@@ -296,17 +701,19 @@ public class HashAggregationOperator
     {
         private final FixedWidthAggregationFunction function;
         private final Input input;
-        private final Step step;
+        private final boolean intermediateInput;
+        private final boolean intermediateOutput;
         private final int fixedWidthSize;
         private final int sliceSize;
         private final List<Slice> slices = new ArrayList<>();
         private int currentMaxPosition;
 
-        private FixedWidthAggregator(FixedWidthAggregationFunction function, Input input, Step step)
+        private FixedWidthAggregator(FixedWidthAggregationFunction function, Input input, boolean intermediateInput, boolean intermediateOutput)
         {
             this.function = function;
             this.input = input;
-            this.step = step;
+            this.intermediateInput = intermediateInput;
+            this.intermediateOutput = intermediateOutput;
             this.fixedWidthSize = this.function.getFixedSize();
             this.sliceSize = (int) (BlockBuilder.DEFAULT_MAX_BLOCK_SIZE.toBytes() / fixedWidthSize) * fixedWidthSize;
             Slice slice = Slices.allocate(sliceSize);
@@ -324,7 +731,7 @@ public class HashAggregationOperator
         public TupleInfo getTupleInfo()
         {
             // if this is a partial, the output is an intermediate value
-            if (step == Step.PARTIAL) {
+            if (intermediateOutput) {
                 return function.getIntermediateTupleInfo();
             }
             else {
@@ -332,6 +739,12 @@ public class HashAggregationOperator
             }
         }
 
+        @Override
+        public TupleInfo getIntermediateTupleInfo()
+        {
+            return function.getIntermediateTupleInfo();
+        }
+
         @Override
         public void initialize(int position)
         {
@@ -370,7 +783,7 @@ public class HashAggregationOperator
             int sliceOffset = globalOffset - (sliceIndex * sliceSize);
 
             // if this is a final aggregation, the input is an intermediate value
-            if (step == Step.FINAL) {
+            if (intermediateInput) {
                 function.addIntermediate(cursor, field, slice, sliceOffset);
             }
             else {
@@ -378,6 +791,30 @@ public class HashAggregationOperator
             }
         }
 
+        @Override
+        public void addPage(Page page, int position)
+        {
+            int globalOffset = position * fixedWidthSize;
+
+            int sliceIndex = globalOffset / sliceSize;
+            Slice slice = slices.get(sliceIndex);
+            int sliceOffset = globalOffset - (sliceIndex * sliceSize);
+
+            // if this is a final aggregation, the input is an intermediate value
+            if (intermediateInput) {
+                BlockCursor cursor = page.getBlock(input.getChannel()).cursor();
+                while (cursor.advanceNextPosition()) {
+                    function.addIntermediate(cursor, input.getField(), slice, sliceOffset);
+                }
+            }
+            else if (input != null) {
+                function.addInput(page.getPositionCount(), page.getBlock(input.getChannel()), input.getField(), slice, sliceOffset);
+            }
+            else {
+                function.addInput(page.getPositionCount(), null, -1, slice, sliceOffset);
+            }
+        }
+
         @Override
         public void evaluate(int position, BlockBuilder output)
         {
@@ -388,13 +825,25 @@ public class HashAggregationOperator
             int sliceOffset = offset - (sliceIndex * sliceSize);
 
             // if this is a partial, the output is an intermediate value
-            if (step == Step.PARTIAL) {
+            if (intermediateOutput) {
                 function.evaluateIntermediate(slice, sliceOffset, output);
             }
             else {
                 function.evaluateFinal(slice, sliceOffset, output);
             }
         }
+
+        @Override
+        public void evaluateIntermediate(int position, BlockBuilder output)
+        {
+            int offset = position * fixedWidthSize;
+
+            int sliceIndex = offset / sliceSize;
+            Slice slice = slices.get(sliceIndex);
+            int sliceOffset = offset - (sliceIndex * sliceSize);
+
+            function.evaluateIntermediate(slice, sliceOffset, output);
+        }
     }
 
     private static class VariableWidthAggregator<T>
@@ -402,15 +851,17 @@ public class HashAggregationOperator
     {
         private final VariableWidthAggregationFunction<T> function;
         private final Input input;
-        private final Step step;
+        private final boolean intermediateInput;
+        private final boolean intermediateOutput;
         private final ObjectArrayList<T> intermediateValues;
 
-        private VariableWidthAggregator(VariableWidthAggregationFunction<T> function, Input input, Step step,
+        private VariableWidthAggregator(VariableWidthAggregationFunction<T> function, Input input, boolean intermediateInput, boolean intermediateOutput,
                 int expectedGroups)
         {
             this.function = function;
             this.input = input;
-            this.step = step;
+            this.intermediateInput = intermediateInput;
+            this.intermediateOutput = intermediateOutput;
             this.intermediateValues = new ObjectArrayList<>(expectedGroups);
         }
 
@@ -424,7 +875,7 @@ public class HashAggregationOperator
         public TupleInfo getTupleInfo()
         {
             // if this is a partial, the output is an intermediate value
-            if (step == Step.PARTIAL) {
+            if (intermediateOutput) {
                 return function.getIntermediateTupleInfo();
             }
             else {
@@ -432,6 +883,12 @@ public class HashAggregationOperator
             }
         }
 
+        @Override
+        public TupleInfo getIntermediateTupleInfo()
+        {
+            return function.getIntermediateTupleInfo();
+        }
+
         @Override
         public void initialize(int position)
         {
@@ -456,7 +913,7 @@ public class HashAggregationOperator
             // if this is a final aggregation, the input is an intermediate value
             T oldValue = intermediateValues.get(position);
             T newValue;
-            if (step == Step.FINAL) {
+            if (intermediateInput) {
                 newValue = function.addIntermediate(cursor, field, oldValue);
             }
             else {
@@ -466,85 +923,42 @@ public class HashAggregationOperator
         }
 
         @Override
-        public void evaluate(int position, BlockBuilder output)
+        public void addPage(Page page, int position)
         {
+            // if this is a final aggregation, the input is an intermediate value
             T value = intermediateValues.get(position);
-            // if this is a partial, the output is an intermediate value
-            if (step == Step.PARTIAL) {
-                function.evaluateIntermediate(value, output);
+            if (intermediateInput) {
+                BlockCursor cursor = page.getBlock(input.getChannel()).cursor();
+                while (cursor.advanceNextPosition()) {
+                    value = function.addIntermediate(cursor, input.getField(), value);
+                }
+            }
+            else if (input != null) {
+                value = function.addInput(page.getPositionCount(), page.getBlock(input.getChannel()), input.getField(), value);
             }
             else {
-                function.evaluateFinal(value, output);
+                value = function.addInput(page.getPositionCount(), null, -1, value);
             }
-        }
-    }
-
-    public static class SliceHashStrategy
-            implements Strategy
-    {
-        private final TupleInfo tupleInfo;
-        private final List<Slice> slices;
-        private Slice lookupSlice;
-        private long memorySize;
-
-        public SliceHashStrategy(TupleInfo tupleInfo)
-        {
-            this.tupleInfo = tupleInfo;
-            this.slices = ObjectArrayList.wrap(new Slice[1024], 0);
-        }
-
-        public long getEstimatedSize()
-        {
-            return memorySize;
-        }
-
-        public void setLookupSlice(Slice lookupSlice)
-        {
-            this.lookupSlice = lookupSlice;
-        }
-
-        public void addSlice(Slice slice)
-        {
-            memorySize += slice.length();
-            slices.add(slice);
+            intermediateValues.set(position, value);
         }
 
         @Override
-        public int hashCode(long sliceAddress)
+        public void evaluate(int position, BlockBuilder output)
         {
-            Slice slice = getSliceForSyntheticAddress(sliceAddress);
-            int offset = (int) sliceAddress;
-            int length = tupleInfo.size(slice, offset);
-            int hashCode = slice.hashCode(offset, length);
-            return hashCode;
+            T value = intermediateValues.get(position);
+            // if this is a partial, the output is an intermediate value
+            if (intermediateOutput) {
+                function.evaluateIntermediate(value, output);
+            }
+            else {
+                function.evaluateFinal(value, output);
+            }
         }
 
         @Override
-        public boolean equals(long leftSliceAddress, long rightSliceAddress)
-        {
-            Slice leftSlice = getSliceForSyntheticAddress(leftSliceAddress);
-            int leftOffset = decodeSliceOffset(leftSliceAddress);
-            int leftLength = tupleInfo.size(leftSlice, leftOffset);
-
-            Slice rightSlice = getSliceForSyntheticAddress(rightSliceAddress);
-            int rightOffset = decodeSliceOffset(rightSliceAddress);
-            int rightLength = tupleInfo.size(rightSlice, rightOffset);
-
-            return leftSlice.equals(leftOffset, leftLength, rightSlice, rightOffset, rightLength);
-
-        }
-
-        private Slice getSliceForSyntheticAddress(long sliceAddress)
+        public void evaluateIntermediate(int position, BlockBuilder output)
         {
-            int sliceIndex = decodeSliceIndex(sliceAddress);
-            Slice slice;
-            if (sliceIndex == LOOKUP_SLICE_INDEX) {
-                slice = lookupSlice;
-            }
-            else {
-                slice = slices.get(sliceIndex);
-            }
-            return slice;
+            function.evaluateIntermediate(intermediateValues.get(position), output);
         }
     }
 }
@@ -1,11 +1,13 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockCursor;
-import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlockCursor;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
@@ -56,6 +58,8 @@ public class HashJoinOperator
     private static class HashJoinIterator
             extends AbstractPageIterator
     {
+        private static final int UNKNOWN_JOIN_POSITION = -2;
+
         private final PageIterator probeIterator;
         private final int probeJoinChannel;
         private final SourceHashProvider sourceHashProvider;
@@ -65,6 +69,10 @@ public class HashJoinOperator
         private final BlockCursor[] cursors;
         private int joinPosition = -1;
 
+        // first join position of each entry of the current probe dictionary
+        private Dictionary probeDictionary;
+        private int[] dictionaryJoinPositions;
+
         private HashJoinIterator(List<TupleInfo> tupleInfos, Operator probeSource, int probeJoinChannel, SourceHashProvider sourceHashProvider, OperatorStats operatorStats)
         {
             super(tupleInfos);
@@ -101,14 +109,10 @@ public class HashJoinOperator
                         cursors[i] = page.getBlock(i).cursor();
                         cursors[i].advanceNextPosition();
                     }
-
-                    // set hashing strategy to use probe block
-                    UncompressedBlock probeJoinBlock = (UncompressedBlock) page.getBlock(probeJoinChannel);
-                    hash.setProbeSlice(probeJoinBlock.getSlice());
                 }
 
                 // update join position
-                joinPosition = hash.getJoinPosition(cursors[probeJoinChannel]);
+                joinPosition = getJoinPosition(cursors[probeJoinChannel]);
             }
 
             // output data
@@ -119,6 +123,29 @@ public class HashJoinOperator
             return page;
         }
 
+        private int getJoinPosition(BlockCursor cursor)
+        {
+            if (!(cursor instanceof DictionaryEncodedBlockCursor)) {
+                return hash.getJoinPosition(cursor);
+            }
+
+            // probe the hash once per dictionary entry
+            DictionaryEncodedBlockCursor dictionaryCursor = (DictionaryEncodedBlockCursor) cursor;
+            if (dictionaryCursor.getDictionary() != probeDictionary) {
+                probeDictionary = dictionaryCursor.getDictionary();
+                dictionaryJoinPositions = new int[probeDictionary.size()];
+                Arrays.fill(dictionaryJoinPositions, UNKNOWN_JOIN_POSITION);
+            }
+
+            int dictionaryKey = dictionaryCursor.getDictionaryKey();
+            int position = dictionaryJoinPositions[dictionaryKey];
+            if (position == UNKNOWN_JOIN_POSITION) {
+                position = hash.getJoinPosition(cursor);
+                dictionaryJoinPositions[dictionaryKey] = position;
+            }
+            return position;
+        }
+
         @Override
         protected void doClose()
         {
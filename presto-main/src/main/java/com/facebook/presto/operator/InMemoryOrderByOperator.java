@@ -1,14 +1,28 @@
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import io.airlift.units.DataSize;
 import it.unimi.dsi.fastutil.booleans.BooleanArrays;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Sorts the input in an in-memory index.  If a spill directory is provided, the operator
+ * does not fail when the memory of the index can not be reserved.  Instead the index is
+ * sorted and written to disk as a run, and the index is cleared.  Once the input is
+ * exhausted, the remaining rows are spilled as the last run and all runs are merged,
+ * so only one page of each run must fit in memory at a time.
+ */
 public class InMemoryOrderByOperator
         implements Operator
 {
@@ -20,6 +34,8 @@ public class InMemoryOrderByOperator
     private final int[] outputChannels;
     private final List<TupleInfo> tupleInfos;
     private final DataSize maxSortSize;
+    private final Optional<File> spillDirectory;
+    private final MemoryPool memoryPool;
 
     public InMemoryOrderByOperator(Operator source, int orderByChannel, int[] outputChannels, int expectedPositions, DataSize maxSortSize)
     {
@@ -33,8 +49,24 @@ public class InMemoryOrderByOperator
     }
 
     public InMemoryOrderByOperator(Operator source, int orderByChannel, int[] outputChannels, int expectedPositions, int[] sortFields, boolean[] sortOrder, DataSize maxSortSize)
+    {
+        this(source, orderByChannel, outputChannels, expectedPositions, sortFields, sortOrder, maxSortSize, Optional.<File>absent(), new MemoryPool());
+    }
+
+    public InMemoryOrderByOperator(Operator source,
+            int orderByChannel,
+            int[] outputChannels,
+            int expectedPositions,
+            int[] sortFields,
+            boolean[] sortOrder,
+            DataSize maxSortSize,
+            Optional<File> spillDirectory,
+            MemoryPool memoryPool)
     {
         checkNotNull(source, "source is null");
+        checkNotNull(maxSortSize, "maxSortSize is null");
+        checkNotNull(spillDirectory, "spillDirectory is null");
+        checkNotNull(memoryPool, "memoryPool is null");
 
         this.source = source;
         this.expectedPositions = expectedPositions;
@@ -48,6 +80,8 @@ public class InMemoryOrderByOperator
         this.sortFields = sortFields;
         this.sortOrder = sortOrder;
         this.maxSortSize = maxSortSize;
+        this.spillDirectory = spillDirectory;
+        this.memoryPool = memoryPool;
     }
 
     @Override
@@ -65,7 +99,7 @@ public class InMemoryOrderByOperator
     @Override
     public PageIterator iterator(OperatorStats operatorStats)
     {
-        return new InMemoryOrderByOperatorIterator(source, orderByChannel, tupleInfos, outputChannels, expectedPositions, sortFields, sortOrder, maxSortSize, operatorStats);
+        return new InMemoryOrderByOperatorIterator(source, orderByChannel, tupleInfos, outputChannels, expectedPositions, sortFields, sortOrder, spillDirectory, new MemoryPool(MemoryPool.OPERATOR_LIMIT, maxSortSize, memoryPool), operatorStats);
     }
 
     private static class InMemoryOrderByOperatorIterator
@@ -77,11 +111,16 @@ public class InMemoryOrderByOperator
         private final int expectedPositions;
         private final int[] sortFields;
         private final boolean[] sortOrder;
-        private final DataSize maxSize;
+        private final Optional<File> spillDirectory;
+        private final MemoryPool memoryPool;
         private PagesIndex pageIndex;
+        private long reservedBytes;
         private int currentPosition;
         private PageIterator source;
 
+        private List<SpillFile> spilledRuns;
+        private PriorityQueue<SortedRun> mergeQueue;
+
         private InMemoryOrderByOperatorIterator(Operator source,
                 int orderByChannel,
                 List<TupleInfo> tupleInfos,
@@ -89,7 +128,8 @@ public class InMemoryOrderByOperator
                 int expectedPositions,
                 int[] sortFields,
                 boolean[] sortOrder,
-                DataSize maxSize,
+                Optional<File> spillDirectory,
+                MemoryPool memoryPool,
                 OperatorStats operatorStats)
         {
             super(source.getTupleInfos());
@@ -101,31 +141,35 @@ public class InMemoryOrderByOperator
             this.expectedPositions = expectedPositions;
             this.sortFields = sortFields;
             this.sortOrder = sortOrder;
-            this.maxSize = maxSize;
+            this.spillDirectory = spillDirectory;
+            this.memoryPool = memoryPool;
         }
 
         @Override
         protected Page computeNext()
         {
-            if (pageIndex == null) {
-                // index all pages
-                pageIndex = new PagesIndex(source, expectedPositions, maxSize);
-
-                // sort the index
-                pageIndex.sort(orderByChannel, sortFields, sortOrder);
-            }
-
-            if (currentPosition >= pageIndex.getPositionCount()) {
-                return endOfData();
+            if (pageIndex == null && mergeQueue == null) {
+                sortInput();
             }
 
             // iterate through the positions sequentially until we have one full page
             PageBuilder pageBuilder = new PageBuilder(tupleInfos);
-            while (!pageBuilder.isFull() && currentPosition < pageIndex.getPositionCount()) {
-                for (int i = 0; i < outputChannels.length; i++) {
-                    pageIndex.appendTupleTo(outputChannels[i], currentPosition, pageBuilder.getBlockBuilder(i));
+            if (mergeQueue != null) {
+                while (!pageBuilder.isFull() && !mergeQueue.isEmpty()) {
+                    SortedRun run = mergeQueue.poll();
+                    run.appendTo(outputChannels, pageBuilder);
+                    if (run.advance()) {
+                        mergeQueue.add(run);
+                    }
+                }
+            }
+            else {
+                while (!pageBuilder.isFull() && currentPosition < pageIndex.getPositionCount()) {
+                    for (int i = 0; i < outputChannels.length; i++) {
+                        pageIndex.appendTupleTo(outputChannels[i], currentPosition, pageBuilder.getBlockBuilder(i));
+                    }
+                    currentPosition++;
                 }
-                currentPosition++;
             }
 
             // output the page if we have any data
@@ -136,10 +180,110 @@ public class InMemoryOrderByOperator
             return page;
         }
 
+        private void sortInput()
+        {
+            // index all pages, spilling a sorted run whenever the memory of the index can not be reserved
+            pageIndex = new PagesIndex(source.getTupleInfos(), expectedPositions);
+            while (source.hasNext()) {
+                reserveIndexMemory();
+                pageIndex.addPage(source.next());
+            }
+            reserveIndexMemory();
+
+            if (spilledRuns == null) {
+                pageIndex.sort(orderByChannel, sortFields, sortOrder);
+                return;
+            }
+
+            // the remaining rows become the last run, and all runs are merged from disk
+            if (pageIndex.getPositionCount() > 0) {
+                spillIndex();
+            }
+            pageIndex = null;
+
+            TupleInfo orderByTupleInfo = source.getTupleInfos().get(orderByChannel);
+            final MultiSliceFieldOrderedTupleComparator comparator = new MultiSliceFieldOrderedTupleComparator(sortFields, sortOrder, orderByTupleInfo, new long[0]);
+            mergeQueue = new PriorityQueue<>(spilledRuns.size(), new Comparator<SortedRun>()
+            {
+                @Override
+                public int compare(SortedRun left, SortedRun right)
+                {
+                    BlockCursor leftCursor = left.getCursor(orderByChannel);
+                    BlockCursor rightCursor = right.getCursor(orderByChannel);
+                    return comparator.compare(leftCursor.getRawSlice(), leftCursor.getRawOffset(), rightCursor.getRawSlice(), rightCursor.getRawOffset());
+                }
+            });
+            for (SpillFile spilledRun : spilledRuns) {
+                SortedRun run = new SortedRun(spilledRun.read());
+                if (run.advance()) {
+                    mergeQueue.add(run);
+                }
+            }
+        }
+
+        private void reserveIndexMemory()
+        {
+            long estimatedSize = pageIndex.getEstimatedSize().toBytes();
+            if (memoryPool.tryReserve(estimatedSize - reservedBytes)) {
+                reservedBytes = estimatedSize;
+                return;
+            }
+            if (!spillDirectory.isPresent() || pageIndex.getPositionCount() == 0) {
+                // fails with the exhausted limit
+                memoryPool.reserve(estimatedSize - reservedBytes);
+                reservedBytes = estimatedSize;
+                return;
+            }
+            spillIndex();
+        }
+
+        /**
+         * Writes the rows of the index to disk as a sorted run, and starts a new index.
+         */
+        private void spillIndex()
+        {
+            if (spilledRuns == null) {
+                spilledRuns = new ArrayList<>();
+            }
+
+            pageIndex.sort(orderByChannel, sortFields, sortOrder);
+
+            List<TupleInfo> sourceTupleInfos = source.getTupleInfos();
+            SpillFile run = new SpillFile(spillDirectory.get());
+            spilledRuns.add(run);
+            PageBuilder pageBuilder = new PageBuilder(sourceTupleInfos);
+            for (int position = 0; position < pageIndex.getPositionCount(); position++) {
+                for (int channel = 0; channel < sourceTupleInfos.size(); channel++) {
+                    pageIndex.appendTupleTo(channel, position, pageBuilder.getBlockBuilder(channel));
+                }
+                if (pageBuilder.isFull()) {
+                    run.append(pageBuilder.build());
+                    pageBuilder = new PageBuilder(sourceTupleInfos);
+                }
+            }
+            if (!pageBuilder.isEmpty()) {
+                run.append(pageBuilder.build());
+            }
+
+            memoryPool.free(reservedBytes);
+            reservedBytes = 0;
+            pageIndex = new PagesIndex(sourceTupleInfos, expectedPositions);
+        }
+
         @Override
         protected void doClose()
         {
-            source.close();
+            try {
+                source.close();
+            }
+            finally {
+                memoryPool.close();
+                if (spilledRuns != null) {
+                    for (SpillFile run : spilledRuns) {
+                        run.close();
+                    }
+                }
+            }
         }
     }
 
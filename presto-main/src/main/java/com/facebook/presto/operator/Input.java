@@ -27,6 +27,26 @@ public class Input
         return field;
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Input input = (Input) o;
+        return channel == input.channel && field == input.field;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(channel, field);
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Accounts the memory held by operators and buffers.  Pools form a tree: a reservation
+ * is charged to the pool and to every ancestor, and fails if any of them would exceed
+ * its limit.  The node has a single root pool with one child pool per query, and each
+ * task and memory intensive operator reserves from a pool below its query.
+ * <p/>
+ * Once a pool is closed, everything it holds is returned to its parent and later
+ * reservations are only tracked locally.  This allows a task to release all of its
+ * memory at once, even if an operator did not free its own reservation.
+ */
+@ThreadSafe
+public class MemoryPool
+{
+    public static final String OPERATOR_LIMIT = "max operator memory size";
+
+    @Nullable
+    private final String limitName;
+    private final long maxBytes;
+    @Nullable
+    private final MemoryPool parent;
+
+    @GuardedBy("this")
+    private long reservedBytes;
+
+    @GuardedBy("this")
+    private boolean closed;
+
+    /**
+     * Creates a root pool without a limit, which only accounts reservations.
+     */
+    public MemoryPool()
+    {
+        this(null, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a child pool without a limit of its own.
+     */
+    public MemoryPool(MemoryPool parent)
+    {
+        this(null, Long.MAX_VALUE, Preconditions.checkNotNull(parent, "parent is null"));
+    }
+
+    /**
+     * @param limitName name of the limit used in the error message when a reservation fails, e.g. {@value #OPERATOR_LIMIT}
+     */
+    public MemoryPool(String limitName, DataSize maxSize)
+    {
+        this(Preconditions.checkNotNull(limitName, "limitName is null"), Preconditions.checkNotNull(maxSize, "maxSize is null").toBytes(), null);
+    }
+
+    public MemoryPool(String limitName, DataSize maxSize, MemoryPool parent)
+    {
+        this(Preconditions.checkNotNull(limitName, "limitName is null"),
+                Preconditions.checkNotNull(maxSize, "maxSize is null").toBytes(),
+                Preconditions.checkNotNull(parent, "parent is null"));
+    }
+
+    private MemoryPool(@Nullable String limitName, long maxBytes, @Nullable MemoryPool parent)
+    {
+        Preconditions.checkArgument(maxBytes >= 0, "maxBytes is negative");
+        this.limitName = limitName;
+        this.maxBytes = maxBytes;
+        this.parent = parent;
+    }
+
+    public synchronized DataSize getReservedSize()
+    {
+        return new DataSize(reservedBytes, Unit.BYTE);
+    }
+
+    /**
+     * Reserves the specified number of bytes in this pool and all of its ancestors.
+     *
+     * @return false if this pool or an ancestor does not have enough memory available; in this case nothing is reserved
+     */
+    public boolean tryReserve(long bytes)
+    {
+        return tryReserveOrGetExhaustedPool(bytes) == null;
+    }
+
+    /**
+     * Reserves the specified number of bytes in this pool and all of its ancestors.
+     *
+     * @throws IllegalStateException if this pool or an ancestor does not have enough memory available
+     */
+    public void reserve(long bytes)
+    {
+        MemoryPool exhaustedPool = tryReserveOrGetExhaustedPool(bytes);
+        if (exhaustedPool != null) {
+            throw new IllegalStateException(String.format("Query exceeded %s of %s",
+                    exhaustedPool.limitName,
+                    new DataSize(exhaustedPool.maxBytes, Unit.BYTE).convertToMostSuccinctDataSize()));
+        }
+    }
+
+    private synchronized MemoryPool tryReserveOrGetExhaustedPool(long bytes)
+    {
+        Preconditions.checkArgument(bytes >= 0, "bytes is negative");
+
+        if (closed) {
+            reservedBytes += bytes;
+            return null;
+        }
+        if (reservedBytes + bytes > maxBytes) {
+            return this;
+        }
+        // lock order is always child before parent
+        if (parent != null) {
+            MemoryPool exhaustedPool = parent.tryReserveOrGetExhaustedPool(bytes);
+            if (exhaustedPool != null) {
+                return exhaustedPool;
+            }
+        }
+        reservedBytes += bytes;
+        return null;
+    }
+
+    /**
+     * Returns memory previously reserved from this pool.
+     */
+    public synchronized void free(long bytes)
+    {
+        Preconditions.checkArgument(bytes >= 0, "bytes is negative");
+        Preconditions.checkArgument(bytes <= reservedBytes, "tried to free %s bytes but only %s bytes are reserved", bytes, reservedBytes);
+
+        reservedBytes -= bytes;
+        if (!closed && parent != null) {
+            parent.free(bytes);
+        }
+    }
+
+    /**
+     * Returns all memory held by this pool to its parent.
+     */
+    public synchronized void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (parent != null) {
+            parent.free(reservedBytes);
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("limitName", limitName)
+                .add("maxBytes", maxBytes)
+                .add("reservedBytes", reservedBytes)
+                .add("closed", closed)
+                .toString();
+    }
+}
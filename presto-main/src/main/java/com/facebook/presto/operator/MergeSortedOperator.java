@@ -0,0 +1,168 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Merges sources that are each already sorted into a single sorted output.  Only the
+ * current page of each source is held in memory, so the output is produced as soon
+ * as every source has produced its first page.  Without sources, the output is empty.
+ * <p/>
+ * Each sort channel must contain a single field, which is the layout of an exchange.
+ */
+public class MergeSortedOperator
+        implements Operator
+{
+    private final List<Operator> sources;
+    private final int[] sortChannels;
+    private final boolean[] sortOrder;
+    private final List<TupleInfo> tupleInfos;
+
+    public MergeSortedOperator(List<TupleInfo> tupleInfos, List<? extends Operator> sources, int[] sortChannels, boolean[] sortOrder)
+    {
+        checkNotNull(tupleInfos, "tupleInfos is null");
+        checkNotNull(sources, "sources is null");
+        checkNotNull(sortChannels, "sortChannels is null");
+        checkNotNull(sortOrder, "sortOrder is null");
+        checkArgument(sortChannels.length == sortOrder.length, "sortChannels and sortOrder must have the same length");
+
+        this.sources = ImmutableList.copyOf(sources);
+        this.tupleInfos = ImmutableList.copyOf(tupleInfos);
+        for (Operator source : this.sources) {
+            checkArgument(source.getTupleInfos().equals(tupleInfos), "all sources must have the same tuple infos");
+        }
+        for (int sortChannel : sortChannels) {
+            checkArgument(tupleInfos.get(sortChannel).getFieldCount() == 1, "sort channel %s must have a single field", sortChannel);
+        }
+        this.sortChannels = sortChannels;
+        this.sortOrder = sortOrder;
+    }
+
+    @Override
+    public int getChannelCount()
+    {
+        return tupleInfos.size();
+    }
+
+    @Override
+    public List<TupleInfo> getTupleInfos()
+    {
+        return tupleInfos;
+    }
+
+    @Override
+    public PageIterator iterator(OperatorStats operatorStats)
+    {
+        List<PageIterator> iterators = new ArrayList<>();
+        for (Operator source : sources) {
+            iterators.add(source.iterator(operatorStats));
+        }
+        return new MergeSortedIterator(tupleInfos, iterators, createRunComparator(tupleInfos, sortChannels, sortOrder));
+    }
+
+    private static Comparator<SortedRun> createRunComparator(List<TupleInfo> tupleInfos, final int[] sortChannels, boolean[] sortOrder)
+    {
+        final MultiSliceFieldOrderedTupleComparator[] comparators = new MultiSliceFieldOrderedTupleComparator[sortChannels.length];
+        for (int i = 0; i < sortChannels.length; i++) {
+            TupleInfo tupleInfo = tupleInfos.get(sortChannels[i]);
+            comparators[i] = new MultiSliceFieldOrderedTupleComparator(new int[] {0}, new boolean[] {sortOrder[i]}, tupleInfo, new long[0]);
+        }
+
+        return new Comparator<SortedRun>()
+        {
+            @Override
+            public int compare(SortedRun left, SortedRun right)
+            {
+                for (int i = 0; i < sortChannels.length; i++) {
+                    BlockCursor leftCursor = left.getCursor(sortChannels[i]);
+                    BlockCursor rightCursor = right.getCursor(sortChannels[i]);
+                    int comparison = comparators[i].compare(leftCursor.getRawSlice(), leftCursor.getRawOffset(), rightCursor.getRawSlice(), rightCursor.getRawOffset());
+                    if (comparison != 0) {
+                        return comparison;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Merges sorted page iterators in the order of the comparator, and closes them when it is closed.
+     */
+    static class MergeSortedIterator
+            extends AbstractPageIterator
+    {
+        private final List<PageIterator> sources;
+        private final int[] outputChannels;
+        private final PriorityQueue<SortedRun> mergeQueue;
+        private final List<SortedRun> runs;
+
+        MergeSortedIterator(List<TupleInfo> tupleInfos, List<PageIterator> sources, Comparator<SortedRun> comparator)
+        {
+            super(tupleInfos);
+            this.sources = sources;
+
+            this.outputChannels = new int[tupleInfos.size()];
+            for (int channel = 0; channel < outputChannels.length; channel++) {
+                outputChannels[channel] = channel;
+            }
+
+            // the initial capacity must be positive
+            this.mergeQueue = new PriorityQueue<>(Math.max(sources.size(), 1), comparator);
+
+            // the first row of a source is only read when the first page is requested
+            this.runs = new ArrayList<>();
+            for (PageIterator source : sources) {
+                runs.add(new SortedRun(source));
+            }
+        }
+
+        @Override
+        protected Page computeNext()
+        {
+            if (!runs.isEmpty()) {
+                for (SortedRun run : runs) {
+                    if (run.advance()) {
+                        mergeQueue.add(run);
+                    }
+                }
+                runs.clear();
+            }
+
+            PageBuilder pageBuilder = new PageBuilder(getTupleInfos());
+            while (!pageBuilder.isFull() && !mergeQueue.isEmpty()) {
+                SortedRun run = mergeQueue.poll();
+                run.appendTo(outputChannels, pageBuilder);
+                if (run.advance()) {
+                    mergeQueue.add(run);
+                }
+            }
+
+            if (pageBuilder.isEmpty()) {
+                return endOfData();
+            }
+            return pageBuilder.build();
+        }
+
+        @Override
+        protected void doClose()
+        {
+            for (PageIterator source : sources) {
+                source.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.operator.MergeSortedOperator.MergeSortedIterator;
+import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
+import com.facebook.presto.tuple.TupleInfo;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Produces the rows of all splits of a task as a single sorted stream, so a task with
+ * many splits can feed a sorted exchange.  Each split sorts its own rows with the source,
+ * and hands the sorted run to the merger shared by the splits.  The split that finishes
+ * sorting last merges the runs of all splits, and the other splits produce no rows.
+ */
+public class MergeSortedSplitsOperator
+        implements Operator
+{
+    private final Operator source;
+    private final SortedSplitsMerger merger;
+    private final int orderByChannel;
+    private final int[] sortFields;
+    private final boolean[] sortOrder;
+
+    /**
+     * @param source produces the rows of the split sorted on the fields of the order by channel
+     */
+    public MergeSortedSplitsOperator(Operator source, SortedSplitsMerger merger, int orderByChannel, int[] sortFields, boolean[] sortOrder)
+    {
+        this.source = checkNotNull(source, "source is null");
+        this.merger = checkNotNull(merger, "merger is null");
+        this.orderByChannel = orderByChannel;
+        this.sortFields = checkNotNull(sortFields, "sortFields is null");
+        this.sortOrder = checkNotNull(sortOrder, "sortOrder is null");
+    }
+
+    @Override
+    public int getChannelCount()
+    {
+        return source.getChannelCount();
+    }
+
+    @Override
+    public List<TupleInfo> getTupleInfos()
+    {
+        return source.getTupleInfos();
+    }
+
+    @Override
+    public PageIterator iterator(OperatorStats operatorStats)
+    {
+        TupleInfo orderByTupleInfo = source.getTupleInfos().get(orderByChannel);
+        final MultiSliceFieldOrderedTupleComparator comparator = new MultiSliceFieldOrderedTupleComparator(sortFields, sortOrder, orderByTupleInfo, new long[0]);
+        Comparator<SortedRun> runComparator = new Comparator<SortedRun>()
+        {
+            @Override
+            public int compare(SortedRun left, SortedRun right)
+            {
+                BlockCursor leftCursor = left.getCursor(orderByChannel);
+                BlockCursor rightCursor = right.getCursor(orderByChannel);
+                return comparator.compare(leftCursor.getRawSlice(), leftCursor.getRawOffset(), rightCursor.getRawSlice(), rightCursor.getRawOffset());
+            }
+        };
+        return new MergeSortedSplitsIterator(source.iterator(operatorStats), merger, runComparator);
+    }
+
+    private static class MergeSortedSplitsIterator
+            extends AbstractPageIterator
+    {
+        private final SortedSplitsMerger merger;
+        private final Comparator<SortedRun> comparator;
+
+        // the sorted run of this split, until it is handed to the merger
+        private PageIterator run;
+        private PageIterator merged;
+
+        private MergeSortedSplitsIterator(PageIterator run, SortedSplitsMerger merger, Comparator<SortedRun> comparator)
+        {
+            super(run.getTupleInfos());
+            this.run = run;
+            this.merger = merger;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected Page computeNext()
+        {
+            if (run != null) {
+                // sort the rows of this split on this thread, so the splits sort in parallel
+                run.hasNext();
+
+                List<PageIterator> runs = merger.addRun(run);
+                run = null;
+                if (runs == null) {
+                    // another split is still sorting, and will merge this run
+                    return endOfData();
+                }
+                merged = new MergeSortedIterator(getTupleInfos(), runs, comparator);
+            }
+
+            if (merged == null || !merged.hasNext()) {
+                return endOfData();
+            }
+            return merged.next();
+        }
+
+        @Override
+        protected void doClose()
+        {
+            if (merged != null) {
+                merged.close();
+                return;
+            }
+            if (run == null) {
+                // the run was handed to the merger
+                return;
+            }
+
+            try {
+                run.close();
+            }
+            finally {
+                run = null;
+                // no split will merge the runs of the other splits
+                List<PageIterator> runs = merger.splitClosed();
+                if (runs != null) {
+                    for (PageIterator otherRun : runs) {
+                        otherRun.close();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -3,8 +3,11 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.execution.PageBuffer;
 import com.facebook.presto.execution.TaskOutput;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
@@ -12,6 +15,8 @@ import io.airlift.units.Duration;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -25,6 +30,9 @@ public class OperatorStats
 
     private final TaskOutput taskOutput;
 
+    // a shared join source may be started by another split, so this is thread safe
+    private final List<PageBuffer> exchangeBuffers = new CopyOnWriteArrayList<>();
+
     private long declaredSize;
     private long declaredPositions;
 
@@ -53,6 +61,35 @@ public class OperatorStats
         return finished || (taskOutput != null && taskOutput.getState().isDone());
     }
 
+    /**
+     * Registers a buffer of pages read from other tasks, so the split can wait for the pages
+     * with {@link #waitForExchanges()} instead of blocking in the operator reading the buffer.
+     */
+    public void addExchangeBuffer(PageBuffer exchangeBuffer)
+    {
+        Preconditions.checkNotNull(exchangeBuffer, "exchangeBuffer is null");
+        exchangeBuffers.add(exchangeBuffer);
+    }
+
+    /**
+     * Returns a future that completes when every exchange buffer has pages or is done, or the task is done.
+     * Once it is done, the next page can be pulled without waiting for another task, unless an operator
+     * reads more than the available pages to produce a page, such as an aggregation.
+     */
+    public ListenableFuture<?> waitForExchanges()
+    {
+        if (isDone()) {
+            return Futures.immediateFuture(null);
+        }
+        for (PageBuffer exchangeBuffer : exchangeBuffers) {
+            ListenableFuture<?> pages = exchangeBuffer.waitForPages();
+            if (!pages.isDone()) {
+                return pages;
+            }
+        }
+        return Futures.immediateFuture(null);
+    }
+
     public void addDeclaredSize(long bytes)
     {
         if (taskOutput == null) {
@@ -109,6 +146,34 @@ public class OperatorStats
         userStartTime = THREAD_MX_BEAN.getCurrentThreadUserTime();
     }
 
+    /**
+     * Records the time spent since the split started or resumed, before the split yields its
+     * thread.  The cpu time is measured per thread, so a split that yielded may resume on
+     * another thread.
+     */
+    public void pause()
+    {
+        if (finished || taskOutput == null) {
+            return;
+        }
+
+        updateTimings();
+    }
+
+    /**
+     * Restarts the timings when a split that yielded runs again, so the time the split waited is not counted.
+     */
+    public void resume()
+    {
+        if (finished || taskOutput == null) {
+            return;
+        }
+
+        wallStartTime = System.nanoTime();
+        cpuStartTime = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        userStartTime = THREAD_MX_BEAN.getCurrentThreadUserTime();
+    }
+
     public void finish()
     {
         if (finished) {
@@ -5,19 +5,20 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
-import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import io.airlift.slice.Slice;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
-import com.google.common.base.Preconditions;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import it.unimi.dsi.fastutil.Arrays;
 import it.unimi.dsi.fastutil.Swapper;
 import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntList;
 
 import java.util.List;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
+
 /**
  * PagesIndex a low-level data structure which contains the address of every value position of every channel.
  * This data structure is not general purpose and is designed for a few specific uses:
@@ -32,34 +33,64 @@ public class PagesIndex
 {
     private final ChannelIndex[] indexes;
     private final int channelCount;
-    private final int positionCount;
+    private int positionCount;
 
-    public PagesIndex(PageIterator iterator, int expectedPositions, DataSize maxIndexSize)
+    /**
+     * Creates an empty index.  Pages are added with {@link #addPage}, and the caller is
+     * responsible for accounting the memory of the index.
+     */
+    public PagesIndex(List<TupleInfo> tupleInfos, int expectedPositions)
     {
-        channelCount = iterator.getChannelCount();
+        channelCount = tupleInfos.size();
         indexes = new ChannelIndex[channelCount];
-        List<TupleInfo> tupleInfos = iterator.getTupleInfos();
         for (int channel = 0; channel < indexes.length; channel++) {
             indexes[channel] = new ChannelIndex(expectedPositions, tupleInfos.get(channel));
         }
+    }
 
-        long maxIndexSizeBytes = maxIndexSize.toBytes();
-        int positionCount = 0;
+    /**
+     * Creates an index of all pages of the iterator.
+     *
+     * @param memoryPool the pool charged for the memory of the index as pages are added
+     */
+    public PagesIndex(PageIterator iterator, int expectedPositions, MemoryPool memoryPool)
+    {
+        this(iterator.getTupleInfos(), expectedPositions);
+
+        long reservedBytes = 0;
         try (PageIterator pageIterator = iterator) {
             while (pageIterator.hasNext()) {
-                // check size before loading more data
-                Preconditions.checkState(getEstimatedSize().toBytes() <= maxIndexSizeBytes, "Query exceeded max operator memory size of %s", maxIndexSize.convertToMostSuccinctDataSize());
-
-                Page page = pageIterator.next();
-                positionCount += page.getPositionCount();
-                Block[] blocks = page.getBlocks();
-                for (int channel = 0; channel < indexes.length; channel++) {
-                    indexes[channel].indexBlock((UncompressedBlock) blocks[channel]);
-                }
+                // reserve the memory retained so far before loading more data
+                long estimatedSize = getEstimatedSize().toBytes();
+                memoryPool.reserve(estimatedSize - reservedBytes);
+                reservedBytes = estimatedSize;
+
+                addPage(pageIterator.next());
             }
         }
+        memoryPool.reserve(getEstimatedSize().toBytes() - reservedBytes);
+    }
+
+    public void addPage(Page page)
+    {
+        positionCount += page.getPositionCount();
+        Block[] blocks = page.getBlocks();
+        for (int channel = 0; channel < indexes.length; channel++) {
+            indexes[channel].indexBlock(toUncompressedBlock(blocks[channel]));
+        }
+    }
 
-        this.positionCount = positionCount;
+    /**
+     * Adds only the specified positions of the page, which must be in increasing order.
+     * The index retains the data of the whole page.
+     */
+    public void addPage(Page page, IntList positions)
+    {
+        positionCount += positions.size();
+        Block[] blocks = page.getBlocks();
+        for (int channel = 0; channel < indexes.length; channel++) {
+            indexes[channel].indexBlock(toUncompressedBlock(blocks[channel]), positions);
+        }
     }
 
     public int getChannelCount()
@@ -148,6 +179,14 @@ public class PagesIndex
             Slice rightSlice = slices[((int) (rightSliceAddress >> 32))];
             int rightOffset = (int) rightSliceAddress;
 
+            return compare(leftSlice, leftOffset, rightSlice, rightOffset);
+        }
+
+        /**
+         * Compares two tuples directly, independent of the positions of this comparator.
+         */
+        public int compare(Slice leftSlice, int leftOffset, Slice rightSlice, int rightOffset)
+        {
             for (int i = 0; i < sortFields.length; i++) {
                 int field = sortFields[i];
                 Type type = types[field];
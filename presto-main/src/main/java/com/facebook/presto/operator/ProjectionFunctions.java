@@ -3,13 +3,25 @@
  */
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.array.DoubleArrayBlock;
+import com.facebook.presto.block.array.LongArrayBlock;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import com.facebook.presto.tuple.TupleReadable;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import io.airlift.slice.Slice;
 
+import java.util.BitSet;
 import java.util.List;
 
 public class ProjectionFunctions
@@ -33,7 +45,7 @@ public class ProjectionFunctions
         return tupleInfos.build();
     }
 
-    private static class SingleColumnProjection implements ProjectionFunction
+    private static class SingleColumnProjection implements BatchProjectionFunction
     {
         private final Type columnType;
         private final int channelIndex;
@@ -79,6 +91,137 @@ public class ProjectionFunctions
                 throw new IllegalStateException("Unsupported type info " + info);
             }
         }
+
+        @Override
+        public boolean canProject(Block[] blocks)
+        {
+            // the tuples can only be copied when the block contains just this column
+            Block block = blocks[channelIndex];
+            return (block instanceof UncompressedBlock ||
+                    block instanceof DictionaryEncodedBlock ||
+                    block instanceof RunLengthEncodedBlock ||
+                    block instanceof LongArrayBlock ||
+                    block instanceof DoubleArrayBlock) &&
+                    block.getTupleInfo().equals(info);
+        }
+
+        @Override
+        public void project(Block[] blocks, int[] positions, int positionCount, BlockBuilder output)
+        {
+            if (blocks[channelIndex] instanceof DictionaryEncodedBlock) {
+                projectDictionary((DictionaryEncodedBlock) blocks[channelIndex], positions, positionCount, output);
+                return;
+            }
+            if (blocks[channelIndex] instanceof RunLengthEncodedBlock) {
+                projectRunLengthEncoded((RunLengthEncodedBlock) blocks[channelIndex], positionCount, output);
+                return;
+            }
+            if (blocks[channelIndex] instanceof LongArrayBlock) {
+                projectLongArray((LongArrayBlock) blocks[channelIndex], positions, positionCount, output);
+                return;
+            }
+            if (blocks[channelIndex] instanceof DoubleArrayBlock) {
+                projectDoubleArray((DoubleArrayBlock) blocks[channelIndex], positions, positionCount, output);
+                return;
+            }
+
+            UncompressedBlock block = (UncompressedBlock) blocks[channelIndex];
+            Slice slice = block.getSlice();
+            int fixedSize = info.getFixedSize();
+
+            // copy runs of consecutive positions with a single write
+            int position = 0;
+            int offset = block.getSliceOffset();
+            int runOffset = offset;
+            int runLength = 0;
+            int runCount = 0;
+            for (int i = 0; i < positionCount; i++) {
+                int selectedPosition = positions[i];
+
+                // skip to the selected position
+                if (fixedSize != -1) {
+                    offset += (selectedPosition - position) * fixedSize;
+                }
+                else {
+                    for (; position < selectedPosition; position++) {
+                        offset += info.size(slice, offset);
+                    }
+                }
+                position = selectedPosition;
+
+                if (offset != runOffset + runLength) {
+                    if (runCount > 0) {
+                        output.appendTuples(slice, runOffset, runLength, runCount);
+                    }
+                    runOffset = offset;
+                    runLength = 0;
+                    runCount = 0;
+                }
+
+                int size = info.size(slice, offset);
+                runLength += size;
+                runCount++;
+
+                offset += size;
+                position++;
+            }
+            if (runCount > 0) {
+                output.appendTuples(slice, runOffset, runLength, runCount);
+            }
+        }
+
+        private void projectRunLengthEncoded(RunLengthEncodedBlock block, int positionCount, BlockBuilder output)
+        {
+            // every position has the same value
+            Tuple value = block.getSingleValue();
+            Slice tupleSlice = value.getTupleSlice();
+            int size = value.size();
+            for (int i = 0; i < positionCount; i++) {
+                output.appendTuple(tupleSlice, 0, size);
+            }
+        }
+
+        private void projectLongArray(LongArrayBlock block, int[] positions, int positionCount, BlockBuilder output)
+        {
+            long[] values = block.getValues();
+            BitSet nulls = block.getNulls();
+            int offset = block.getOffset();
+            for (int i = 0; i < positionCount; i++) {
+                int index = offset + positions[i];
+                if (nulls.get(index)) {
+                    output.appendNull();
+                }
+                else {
+                    output.append(values[index]);
+                }
+            }
+        }
+
+        private void projectDoubleArray(DoubleArrayBlock block, int[] positions, int positionCount, BlockBuilder output)
+        {
+            double[] values = block.getValues();
+            BitSet nulls = block.getNulls();
+            int offset = block.getOffset();
+            for (int i = 0; i < positionCount; i++) {
+                int index = offset + positions[i];
+                if (nulls.get(index)) {
+                    output.appendNull();
+                }
+                else {
+                    output.append(values[index]);
+                }
+            }
+        }
+
+        private void projectDictionary(DictionaryEncodedBlock block, int[] positions, int positionCount, BlockBuilder output)
+        {
+            Dictionary dictionary = block.getDictionary();
+            BlockCursor idCursor = block.getIdBlock().cursor();
+            for (int i = 0; i < positionCount; i++) {
+                Preconditions.checkState(idCursor.advanceToPosition(positions[i]));
+                dictionary.appendTupleTo(Ints.checkedCast(idCursor.getLong(0)), output);
+            }
+        }
     }
 
     public static ProjectionFunction concat(ProjectionFunction... projectionFunctions)
@@ -0,0 +1,19 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+/**
+ * A filter that only reads a single channel and always returns the same result for
+ * the same value of that channel, so it can be evaluated once per dictionary entry
+ * of a dictionary encoded block or once per run of a run length encoded block
+ * instead of once per position.
+ */
+public interface SingleChannelFilterFunction
+        extends FilterFunction
+{
+    /**
+     * Returns the only channel read by this filter.
+     */
+    int getChannel();
+}
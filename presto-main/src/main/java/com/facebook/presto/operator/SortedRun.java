@@ -0,0 +1,71 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+
+import java.util.Iterator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The current row of a sorted sequence of pages, such as a run read back from disk
+ * or the output of a sorted remote task.
+ */
+class SortedRun
+{
+    private final Iterator<Page> pages;
+    private BlockCursor[] cursors;
+
+    SortedRun(Iterator<Page> pages)
+    {
+        this.pages = checkNotNull(pages, "pages is null");
+    }
+
+    public BlockCursor getCursor(int channel)
+    {
+        return cursors[channel];
+    }
+
+    /**
+     * Advances to the next row of the run.
+     *
+     * @return false if the run is exhausted
+     */
+    public boolean advance()
+    {
+        if (cursors != null && advanceCursors()) {
+            return true;
+        }
+        while (pages.hasNext()) {
+            Block[] blocks = pages.next().getBlocks();
+            cursors = new BlockCursor[blocks.length];
+            for (int channel = 0; channel < blocks.length; channel++) {
+                cursors[channel] = blocks[channel].cursor();
+            }
+            if (advanceCursors()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean advanceCursors()
+    {
+        boolean advanced = cursors[0].advanceNextPosition();
+        for (int channel = 1; channel < cursors.length; channel++) {
+            checkState(cursors[channel].advanceNextPosition() == advanced);
+        }
+        return advanced;
+    }
+
+    public void appendTo(int[] outputChannels, PageBuilder pageBuilder)
+    {
+        for (int i = 0; i < outputChannels.length; i++) {
+            cursors[outputChannels[i]].appendTupleTo(pageBuilder.getBlockBuilder(i));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Collects the sorted runs of the splits of a task, so the last split can merge them.
+ */
+@ThreadSafe
+public class SortedSplitsMerger
+{
+    private final int splitCount;
+
+    @GuardedBy("this")
+    private final List<PageIterator> runs = new ArrayList<>();
+
+    @GuardedBy("this")
+    private int finishedSplits;
+
+    @GuardedBy("this")
+    private boolean closed;
+
+    public SortedSplitsMerger(int splitCount)
+    {
+        checkArgument(splitCount > 0, "splitCount must be at least 1");
+        this.splitCount = splitCount;
+    }
+
+    /**
+     * Adds the sorted run of a split.
+     *
+     * @return the runs of all splits if this is the last split, which the caller merges and closes; otherwise null
+     */
+    public List<PageIterator> addRun(PageIterator run)
+    {
+        checkNotNull(run, "run is null");
+        synchronized (this) {
+            if (!closed) {
+                runs.add(run);
+                return splitFinished();
+            }
+        }
+        // the task is finished, so the run will never be merged
+        run.close();
+        return null;
+    }
+
+    /**
+     * Records a split that is closed without a run, such as when the task is canceled.
+     *
+     * @return the runs of the other splits if this is the last split, which the caller closes; otherwise null
+     */
+    public synchronized List<PageIterator> splitClosed()
+    {
+        if (closed) {
+            return null;
+        }
+        return splitFinished();
+    }
+
+    /**
+     * Closes the runs that were not handed to the last split, and any run added later.  The task
+     * closes the merger once all of its splits are finished, so the runs are released even if a
+     * split never added its run, such as when the task is canceled or another split fails.
+     */
+    public void close()
+    {
+        List<PageIterator> runs;
+        synchronized (this) {
+            closed = true;
+            runs = ImmutableList.copyOf(this.runs);
+            this.runs.clear();
+        }
+        for (PageIterator run : runs) {
+            run.close();
+        }
+    }
+
+    @GuardedBy("this")
+    private List<PageIterator> splitFinished()
+    {
+        checkState(finishedSplits < splitCount, "all %s splits are already finished", splitCount);
+        finishedSplits++;
+        if (finishedSplits < splitCount) {
+            return null;
+        }
+        // the runs now belong to the caller
+        List<PageIterator> lastRuns = ImmutableList.copyOf(runs);
+        runs.clear();
+        return lastRuns;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+import com.facebook.presto.sql.planner.plan.SortNode;
+import com.google.common.base.Preconditions;
+
+import java.util.IdentityHashMap;
+
+public class SortedSplitsMergerFactory
+{
+    // TODO: assign ids to each SortNode instead of using identity hashmap
+    private final IdentityHashMap<SortNode, SortedSplitsMerger> mergers = new IdentityHashMap<>();
+
+    private final int splitCount;
+
+    /**
+     * @param splitCount the number of splits of the task, which each plan the sort
+     */
+    public SortedSplitsMergerFactory(int splitCount)
+    {
+        Preconditions.checkArgument(splitCount > 0, "splitCount must be at least 1");
+        this.splitCount = splitCount;
+    }
+
+    public int getSplitCount()
+    {
+        return splitCount;
+    }
+
+    /**
+     * Closes the mergers, which releases the runs of splits that were never merged.
+     */
+    public synchronized void close()
+    {
+        for (SortedSplitsMerger merger : mergers.values()) {
+            merger.close();
+        }
+    }
+
+    public synchronized SortedSplitsMerger getMerger(SortNode node)
+    {
+        SortedSplitsMerger merger = mergers.get(node);
+        if (merger == null) {
+            merger = new SortedSplitsMerger(splitCount);
+            mergers.put(node, merger);
+        }
+        return merger;
+    }
+}
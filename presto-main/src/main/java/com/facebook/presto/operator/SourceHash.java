@@ -5,30 +5,24 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
-import io.airlift.slice.Slice;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 
+/**
+ * The build side of a hash join.  A source hash is immutable once built, so a single
+ * instance is shared by all probe threads.
+ */
 public class SourceHash
 {
     private final int hashChannel;
     private final PagesIndex pagesIndex;
     private final ChannelHash channelHash;
 
-    public SourceHash(PageIterator source, int hashChannel, int expectedPositions, DataSize maxSize)
+    public SourceHash(PageIterator source, int hashChannel, int expectedPositions, MemoryPool memoryPool)
     {
         this.hashChannel = hashChannel;
-        this.pagesIndex = new PagesIndex(source, expectedPositions, maxSize);
-        DataSize remainingSize = new DataSize(maxSize.toBytes() - pagesIndex.getEstimatedSize().toBytes(), Unit.BYTE);
-        this.channelHash = new ChannelHash(pagesIndex.getIndex(hashChannel), remainingSize);
-    }
-
-    public SourceHash(SourceHash sourceHash)
-    {
-        this.hashChannel = sourceHash.hashChannel;
-        this.pagesIndex = sourceHash.pagesIndex;
-        // hash strategy can not be shared across threads
-        this.channelHash = new ChannelHash(sourceHash.channelHash);
+        this.pagesIndex = new PagesIndex(source, expectedPositions, memoryPool);
+        this.channelHash = new ChannelHash(pagesIndex.getIndex(hashChannel), memoryPool);
     }
 
     public DataSize getEstimatedSize()
@@ -48,14 +42,9 @@ public class SourceHash
         return hashChannel;
     }
 
-    public void setProbeSlice(Slice slice)
-    {
-        channelHash.setLookupSlice(slice);
-    }
-
     public int getJoinPosition(BlockCursor cursor)
     {
-        return channelHash.get(cursor);
+        return channelHash.get(cursor.getRawSlice(), cursor.getRawOffset());
     }
 
     public int getNextJoinPosition(int joinPosition)
@@ -4,6 +4,7 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import io.airlift.units.DataSize;
 
@@ -22,6 +23,7 @@ public class SourceHashProvider
     private final int expectedPositions;
     private final OperatorStats operatorStats;
     private final DataSize maxSize;
+    private final MemoryPool memoryPool;
 
     private final AtomicBoolean closed = new AtomicBoolean();
 
@@ -32,12 +34,21 @@ public class SourceHashProvider
     private Throwable buildException;
 
     public SourceHashProvider(Operator source, int hashChannel, int expectedPositions, DataSize maxSize, OperatorStats operatorStats)
+    {
+        this(source, hashChannel, expectedPositions, maxSize, operatorStats, new MemoryPool());
+    }
+
+    /**
+     * @param memoryPool the pool charged for the hash; the hash is limited to {@code maxSize} within this pool
+     */
+    public SourceHashProvider(Operator source, int hashChannel, int expectedPositions, DataSize maxSize, OperatorStats operatorStats, MemoryPool memoryPool)
     {
         this.source = source;
         this.hashChannel = hashChannel;
         this.expectedPositions = expectedPositions;
         this.operatorStats = operatorStats;
         this.maxSize = maxSize;
+        this.memoryPool = Preconditions.checkNotNull(memoryPool, "memoryPool is null");
     }
 
     public int getChannelCount()
@@ -63,16 +74,18 @@ public class SourceHashProvider
                 throw Throwables.propagate(buildException);
             }
 
+            MemoryPool hashMemoryPool = new MemoryPool(MemoryPool.OPERATOR_LIMIT, maxSize, memoryPool);
             try {
                 PageIterator iterator = new StoppablePageIterator(source.iterator(operatorStats));
-                sourceHash = new SourceHash(iterator, hashChannel, expectedPositions, maxSize);
+                sourceHash = new SourceHash(iterator, hashChannel, expectedPositions, hashMemoryPool);
             }
             catch (Throwable e) {
+                hashMemoryPool.close();
                 buildException = e;
                 throw Throwables.propagate(buildException);
             }
         }
-        return new SourceHash(sourceHash);
+        return sourceHash;
     }
 
     public void close()
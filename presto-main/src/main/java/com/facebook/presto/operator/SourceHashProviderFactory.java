@@ -15,18 +15,26 @@ public class SourceHashProviderFactory
     private final IdentityHashMap<JoinNode, SourceHashProvider> joinHashes = new IdentityHashMap<>();
 
     private final DataSize maxSize;
+    private final MemoryPool memoryPool;
 
     public SourceHashProviderFactory(DataSize maxSize)
+    {
+        this(maxSize, new MemoryPool());
+    }
+
+    public SourceHashProviderFactory(DataSize maxSize, MemoryPool memoryPool)
     {
         Preconditions.checkNotNull(maxSize, "maxSize is null");
+        Preconditions.checkNotNull(memoryPool, "memoryPool is null");
         this.maxSize = maxSize;
+        this.memoryPool = memoryPool;
     }
 
     public synchronized SourceHashProvider getSourceHashProvider(JoinNode node, Operator rightOperator, int channel, OperatorStats operatorStats)
     {
         SourceHashProvider hashProvider = joinHashes.get(node);
         if (hashProvider == null) {
-            hashProvider = new SourceHashProvider(rightOperator, channel, 1_500_000, maxSize, operatorStats);
+            hashProvider = new SourceHashProvider(rightOperator, channel, 1_500_000, maxSize, operatorStats, memoryPool);
             joinHashes.put(node, hashProvider);
         }
         return hashProvider;
@@ -0,0 +1,126 @@
+package com.facebook.presto.operator;
+
+import com.facebook.presto.serde.PagesSerde;
+import com.facebook.presto.serde.PagesWriter;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closeables;
+import io.airlift.slice.InputStreamSliceInput;
+import io.airlift.slice.OutputStreamSliceOutput;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A temporary local file containing pages spilled by an operator.  The pages are
+ * written in the {@link PagesSerde} format, so all pages must have the same layout.
+ * The file is deleted when this object is closed.
+ */
+public class SpillFile
+        implements Closeable
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final OutputStreamSliceOutput sliceOutput;
+    private final PagesWriter pagesWriter;
+    private final List<InputStream> openInputs = new ArrayList<>();
+    private long pageCount;
+    private boolean writeFinished;
+
+    public SpillFile(File spillDirectory)
+    {
+        checkNotNull(spillDirectory, "spillDirectory is null");
+        try {
+            Preconditions.checkState(spillDirectory.isDirectory() || spillDirectory.mkdirs(), "Spill directory %s could not be created", spillDirectory);
+            file = File.createTempFile("spill-", ".pages", spillDirectory);
+            sliceOutput = new OutputStreamSliceOutput(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        pagesWriter = PagesSerde.createPagesWriter(sliceOutput);
+    }
+
+    public long getPageCount()
+    {
+        return pageCount;
+    }
+
+    public DataSize getSize()
+    {
+        return new DataSize(file.length(), Unit.BYTE);
+    }
+
+    public void append(Page page)
+    {
+        checkState(!writeFinished, "Spill file has already been read");
+        pagesWriter.append(page);
+        pageCount++;
+    }
+
+    /**
+     * Finishes writing the file and returns an iterator over the spilled pages.
+     * No more pages can be appended once the file has been read.
+     */
+    public Iterator<Page> read()
+    {
+        finishWrite();
+        if (pageCount == 0) {
+            return ImmutableList.<Page>of().iterator();
+        }
+
+        try {
+            InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            openInputs.add(input);
+            return PagesSerde.readPages(new InputStreamSliceInput(input));
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            finishWrite();
+        }
+        finally {
+            for (InputStream input : openInputs) {
+                Closeables.closeQuietly(input);
+            }
+            openInputs.clear();
+            file.delete();
+        }
+    }
+
+    private void finishWrite()
+    {
+        if (writeFinished) {
+            return;
+        }
+        writeFinished = true;
+        try {
+            sliceOutput.close();
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
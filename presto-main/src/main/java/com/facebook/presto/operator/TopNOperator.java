@@ -1,50 +1,63 @@
 package com.facebook.presto.operator;
 
 import com.facebook.presto.block.Block;
-import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
-import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.operator.PagesIndex.MultiSliceFieldOrderedTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
-import com.facebook.presto.tuple.TupleReadable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
+import io.airlift.slice.Slice;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
 
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
+import static com.facebook.presto.operator.SyntheticAddress.decodeSliceOffset;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
- * Returns the top N rows from the source sorted according to the specified ordering in the keyChannelIndex channel.
+ * Returns the top N rows from the source sorted according to the specified sort fields of the keyChannelIndex channel.
+ * <p/>
+ * The candidate rows are kept as positions in an index that references the retained source
+ * pages, so no tuple is materialized for a row.  A page with a single candidate row retains
+ * the whole page, so the candidates are copied into new pages whenever the retained memory
+ * has grown enough, which releases the pages that no longer contain a candidate.
  */
 public class TopNOperator
         implements Operator
 {
+    private static final DataSize MIN_COMPACTION_SIZE = new DataSize(1, Unit.MEGABYTE);
+
     private final Operator source;
     private final int n;
     private final int keyChannelIndex;
     private final List<ProjectionFunction> projections;
-    private final Ordering<TupleReadable> ordering;
+    private final int[] sortFields;
+    private final boolean[] sortOrder;
     private final List<TupleInfo> tupleInfos;
 
-    public TopNOperator(Operator source, int n, int keyChannelIndex, List<ProjectionFunction> projections, Ordering<TupleReadable> ordering)
+    public TopNOperator(Operator source, int n, int keyChannelIndex, List<ProjectionFunction> projections, int[] sortFields, boolean[] sortOrder)
     {
         checkNotNull(source, "source is null");
         checkArgument(n > 0, "n must be greater than zero");
         checkArgument(keyChannelIndex >= 0, "keyChannelIndex must be at least zero");
         checkNotNull(projections, "projections is null");
         checkArgument(!projections.isEmpty(), "projections is empty");
-        checkNotNull(ordering, "ordering is null");
+        checkNotNull(sortFields, "sortFields is null");
+        checkNotNull(sortOrder, "sortOrder is null");
+        checkArgument(sortFields.length == sortOrder.length, "sortFields and sortOrder must have the same length");
         this.source = source;
         this.n = n;
         this.keyChannelIndex = keyChannelIndex;
         this.projections = ImmutableList.copyOf(projections);
-        this.ordering = ordering;
+        this.sortFields = sortFields;
+        this.sortOrder = sortOrder;
 
         ImmutableList.Builder<TupleInfo> tupleInfos = ImmutableList.builder();
         for (ProjectionFunction projection : projections) {
@@ -53,9 +66,12 @@ public class TopNOperator
         this.tupleInfos = tupleInfos.build();
     }
 
+    /**
+     * Returns the rows with the largest keys, comparing all fields of the key channel.
+     */
     public TopNOperator(Operator source, int n, int keyChannelIndex, List<ProjectionFunction> projections)
     {
-        this(source, n, keyChannelIndex, projections, Ordering.from(FieldOrderedTupleComparator.INSTANCE));
+        this(source, n, keyChannelIndex, projections, allFields(source, keyChannelIndex), descending(source, keyChannelIndex));
     }
 
     @Override
@@ -79,45 +95,62 @@ public class TopNOperator
     private class TopNIterator
             extends AbstractPageIterator
     {
-        private Iterator<KeyAndTuples> outputIterator;
-        private PageIterator source;
+        private final PageIterator source;
+        private final List<TupleInfo> sourceTupleInfos;
+        private final MultiSliceFieldOrderedTupleComparator comparator;
+
+        // candidate rows and a heap of their positions with the worst candidate on top
+        private PagesIndex candidates;
+        private IntHeapPriorityQueue candidateHeap;
+        private long compactionSize = MIN_COMPACTION_SIZE.toBytes();
+
+        private int[] outputPositions;
+        private int outputPosition;
 
         private TopNIterator(Operator source, OperatorStats operatorStats)
         {
-            super(source.getTupleInfos());
+            super(tupleInfos);
             this.source = source.iterator(operatorStats);
+            this.sourceTupleInfos = source.getTupleInfos();
+            this.comparator = new MultiSliceFieldOrderedTupleComparator(sortFields, sortOrder, sourceTupleInfos.get(keyChannelIndex), new long[0]);
         }
 
         @Override
         protected Page computeNext()
         {
-            if (outputIterator == null) {
-                outputIterator = selectTopN(source);
+            if (outputPositions == null) {
+                selectTopN();
             }
 
-            if (!outputIterator.hasNext()) {
+            if (outputPosition >= outputPositions.length) {
                 return endOfData();
             }
 
-            BlockBuilder[] outputs = new BlockBuilder[projections.size()];
-            for (int i = 0; i < outputs.length; i++) {
-                outputs[i] = new BlockBuilder(projections.get(i).getTupleInfo());
-            }
-
-            while (!isFull(outputs) && outputIterator.hasNext()) {
-                KeyAndTuples next = outputIterator.next();
-                for (int i = 0; i < projections.size(); i++) {
-                    projections.get(i).project(next.getTuples(), outputs[i]);
+            // copy the next rows of the source channels, and project them into the output
+            PageBuilder sourceRows = new PageBuilder(sourceTupleInfos);
+            while (!sourceRows.isFull() && outputPosition < outputPositions.length) {
+                for (int channel = 0; channel < sourceTupleInfos.size(); channel++) {
+                    candidates.appendTupleTo(channel, outputPositions[outputPosition], sourceRows.getBlockBuilder(channel));
                 }
+                outputPosition++;
             }
 
-            Block[] blocks = new Block[projections.size()];
-            for (int i = 0; i < blocks.length; i++) {
-                blocks[i] = outputs[i].build();
+            Block[] blocks = sourceRows.build().getBlocks();
+            BlockCursor[] cursors = new BlockCursor[blocks.length];
+            for (int channel = 0; channel < blocks.length; channel++) {
+                cursors[channel] = blocks[channel].cursor();
             }
 
-            Page page = new Page(blocks);
-            return page;
+            PageBuilder output = new PageBuilder(tupleInfos);
+            for (int position = 0; position < blocks[0].getPositionCount(); position++) {
+                for (BlockCursor cursor : cursors) {
+                    checkState(cursor.advanceNextPosition());
+                }
+                for (int i = 0; i < projections.size(); i++) {
+                    projections.get(i).project(cursors, output.getBlockBuilder(i));
+                }
+            }
+            return output.build();
         }
 
         @Override
@@ -126,166 +159,129 @@ public class TopNOperator
             source.close();
         }
 
-        private Iterator<KeyAndTuples> selectTopN(PageIterator iterator)
+        private void selectTopN()
         {
-            PriorityQueue<KeyAndTuples> globalCandidates = new PriorityQueue<>(n, KeyAndTuples.keyComparator(ordering));
-            try (PageIterator pageIterator = iterator) {
+            candidates = new PagesIndex(sourceTupleInfos, n);
+            candidateHeap = new IntHeapPriorityQueue(n, new CandidateComparator());
+            try (PageIterator pageIterator = source) {
                 while (pageIterator.hasNext()) {
-                    Page page = pageIterator.next();
-                    Iterable<KeyAndPosition> keyAndPositions = computePageCandidatePositions(globalCandidates, page);
-                    mergeWithGlobalCandidates(globalCandidates, page, keyAndPositions);
+                    addPage(pageIterator.next());
                 }
             }
-            ImmutableList.Builder<KeyAndTuples> minSortedGlobalCandidates = ImmutableList.builder();
-            while (!globalCandidates.isEmpty()) {
-                minSortedGlobalCandidates.add(globalCandidates.remove());
+
+            // the heap returns the worst candidate first
+            outputPositions = new int[candidateHeap.size()];
+            for (int i = outputPositions.length - 1; i >= 0; i--) {
+                outputPositions[i] = candidateHeap.dequeueInt();
             }
-            return minSortedGlobalCandidates.build().reverse().iterator();
         }
 
-        private Iterable<KeyAndPosition> computePageCandidatePositions(PriorityQueue<KeyAndTuples> globalCandidates, Page page)
+        private void addPage(Page page)
         {
-            PriorityQueue<KeyAndPosition> pageCandidates = new PriorityQueue<>(n, KeyAndPosition.keyComparator(ordering));
-            KeyAndTuples smallestGlobalCandidate = globalCandidates.peek(); // This can be null if globalCandidates is empty
-            BlockCursor cursor = page.getBlock(keyChannelIndex).cursor();
+            // only index the rows that are better than the current worst candidate
+            UncompressedBlock keyBlock = toUncompressedBlock(page.getBlock(keyChannelIndex));
+            Slice keySlice = keyBlock.getSlice();
+            IntArrayList positions = new IntArrayList();
+            BlockCursor cursor = keyBlock.cursor();
             while (cursor.advanceNextPosition()) {
-                // Only consider value if it would be a candidate when compared against the current global candidates
-                if (globalCandidates.size() < n || ordering.compare(cursor, smallestGlobalCandidate.getKey()) > 0) {
-                    if (pageCandidates.size() < n) {
-                        pageCandidates.add(new KeyAndPosition(cursor.getTuple(), cursor.getPosition()));
-                    }
-                    else if (ordering.compare(cursor, pageCandidates.peek().getKey()) > 0) {
-                        pageCandidates.remove();
-                        pageCandidates.add(new KeyAndPosition(cursor.getTuple(), cursor.getPosition()));
-                    }
+                if (candidateHeap.size() < n || compareToWorstCandidate(keySlice, cursor.getRawOffset()) < 0) {
+                    positions.add(cursor.getPosition());
                 }
             }
-            return pageCandidates;
-        }
-
-        private void mergeWithGlobalCandidates(PriorityQueue<KeyAndTuples> globalCandidates, Page page, Iterable<KeyAndPosition> pageValueAndPositions)
-        {
-            // Sort by positions so that we can advance through the values via cursors
-            List<KeyAndPosition> positionSorted = Ordering.from(KeyAndPosition.positionComparator()).sortedCopy(pageValueAndPositions);
+            if (positions.isEmpty()) {
+                return;
+            }
 
             Block[] blocks = page.getBlocks();
-            BlockCursor[] cursors = new BlockCursor[blocks.length];
-            for (int i = 0; i < blocks.length; i++) {
-                cursors[i] = blocks[i].cursor();
-            }
-            for (KeyAndPosition keyAndPosition : positionSorted) {
-                for (BlockCursor cursor : cursors) {
-                    checkState(cursor.advanceToPosition(keyAndPosition.getPosition()));
-                }
-                if (globalCandidates.size() < n) {
-                    globalCandidates.add(new KeyAndTuples(keyAndPosition.getKey(), getTuples(keyAndPosition, cursors)));
+            blocks[keyChannelIndex] = keyBlock;
+            int firstPosition = candidates.getPositionCount();
+            candidates.addPage(new Page(blocks), positions);
+
+            for (int position = firstPosition; position < candidates.getPositionCount(); position++) {
+                if (candidateHeap.size() < n) {
+                    candidateHeap.enqueue(position);
                 }
-                else if (ordering.compare(keyAndPosition.getKey(), globalCandidates.peek().getKey()) > 0) {
-                    globalCandidates.remove();
-                    globalCandidates.add(new KeyAndTuples(keyAndPosition.getKey(), getTuples(keyAndPosition, cursors)));
+                else if (compareCandidates(position, candidateHeap.firstInt()) < 0) {
+                    candidateHeap.dequeueInt();
+                    candidateHeap.enqueue(position);
                 }
             }
-        }
 
-        private Tuple[] getTuples(KeyAndPosition keyAndPosition, BlockCursor[] cursors)
-        {
-            // TODO: pre-project columns to minimize storage in global candidate set
-            Tuple[] tuples = new Tuple[cursors.length];
-            for (int channel = 0; channel < cursors.length; channel++) {
-                // Optimization since key channel already has a materialized Tuple
-                tuples[channel] = (channel == keyChannelIndex) ? keyAndPosition.getKey() : cursors[channel].getTuple();
+            if (candidates.getEstimatedSize().toBytes() > compactionSize) {
+                compactCandidates();
             }
-            return tuples;
         }
 
-        private boolean isFull(BlockBuilder... outputs)
+        /**
+         * Copies the candidate rows into new pages, so the retained pages and the positions of rows that are no longer candidates are released.
+         */
+        private void compactCandidates()
         {
-            for (BlockBuilder output : outputs) {
-                if (output.isFull()) {
-                    return true;
+            PagesIndex compacted = new PagesIndex(sourceTupleInfos, n);
+            PageBuilder pageBuilder = new PageBuilder(sourceTupleInfos);
+            while (!candidateHeap.isEmpty()) {
+                int position = candidateHeap.dequeueInt();
+                for (int channel = 0; channel < sourceTupleInfos.size(); channel++) {
+                    candidates.appendTupleTo(channel, position, pageBuilder.getBlockBuilder(channel));
+                }
+                if (pageBuilder.isFull()) {
+                    compacted.addPage(pageBuilder.build());
+                    pageBuilder = new PageBuilder(sourceTupleInfos);
                 }
             }
-            return false;
-        }
-    }
+            if (!pageBuilder.isEmpty()) {
+                compacted.addPage(pageBuilder.build());
+            }
 
-    private static class KeyAndPosition
-    {
-        private final Tuple key;
-        private final int position;
+            candidates = compacted;
+            for (int position = 0; position < candidates.getPositionCount(); position++) {
+                candidateHeap.enqueue(position);
+            }
 
-        private KeyAndPosition(Tuple key, int position)
-        {
-            this.key = key;
-            this.position = position;
+            // compact again once the retained memory has doubled
+            compactionSize = Math.max(MIN_COMPACTION_SIZE.toBytes(), 2 * candidates.getEstimatedSize().toBytes());
         }
 
-        public Tuple getKey()
+        private int compareToWorstCandidate(Slice keySlice, int keyOffset)
         {
-            return key;
+            ChannelIndex keyIndex = candidates.getIndex(keyChannelIndex);
+            long address = keyIndex.getValueAddresses().getLong(candidateHeap.firstInt());
+            return comparator.compare(keySlice, keyOffset, keyIndex.getSliceForSyntheticAddress(address), decodeSliceOffset(address));
         }
 
-        public int getPosition()
+        private int compareCandidates(int leftPosition, int rightPosition)
         {
-            return position;
+            ChannelIndex keyIndex = candidates.getIndex(keyChannelIndex);
+            long leftAddress = keyIndex.getValueAddresses().getLong(leftPosition);
+            long rightAddress = keyIndex.getValueAddresses().getLong(rightPosition);
+            return comparator.compare(keyIndex.getSliceForSyntheticAddress(leftAddress), decodeSliceOffset(leftAddress), keyIndex.getSliceForSyntheticAddress(rightAddress), decodeSliceOffset(rightAddress));
         }
 
-        public static Comparator<KeyAndPosition> keyComparator(final Comparator<TupleReadable> tupleReadableComparator)
+        /**
+         * Orders the candidates from the worst to the best, so the head of the heap is the first to be replaced.
+         */
+        private class CandidateComparator
+                extends AbstractIntComparator
         {
-            return new Comparator<KeyAndPosition>()
+            @Override
+            public int compare(int leftPosition, int rightPosition)
             {
-                @Override
-                public int compare(KeyAndPosition o1, KeyAndPosition o2)
-                {
-                    return tupleReadableComparator.compare(o1.getKey(), o2.getKey());
-                }
-            };
-        }
-
-        public static Comparator<KeyAndPosition> positionComparator()
-        {
-            return new Comparator<KeyAndPosition>()
-            {
-                @Override
-                public int compare(KeyAndPosition o1, KeyAndPosition o2)
-                {
-                    return Long.compare(o1.getPosition(), o2.getPosition());
-                }
-            };
+                return compareCandidates(rightPosition, leftPosition);
+            }
         }
     }
 
-    private static class KeyAndTuples
+    private static int[] allFields(Operator source, int keyChannelIndex)
     {
-        private final Tuple key;
-        private final Tuple[] tuples;
-
-        private KeyAndTuples(Tuple key, Tuple[] tuples)
-        {
-            this.key = key;
-            this.tuples = tuples;
-        }
-
-        public Tuple getKey()
-        {
-            return key;
-        }
-
-        public Tuple[] getTuples()
-        {
-            return tuples;
+        int[] sortFields = new int[source.getTupleInfos().get(keyChannelIndex).getFieldCount()];
+        for (int i = 0; i < sortFields.length; i++) {
+            sortFields[i] = i;
         }
+        return sortFields;
+    }
 
-        public static Comparator<KeyAndTuples> keyComparator(final Comparator<TupleReadable> tupleReadableComparator)
-        {
-            return new Comparator<KeyAndTuples>()
-            {
-                @Override
-                public int compare(KeyAndTuples o1, KeyAndTuples o2)
-                {
-                    return tupleReadableComparator.compare(o1.getKey(), o2.getKey());
-                }
-            };
-        }
+    private static boolean[] descending(Operator source, int keyChannelIndex)
+    {
+        return new boolean[source.getTupleInfos().get(keyChannelIndex).getFieldCount()];
     }
 }
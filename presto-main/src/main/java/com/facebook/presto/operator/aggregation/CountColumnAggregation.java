@@ -3,7 +3,9 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import io.airlift.slice.Slice;
+import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
@@ -56,10 +58,19 @@ public class CountColumnAggregation
         long count = SINGLE_LONG.getLong(valueSlice, valueOffset, 0);
 
         // process block
-        BlockCursor cursor = block.cursor();
-        while (cursor.advanceNextPosition()) {
-            if (!cursor.isNull(field)) {
-                count++;
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value
+            Tuple value = ((RunLengthEncodedBlock) block).getSingleValue();
+            if (!value.isNull(field)) {
+                count += block.getPositionCount();
+            }
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (!cursor.isNull(field)) {
+                    count++;
+                }
             }
         }
 
@@ -3,9 +3,14 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.array.DoubleArrayBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import io.airlift.slice.Slice;
+import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 
+import java.util.BitSet;
+
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
 
 public class DoubleMinAggregation
@@ -63,11 +68,34 @@ public class DoubleMinAggregation
         double min = SINGLE_DOUBLE.getDouble(valueSlice, valueOffset, 0);
 
         // process block
-        BlockCursor cursor = block.cursor();
-        while (cursor.advanceNextPosition()) {
-            if (!cursor.isNull(field)) {
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value
+            Tuple value = ((RunLengthEncodedBlock) block).getSingleValue();
+            if (!value.isNull(field)) {
                 hasNonNull = true;
-                min = Math.min(min, cursor.getDouble(field));
+                min = Math.min(min, value.getDouble(field));
+            }
+        }
+        else if (block instanceof DoubleArrayBlock) {
+            // scan the value array directly
+            DoubleArrayBlock arrayBlock = (DoubleArrayBlock) block;
+            double[] values = arrayBlock.getValues();
+            BitSet nulls = arrayBlock.getNulls();
+            int end = arrayBlock.getOffset() + arrayBlock.getPositionCount();
+            for (int index = arrayBlock.getOffset(); index < end; index++) {
+                if (!nulls.get(index)) {
+                    hasNonNull = true;
+                    min = Math.min(min, values[index]);
+                }
+            }
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (!cursor.isNull(field)) {
+                    hasNonNull = true;
+                    min = Math.min(min, cursor.getDouble(field));
+                }
             }
         }
 
@@ -3,7 +3,10 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.array.DoubleArrayBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import io.airlift.slice.Slice;
+import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
@@ -63,11 +66,31 @@ public class DoubleSumAggregation
         double sum = SINGLE_DOUBLE.getDouble(valueSlice, valueOffset, 0);
 
         // process block
-        BlockCursor cursor = block.cursor();
-        while (cursor.advanceNextPosition()) {
-            if (!cursor.isNull(field)) {
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value
+            Tuple value = ((RunLengthEncodedBlock) block).getSingleValue();
+            if (!value.isNull(field)) {
                 hasNonNull = true;
-                sum += cursor.getDouble(field);
+                sum += value.getDouble(field) * block.getPositionCount();
+            }
+        }
+        else if (block instanceof DoubleArrayBlock) {
+            // scan the value array directly, null positions are zero so they do not change the sum
+            DoubleArrayBlock arrayBlock = (DoubleArrayBlock) block;
+            double[] values = arrayBlock.getValues();
+            int end = arrayBlock.getOffset() + arrayBlock.getPositionCount();
+            for (int index = arrayBlock.getOffset(); index < end; index++) {
+                sum += values[index];
+            }
+            hasNonNull |= arrayBlock.getNullCount() < arrayBlock.getPositionCount();
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (!cursor.isNull(field)) {
+                    hasNonNull = true;
+                    sum += cursor.getDouble(field);
+                }
             }
         }
 
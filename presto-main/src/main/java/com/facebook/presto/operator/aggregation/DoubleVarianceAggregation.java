@@ -2,6 +2,8 @@ package com.facebook.presto.operator.aggregation;
 
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.tuple.Tuple;
 import io.airlift.slice.Slice;
 
 /**
@@ -27,21 +29,38 @@ public class DoubleVarianceAggregation
         double mean = VARIANCE_CONTEXT_INFO.getDouble(valueSlice, valueOffset, 1);
         double m2 = VARIANCE_CONTEXT_INFO.getDouble(valueSlice, valueOffset, 2);
 
-        BlockCursor cursor = block.cursor();
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value, so merge a group with that mean and no variance
+            Tuple value = ((RunLengthEncodedBlock) block).getSingleValue();
+            if (!value.isNull(field)) {
+                hasValue = true;
 
-        while (cursor.advanceNextPosition()) {
-            if (cursor.isNull(field)) {
-                continue;
+                long runLength = block.getPositionCount();
+                long newCount = count + runLength;
+                double x = value.getDouble(field);
+                double delta = x - mean;
+                mean += (delta * ((double) runLength / newCount));
+                m2 += (delta * delta * count * runLength / newCount);
+                count = newCount;
             }
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+
+            while (cursor.advanceNextPosition()) {
+                if (cursor.isNull(field)) {
+                    continue;
+                }
 
-            // There is now at least one value present.
-            hasValue = true;
+                // There is now at least one value present.
+                hasValue = true;
 
-            count++;
-            double x = cursor.getDouble(field);
-            double delta = x - mean;
-            mean += (delta / count);
-            m2 += (delta * (x - mean));
+                count++;
+                double x = cursor.getDouble(field);
+                double delta = x - mean;
+                mean += (delta / count);
+                m2 += (delta * (x - mean));
+            }
         }
 
         if (hasValue) {
@@ -3,8 +3,11 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.array.LongArrayBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import io.airlift.slice.Slice;
 
+import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
 import io.airlift.slice.Slices;
@@ -74,12 +77,35 @@ public class LongAverageAggregation
         double sum = TUPLE_INFO.getDouble(valueSlice, valueOffset, 1);
 
         // process block
-        BlockCursor cursor = block.cursor();
-        while (cursor.advanceNextPosition()) {
-            if (!cursor.isNull(field)) {
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value
+            Tuple value = ((RunLengthEncodedBlock) block).getSingleValue();
+            if (!value.isNull(field)) {
                 hasNonNull = true;
-                count++;
-                sum += cursor.getLong(field);
+                count += block.getPositionCount();
+                sum += (double) value.getLong(field) * block.getPositionCount();
+            }
+        }
+        else if (block instanceof LongArrayBlock) {
+            // scan the value array directly, null positions are zero so they do not change the sum
+            LongArrayBlock arrayBlock = (LongArrayBlock) block;
+            long[] values = arrayBlock.getValues();
+            int end = arrayBlock.getOffset() + arrayBlock.getPositionCount();
+            for (int index = arrayBlock.getOffset(); index < end; index++) {
+                sum += values[index];
+            }
+            int nonNullCount = arrayBlock.getPositionCount() - arrayBlock.getNullCount();
+            hasNonNull |= nonNullCount > 0;
+            count += nonNullCount;
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (!cursor.isNull(field)) {
+                    hasNonNull = true;
+                    count++;
+                    sum += cursor.getLong(field);
+                }
             }
         }
 
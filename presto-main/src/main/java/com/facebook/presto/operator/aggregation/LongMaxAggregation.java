@@ -3,9 +3,14 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.array.LongArrayBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import io.airlift.slice.Slice;
+import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 
+import java.util.BitSet;
+
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 
 public class LongMaxAggregation
@@ -63,11 +68,34 @@ public class LongMaxAggregation
         long max = SINGLE_LONG.getLong(valueSlice, valueOffset, 0);
 
         // process block
-        BlockCursor cursor = block.cursor();
-        while (cursor.advanceNextPosition()) {
-            if (!cursor.isNull(field)) {
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value
+            Tuple value = ((RunLengthEncodedBlock) block).getSingleValue();
+            if (!value.isNull(field)) {
                 hasNonNull = true;
-                max = Math.max(max, cursor.getLong(field));
+                max = Math.max(max, value.getLong(field));
+            }
+        }
+        else if (block instanceof LongArrayBlock) {
+            // scan the value array directly
+            LongArrayBlock arrayBlock = (LongArrayBlock) block;
+            long[] values = arrayBlock.getValues();
+            BitSet nulls = arrayBlock.getNulls();
+            int end = arrayBlock.getOffset() + arrayBlock.getPositionCount();
+            for (int index = arrayBlock.getOffset(); index < end; index++) {
+                if (!nulls.get(index)) {
+                    hasNonNull = true;
+                    max = Math.max(max, values[index]);
+                }
+            }
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (!cursor.isNull(field)) {
+                    hasNonNull = true;
+                    max = Math.max(max, cursor.getLong(field));
+                }
             }
         }
 
@@ -3,7 +3,10 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.array.LongArrayBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import io.airlift.slice.Slice;
+import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
@@ -62,11 +65,31 @@ public class LongSumAggregation
         long sum = SINGLE_LONG.getLong(valueSlice, valueOffset, 0);
 
         // process block
-        BlockCursor cursor = block.cursor();
-        while (cursor.advanceNextPosition()) {
-            if (!cursor.isNull(field)) {
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value
+            Tuple value = ((RunLengthEncodedBlock) block).getSingleValue();
+            if (!value.isNull(field)) {
                 hasNonNull = true;
-                sum += cursor.getLong(field);
+                sum += value.getLong(field) * block.getPositionCount();
+            }
+        }
+        else if (block instanceof LongArrayBlock) {
+            // scan the value array directly, null positions are zero so they do not change the sum
+            LongArrayBlock arrayBlock = (LongArrayBlock) block;
+            long[] values = arrayBlock.getValues();
+            int end = arrayBlock.getOffset() + arrayBlock.getPositionCount();
+            for (int index = arrayBlock.getOffset(); index < end; index++) {
+                sum += values[index];
+            }
+            hasNonNull |= arrayBlock.getNullCount() < arrayBlock.getPositionCount();
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+            while (cursor.advanceNextPosition()) {
+                if (!cursor.isNull(field)) {
+                    hasNonNull = true;
+                    sum += cursor.getLong(field);
+                }
             }
         }
 
@@ -4,6 +4,8 @@ import com.facebook.presto.block.Block;
 import io.airlift.slice.Slice;
 
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.tuple.Tuple;
 
 public class LongVarianceAggregation
         extends AbstractVarianceAggregation
@@ -26,21 +28,38 @@ public class LongVarianceAggregation
         double mean = VARIANCE_CONTEXT_INFO.getDouble(valueSlice, valueOffset, 1);
         double m2 = VARIANCE_CONTEXT_INFO.getDouble(valueSlice, valueOffset, 2);
 
-        BlockCursor cursor = block.cursor();
-
-        while (cursor.advanceNextPosition()) {
-            if (cursor.isNull(field)) {
-                continue;
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value, so merge a group with that mean and no variance
+            Tuple value = ((RunLengthEncodedBlock) block).getSingleValue();
+            if (!value.isNull(field)) {
+                hasValue = true;
+
+                long runLength = block.getPositionCount();
+                long newCount = count + runLength;
+                double x = value.getLong(field);
+                double delta = x - mean;
+                mean += (delta * ((double) runLength / newCount));
+                m2 += (delta * delta * count * runLength / newCount);
+                count = newCount;
+            }
+        }
+        else {
+            BlockCursor cursor = block.cursor();
+
+            while (cursor.advanceNextPosition()) {
+                if (cursor.isNull(field)) {
+                    continue;
+                }
+
+                // There is now at least one value present.
+                hasValue = true;
+
+                count++;
+                double x = cursor.getLong(field);
+                double delta = x - mean;
+                mean += (delta / count);
+                m2 += (delta * (x - mean));
             }
-
-            // There is now at least one value present.
-            hasValue = true;
-
-            count++;
-            double x = cursor.getLong(field);
-            double delta = x - mean;
-            mean += (delta / count);
-            m2 += (delta * (x - mean));
         }
 
         if (hasValue) {
@@ -6,6 +6,7 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import io.airlift.slice.Slice;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.Ordering;
@@ -37,6 +38,10 @@ public class VarBinaryMaxAggregation
     public Slice addInput(int positionCount, Block block, int field, Slice currentMax)
     {
         BlockCursor cursor = block.cursor();
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value
+            return cursor.advanceNextPosition() ? addInput(cursor, field, currentMax) : currentMax;
+        }
         while (cursor.advanceNextPosition()) {
             currentMax = addInput(cursor, field, currentMax);
         }
@@ -6,6 +6,7 @@ package com.facebook.presto.operator.aggregation;
 import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import io.airlift.slice.Slice;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.Ordering;
@@ -36,6 +37,10 @@ public class VarBinaryMinAggregation
     public Slice addInput(int positionCount, Block block, int field, Slice currentMin)
     {
         BlockCursor cursor = block.cursor();
+        if (block instanceof RunLengthEncodedBlock) {
+            // every position has the same value
+            return cursor.advanceNextPosition() ? addInput(cursor, field, currentMin) : currentMin;
+        }
         while (cursor.advanceNextPosition()) {
             currentMin = addInput(cursor, field, currentMin);
         }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.serde;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.SliceInput;
+import io.airlift.slice.SliceOutput;
+
+import static com.facebook.presto.block.BlockUtils.toUncompressedBlock;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Encoding of a sequence of blocks that are each encoded differently.  Every
+ * block is preceded by the id of its encoding, and a dictionary encoded block
+ * is preceded by its own dictionary.  Blocks of any other type are written
+ * as dense arrays if they contain a single long or double column, and
+ * uncompressed otherwise.
+ */
+public class AdaptiveBlockEncoding
+        implements BlockEncoding
+{
+    private static final byte UNCOMPRESSED = 0;
+    private static final byte RUN_LENGTH = 1;
+    private static final byte DICTIONARY = 2;
+    private static final byte ARRAY = 3;
+
+    private final TupleInfo tupleInfo;
+    private final UncompressedBlockEncoding uncompressedBlockEncoding;
+    private final RunLengthBlockEncoding runLengthBlockEncoding;
+    private final ArrayBlockEncoding arrayBlockEncoding;
+
+    public AdaptiveBlockEncoding(TupleInfo tupleInfo)
+    {
+        this.tupleInfo = checkNotNull(tupleInfo, "tupleInfo is null");
+        this.uncompressedBlockEncoding = new UncompressedBlockEncoding(tupleInfo);
+        this.runLengthBlockEncoding = new RunLengthBlockEncoding(tupleInfo);
+        this.arrayBlockEncoding = ArrayBlockEncoding.isSupported(tupleInfo) ? new ArrayBlockEncoding(tupleInfo) : null;
+    }
+
+    public AdaptiveBlockEncoding(SliceInput input)
+    {
+        this(TupleInfoSerde.readTupleInfo(checkNotNull(input, "input is null")));
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public void writeBlock(SliceOutput sliceOutput, Block block)
+    {
+        checkArgument(block.getTupleInfo().equals(tupleInfo), "Invalid tuple info");
+
+        if (block instanceof RunLengthEncodedBlock) {
+            sliceOutput.writeByte(RUN_LENGTH);
+            runLengthBlockEncoding.writeBlock(sliceOutput, block);
+        }
+        else if (block instanceof DictionaryEncodedBlock) {
+            DictionaryEncodedBlock dictionaryBlock = (DictionaryEncodedBlock) block;
+            sliceOutput.writeByte(DICTIONARY);
+            DictionarySerde.writeDictionary(sliceOutput, dictionaryBlock.getDictionary());
+            new AdaptiveBlockEncoding(TupleInfo.SINGLE_LONG).writeBlock(sliceOutput, dictionaryBlock.getIdBlock());
+        }
+        else if (arrayBlockEncoding != null) {
+            sliceOutput.writeByte(ARRAY);
+            arrayBlockEncoding.writeBlock(sliceOutput, block);
+        }
+        else {
+            sliceOutput.writeByte(UNCOMPRESSED);
+            uncompressedBlockEncoding.writeBlock(sliceOutput, toUncompressedBlock(block));
+        }
+    }
+
+    @Override
+    public Block readBlock(SliceInput sliceInput)
+    {
+        byte encoding = sliceInput.readByte();
+        switch (encoding) {
+            case UNCOMPRESSED:
+                return uncompressedBlockEncoding.readBlock(sliceInput);
+            case RUN_LENGTH:
+                return runLengthBlockEncoding.readBlock(sliceInput);
+            case DICTIONARY:
+                Dictionary dictionary = DictionarySerde.readDictionary(sliceInput);
+                Block idBlock = new AdaptiveBlockEncoding(TupleInfo.SINGLE_LONG).readBlock(sliceInput);
+                return new DictionaryEncodedBlock(dictionary, idBlock);
+            case ARRAY:
+                checkArgument(arrayBlockEncoding != null, "array encoding is not supported for %s", tupleInfo);
+                return arrayBlockEncoding.readBlock(sliceInput);
+            default:
+                throw new IllegalArgumentException("unknown block encoding " + encoding);
+        }
+    }
+
+    public static void serialize(SliceOutput output, AdaptiveBlockEncoding encoding)
+    {
+        TupleInfoSerde.writeTupleInfo(output, encoding.tupleInfo);
+    }
+}
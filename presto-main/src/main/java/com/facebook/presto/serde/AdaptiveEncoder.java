@@ -0,0 +1,206 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.serde;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.dictionary.Dictionary.DictionaryBuilder;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.SliceOutput;
+import io.airlift.units.DataSize;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
+
+/**
+ * Chooses the encoding of each block from the values in the block.  Each run of
+ * at least the minimum run length is written as a run length encoded block.  The
+ * values between these runs are written with dictionary encoding if there are
+ * fewer unique values than the cardinality cutoff and the dictionary is smaller
+ * than the raw values, otherwise with no encoding.
+ * <p>
+ * A scan cuts every page at the block boundaries of all scanned columns, so
+ * short runs must not be written as separate blocks, or a single column with short
+ * runs would shrink the pages of the whole scan.
+ */
+public class AdaptiveEncoder
+        implements Encoder
+{
+    public static final int DEFAULT_MIN_RUN_LENGTH = 1024;
+    public static final int DEFAULT_DICTIONARY_CARDINALITY_CUTOFF = 1000;
+
+    private static final int MAX_BLOCK_SIZE = (int) new DataSize(64, KILOBYTE).toBytes();
+
+    public static EncoderFactory createEncoderFactory(final int minRunLength, final int dictionaryCardinalityCutoff)
+    {
+        return new EncoderFactory()
+        {
+            @Override
+            public Encoder createBlocksWriter(SliceOutput sliceOutput)
+            {
+                return new AdaptiveEncoder(sliceOutput, minRunLength, dictionaryCardinalityCutoff);
+            }
+        };
+    }
+
+    private final SliceOutput sliceOutput;
+    private final int minRunLength;
+    private final int dictionaryCardinalityCutoff;
+    private final DynamicSliceOutput buffer = new DynamicSliceOutput(MAX_BLOCK_SIZE);
+
+    private AdaptiveBlockEncoding encoding;
+    private boolean finished;
+    private int tupleCount;
+
+    public AdaptiveEncoder(SliceOutput sliceOutput, int minRunLength, int dictionaryCardinalityCutoff)
+    {
+        checkArgument(minRunLength >= 0, "minRunLength is negative");
+        checkArgument(dictionaryCardinalityCutoff >= 0, "dictionaryCardinalityCutoff is negative");
+        this.sliceOutput = checkNotNull(sliceOutput, "sliceOutput is null");
+        this.minRunLength = minRunLength;
+        this.dictionaryCardinalityCutoff = dictionaryCardinalityCutoff;
+    }
+
+    @Override
+    public Encoder append(Iterable<Tuple> tuples)
+    {
+        checkNotNull(tuples, "tuples is null");
+        checkState(!finished, "already finished");
+
+        for (Tuple tuple : tuples) {
+            if (encoding == null) {
+                encoding = new AdaptiveBlockEncoding(tuple.getTupleInfo());
+            }
+            tuple.writeTo(buffer);
+            tupleCount++;
+
+            if (buffer.size() >= MAX_BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+
+        return this;
+    }
+
+    @Override
+    public BlockEncoding finish()
+    {
+        checkState(encoding != null, "nothing appended");
+        checkState(!finished, "already finished");
+        finished = true;
+
+        if (buffer.size() > 0) {
+            writeBlock();
+        }
+        return encoding;
+    }
+
+    private void writeBlock()
+    {
+        UncompressedBlock block = new UncompressedBlock(tupleCount, encoding.getTupleInfo(), buffer.slice());
+        writeRunLengthEncodedBlocks(block);
+
+        buffer.reset();
+        tupleCount = 0;
+    }
+
+    /**
+     * Writes each run of at least the minimum run length as a run length encoded block, and
+     * the values between these runs as a single block.
+     */
+    private void writeRunLengthEncodedBlocks(UncompressedBlock block)
+    {
+        // start of the values that are not yet written
+        int valuesStart = 0;
+
+        Tuple runTuple = null;
+        int runStart = 0;
+        int position = 0;
+        BlockCursor cursor = block.cursor();
+        while (cursor.advanceNextPosition()) {
+            if (runTuple != null && !cursor.currentTupleEquals(runTuple)) {
+                valuesStart = writeRun(block, valuesStart, runTuple, runStart, position);
+                runTuple = null;
+            }
+            if (runTuple == null) {
+                runTuple = cursor.getTuple();
+                runStart = position;
+            }
+            position++;
+        }
+        valuesStart = writeRun(block, valuesStart, runTuple, runStart, position);
+
+        if (valuesStart == 0) {
+            writeValuesBlock(block);
+        }
+        else if (valuesStart < position) {
+            writeValuesBlock(block.getRegion(valuesStart, position - valuesStart));
+        }
+    }
+
+    /**
+     * Writes the run if it is long enough, after the values before it.
+     *
+     * @return the start of the values that are not yet written
+     */
+    private int writeRun(UncompressedBlock block, int valuesStart, Tuple runTuple, int runStart, int runEnd)
+    {
+        if (runEnd - runStart < minRunLength) {
+            return valuesStart;
+        }
+        if (valuesStart < runStart) {
+            writeValuesBlock(block.getRegion(valuesStart, runStart - valuesStart));
+        }
+        encoding.writeBlock(sliceOutput, new RunLengthEncodedBlock(runTuple, runEnd - runStart));
+        return runEnd;
+    }
+
+    private void writeValuesBlock(Block block)
+    {
+        Set<Tuple> uniqueValues = new HashSet<>();
+        long uniqueValuesSize = 0;
+
+        BlockCursor cursor = block.cursor();
+        while (cursor.advanceNextPosition()) {
+            if (uniqueValues.size() >= dictionaryCardinalityCutoff) {
+                break;
+            }
+            Tuple tuple = cursor.getTuple();
+            if (uniqueValues.add(tuple)) {
+                uniqueValuesSize += tuple.size();
+            }
+        }
+
+        long dictionaryEncodedSize = uniqueValuesSize + (long) block.getPositionCount() * TupleInfo.SINGLE_LONG.getFixedSize();
+        if (uniqueValues.size() < dictionaryCardinalityCutoff && dictionaryEncodedSize < block.getDataSize().toBytes()) {
+            writeDictionaryEncodedBlock(block);
+        }
+        else {
+            encoding.writeBlock(sliceOutput, block);
+        }
+    }
+
+    private void writeDictionaryEncodedBlock(Block block)
+    {
+        DictionaryBuilder dictionaryBuilder = new DictionaryBuilder(block.getTupleInfo());
+        BlockBuilder idBlockBuilder = new BlockBuilder(TupleInfo.SINGLE_LONG);
+
+        BlockCursor cursor = block.cursor();
+        while (cursor.advanceNextPosition()) {
+            idBlockBuilder.append(dictionaryBuilder.getId(cursor.getTuple()));
+        }
+        encoding.writeBlock(sliceOutput, new DictionaryEncodedBlock(dictionaryBuilder.build(), idBlockBuilder.build()));
+    }
+}
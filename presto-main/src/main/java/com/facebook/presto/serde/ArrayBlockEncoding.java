@@ -0,0 +1,131 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.serde;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.block.array.DoubleArrayBlock;
+import com.facebook.presto.block.array.LongArrayBlock;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceInput;
+import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
+
+import java.util.BitSet;
+
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Encoding of a single long or double column as a null bitmap followed by the
+ * dense values.  Blocks of any type are accepted and are always read back as
+ * {@link LongArrayBlock} or {@link DoubleArrayBlock}.
+ */
+public class ArrayBlockEncoding
+        implements BlockEncoding
+{
+    private final TupleInfo tupleInfo;
+
+    public ArrayBlockEncoding(TupleInfo tupleInfo)
+    {
+        checkNotNull(tupleInfo, "tupleInfo is null");
+        checkArgument(isSupported(tupleInfo), "Unsupported tuple info %s", tupleInfo);
+        this.tupleInfo = tupleInfo;
+    }
+
+    public ArrayBlockEncoding(SliceInput input)
+    {
+        this(TupleInfoSerde.readTupleInfo(checkNotNull(input, "input is null")));
+    }
+
+    public static boolean isSupported(TupleInfo tupleInfo)
+    {
+        return tupleInfo.equals(SINGLE_LONG) || tupleInfo.equals(SINGLE_DOUBLE);
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return tupleInfo;
+    }
+
+    @Override
+    public void writeBlock(SliceOutput sliceOutput, Block block)
+    {
+        checkArgument(block.getTupleInfo().equals(tupleInfo), "Invalid tuple info");
+
+        int positionCount = block.getPositionCount();
+        if (block instanceof LongArrayBlock) {
+            LongArrayBlock longBlock = (LongArrayBlock) block;
+            writeNulls(sliceOutput, positionCount, longBlock.getNulls().get(longBlock.getOffset(), longBlock.getOffset() + positionCount));
+            sliceOutput.appendLongs(longBlock.getValues(), longBlock.getOffset(), positionCount);
+            return;
+        }
+        if (block instanceof DoubleArrayBlock) {
+            DoubleArrayBlock doubleBlock = (DoubleArrayBlock) block;
+            writeNulls(sliceOutput, positionCount, doubleBlock.getNulls().get(doubleBlock.getOffset(), doubleBlock.getOffset() + positionCount));
+            sliceOutput.appendDoubles(doubleBlock.getValues(), doubleBlock.getOffset(), positionCount);
+            return;
+        }
+
+        // null positions are written as zero
+        BitSet nulls = new BitSet();
+        Slice values = Slices.allocate(positionCount * SIZE_OF_LONG);
+        BlockCursor cursor = block.cursor();
+        for (int position = 0; position < positionCount; position++) {
+            checkState(cursor.advanceNextPosition());
+            if (cursor.isNull(0)) {
+                nulls.set(position);
+            }
+            else if (tupleInfo.equals(SINGLE_LONG)) {
+                values.setLong(position * SIZE_OF_LONG, cursor.getLong(0));
+            }
+            else {
+                values.setDouble(position * SIZE_OF_LONG, cursor.getDouble(0));
+            }
+        }
+        writeNulls(sliceOutput, positionCount, nulls);
+        sliceOutput.appendBytes(values);
+    }
+
+    private static void writeNulls(SliceOutput sliceOutput, int positionCount, BitSet nulls)
+    {
+        byte[] nullBitmap = nulls.toByteArray();
+        sliceOutput.appendInt(positionCount)
+                .appendInt(nullBitmap.length)
+                .appendBytes(nullBitmap);
+    }
+
+    @Override
+    public Block readBlock(SliceInput sliceInput)
+    {
+        int positionCount = sliceInput.readInt();
+
+        byte[] nullBitmap = new byte[sliceInput.readInt()];
+        sliceInput.readBytes(nullBitmap);
+        BitSet nulls = BitSet.valueOf(nullBitmap);
+
+        Slice values = sliceInput.readSlice(positionCount * SIZE_OF_LONG);
+        if (tupleInfo.equals(SINGLE_LONG)) {
+            long[] longs = new long[positionCount];
+            values.getLongs(0, longs);
+            return new LongArrayBlock(positionCount, longs, nulls);
+        }
+        else {
+            double[] doubles = new double[positionCount];
+            values.getDoubles(0, doubles);
+            return new DoubleArrayBlock(positionCount, doubles, nulls);
+        }
+    }
+
+    public static void serialize(SliceOutput output, ArrayBlockEncoding encoding)
+    {
+        TupleInfoSerde.writeTupleInfo(output, encoding.tupleInfo);
+    }
+}
@@ -18,6 +18,12 @@ public class BlockEncodings
                 return new RunLengthBlockEncoding(input);
             case 2:
                 return new DictionaryBlockEncoding(input);
+            case 3:
+                return new AdaptiveBlockEncoding(input);
+            case 4:
+                return new ArrayBlockEncoding(input);
+            case 5:
+                return new SnappyBlockEncoding(input);
             default:
                 throw new IllegalArgumentException("unknown encoding " + encoding);
         }
@@ -38,6 +44,18 @@ public class BlockEncodings
             output.writeByte(2);
             DictionaryBlockEncoding.serialize(output, (DictionaryBlockEncoding) encoding);
         }
+        else if (encoding instanceof AdaptiveBlockEncoding) {
+            output.writeByte(3);
+            AdaptiveBlockEncoding.serialize(output, (AdaptiveBlockEncoding) encoding);
+        }
+        else if (encoding instanceof ArrayBlockEncoding) {
+            output.writeByte(4);
+            ArrayBlockEncoding.serialize(output, (ArrayBlockEncoding) encoding);
+        }
+        else if (encoding instanceof SnappyBlockEncoding) {
+            output.writeByte(5);
+            SnappyBlockEncoding.serialize(output, (SnappyBlockEncoding) encoding);
+        }
         else {
             throw new IllegalArgumentException("unknown encoding " + encoding);
         }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.serde;
+
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.SliceInput;
+import io.airlift.slice.SliceOutput;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Zone map of a range of positions in a blocks file: the number of positions,
+ * the number of null values and the min and max non-null values.  The min and
+ * max are null if all values are null, or if the values are not a single field
+ * that can be ordered.
+ */
+public class BlockStats
+{
+    private final long positionCount;
+    private final long nullCount;
+    private final Tuple min;
+    private final Tuple max;
+
+    public BlockStats(long positionCount, long nullCount, @Nullable Tuple min, @Nullable Tuple max)
+    {
+        checkArgument(positionCount >= 0, "positionCount is negative");
+        checkArgument(nullCount >= 0 && nullCount <= positionCount, "nullCount is invalid");
+        checkArgument((min == null) == (max == null), "min and max must both be set");
+        this.positionCount = positionCount;
+        this.nullCount = nullCount;
+        this.min = min;
+        this.max = max;
+    }
+
+    public long getPositionCount()
+    {
+        return positionCount;
+    }
+
+    public long getNullCount()
+    {
+        return nullCount;
+    }
+
+    @Nullable
+    public Tuple getMin()
+    {
+        return min;
+    }
+
+    @Nullable
+    public Tuple getMax()
+    {
+        return max;
+    }
+
+    public static void serialize(BlockStats stats, SliceOutput sliceOutput)
+    {
+        sliceOutput.appendLong(stats.getPositionCount())
+                .appendLong(stats.getNullCount());
+
+        if (stats.getMin() == null) {
+            sliceOutput.appendByte(0);
+        }
+        else {
+            sliceOutput.appendByte(1);
+            stats.getMin().writeTo(sliceOutput);
+            stats.getMax().writeTo(sliceOutput);
+        }
+    }
+
+    public static BlockStats deserialize(SliceInput input, TupleInfo tupleInfo)
+    {
+        long positionCount = input.readLong();
+        long nullCount = input.readLong();
+
+        Tuple min = null;
+        Tuple max = null;
+        if (input.readByte() != 0) {
+            min = tupleInfo.extractTuple(input);
+            max = tupleInfo.extractTuple(input);
+        }
+        return new BlockStats(positionCount, nullCount, min, max);
+    }
+}
@@ -3,13 +3,12 @@
  */
 package com.facebook.presto.serde;
 
-
-
 import io.airlift.slice.SliceOutput;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public enum BlocksFileEncoding
+        implements EncoderFactory
 {
     RAW("raw")
             {
@@ -42,6 +41,14 @@ public enum BlocksFileEncoding
                 {
                     return new DictionaryEncoder(new RunLengthEncoder(sliceOutput));
                 }
+            },
+    AUTO("auto")
+            {
+                @Override
+                public Encoder createBlocksWriter(SliceOutput sliceOutput)
+                {
+                    return new AdaptiveEncoder(sliceOutput, AdaptiveEncoder.DEFAULT_MIN_RUN_LENGTH, AdaptiveEncoder.DEFAULT_DICTIONARY_CARDINALITY_CUTOFF);
+                }
             };
 
     private final String name;
@@ -56,5 +63,6 @@ public enum BlocksFileEncoding
         return name;
     }
 
+    @Override
     public abstract Encoder createBlocksWriter(SliceOutput sliceOutput);
 }
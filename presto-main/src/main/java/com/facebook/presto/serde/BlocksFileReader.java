@@ -43,7 +43,7 @@ public class BlocksFileReader
         blockEncoding = BlockEncodings.readBlockEncoding(input);
 
         // read stats
-        stats = BlocksFileStats.deserialize(input);
+        stats = BlocksFileStats.deserialize(input, blockEncoding.getTupleInfo());
 
         blocksSlice = slice.slice(0, footerOffset);
         blockIterable = new EncodedBlockIterable(blockEncoding, blocksSlice, Ints.checkedCast(stats.getRowCount()));
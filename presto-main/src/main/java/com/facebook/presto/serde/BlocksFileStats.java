@@ -3,23 +3,40 @@
  */
 package com.facebook.presto.serde;
 
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
 import io.airlift.slice.Slice;
 import io.airlift.slice.SliceInput;
 import io.airlift.slice.SliceOutput;
 
+import javax.annotation.Nullable;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public class BlocksFileStats
 {
+    // files written before zone maps end the stats after the unique count, so the version
+    // marker is written after it and old readers ignore the rest of the footer
+    private static final byte ZONE_MAPS_VERSION = 1;
+
     private final long rowCount;
     private final long runsCount;
     private final long avgRunLength;
     private final int uniqueCount;
+    private final BlockStats fileStats;
+    private final List<BlockStats> blockStats;
 
-    public BlocksFileStats(long rowCount, long runsCount, long avgRunLength, int uniqueCount)
+    public BlocksFileStats(long rowCount, long runsCount, long avgRunLength, int uniqueCount, BlockStats fileStats, List<BlockStats> blockStats)
     {
         this.rowCount = rowCount;
         this.runsCount = runsCount;
         this.avgRunLength = avgRunLength;
         this.uniqueCount = uniqueCount;
+        this.fileStats = checkNotNull(fileStats, "fileStats is null");
+        this.blockStats = ImmutableList.copyOf(checkNotNull(blockStats, "blockStats is null"));
     }
 
     public static void serialize(BlocksFileStats stats, SliceOutput sliceOutput)
@@ -29,21 +46,43 @@ public class BlocksFileStats
                 .appendLong(stats.getRunsCount())
                 .appendLong(stats.getAvgRunLength())
                 .appendInt(stats.getUniqueCount());
+
+        // write zone maps for the whole file followed by each appended block
+        sliceOutput.appendByte(ZONE_MAPS_VERSION);
+        BlockStats.serialize(stats.fileStats, sliceOutput);
+        sliceOutput.appendInt(stats.getBlockStats().size());
+        for (BlockStats blockStats : stats.getBlockStats()) {
+            BlockStats.serialize(blockStats, sliceOutput);
+        }
     }
 
-    public static BlocksFileStats deserialize(Slice slice)
+    public static BlocksFileStats deserialize(Slice slice, TupleInfo tupleInfo)
     {
         SliceInput input = slice.getInput();
-        return deserialize(input);
+        return deserialize(input, tupleInfo);
     }
 
-    public static BlocksFileStats deserialize(SliceInput input)
+    public static BlocksFileStats deserialize(SliceInput input, TupleInfo tupleInfo)
     {
         long rowCount = input.readLong();
         long runsCount = input.readLong();
         long avgRunLength = input.readLong();
         int uniqueCount = input.readInt();
-        return new BlocksFileStats(rowCount, runsCount, avgRunLength, uniqueCount);
+
+        if (!input.isReadable()) {
+            // the file was written without zone maps, so nothing can be skipped
+            return new BlocksFileStats(rowCount, runsCount, avgRunLength, uniqueCount, new BlockStats(rowCount, 0, null, null), ImmutableList.<BlockStats>of());
+        }
+        byte version = input.readByte();
+        checkArgument(version == ZONE_MAPS_VERSION, "Unsupported column file stats version %s", version);
+
+        BlockStats fileStats = BlockStats.deserialize(input, tupleInfo);
+        int blockCount = input.readInt();
+        ImmutableList.Builder<BlockStats> blockStats = ImmutableList.builder();
+        for (int i = 0; i < blockCount; i++) {
+            blockStats.add(BlockStats.deserialize(input, tupleInfo));
+        }
+        return new BlocksFileStats(rowCount, runsCount, avgRunLength, uniqueCount, fileStats, blockStats.build());
     }
 
     public long getRowCount()
@@ -65,4 +104,40 @@ public class BlocksFileStats
     {
         return uniqueCount;
     }
+
+    public long getNullCount()
+    {
+        return fileStats.getNullCount();
+    }
+
+    /**
+     * @return the smallest non-null value in the file, or null if there is none or the values cannot be ordered
+     */
+    @Nullable
+    public Tuple getMin()
+    {
+        return fileStats.getMin();
+    }
+
+    /**
+     * @return the largest non-null value in the file, or null if there is none or the values cannot be ordered
+     */
+    @Nullable
+    public Tuple getMax()
+    {
+        return fileStats.getMax();
+    }
+
+    public BlockStats getFileStats()
+    {
+        return fileStats;
+    }
+
+    /**
+     * @return the stats of each block appended to the file, in position order
+     */
+    public List<BlockStats> getBlockStats()
+    {
+        return blockStats;
+    }
 }
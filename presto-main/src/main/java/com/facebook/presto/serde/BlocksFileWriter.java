@@ -26,17 +26,17 @@ import static com.google.common.base.Preconditions.checkState;
 
 public class BlocksFileWriter implements Closeable
 {
-    public static void writeBlocks(BlocksFileEncoding encoding, OutputSupplier<? extends OutputStream> sliceOutput, Block... blocks)
+    public static void writeBlocks(EncoderFactory encoding, OutputSupplier<? extends OutputStream> sliceOutput, Block... blocks)
     {
         writeBlocks(encoding, sliceOutput, ImmutableList.copyOf(blocks));
     }
 
-    public static void writeBlocks(BlocksFileEncoding encoding, OutputSupplier<? extends OutputStream> sliceOutput, Iterable<? extends Block> blocks)
+    public static void writeBlocks(EncoderFactory encoding, OutputSupplier<? extends OutputStream> sliceOutput, Iterable<? extends Block> blocks)
     {
         writeBlocks(encoding, sliceOutput, blocks.iterator());
     }
 
-    public static void writeBlocks(BlocksFileEncoding encoding, OutputSupplier<? extends OutputStream> sliceOutput, Iterator<? extends Block> blocks)
+    public static void writeBlocks(EncoderFactory encoding, OutputSupplier<? extends OutputStream> sliceOutput, Iterator<? extends Block> blocks)
     {
         checkNotNull(sliceOutput, "sliceOutput is null");
         BlocksFileWriter fileWriter = new BlocksFileWriter(encoding, sliceOutput);
@@ -46,19 +46,19 @@ public class BlocksFileWriter implements Closeable
         fileWriter.close();
     }
 
-    private final BlocksFileEncoding encoding;
+    private final EncoderFactory encoderFactory;
     private final OutputSupplier<? extends OutputStream> outputSupplier;
     private final StatsBuilder statsBuilder = new StatsBuilder();
     private Encoder encoder;
     private SliceOutput sliceOutput;
     private boolean closed;
 
-    public BlocksFileWriter(BlocksFileEncoding encoding, OutputSupplier<? extends OutputStream> outputSupplier)
+    public BlocksFileWriter(EncoderFactory encoderFactory, OutputSupplier<? extends OutputStream> outputSupplier)
     {
-        checkNotNull(encoding, "encoding is null");
+        checkNotNull(encoderFactory, "encoderFactory is null");
         checkNotNull(outputSupplier, "outputSupplier is null");
 
-        this.encoding = encoding;
+        this.encoderFactory = encoderFactory;
         this.outputSupplier = outputSupplier;
     }
 
@@ -84,7 +84,7 @@ public class BlocksFileWriter implements Closeable
             } else {
                 sliceOutput = new OutputStreamSliceOutput(outputStream);
             }
-            encoder = encoding.createBlocksWriter(sliceOutput);
+            encoder = encoderFactory.createBlocksWriter(sliceOutput);
         }
         catch (IOException e) {
             throw Throwables.propagate(e);
@@ -128,11 +128,14 @@ public class BlocksFileWriter implements Closeable
         private long runsCount;
         private Tuple lastTuple;
         private final Set<Tuple> set = new HashSet<>(MAX_UNIQUE_COUNT);
+        private final BlockStatsBuilder fileStats = new BlockStatsBuilder();
+        private final ImmutableList.Builder<BlockStats> blockStats = ImmutableList.builder();
 
         public void process(Iterable<Tuple> tuples)
         {
             Preconditions.checkNotNull(tuples, "tuples is null");
 
+            BlockStatsBuilder currentBlockStats = new BlockStatsBuilder();
             for (Tuple tuple : tuples) {
                 if (lastTuple == null) {
                     lastTuple = tuple;
@@ -148,13 +151,73 @@ public class BlocksFileWriter implements Closeable
                     }
                 }
                 rowCount++;
+                fileStats.add(tuple);
+                currentBlockStats.add(tuple);
             }
+            blockStats.add(currentBlockStats.build());
         }
 
         public BlocksFileStats build()
         {
             // TODO: expose a way to indicate whether the unique count is EXACT or APPROXIMATE
-            return new BlocksFileStats(rowCount, runsCount + 1, rowCount / (runsCount + 1), (set.size() == MAX_UNIQUE_COUNT) ? Integer.MAX_VALUE : set.size());
+            return new BlocksFileStats(rowCount,
+                    runsCount + 1,
+                    rowCount / (runsCount + 1),
+                    (set.size() == MAX_UNIQUE_COUNT) ? Integer.MAX_VALUE : set.size(),
+                    fileStats.build(),
+                    blockStats.build());
+        }
+    }
+
+    private static class BlockStatsBuilder
+    {
+        private long positionCount;
+        private long nullCount;
+        private Tuple min;
+        private Tuple max;
+
+        public void add(Tuple tuple)
+        {
+            positionCount++;
+
+            // only single field values have a natural order
+            if (tuple.getTupleInfo().getFieldCount() != 1) {
+                return;
+            }
+            if (tuple.isNull(0)) {
+                nullCount++;
+                return;
+            }
+
+            if (min == null) {
+                min = tuple;
+                max = tuple;
+            }
+            else if (compare(tuple, min) < 0) {
+                min = tuple;
+            }
+            else if (compare(tuple, max) > 0) {
+                max = tuple;
+            }
+        }
+
+        public BlockStats build()
+        {
+            return new BlockStats(positionCount, nullCount, min, max);
+        }
+
+        private static int compare(Tuple left, Tuple right)
+        {
+            switch (left.getTupleInfo().getTypes().get(0)) {
+                case FIXED_INT_64:
+                    return Long.compare(left.getLong(0), right.getLong(0));
+                case DOUBLE:
+                    return Double.compare(left.getDouble(0), right.getDouble(0));
+                case VARIABLE_BINARY:
+                    return left.getSlice(0).compareTo(right.getSlice(0));
+                default:
+                    throw new AssertionError("Unimplemented type: " + left.getTupleInfo().getTypes().get(0));
+            }
         }
     }
 }
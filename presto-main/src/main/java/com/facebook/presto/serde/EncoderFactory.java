@@ -0,0 +1,14 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.serde;
+
+import io.airlift.slice.SliceOutput;
+
+public interface EncoderFactory
+{
+    /**
+     * Creates an encoder that writes blocks to the specified output
+     */
+    Encoder createBlocksWriter(SliceOutput sliceOutput);
+}
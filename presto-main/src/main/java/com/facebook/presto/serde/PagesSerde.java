@@ -5,14 +5,20 @@ package com.facebook.presto.serde;
 
 import com.facebook.presto.block.Block;
 import com.facebook.presto.operator.Page;
+import io.airlift.slice.InputStreamSliceInput;
+import io.airlift.slice.Slice;
 import io.airlift.slice.SliceInput;
 import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.io.InputSupplier;
+import com.google.common.primitives.Ints;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -20,11 +26,21 @@ import static java.util.Arrays.asList;
 
 public final class PagesSerde
 {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
     private PagesSerde()
     {
     }
 
-    public static PagesWriter createPagesWriter(final SliceOutput sliceOutput)
+    public static PagesWriter createPagesWriter(SliceOutput sliceOutput)
+    {
+        return createPagesWriter(sliceOutput, false);
+    }
+
+    /**
+     * @param compressed if true, every block is compressed with Snappy; the reader detects this from the block encodings
+     */
+    public static PagesWriter createPagesWriter(final SliceOutput sliceOutput, final boolean compressed)
     {
         checkNotNull(sliceOutput, "sliceOutput is null");
         return new PagesWriter()
@@ -41,8 +57,11 @@ public final class PagesSerde
                     blockEncodings = new BlockEncoding[blocks.length];
                     sliceOutput.writeInt(blocks.length);
                     for (int i = 0; i < blocks.length; i++) {
-                        Block block = blocks[i];
-                        BlockEncoding blockEncoding = block.getEncoding();
+                        // the blocks of later pages may be encoded differently, so the encoding is chosen per block
+                        BlockEncoding blockEncoding = new AdaptiveBlockEncoding(blocks[i].getTupleInfo());
+                        if (compressed) {
+                            blockEncoding = new SnappyBlockEncoding(blockEncoding);
+                        }
                         blockEncodings[i] = blockEncoding;
                         BlockEncodings.writeBlockEncoding(sliceOutput, blockEncoding);
                     }
@@ -70,7 +89,12 @@ public final class PagesSerde
 
     public static void writePages(SliceOutput sliceOutput, Iterator<Page> pages)
     {
-        PagesWriter pagesWriter = createPagesWriter(sliceOutput);
+        writePages(sliceOutput, pages, false);
+    }
+
+    public static void writePages(SliceOutput sliceOutput, Iterator<Page> pages, boolean compressed)
+    {
+        PagesWriter pagesWriter = createPagesWriter(sliceOutput, compressed);
         while (pages.hasNext()) {
             pagesWriter.append(pages.next());
         }
@@ -101,6 +125,56 @@ public final class PagesSerde
         return new PagesReader(sliceInput);
     }
 
+    /**
+     * Reads all pages of a stream, such as the body of a response.
+     * <p/>
+     * When the size of the stream is known, the stream is read into a single slice, and the
+     * uncompressed blocks of the pages are views of that slice.  Those views retain the whole
+     * stream, so operators that hold on to blocks, such as {@link com.facebook.presto.operator.PagesIndex},
+     * copy them.  Otherwise, the stream is read block by block and each block is copied into
+     * a slice of its own size, which avoids copying a growing buffer.
+     * <p/>
+     * The views only apply to blocks written with the uncompressed, dictionary or run length
+     * encodings of an uncompressed stream.  Compressed blocks are decompressed into an array of
+     * the block size, and array blocks copy their values into primitive arrays, so the stream
+     * is garbage once it has been read.
+     *
+     * @param expectedSize the size of the stream if known, or -1
+     */
+    public static Iterator<Page> readPages(InputStream input, long expectedSize)
+            throws IOException
+    {
+        checkNotNull(input, "input is null");
+        if (expectedSize < 0) {
+            return readPages(new InputStreamSliceInput(input));
+        }
+        return readPages(readFully(input, expectedSize).getInput());
+    }
+
+    private static Slice readFully(InputStream input, long expectedSize)
+            throws IOException
+    {
+        byte[] buffer = new byte[Ints.checkedCast(expectedSize)];
+        int size = 0;
+        while (true) {
+            if (size == buffer.length) {
+                // the buffer is only grown if the stream is longer than expected
+                int next = input.read();
+                if (next < 0) {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, DEFAULT_BUFFER_SIZE));
+                buffer[size++] = (byte) next;
+            }
+            int read = input.read(buffer, size, buffer.length - size);
+            if (read < 0) {
+                break;
+            }
+            size += read;
+        }
+        return Slices.wrappedBuffer(buffer, 0, size);
+    }
+
     private static class PagesReader extends AbstractIterator<Page>
     {
         private final BlockEncoding[] blockEncodings;
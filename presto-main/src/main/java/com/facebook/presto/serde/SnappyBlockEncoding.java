@@ -0,0 +1,88 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.serde;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.tuple.TupleInfo;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceInput;
+import io.airlift.slice.SliceOutput;
+import io.airlift.slice.Slices;
+import org.iq80.snappy.Snappy;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compresses each block written by another encoding with Snappy.  A block is
+ * preceded by its uncompressed and compressed sizes, and a block that does not
+ * get smaller is written uncompressed, which is marked by equal sizes.
+ */
+public class SnappyBlockEncoding
+        implements BlockEncoding
+{
+    private final BlockEncoding blockEncoding;
+
+    public SnappyBlockEncoding(BlockEncoding blockEncoding)
+    {
+        this.blockEncoding = checkNotNull(blockEncoding, "blockEncoding is null");
+    }
+
+    public SnappyBlockEncoding(SliceInput input)
+    {
+        this(BlockEncodings.readBlockEncoding(checkNotNull(input, "input is null")));
+    }
+
+    @Override
+    public TupleInfo getTupleInfo()
+    {
+        return blockEncoding.getTupleInfo();
+    }
+
+    @Override
+    public void writeBlock(SliceOutput sliceOutput, Block block)
+    {
+        DynamicSliceOutput blockOutput = new DynamicSliceOutput((int) block.getDataSize().toBytes() + 64);
+        blockEncoding.writeBlock(blockOutput, block);
+        byte[] uncompressed = blockOutput.slice().getBytes();
+
+        byte[] compressed = new byte[Snappy.maxCompressedLength(uncompressed.length)];
+        int compressedSize = Snappy.compress(uncompressed, 0, uncompressed.length, compressed, 0);
+
+        sliceOutput.writeInt(uncompressed.length);
+        if (compressedSize < uncompressed.length) {
+            sliceOutput.writeInt(compressedSize);
+            sliceOutput.writeBytes(compressed, 0, compressedSize);
+        }
+        else {
+            sliceOutput.writeInt(uncompressed.length);
+            sliceOutput.writeBytes(uncompressed);
+        }
+    }
+
+    @Override
+    public Block readBlock(SliceInput sliceInput)
+    {
+        int uncompressedSize = sliceInput.readInt();
+        int compressedSize = sliceInput.readInt();
+
+        Slice block;
+        if (compressedSize == uncompressedSize) {
+            block = sliceInput.readSlice(uncompressedSize);
+        }
+        else {
+            // decompress directly from the input when it is backed by a slice
+            Slice compressed = sliceInput.readSlice(compressedSize);
+            byte[] uncompressed = new byte[uncompressedSize];
+            Snappy.uncompress(compressed.byteArray(), compressed.byteArrayOffset(), compressedSize, uncompressed, 0);
+            block = Slices.wrappedBuffer(uncompressed);
+        }
+        return blockEncoding.readBlock(block.getInput());
+    }
+
+    public static void serialize(SliceOutput output, SnappyBlockEncoding encoding)
+    {
+        BlockEncodings.writeBlockEncoding(output, encoding.blockEncoding);
+    }
+}
@@ -41,7 +41,33 @@ public class UncompressedBlockEncoding
         Preconditions.checkArgument(block.getTupleInfo().equals(tupleInfo), "Invalid tuple info");
         writeUncompressedBlock(sliceOutput,
                 uncompressedBlock.getPositionCount(),
-                uncompressedBlock.getSlice());
+                getBlockSlice(uncompressedBlock));
+    }
+
+    private static Slice getBlockSlice(UncompressedBlock block)
+    {
+        // a fixed width region of another block shares the slice of the other block
+        Slice slice = block.getSlice();
+        TupleInfo tupleInfo = block.getTupleInfo();
+        int offset = block.getSliceOffset();
+        int end;
+        if (tupleInfo.getFixedSize() != -1) {
+            end = offset + block.getPositionCount() * tupleInfo.getFixedSize();
+        }
+        else if (offset == 0) {
+            // variable width blocks, including regions, always hold exactly their own tuples
+            return slice;
+        }
+        else {
+            end = offset;
+            for (int position = 0; position < block.getPositionCount(); position++) {
+                end += tupleInfo.size(slice, end);
+            }
+        }
+        if (offset == 0 && end == slice.length()) {
+            return slice;
+        }
+        return slice.slice(offset, end - offset);
     }
 
     @Override
@@ -50,6 +76,7 @@ public class UncompressedBlockEncoding
         int blockSize = sliceInput.readInt();
         int tupleCount = sliceInput.readInt();
 
+        // the block is a view of the input when the input is backed by a slice
         Slice block = sliceInput.readSlice(blockSize);
         return new UncompressedBlock(tupleCount, tupleInfo, block);
     }
@@ -4,7 +4,7 @@
 package com.facebook.presto.server;
 
 import com.facebook.presto.execution.ExchangePlanFragmentSource;
-import com.facebook.presto.sql.planner.TableScanPlanFragmentSource;
+import com.facebook.presto.execution.QueryManagerConfig;
 import com.facebook.presto.execution.TaskInfo;
 import com.facebook.presto.metadata.ColumnHandle;
 import com.facebook.presto.operator.ForExchange;
@@ -12,9 +12,12 @@ import com.facebook.presto.operator.Operator;
 import com.facebook.presto.split.DataStreamProvider;
 import com.facebook.presto.sql.planner.PlanFragmentSource;
 import com.facebook.presto.sql.planner.PlanFragmentSourceProvider;
+import com.facebook.presto.sql.planner.TableScanPlanFragmentSource;
 import com.google.common.base.Function;
 import io.airlift.http.client.HttpClient;
 import io.airlift.json.JsonCodec;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
@@ -35,20 +38,23 @@ public class HackPlanFragmentSourceProvider
     private final DataStreamProvider dataStreamProvider;
     private final ExecutorService executor;
     private final JsonCodec<TaskInfo> taskInfoCodec;
-    private final int pageBufferMax;
+    private final DataSize maxBufferSize;
+    private final boolean compressionEnabled;
 
     private final HttpClient httpClient;
 
     @Inject
-    public HackPlanFragmentSourceProvider(DataStreamProvider dataStreamProvider, @ForExchange HttpClient httpClient, JsonCodec<TaskInfo> taskInfoCodec)
+    public HackPlanFragmentSourceProvider(DataStreamProvider dataStreamProvider, @ForExchange HttpClient httpClient, JsonCodec<TaskInfo> taskInfoCodec, QueryManagerConfig config)
     {
         this.dataStreamProvider = checkNotNull(dataStreamProvider, "dataStreamProvider is null");
         this.httpClient = httpClient;
         this.taskInfoCodec = checkNotNull(taskInfoCodec, "taskInfoCodec is null");
+        checkNotNull(config, "config is null");
+        this.compressionEnabled = config.isExchangeCompressionEnabled();
 
         executor = Executors.newCachedThreadPool(threadsNamed("http-exchange-worker-%d"));
 
-        this.pageBufferMax = 10;
+        this.maxBufferSize = new DataSize(10, Unit.MEGABYTE);
     }
 
     @Override
@@ -57,7 +63,7 @@ public class HackPlanFragmentSourceProvider
         checkNotNull(source, "source is null");
         if (source instanceof ExchangePlanFragmentSource) {
             final ExchangePlanFragmentSource exchangeSource = (ExchangePlanFragmentSource) source;
-            return new QueryDriversOperator(pageBufferMax, exchangeSource.getTupleInfos(), transform(exchangeSource.getSources().entrySet(),
+            return new QueryDriversOperator(maxBufferSize, exchangeSource.getTupleInfos(), transform(exchangeSource.getSources().entrySet(),
                     new Function<Entry<String, URI>, QueryDriverProvider>()
                     {
                         @Override
@@ -69,7 +75,8 @@ public class HackPlanFragmentSourceProvider
                                     exchangeSource.getOutputId(),
                                     httpClient,
                                     executor,
-                                    taskInfoCodec
+                                    taskInfoCodec,
+                                    compressionEnabled
                             );
                         }
                     }));
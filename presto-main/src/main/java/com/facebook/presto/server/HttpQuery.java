@@ -9,60 +9,123 @@ import com.facebook.presto.serde.PagesSerde;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HttpHeaders;
 import io.airlift.http.client.AsyncHttpClient;
 import io.airlift.http.client.Request;
 import io.airlift.http.client.Response;
 import io.airlift.http.client.ResponseHandler;
 import io.airlift.http.client.UnexpectedResponseException;
 import io.airlift.log.Logger;
-import io.airlift.slice.InputStreamSliceInput;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response.Status;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_MAX_SIZE;
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_PAGES_COMPRESSION;
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_PAGE_SEQUENCE;
+import static com.facebook.presto.server.PrestoHeaders.SNAPPY_COMPRESSION;
 import static com.facebook.presto.server.PrestoMediaTypes.PRESTO_PAGES_TYPE;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static io.airlift.http.client.Request.Builder.prepareDelete;
 import static io.airlift.http.client.Request.Builder.prepareGet;
 import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
 
+/**
+ * Reads the pages of a task output into a page buffer.  Up to {@code maxOutstandingRequests}
+ * requests for at most {@code maxResponseSize} are kept in flight, so the next pages are fetched
+ * while a response is processed.  A request beyond the first one reserves room for a full response
+ * in the page buffer, so prefetching is bounded by the size of the page buffer.
+ * <p/>
+ * The server numbers the pages of an output, so the pages are added to the page buffer in order,
+ * regardless of the order in which the responses arrive.  A response without pages has the number of
+ * pages sent so far, so once no request is in flight, pages that were sent but never arrived fail the
+ * query, including the last pages of the output.
+ * <p/>
+ * A failed request is sent again after a delay, which doubles with each consecutive failure.
+ * <p/>
+ * If compression is enabled, the server is asked to compress the blocks of the pages, which
+ * the page reader detects from the block encodings.
+ */
 @ThreadSafe
 public class HttpQuery
         implements QueryDriver
 {
     private static final Logger log = Logger.get(HttpQuery.class);
+    private static final Duration MIN_ERROR_BACKOFF = new Duration(50, TimeUnit.MILLISECONDS);
+    private static final Duration MAX_ERROR_BACKOFF = new Duration(2, TimeUnit.SECONDS);
+
     private final URI location;
     private final PageBuffer outputBuffer;
     private final AsyncHttpClient httpClient;
+    private final DataSize maxResponseSize;
+    private final int maxOutstandingRequests;
+    private final boolean compressionEnabled;
 
     @GuardedBy("this")
     private boolean done;
 
+    // the server has no more pages
+    @GuardedBy("this")
+    private boolean finished;
+
+    @GuardedBy("this")
+    private int outstandingRequests;
+
+    @GuardedBy("this")
+    private final List<Future<Void>> currentRequests = new ArrayList<>();
+
+    // responses that arrived before the responses with the preceding pages, by the sequence of the first page
+    @GuardedBy("this")
+    private final SortedMap<Long, PageResponse> pendingResponses = new TreeMap<>();
+
+    @GuardedBy("this")
+    private long nextPageSequence;
+
+    // the number of pages the server has sent, as reported by the responses received so far
+    @GuardedBy("this")
+    private long sentPages;
+
+    @GuardedBy("this")
+    private int consecutiveErrors;
+
+    // only one thread adds pages to the output buffer, so the pages are added in order
     @GuardedBy("this")
-    private Future<Void> currentRequest;
+    private boolean addingPages;
 
-    public HttpQuery(URI location, PageBuffer outputBuffer, AsyncHttpClient httpClient)
+    public HttpQuery(URI location, PageBuffer outputBuffer, AsyncHttpClient httpClient, DataSize maxResponseSize, int maxOutstandingRequests, boolean compressionEnabled)
     {
         checkNotNull(location, "location is null");
         checkNotNull(outputBuffer, "outputBuffer is null");
         checkNotNull(httpClient, "httpClient is null");
+        checkNotNull(maxResponseSize, "maxResponseSize is null");
+        Preconditions.checkArgument(maxOutstandingRequests > 0, "maxOutstandingRequests must be at least 1");
 
         this.location = location;
         this.outputBuffer = outputBuffer;
         this.httpClient = httpClient;
+        this.maxResponseSize = maxResponseSize;
+        this.maxOutstandingRequests = maxOutstandingRequests;
+        this.compressionEnabled = compressionEnabled;
     }
 
     @Override
     public synchronized void start()
     {
         Preconditions.checkState(!done, "Query is already finished");
-        PageResponseHandler responseHandler = new PageResponseHandler(location);
-        responseHandler.rescheduleRequest();
+        scheduleRequests();
     }
 
     @Override
@@ -77,10 +140,11 @@ public class HttpQuery
         if (!done) {
             outputBuffer.sourceFinished();
             done = true;
-            if (currentRequest != null) {
-                currentRequest.cancel(true);
-                currentRequest = null;
+            for (Future<Void> request : currentRequests) {
+                request.cancel(true);
             }
+            currentRequests.clear();
+            releasePendingResponses();
             // abort the output buffer on the remote node; response of delete is ignored
             httpClient.execute(prepareDelete().setUri(location).build(), createStatusResponseHandler());
         }
@@ -91,29 +155,223 @@ public class HttpQuery
         if (!done) {
             outputBuffer.sourceFinished();
             done = true;
-            currentRequest = null;
+            currentRequests.clear();
         }
     }
 
     private synchronized void fail(Throwable throwable)
     {
         done = true;
+        releasePendingResponses();
         outputBuffer.queryFailed(throwable);
     }
 
-    private synchronized void setCurrentRequest(Future<Void> currentRequest)
+    /**
+     * Drops the responses that will never be added once the query is done, so their reservations are returned.
+     */
+    @GuardedBy("this")
+    private void releasePendingResponses()
+    {
+        for (PageResponse response : pendingResponses.values()) {
+            response.release();
+        }
+        pendingResponses.clear();
+    }
+
+    private synchronized void scheduleRequests()
+    {
+        while (!done && !finished && outstandingRequests < maxOutstandingRequests) {
+            // a request is always sent when nothing is in flight or waiting to be added, so a full buffer does not stall the query
+            boolean reserved = outputBuffer.tryReserve(maxResponseSize);
+            if (!reserved && (outstandingRequests > 0 || !pendingResponses.isEmpty())) {
+                break;
+            }
+
+            outstandingRequests++;
+            Request.Builder request = prepareGet()
+                    .setUri(location)
+                    .setHeader(PRESTO_MAX_SIZE, maxResponseSize.toString());
+            if (compressionEnabled) {
+                request.setHeader(PRESTO_PAGES_COMPRESSION, SNAPPY_COMPRESSION);
+            }
+            currentRequests.add(httpClient.execute(request.build(), new PageResponseHandler(reserved)));
+        }
+
+        for (Iterator<Future<Void>> iterator = currentRequests.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @param sentPages the number of pages the server reported as sent, or zero if unknown
+     */
+    private void responseReceived(PageResponse response, boolean gone, long sentPages)
+    {
+        synchronized (this) {
+            outstandingRequests--;
+            if (gone) {
+                finished = true;
+            }
+            this.sentPages = Math.max(this.sentPages, sentPages);
+            if (!done && !response.getPages().isEmpty()) {
+                pendingResponses.put(response.getStartingSequence(), response);
+                response = null;
+            }
+        }
+        if (response != null) {
+            response.release();
+        }
+
+        try {
+            addPages();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+            return;
+        }
+        catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+
+        synchronized (this) {
+            checkFinished();
+            scheduleRequests();
+        }
+    }
+
+    /**
+     * Adds the pending pages that follow the pages already added to the output buffer.  The output
+     * buffer may block, so the pages are added without holding the lock.
+     */
+    private void addPages()
+            throws InterruptedException
+    {
+        synchronized (this) {
+            if (addingPages) {
+                return;
+            }
+            addingPages = true;
+        }
+
+        boolean finishedAdding = false;
+        try {
+            while (true) {
+                PageResponse response;
+                synchronized (this) {
+                    response = done ? null : pendingResponses.remove(nextPageSequence);
+                    if (response == null) {
+                        addingPages = false;
+                        finishedAdding = true;
+                        return;
+                    }
+                    nextPageSequence += response.getPages().size();
+                }
+
+                for (Page page : response.getPages()) {
+                    outputBuffer.addPage(page);
+                }
+                response.release();
+            }
+        }
+        finally {
+            if (!finishedAdding) {
+                synchronized (this) {
+                    addingPages = false;
+                }
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void checkFinished()
+    {
+        if (done || addingPages || outstandingRequests > 0) {
+            return;
+        }
+        if (!pendingResponses.isEmpty()) {
+            // no request in flight can contain the missing pages
+            fail(new IllegalStateException(String.format("Pages %s to %s of %s were lost", nextPageSequence, pendingResponses.firstKey() - 1, location)));
+            return;
+        }
+        if (nextPageSequence < sentPages) {
+            // the responses with the last pages sent were lost
+            fail(new IllegalStateException(String.format("Pages %s to %s of %s were lost", nextPageSequence, sentPages - 1, location)));
+            return;
+        }
+        if (finished) {
+            done();
+        }
+    }
+
+    /**
+     * Waits before the failed request is sent again, so a failing server is not flooded with requests.
+     */
+    private void backOff()
     {
-        this.currentRequest = currentRequest;
+        long delayMillis;
+        synchronized (this) {
+            consecutiveErrors++;
+            delayMillis = Math.min((long) MIN_ERROR_BACKOFF.toMillis() << Math.min(consecutiveErrors - 1, 16), (long) MAX_ERROR_BACKOFF.toMillis());
+        }
+        try {
+            Thread.sleep(delayMillis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void requestSucceeded()
+    {
+        consecutiveErrors = 0;
+    }
+
+    private class PageResponse
+    {
+        private final long startingSequence;
+        private final List<Page> pages;
+        private final boolean reserved;
+
+        private PageResponse(long startingSequence, List<Page> pages, boolean reserved)
+        {
+            this.startingSequence = startingSequence;
+            this.pages = pages;
+            this.reserved = reserved;
+        }
+
+        public long getStartingSequence()
+        {
+            return startingSequence;
+        }
+
+        public List<Page> getPages()
+        {
+            return pages;
+        }
+
+        /**
+         * Releases the room reserved for the response, once the pages are in the output buffer or dropped.
+         */
+        public void release()
+        {
+            if (reserved) {
+                outputBuffer.release(maxResponseSize);
+            }
+        }
     }
 
-    public class PageResponseHandler
+    private class PageResponseHandler
             implements ResponseHandler<Void, RuntimeException>
     {
-        private final URI queryUri;
+        private final boolean reserved;
 
-        public PageResponseHandler(URI queryUri)
+        private PageResponseHandler(boolean reserved)
         {
-            this.queryUri = queryUri;
+            this.reserved = reserved;
         }
 
         @Override
@@ -121,61 +379,87 @@ public class HttpQuery
         {
             // reschedule on error
             log.warn(exception, "Error fetching pages from  %s", request.getUri());
-            rescheduleRequest();
+            backOff();
+            responseReceived(new PageResponse(0, ImmutableList.<Page>of(), reserved), false, 0);
             throw Throwables.propagate(exception);
         }
 
         @Override
         public Void handle(Request request, Response response)
         {
-            if (isDone()) {
-                return null;
-            }
-
+            long startingSequence = 0;
+            List<Page> pages = ImmutableList.of();
+            long sentPages = 0;
+            boolean gone = false;
+            boolean failed = false;
             try {
                 // job is finished when we get a GONE response
                 if (response.getStatusCode() == Status.GONE.getStatusCode()) {
-                    done();
-                    return null;
+                    gone = true;
+                    sentPages = getSentPages(response);
                 }
                 // no content means no content was created within the wait period, but query is still ok
-                if (response.getStatusCode() != Status.NO_CONTENT.getStatusCode()) {
+                else if (response.getStatusCode() == Status.NO_CONTENT.getStatusCode()) {
+                    sentPages = getSentPages(response);
+                }
+                else {
                     // otherwise we must have gotten an OK response, everything else is considered fatal
                     if (response.getStatusCode() != Status.OK.getStatusCode()) {
                         log.debug("Expected response code to be 200, but was %s: request=%s, response=%s", response.getStatusCode(), request, response);
-                        return null;
-                    }
-
-                    String contentType = response.getHeader("Content-Type");
-                    if (!MediaType.valueOf(contentType).isCompatible(PRESTO_PAGES_TYPE)) {
-                        throw new UnexpectedResponseException(String.format("Expected %s response from server but got %s", PRESTO_PAGES_TYPE, contentType), request, response);
+                        failed = true;
                     }
+                    else {
+                        String contentType = response.getHeader("Content-Type");
+                        if (!MediaType.valueOf(contentType).isCompatible(PRESTO_PAGES_TYPE)) {
+                            throw new UnexpectedResponseException(String.format("Expected %s response from server but got %s", PRESTO_PAGES_TYPE, contentType), request, response);
+                        }
+                        String sequence = response.getHeader(PRESTO_PAGE_SEQUENCE);
+                        if (sequence == null) {
+                            throw new UnexpectedResponseException(String.format("Expected %s header in response from server", PRESTO_PAGE_SEQUENCE), request, response);
+                        }
 
-                    InputStreamSliceInput sliceInput = new InputStreamSliceInput(response.getInputStream());
-
-                    Iterator<Page> pageIterator = PagesSerde.readPages(sliceInput);
-                    while (pageIterator.hasNext()) {
-                        Page page = pageIterator.next();
-                        outputBuffer.addPage(page);
+                        pages = ImmutableList.copyOf(PagesSerde.readPages(response.getInputStream(), getContentLength(response)));
+                        startingSequence = Long.parseLong(sequence);
+                        sentPages = startingSequence + pages.size();
                     }
                 }
             }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                fail(e);
-                throw Throwables.propagate(e);
-            }
             catch (Exception e) {
                 // reschedule on error
                 log.warn(e, "Error fetching pages from  %s: status: %s %s", request.getUri(), response.getStatusCode(), response.getStatusMessage());
+                failed = true;
+            }
+
+            if (failed) {
+                backOff();
             }
-            rescheduleRequest();
+            else {
+                requestSucceeded();
+            }
+            responseReceived(new PageResponse(startingSequence, pages, reserved), gone, sentPages);
             return null;
         }
 
-        private void rescheduleRequest()
+        /**
+         * Returns the number of pages sent by the server, which is the sequence of the next page in a response without pages.
+         */
+        private long getSentPages(Response response)
+        {
+            String sequence = response.getHeader(PRESTO_PAGE_SEQUENCE);
+            if (sequence == null) {
+                // the server does not know the output anymore
+                return 0;
+            }
+            return Long.parseLong(sequence);
+        }
+
+        private long getContentLength(Response response)
         {
-            setCurrentRequest(httpClient.execute(prepareGet().setUri(queryUri).build(), this));
+            String contentLength = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+            if (contentLength == null) {
+                return -1;
+            }
+            return Long.parseLong(contentLength);
         }
     }
 }
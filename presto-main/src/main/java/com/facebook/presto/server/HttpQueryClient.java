@@ -24,6 +24,8 @@ import io.airlift.http.client.HttpClient;
 import io.airlift.http.client.HttpUriBuilder;
 import io.airlift.http.client.Request;
 import io.airlift.json.JsonCodec;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 
 import javax.annotation.concurrent.ThreadSafe;
 import javax.ws.rs.core.Response.Status;
@@ -171,7 +173,7 @@ public class HttpQueryClient
         }
 
         StageInfo outputStage = queryInfo.getOutputStage();
-        return new QueryDriversOperator(10, outputStage.getTupleInfos(), Iterables.transform(outputStage.getTasks(), new Function<TaskInfo, QueryDriverProvider>()
+        return new QueryDriversOperator(new DataSize(10, Unit.MEGABYTE), outputStage.getTupleInfos(), Iterables.transform(outputStage.getTasks(), new Function<TaskInfo, QueryDriverProvider>()
         {
             @Override
             public QueryDriverProvider apply(TaskInfo taskInfo)
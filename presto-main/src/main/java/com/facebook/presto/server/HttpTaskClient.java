@@ -12,6 +12,8 @@ import io.airlift.http.client.FullJsonResponseHandler.JsonResponse;
 import io.airlift.http.client.HttpClient;
 import io.airlift.http.client.Request;
 import io.airlift.json.JsonCodec;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 
 import javax.annotation.concurrent.ThreadSafe;
 import javax.ws.rs.core.Response.Status;
@@ -28,6 +30,9 @@ import static io.airlift.http.client.StatusResponseHandler.createStatusResponseH
 public class HttpTaskClient
         implements QueryDriverProvider
 {
+    private static final DataSize DEFAULT_MAX_RESPONSE_SIZE = new DataSize(1, Unit.MEGABYTE);
+    private static final int DEFAULT_MAX_OUTSTANDING_REQUESTS = 3;
+
     private final String taskId;
     private final HttpClient httpClient;
     private final ExecutorService executor;
@@ -35,7 +40,13 @@ public class HttpTaskClient
     private final JsonCodec<TaskInfo> taskInfoCodec;
     private final String outputId;
     private final URI resultsLocation;
+    private final DataSize maxResponseSize;
+    private final int maxOutstandingRequests;
+    private final boolean compressionEnabled;
 
+    /**
+     * Creates a client that does not ask the task to compress its pages.
+     */
     public HttpTaskClient(String taskId,
             URI location,
             String outputId,
@@ -43,6 +54,40 @@ public class HttpTaskClient
             ExecutorService executor,
             JsonCodec<TaskInfo> taskInfoCodec)
     {
+        this(taskId, location, outputId, httpClient, executor, taskInfoCodec, false);
+    }
+
+    /**
+     * @param compressionEnabled if true, the task is asked to compress the pages it sends
+     */
+    public HttpTaskClient(String taskId,
+            URI location,
+            String outputId,
+            HttpClient httpClient,
+            ExecutorService executor,
+            JsonCodec<TaskInfo> taskInfoCodec,
+            boolean compressionEnabled)
+    {
+        this(taskId, location, outputId, httpClient, executor, taskInfoCodec, DEFAULT_MAX_RESPONSE_SIZE, DEFAULT_MAX_OUTSTANDING_REQUESTS, compressionEnabled);
+    }
+
+    /**
+     * @param maxResponseSize the size of the pages requested by each results request
+     * @param maxOutstandingRequests the number of results requests kept in flight while the output buffer has room for the responses
+     * @param compressionEnabled if true, the task is asked to compress the pages it sends
+     */
+    public HttpTaskClient(String taskId,
+            URI location,
+            String outputId,
+            HttpClient httpClient,
+            ExecutorService executor,
+            JsonCodec<TaskInfo> taskInfoCodec,
+            DataSize maxResponseSize,
+            int maxOutstandingRequests,
+            boolean compressionEnabled)
+    {
+        Preconditions.checkNotNull(maxResponseSize, "maxResponseSize is null");
+        Preconditions.checkArgument(maxOutstandingRequests > 0, "maxOutstandingRequests must be at least 1");
         this.taskId = taskId;
         this.httpClient = httpClient;
         this.executor = executor;
@@ -50,6 +95,9 @@ public class HttpTaskClient
         this.taskInfoCodec = taskInfoCodec;
         this.outputId = outputId;
         this.resultsLocation = uriBuilderFrom(location).appendPath("results").appendPath(outputId).build();
+        this.maxResponseSize = maxResponseSize;
+        this.maxOutstandingRequests = maxOutstandingRequests;
+        this.compressionEnabled = compressionEnabled;
     }
 
     public String getTaskId()
@@ -84,7 +132,7 @@ public class HttpTaskClient
     @Override
     public QueryDriver create(PageBuffer outputBuffer)
     {
-        HttpQuery httpQuery = new HttpQuery(resultsLocation, outputBuffer, new AsyncHttpClient(httpClient, executor));
+        HttpQuery httpQuery = new HttpQuery(resultsLocation, outputBuffer, new AsyncHttpClient(httpClient, executor), maxResponseSize, maxOutstandingRequests, compressionEnabled);
         return httpQuery;
     }
 
@@ -7,8 +7,8 @@ import com.facebook.presto.operator.Page;
 import com.facebook.presto.serde.PagesSerde;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.net.HttpHeaders;
 import com.google.common.reflect.TypeToken;
-import io.airlift.slice.InputStreamSliceInput;
 import io.airlift.slice.OutputStreamSliceOutput;
 
 import javax.ws.rs.Consumes;
@@ -26,6 +26,8 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.List;
 
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_PAGES_COMPRESSION;
+import static com.facebook.presto.server.PrestoHeaders.SNAPPY_COMPRESSION;
 import static com.facebook.presto.server.PrestoMediaTypes.PRESTO_PAGES;
 import static com.facebook.presto.server.PrestoMediaTypes.PRESTO_PAGES_TYPE;
 
@@ -62,7 +64,8 @@ public class PagesMapper implements MessageBodyReader<List<Page>>, MessageBodyWr
             InputStream input)
             throws IOException, WebApplicationException
     {
-        return ImmutableList.copyOf(PagesSerde.readPages(new InputStreamSliceInput(input)));
+        String contentLength = httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH);
+        return ImmutableList.copyOf(PagesSerde.readPages(input, contentLength == null ? -1 : Long.parseLong(contentLength)));
     }
 
     @Override
@@ -89,6 +92,8 @@ public class PagesMapper implements MessageBodyReader<List<Page>>, MessageBodyWr
             OutputStream output)
             throws IOException, WebApplicationException
     {
-        PagesSerde.writePages(new OutputStreamSliceOutput(output), pages);
+        // the resource requests compression with a response header, and the reader detects it from the block encodings
+        boolean compressed = SNAPPY_COMPRESSION.equals(httpHeaders.getFirst(PRESTO_PAGES_COMPRESSION));
+        PagesSerde.writePages(new OutputStreamSliceOutput(output), pages.iterator(), compressed);
     }
 }
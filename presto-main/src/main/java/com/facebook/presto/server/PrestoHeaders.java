@@ -8,6 +8,11 @@ public final class PrestoHeaders
     public static final String PRESTO_USER = "X-Presto-User";
     public static final String PRESTO_CATALOG = "X-Presto-Catalog";
     public static final String PRESTO_SCHEMA = "X-Presto-Schema";
+    public static final String PRESTO_MAX_SIZE = "X-Presto-Max-Size";
+    public static final String PRESTO_PAGE_SEQUENCE = "X-Presto-Page-Sequence";
+    public static final String PRESTO_PAGES_COMPRESSION = "X-Presto-Pages-Compression";
+
+    public static final String SNAPPY_COMPRESSION = "snappy";
 
     private PrestoHeaders()
     {
@@ -3,6 +3,7 @@
  */
 package com.facebook.presto.server;
 
+import com.facebook.presto.concurrent.FairBatchExecutor;
 import com.facebook.presto.execution.PageBuffer;
 import com.facebook.presto.operator.AbstractPageIterator;
 import com.facebook.presto.operator.Operator;
@@ -15,7 +16,9 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.log.Logger;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 
 import java.util.List;
@@ -26,20 +29,20 @@ public class QueryDriversOperator
 {
     private static final Logger log = Logger.get(QueryDriversOperator.class);
     private final List<QueryDriverProvider> driverProviders;
-    private final int pageBufferMax;
+    private final DataSize maxBufferSize;
     private final List<TupleInfo> tupleInfos;
 
-    public QueryDriversOperator(int pageBufferMax, List<TupleInfo> tupleInfos, QueryDriverProvider... driverProviders)
+    public QueryDriversOperator(DataSize maxBufferSize, List<TupleInfo> tupleInfos, QueryDriverProvider... driverProviders)
     {
-        this(pageBufferMax, tupleInfos, ImmutableList.copyOf(driverProviders));
+        this(maxBufferSize, tupleInfos, ImmutableList.copyOf(driverProviders));
     }
 
-    public QueryDriversOperator(int pageBufferMax, List<TupleInfo> tupleInfos, Iterable<? extends QueryDriverProvider> driverProviders)
+    public QueryDriversOperator(DataSize maxBufferSize, List<TupleInfo> tupleInfos, Iterable<? extends QueryDriverProvider> driverProviders)
     {
-        Preconditions.checkArgument(pageBufferMax > 0, "blockBufferMax must be at least 1");
+        Preconditions.checkNotNull(maxBufferSize, "maxBufferSize is null");
         Preconditions.checkNotNull(driverProviders, "driverProviders is null");
 
-        this.pageBufferMax = pageBufferMax;
+        this.maxBufferSize = maxBufferSize;
         this.driverProviders = ImmutableList.copyOf(driverProviders);
         this.tupleInfos = tupleInfos;
     }
@@ -65,7 +68,8 @@ public class QueryDriversOperator
 
         ImmutableList.Builder<QueryDriver> queries = ImmutableList.builder();
         try {
-            PageBuffer outputBuffer = new PageBuffer("out", driverProviders.size(), pageBufferMax);
+            PageBuffer outputBuffer = new PageBuffer("out", driverProviders.size(), maxBufferSize);
+            operatorStats.addExchangeBuffer(outputBuffer);
             for (QueryDriverProvider provider : driverProviders) {
                 QueryDriver queryDriver = provider.create(outputBuffer);
                 queries.add(queryDriver);
@@ -102,7 +106,7 @@ public class QueryDriversOperator
             try {
                 // get the next page
                 while (!operatorStats.isDone() && !pageBuffer.isDone()) {
-                    List<Page> nextPages = pageBuffer.getNextPages(1, new Duration(1, TimeUnit.SECONDS));
+                    List<Page> nextPages = getNextPage();
                     if (!nextPages.isEmpty()) {
                         Page page = Iterables.getOnlyElement(nextPages);
                         operatorStats.addCompletedDataSize(page.getDataSize().toBytes());
@@ -118,6 +122,28 @@ public class QueryDriversOperator
             }
         }
 
+        /**
+         * The split normally pulls a page once the buffer has pages, see {@link OperatorStats#waitForExchanges()}.
+         * An operator that reads its whole input to produce a page still waits here, so the shard
+         * executor runs another thread in its place while it waits.
+         */
+        private List<Page> getNextPage()
+                throws InterruptedException
+        {
+            ListenableFuture<?> pages = pageBuffer.waitForPages();
+            if (pages.isDone()) {
+                return pageBuffer.getNextPages(1, new Duration(0, TimeUnit.SECONDS));
+            }
+
+            FairBatchExecutor.beginBlocking();
+            try {
+                return pageBuffer.getNextPages(1, new Duration(1, TimeUnit.SECONDS));
+            }
+            finally {
+                FairBatchExecutor.endBlocking();
+            }
+        }
+
         @Override
         protected void doClose()
         {
@@ -81,6 +81,7 @@ import static io.airlift.http.client.HttpClientBinder.httpClientBinder;
 import static io.airlift.json.JsonBinder.jsonBinder;
 import static io.airlift.json.JsonCodecBinder.jsonCodecBinder;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class ServerMainModule
         extends AbstractConfigurationAwareModule
@@ -108,7 +109,9 @@ public class ServerMainModule
         binder.bind(PlanFragmentSourceProvider.class).to(HackPlanFragmentSourceProvider.class).in(Scopes.SINGLETON);
 
         bindConfig(binder).to(StorageManagerConfig.class);
+        binder.bind(DatabaseStorageManager.class).in(Scopes.SINGLETON);
         binder.bind(StorageManager.class).to(DatabaseStorageManager.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(DatabaseStorageManager.class).withGeneratedName();
         binder.bind(DataStreamProvider.class).to(DataStreamManager.class).in(Scopes.SINGLETON);
         binder.bind(NativeDataStreamProvider.class).in(Scopes.SINGLETON);
         binder.bind(ImportDataStreamProvider.class).in(Scopes.SINGLETON);
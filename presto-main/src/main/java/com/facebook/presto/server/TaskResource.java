@@ -3,17 +3,21 @@
  */
 package com.facebook.presto.server;
 
+import com.facebook.presto.execution.BufferResult;
 import com.facebook.presto.execution.TaskInfo;
 import com.facebook.presto.execution.TaskManager;
 import com.facebook.presto.operator.Page;
 import com.google.common.base.Throwables;
 import com.google.common.reflect.TypeToken;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
 
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -22,12 +26,17 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 import java.net.URI;
 import java.util.List;
 import java.util.NoSuchElementException;
 
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_MAX_SIZE;
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_PAGES_COMPRESSION;
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_PAGE_SEQUENCE;
+import static com.facebook.presto.server.PrestoHeaders.SNAPPY_COMPRESSION;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static io.airlift.http.client.HttpUriBuilder.uriBuilderFrom;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -38,7 +47,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 @Path("/v1/task")
 public class TaskResource
 {
-    private static final int DEFAULT_MAX_PAGE_COUNT = 10;
+    private static final DataSize DEFAULT_MAX_SIZE = new DataSize(1, Unit.MEGABYTE);
     private static final Duration DEFAULT_MAX_WAIT_TIME = new Duration(1, SECONDS);
 
     private final TaskManager taskManager;
@@ -107,28 +116,57 @@ public class TaskResource
         taskManager.cancelTask(taskId);
     }
 
+    /**
+     * Returns the next pages of an output, up to the size in the {@code X-Presto-Max-Size} header.  The
+     * {@code X-Presto-Page-Sequence} header of the response is the sequence number of the first page, so
+     * a client with several requests in flight can restore the order of the pages.  A response without
+     * pages has the sequence number of the next page, which is the number of pages sent so far, so the
+     * client can detect lost responses.  If the request has a
+     * {@code X-Presto-Pages-Compression: snappy} header, the blocks of the pages are compressed, which is
+     * confirmed by the same header in the response.
+     */
     @GET
     @Path("{taskId}/results/{outputId}")
     @Produces(PrestoMediaTypes.PRESTO_PAGES)
-    public Response getResults(@PathParam("taskId") String taskId, @PathParam("outputId") String outputId)
+    public Response getResults(@PathParam("taskId") String taskId, @PathParam("outputId") String outputId, @HeaderParam(PRESTO_MAX_SIZE) String maxSizeHeader,
+            @HeaderParam(PRESTO_PAGES_COMPRESSION) String compression)
             throws InterruptedException
     {
         checkNotNull(taskId, "taskId is null");
         checkNotNull(outputId, "outputId is null");
 
+        DataSize maxSize = DEFAULT_MAX_SIZE;
+        if (maxSizeHeader != null) {
+            try {
+                maxSize = DataSize.valueOf(maxSizeHeader);
+            }
+            catch (IllegalArgumentException e) {
+                return Response.status(Status.BAD_REQUEST)
+                        .type(MediaType.TEXT_PLAIN)
+                        .entity(String.format("Invalid %s header: %s", PRESTO_MAX_SIZE, maxSizeHeader))
+                        .build();
+            }
+        }
+
         try {
-            List<Page> pages = taskManager.getTaskResults(taskId, outputId, DEFAULT_MAX_PAGE_COUNT, DEFAULT_MAX_WAIT_TIME);
+            BufferResult result = taskManager.getTaskResults(taskId, outputId, maxSize, DEFAULT_MAX_WAIT_TIME);
+            List<Page> pages = result.getPages();
             if (pages.isEmpty()) {
                 // this is a safe race condition, because is done will only be true if the task is failed or if all results have been consumed
                 if (taskManager.getTaskInfo(taskId).getState().isDone()) {
-                    return Response.status(Status.GONE).build();
+                    return Response.status(Status.GONE).header(PRESTO_PAGE_SEQUENCE, result.getStartingSequence()).build();
                 }
                 else {
-                    return Response.status(Status.NO_CONTENT).build();
+                    return Response.status(Status.NO_CONTENT).header(PRESTO_PAGE_SEQUENCE, result.getStartingSequence()).build();
                 }
             }
             GenericEntity<?> entity = new GenericEntity<>(pages, new TypeToken<List<Page>>() {}.getType());
-            return Response.ok(entity).build();
+            ResponseBuilder response = Response.ok(entity).header(PRESTO_PAGE_SEQUENCE, result.getStartingSequence());
+            if (SNAPPY_COMPRESSION.equalsIgnoreCase(compression)) {
+                // the pages mapper compresses the pages when it finds this header
+                response.header(PRESTO_PAGES_COMPRESSION, SNAPPY_COMPRESSION);
+            }
+            return response.build();
         }
         catch (NoSuchElementException e) {
             return Response.status(Status.GONE).build();
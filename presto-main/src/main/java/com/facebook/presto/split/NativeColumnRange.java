@@ -0,0 +1,159 @@
+package com.facebook.presto.split;
+
+import com.facebook.presto.serde.BlockStats;
+import com.facebook.presto.tuple.Tuple;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Objects;
+import io.airlift.slice.Slices;
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Inclusive range of values a native column must fall in for a row to match the query predicate.
+ * A null bound is unbounded.  The range is used to skip shards and blocks whose zone maps show
+ * they cannot contain a matching value, so it must never be narrower than the predicate.
+ */
+public class NativeColumnRange
+{
+    private final long columnId;
+    private final Object min;
+    private final Object max;
+
+    @JsonCreator
+    public NativeColumnRange(@JsonProperty("columnId") long columnId, @JsonProperty("min") @Nullable Object min, @JsonProperty("max") @Nullable Object max)
+    {
+        checkArgument(columnId > 0, "columnId must be greater than zero");
+        checkArgument(min == null || min instanceof Number || min instanceof String, "min must be a number or string");
+        checkArgument(max == null || max instanceof Number || max instanceof String, "max must be a number or string");
+        this.columnId = columnId;
+        this.min = min;
+        this.max = max;
+    }
+
+    @JsonProperty
+    public long getColumnId()
+    {
+        return columnId;
+    }
+
+    @Nullable
+    @JsonProperty
+    public Object getMin()
+    {
+        return min;
+    }
+
+    @Nullable
+    @JsonProperty
+    public Object getMax()
+    {
+        return max;
+    }
+
+    /**
+     * @return false if none of the values described by the stats can fall in this range
+     */
+    public boolean canMatch(BlockStats stats)
+    {
+        if (stats.getNullCount() == stats.getPositionCount()) {
+            // a comparison never matches a null value
+            return false;
+        }
+
+        Tuple minValue = stats.getMin();
+        Tuple maxValue = stats.getMax();
+        if (minValue == null) {
+            return true;
+        }
+
+        if (min != null && isComparable(maxValue, min) && compare(maxValue, min) < 0) {
+            return false;
+        }
+        if (max != null && isComparable(minValue, max) && compare(minValue, max) > 0) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isComparable(Tuple value, Object bound)
+    {
+        switch (getType(value)) {
+            case FIXED_INT_64:
+            case DOUBLE:
+                return bound instanceof Number;
+            case VARIABLE_BINARY:
+                return bound instanceof String;
+            default:
+                return false;
+        }
+    }
+
+    private static int compare(Tuple value, Object bound)
+    {
+        switch (getType(value)) {
+            case FIXED_INT_64:
+                if (bound instanceof Double) {
+                    return compare(value.getLong(0), (Double) bound);
+                }
+                return Long.compare(value.getLong(0), ((Number) bound).longValue());
+            case DOUBLE:
+                return compare(value.getDouble(0), ((Number) bound).doubleValue());
+            case VARIABLE_BINARY:
+                return value.getSlice(0).compareTo(Slices.copiedBuffer((String) bound, UTF_8));
+            default:
+                throw new AssertionError("Unimplemented type: " + getType(value));
+        }
+    }
+
+    private static int compare(double value, double bound)
+    {
+        // unlike Double.compare, -0.0 equals 0.0 and NaN equals everything, so the range is never narrowed
+        if (value < bound) {
+            return -1;
+        }
+        if (value > bound) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private static TupleInfo.Type getType(Tuple value)
+    {
+        return value.getTupleInfo().getTypes().get(0);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        NativeColumnRange that = (NativeColumnRange) o;
+        return columnId == that.columnId && Objects.equal(min, that.min) && Objects.equal(max, that.max);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(columnId, min, max);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("columnId", columnId)
+                .add("min", min)
+                .add("max", max)
+                .toString();
+    }
+}
@@ -1,18 +1,32 @@
 package com.facebook.presto.split;
 
+import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.metadata.ColumnHandle;
 import com.facebook.presto.metadata.NativeColumnHandle;
 import com.facebook.presto.metadata.StorageManager;
 import com.facebook.presto.operator.AlignmentOperator;
 import com.facebook.presto.operator.Operator;
+import com.facebook.presto.serde.BlockStats;
+import com.facebook.presto.serde.BlocksFileStats;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 import com.google.inject.Inject;
+import io.airlift.units.DataSize;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.units.DataSize.Unit.BYTE;
 
 public class NativeDataStreamProvider
         implements DataStreamProvider
@@ -43,6 +57,194 @@ public class NativeDataStreamProvider
             NativeColumnHandle nativeColumn = (NativeColumnHandle) column;
             builder.add(storageManager.getBlocks(nativeSplit.getShardId(), nativeColumn.getColumnId()));
         }
-        return new AlignmentOperator(builder.build());
+        List<BlockIterable> channels = builder.build();
+
+        List<PositionRange> selectedPositions = getSelectedPositions(nativeSplit.getShardId(), nativeSplit.getColumnRanges());
+        if (selectedPositions != null) {
+            ImmutableList.Builder<BlockIterable> selectedChannels = ImmutableList.builder();
+            for (BlockIterable channel : channels) {
+                selectedChannels.add(new SelectedPositionsBlockIterable(channel, selectedPositions));
+            }
+            channels = selectedChannels.build();
+        }
+        return new AlignmentOperator(channels);
+    }
+
+    /**
+     * Use the zone maps of the constrained columns to find the positions that may match the column ranges
+     *
+     * @return the sorted position ranges to read, or null if all positions must be read
+     */
+    private List<PositionRange> getSelectedPositions(long shardId, List<NativeColumnRange> columnRanges)
+    {
+        int rowCount = -1;
+        List<PositionRange> skipped = new ArrayList<>();
+        for (NativeColumnRange columnRange : columnRanges) {
+            Optional<BlocksFileStats> columnStats = storageManager.getColumnStats(shardId, columnRange.getColumnId());
+            if (!columnStats.isPresent()) {
+                continue;
+            }
+            BlocksFileStats stats = columnStats.get();
+            rowCount = Ints.checkedCast(stats.getRowCount());
+
+            if (!columnRange.canMatch(stats.getFileStats())) {
+                // no row in the shard can match
+                return ImmutableList.of();
+            }
+
+            int position = 0;
+            for (BlockStats blockStats : stats.getBlockStats()) {
+                int end = Ints.checkedCast(position + blockStats.getPositionCount());
+                if (!columnRange.canMatch(blockStats)) {
+                    skipped.add(new PositionRange(position, end));
+                }
+                position = end;
+            }
+        }
+
+        if (skipped.isEmpty()) {
+            return null;
+        }
+
+        // the selected positions are the gaps between the skipped ranges
+        Collections.sort(skipped, PositionRange.START_ORDERING);
+        ImmutableList.Builder<PositionRange> selected = ImmutableList.builder();
+        int start = 0;
+        for (PositionRange range : skipped) {
+            if (start < range.getStart()) {
+                selected.add(new PositionRange(start, range.getStart()));
+            }
+            start = Math.max(start, range.getEnd());
+        }
+        if (start < rowCount) {
+            selected.add(new PositionRange(start, rowCount));
+        }
+        return selected.build();
+    }
+
+    private static class PositionRange
+    {
+        private static final Comparator<PositionRange> START_ORDERING = new Comparator<PositionRange>()
+        {
+            @Override
+            public int compare(PositionRange left, PositionRange right)
+            {
+                return Integer.compare(left.getStart(), right.getStart());
+            }
+        };
+
+        private final int start;
+        private final int end;
+
+        private PositionRange(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int getStart()
+        {
+            return start;
+        }
+
+        public int getEnd()
+        {
+            return end;
+        }
+
+        public int getLength()
+        {
+            return end - start;
+        }
+    }
+
+    private static class SelectedPositionsBlockIterable
+            implements BlockIterable
+    {
+        private final BlockIterable source;
+        private final List<PositionRange> positions;
+        private final int positionCount;
+
+        private SelectedPositionsBlockIterable(BlockIterable source, List<PositionRange> positions)
+        {
+            this.source = source;
+            this.positions = positions;
+
+            int positionCount = 0;
+            for (PositionRange range : positions) {
+                positionCount += range.getLength();
+            }
+            this.positionCount = positionCount;
+        }
+
+        @Override
+        public TupleInfo getTupleInfo()
+        {
+            return source.getTupleInfo();
+        }
+
+        @Override
+        public Optional<DataSize> getDataSize()
+        {
+            // estimate the size of the selected positions from the size of the source
+            Optional<DataSize> dataSize = source.getDataSize();
+            Optional<Integer> sourcePositionCount = source.getPositionCount();
+            if (!dataSize.isPresent() || !sourcePositionCount.isPresent() || sourcePositionCount.get() == 0) {
+                return dataSize;
+            }
+            return Optional.of(new DataSize(dataSize.get().toBytes() * positionCount / sourcePositionCount.get(), BYTE));
+        }
+
+        @Override
+        public Optional<Integer> getPositionCount()
+        {
+            return Optional.of(positionCount);
+        }
+
+        @Override
+        public Iterator<Block> iterator()
+        {
+            final Iterator<Block> blocks = source.iterator();
+            return new AbstractIterator<Block>()
+            {
+                private int rangeIndex;
+                private int nextPosition;
+                private Block block;
+                private int blockStart;
+
+                @Override
+                protected Block computeNext()
+                {
+                    while (rangeIndex < positions.size()) {
+                        PositionRange range = positions.get(rangeIndex);
+                        nextPosition = Math.max(nextPosition, range.getStart());
+                        if (nextPosition >= range.getEnd()) {
+                            rangeIndex++;
+                            continue;
+                        }
+
+                        // advance to the block containing the next position, skipped blocks are never processed
+                        while (block == null || blockStart + block.getPositionCount() <= nextPosition) {
+                            if (block != null) {
+                                blockStart += block.getPositionCount();
+                            }
+                            checkState(blocks.hasNext(), "column has fewer positions than its stats");
+                            block = blocks.next();
+                        }
+
+                        int end = Math.min(range.getEnd(), blockStart + block.getPositionCount());
+                        int offset = nextPosition - blockStart;
+                        int length = end - nextPosition;
+                        nextPosition = end;
+
+                        if (offset == 0 && length == block.getPositionCount()) {
+                            return block;
+                        }
+                        return block.getRegion(offset, length);
+                    }
+                    return endOfData();
+                }
+            };
+        }
     }
 }
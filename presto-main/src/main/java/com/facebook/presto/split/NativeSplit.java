@@ -2,19 +2,31 @@ package com.facebook.presto.split;
 
 import com.facebook.presto.metadata.DataSourceType;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public class NativeSplit
         implements Split
 {
     private final long shardId;
+    private final List<NativeColumnRange> columnRanges;
+
+    public NativeSplit(long shardId)
+    {
+        this(shardId, ImmutableList.<NativeColumnRange>of());
+    }
 
     @JsonCreator
-    public NativeSplit(@JsonProperty("shardId") long shardId)
+    public NativeSplit(@JsonProperty("shardId") long shardId, @JsonProperty("columnRanges") List<NativeColumnRange> columnRanges)
     {
         Preconditions.checkArgument(shardId >= 0, "shard id must be at least zero");
         this.shardId = shardId;
+        this.columnRanges = ImmutableList.copyOf(checkNotNull(columnRanges, "columnRanges is null"));
     }
 
     @Override
@@ -28,4 +40,13 @@ public class NativeSplit
     {
         return shardId;
     }
+
+    /**
+     * Ranges the column values of a row must fall in for the row to match the query predicate
+     */
+    @JsonProperty
+    public List<NativeColumnRange> getColumnRanges()
+    {
+        return columnRanges;
+    }
 }
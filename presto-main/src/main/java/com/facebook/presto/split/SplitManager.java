@@ -8,6 +8,7 @@ import com.facebook.presto.metadata.ImportTableHandle;
 import com.facebook.presto.metadata.InternalColumnHandle;
 import com.facebook.presto.metadata.InternalTableHandle;
 import com.facebook.presto.metadata.Metadata;
+import com.facebook.presto.metadata.NativeColumnHandle;
 import com.facebook.presto.metadata.NativeTableHandle;
 import com.facebook.presto.metadata.Node;
 import com.facebook.presto.metadata.NodeManager;
@@ -23,6 +24,7 @@ import com.facebook.presto.sql.analyzer.Symbol;
 import com.facebook.presto.sql.planner.ExpressionInterpreter;
 import com.facebook.presto.sql.planner.LookupSymbolResolver;
 import com.facebook.presto.sql.planner.SymbolResolver;
+import com.facebook.presto.sql.tree.BetweenPredicate;
 import com.facebook.presto.sql.tree.ComparisonExpression;
 import com.facebook.presto.sql.tree.DoubleLiteral;
 import com.facebook.presto.sql.tree.Expression;
@@ -33,6 +35,7 @@ import com.facebook.presto.sql.tree.StringLiteral;
 import com.facebook.presto.util.IterableTransformer;
 import com.facebook.presto.util.MapTransformer;
 import com.facebook.presto.util.MoreFunctions;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
@@ -89,7 +92,7 @@ public class SplitManager
         Iterable<SplitAssignments> assignments;
         switch (handle.getDataSourceType()) {
             case NATIVE:
-                assignments = getNativeSplitAssignments((NativeTableHandle) handle);
+                assignments = getNativeSplitAssignments((NativeTableHandle) handle, predicate, mappings);
                 break;
             case INTERNAL:
                 assignments = getInternalSplitAssignments((InternalTableHandle) handle, predicate, mappings);
@@ -134,14 +137,18 @@ public class SplitManager
         };
     }
 
-    private Iterable<SplitAssignments> getNativeSplitAssignments(NativeTableHandle handle)
+    private Iterable<SplitAssignments> getNativeSplitAssignments(NativeTableHandle handle, Expression predicate, Map<Symbol, ColumnHandle> mappings)
     {
         Map<String, Node> nodeMap = getNodeMap(nodeManager.getActiveNodes());
         Multimap<Long, String> shardNodes = shardManager.getCommittedShardNodes(handle.getTableId());
 
+        // the column stats of a shard are only available on the nodes storing it,
+        // so the ranges are sent with the split and the shards are skipped by the worker
+        List<NativeColumnRange> columnRanges = extractColumnRanges(predicate, filterValueInstances(mappings, NativeColumnHandle.class));
+
         ImmutableList.Builder<SplitAssignments> splitAssignments = ImmutableList.builder();
         for (Map.Entry<Long, Collection<String>> entry : shardNodes.asMap().entrySet()) {
-            Split split = new NativeSplit(entry.getKey());
+            Split split = new NativeSplit(entry.getKey(), columnRanges);
             List<Node> nodes = getNodes(nodeMap, entry.getValue());
             splitAssignments.add(new SplitAssignments(split, nodes));
         }
@@ -388,6 +395,98 @@ public class SplitManager
         return filters.build();
     }
 
+    /**
+     * Extract the range of each column bounded by a comparison with a literal in the AND expression
+     */
+    @VisibleForTesting
+    static List<NativeColumnRange> extractColumnRanges(Expression predicate, Map<Symbol, NativeColumnHandle> mappings)
+    {
+        ImmutableList.Builder<NativeColumnRange> ranges = ImmutableList.builder();
+        for (Expression conjunct : extractConjuncts(predicate)) {
+            if (conjunct instanceof ComparisonExpression) {
+                ComparisonExpression comparison = (ComparisonExpression) conjunct;
+                ComparisonExpression.Type type = comparison.getType();
+                Expression reference = comparison.getLeft();
+                Expression literal = comparison.getRight();
+                if (comparison.getLeft() instanceof Literal) {
+                    type = flip(type);
+                    reference = comparison.getRight();
+                    literal = comparison.getLeft();
+                }
+
+                NativeColumnHandle column = getColumn(reference, mappings);
+                Object value = getRangeValue(literal);
+                if (column == null || value == null || type == null) {
+                    continue;
+                }
+
+                switch (type) {
+                    case EQUAL:
+                        ranges.add(new NativeColumnRange(column.getColumnId(), value, value));
+                        break;
+                    case LESS_THAN:
+                    case LESS_THAN_OR_EQUAL:
+                        ranges.add(new NativeColumnRange(column.getColumnId(), null, value));
+                        break;
+                    case GREATER_THAN:
+                    case GREATER_THAN_OR_EQUAL:
+                        ranges.add(new NativeColumnRange(column.getColumnId(), value, null));
+                        break;
+                }
+            }
+            else if (conjunct instanceof BetweenPredicate) {
+                BetweenPredicate between = (BetweenPredicate) conjunct;
+                NativeColumnHandle column = getColumn(between.getValue(), mappings);
+                if (column != null) {
+                    // a missing bound is unbounded
+                    ranges.add(new NativeColumnRange(column.getColumnId(), getRangeValue(between.getMin()), getRangeValue(between.getMax())));
+                }
+            }
+        }
+        return ranges.build();
+    }
+
+    private static NativeColumnHandle getColumn(Expression expression, Map<Symbol, NativeColumnHandle> mappings)
+    {
+        if (!(expression instanceof QualifiedNameReference)) {
+            return null;
+        }
+        return mappings.get(Symbol.fromQualifiedName(((QualifiedNameReference) expression).getName()));
+    }
+
+    private static Object getRangeValue(Expression expression)
+    {
+        if (expression instanceof LongLiteral) {
+            return ((LongLiteral) expression).getValue();
+        }
+        if (expression instanceof DoubleLiteral) {
+            return ((DoubleLiteral) expression).getValue();
+        }
+        if (expression instanceof StringLiteral) {
+            return ((StringLiteral) expression).getValue();
+        }
+        return null;
+    }
+
+    private static ComparisonExpression.Type flip(ComparisonExpression.Type type)
+    {
+        switch (type) {
+            case EQUAL:
+                return ComparisonExpression.Type.EQUAL;
+            case LESS_THAN:
+                return ComparisonExpression.Type.GREATER_THAN;
+            case LESS_THAN_OR_EQUAL:
+                return ComparisonExpression.Type.GREATER_THAN_OR_EQUAL;
+            case GREATER_THAN:
+                return ComparisonExpression.Type.LESS_THAN;
+            case GREATER_THAN_OR_EQUAL:
+                return ComparisonExpression.Type.LESS_THAN_OR_EQUAL;
+            default:
+                // not a range
+                return null;
+        }
+    }
+
     private Function<PartitionChunk, SplitAssignments> createImportSplitFunction(final String sourceName)
     {
         return new Function<PartitionChunk, SplitAssignments>()
@@ -28,6 +28,7 @@ import com.facebook.presto.sql.tree.LogicalBinaryExpression;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 
 import javax.inject.Inject;
@@ -42,6 +43,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.google.common.base.Predicates.instanceOf;
 import static com.google.common.collect.Iterables.transform;
 
 public class DistributedExecutionPlanner
@@ -83,6 +85,16 @@ public class DistributedExecutionPlanner
             Node node = nodes.get(0);
             partitions = ImmutableList.of(new Partition(node, ImmutableList.<PlanFragmentSource>of()));
         }
+        else if (!Iterables.any(currentFragment.getSources(), instanceOf(TableScanNode.class))) {
+            // a partitioned fragment that only reads from exchanges (e.g., a partitioned join) runs on every node
+            List<Node> nodes = ImmutableList.copyOf(nodeManager.getActiveNodes());
+            Preconditions.checkState(!nodes.isEmpty(), "Cluster does not have any active nodes");
+            ImmutableList.Builder<Partition> nodePartitions = ImmutableList.builder();
+            for (Node node : nodes) {
+                nodePartitions.add(new Partition(node, ImmutableList.<PlanFragmentSource>of()));
+            }
+            partitions = nodePartitions.build();
+        }
 
         // create child stages
         ImmutableList.Builder<StageExecutionPlan> dependencies = ImmutableList.builder();
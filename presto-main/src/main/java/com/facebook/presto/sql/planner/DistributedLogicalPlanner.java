@@ -24,6 +24,7 @@ import com.facebook.presto.sql.tree.FunctionCall;
 import com.facebook.presto.sql.tree.QualifiedNameReference;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -31,6 +32,8 @@ import java.util.Map;
 import static com.facebook.presto.sql.planner.plan.AggregationNode.Step.FINAL;
 import static com.facebook.presto.sql.planner.plan.AggregationNode.Step.PARTIAL;
 import static com.facebook.presto.sql.planner.plan.AggregationNode.Step.SINGLE;
+import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.leftGetter;
+import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.rightGetter;
 
 /**
  * Splits a logical plan into fragments that can be shipped and executed on distributed nodes
@@ -80,7 +83,7 @@ public class DistributedLogicalPlanner
                 return current;
             }
 
-            // else, we need to "close" the current fragment and create an unpartitioned fragment for the final aggregation
+            // else, we need to "close" the current fragment and create a fragment for the final aggregation
             Map<Symbol, FunctionCall> finalCalls = new HashMap<>();
             Map<Symbol, FunctionCall> intermediateCalls = new HashMap<>();
             Map<Symbol, FunctionHandle> intermediateFunctions = new HashMap<>();
@@ -97,14 +100,19 @@ public class DistributedLogicalPlanner
             }
 
             AggregationNode aggregation = new AggregationNode(current.getRoot(), node.getGroupBy(), intermediateCalls, intermediateFunctions, PARTIAL);
-            current.setRoot(new SinkNode(current.getId(), aggregation));
+
+            // a grouped aggregation is finished in parallel by partitioning the partial results on the group by keys,
+            // so all partial results of a group are sent to the same final aggregation task
+            // a global aggregation produces a single group, so it is finished in an unpartitioned fragment
+            boolean distributedFinal = !node.getGroupBy().isEmpty();
+            current.setRoot(new SinkNode(current.getId(), aggregation, distributedFinal ? node.getGroupBy() : ImmutableList.<Symbol>of()));
 
             // create merge + aggregation plan
             ExchangeNode source = new ExchangeNode(current.getId(), current.getRoot().getOutputSymbols());
             AggregationNode merged = new AggregationNode(source, node.getGroupBy(), finalCalls, node.getFunctions(), FINAL);
 
             return newSubPlan(merged)
-                    .setPartitioned(false)
+                    .setPartitioned(distributedFinal)
                     .addChild(current.build());
         }
 
@@ -150,18 +158,19 @@ public class DistributedLogicalPlanner
         {
             SubPlanBuilder current = node.getSource().accept(this, context);
 
-            if (current.isPartitioned()) {
-                current.setRoot(new SinkNode(current.getId(), current.getRoot()));
-
-                // create a new non-partitioned fragment
-                current = newSubPlan(new ExchangeNode(current.getId(), current.getRoot().getOutputSymbols()))
-                        .setPartitioned(false)
-                        .addChild(current.build());
+            if (!current.isPartitioned()) {
+                current.setRoot(new SortNode(current.getRoot(), node.getOrderBy(), node.getOrderings()));
+                return current;
             }
 
+            // each task sorts its own rows, and merges the sorted rows of its splits into a single sorted output
             current.setRoot(new SortNode(current.getRoot(), node.getOrderBy(), node.getOrderings()));
+            current.setRoot(new SinkNode(current.getId(), current.getRoot()));
 
-            return current;
+            // merge the sorted outputs of the tasks in a non-partitioned fragment
+            return newSubPlan(new ExchangeNode(current.getId(), current.getRoot().getOutputSymbols(), node.getOrderBy(), node.getOrderings()))
+                    .setPartitioned(false)
+                    .addChild(current.build());
         }
 
 
@@ -218,7 +227,23 @@ public class DistributedLogicalPlanner
             SubPlanBuilder left = node.getLeft().accept(this, context);
             SubPlanBuilder right = node.getRight().accept(this, context);
 
-            if (left.isPartitioned() || right.isPartitioned()) {
+            if (left.isPartitioned() && right.isPartitioned()) {
+                // both sides are distributed, so repartition both on the join keys and join each partition
+                // locally instead of broadcasting the right side to every left partition
+                left.setRoot(new SinkNode(left.getId(), left.getRoot(), Lists.transform(node.getCriteria(), leftGetter())));
+                right.setRoot(new SinkNode(right.getId(), right.getRoot(), Lists.transform(node.getCriteria(), rightGetter())));
+
+                ExchangeNode leftExchange = new ExchangeNode(left.getId(), left.getRoot().getOutputSymbols());
+                ExchangeNode rightExchange = new ExchangeNode(right.getId(), right.getRoot().getOutputSymbols());
+                JoinNode join = new JoinNode(leftExchange, rightExchange, node.getCriteria());
+
+                return newSubPlan(join)
+                        .setPartitioned(true)
+                        .addChild(left.build())
+                        .addChild(right.build());
+            }
+            else if (left.isPartitioned() || right.isPartitioned()) {
+                // broadcast the right side to every partition of the left side
                 right.setRoot(new SinkNode(right.getId(), right.getRoot()));
 
                 ExchangeNode exchange = new ExchangeNode(right.getId(), right.getRoot().getOutputSymbols());
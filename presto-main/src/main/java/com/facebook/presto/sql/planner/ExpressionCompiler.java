@@ -0,0 +1,1306 @@
+package com.facebook.presto.sql.planner;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.metadata.FunctionInfo;
+import com.facebook.presto.metadata.Metadata;
+import com.facebook.presto.operator.FilterFunction;
+import com.facebook.presto.operator.Input;
+import com.facebook.presto.operator.ProjectionFunction;
+import com.facebook.presto.operator.SingleChannelFilterFunction;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.analyzer.Symbol;
+import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.tree.ArithmeticExpression;
+import com.facebook.presto.sql.tree.AstVisitor;
+import com.facebook.presto.sql.tree.BetweenPredicate;
+import com.facebook.presto.sql.tree.BooleanLiteral;
+import com.facebook.presto.sql.tree.ComparisonExpression;
+import com.facebook.presto.sql.tree.DefaultTraversalVisitor;
+import com.facebook.presto.sql.tree.DoubleLiteral;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.FunctionCall;
+import com.facebook.presto.sql.tree.InputReference;
+import com.facebook.presto.sql.tree.IsNotNullPredicate;
+import com.facebook.presto.sql.tree.IsNullPredicate;
+import com.facebook.presto.sql.tree.LikePredicate;
+import com.facebook.presto.sql.tree.LogicalBinaryExpression;
+import com.facebook.presto.sql.tree.LongLiteral;
+import com.facebook.presto.sql.tree.NegativeExpression;
+import com.facebook.presto.sql.tree.NotExpression;
+import com.facebook.presto.sql.tree.NullLiteral;
+import com.facebook.presto.sql.tree.QualifiedName;
+import com.facebook.presto.sql.tree.StringLiteral;
+import com.facebook.presto.sql.tree.TimestampLiteral;
+import com.facebook.presto.sql.tree.TreeRewriter;
+import com.facebook.presto.tuple.TupleInfo;
+import com.facebook.presto.tuple.TupleReadable;
+import com.google.common.base.Objects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import io.airlift.slice.Slice;
+
+import java.lang.invoke.MethodHandle;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiles filter and projection expressions into trees of evaluators that are specialized
+ * for the types of the expression and the channel layout of the input.
+ * <p/>
+ * Unlike the {@link ExpressionInterpreter}, the compiled tree is built once per expression:
+ * inputs read the typed value directly from the channel, arithmetic and comparisons work on
+ * primitive longs and doubles, and functions are resolved and adapted once.  Expressions the
+ * compiler does not handle are evaluated with the interpreter, so every expression can be
+ * compiled.
+ * <p/>
+ * The compiled trees are immutable and cached by expression and input types, so a fragment
+ * that is planned once per split only compiles its expressions once.  Each filter or projection
+ * function returned by this class has its own evaluation state and must not be shared between
+ * threads.
+ * <p/>
+ * A deterministic filter that reads a single channel is a {@link SingleChannelFilterFunction},
+ * so it can be evaluated once per entry of a dictionary encoded channel.
+ */
+public class ExpressionCompiler
+{
+    private static final int MAX_CACHED_EXPRESSIONS = 1000;
+
+    private final Metadata metadata;
+    private final LoadingCache<ExpressionKey, CompiledNode> compiledExpressions;
+
+    public ExpressionCompiler(Metadata metadata)
+    {
+        this.metadata = checkNotNull(metadata, "metadata is null");
+        this.compiledExpressions = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CACHED_EXPRESSIONS)
+                .build(new CacheLoader<ExpressionKey, CompiledNode>()
+                {
+                    @Override
+                    public CompiledNode load(ExpressionKey key)
+                    {
+                        return key.getExpression().accept(new Compiler(key.getInputTypes()), null);
+                    }
+                });
+    }
+
+    public FilterFunction compileFilterFunction(Expression predicate, Map<Symbol, Input> symbolToInputMappings, Map<Symbol, Type> types, Session session)
+    {
+        CompiledNode node = compile(predicate, symbolToInputMappings, types);
+        if (node.getType() != Type.BOOLEAN && node.getType() != Type.NULL && node.getType() != null) {
+            // not a predicate, so let the interpreter decide how to handle it
+            node = new InterpretedNode(node.getExpression());
+        }
+        EvaluationContext context = new EvaluationContext(metadata, session);
+
+        Set<Integer> channels = getInputChannels(predicate, symbolToInputMappings);
+        if (channels.size() == 1 && isDeterministic(predicate)) {
+            return new SingleChannelCompiledFilterFunction(node, context, Iterables.getOnlyElement(channels));
+        }
+        return new CompiledFilterFunction(node, context);
+    }
+
+    public ProjectionFunction compileProjectionFunction(Type type, Expression expression, Map<Symbol, Input> symbolToInputMappings, Map<Symbol, Type> types, Session session)
+    {
+        checkNotNull(type, "type is null");
+        CompiledNode node = compile(expression, symbolToInputMappings, types);
+        return new CompiledProjectionFunction(type, node, new EvaluationContext(metadata, session));
+    }
+
+    private static Set<Integer> getInputChannels(Expression expression, Map<Symbol, Input> symbolToInputMappings)
+    {
+        ImmutableSet.Builder<Integer> channels = ImmutableSet.builder();
+        for (Symbol symbol : DependencyExtractor.extract(expression)) {
+            channels.add(symbolToInputMappings.get(symbol).getChannel());
+        }
+        return channels.build();
+    }
+
+    private boolean isDeterministic(Expression expression)
+    {
+        final Set<QualifiedName> functionNames = new HashSet<>();
+        new DefaultTraversalVisitor<Void, Void>()
+        {
+            @Override
+            protected Void visitFunctionCall(FunctionCall node, Void context)
+            {
+                functionNames.add(node.getName());
+                return super.visitFunctionCall(node, context);
+            }
+        }.process(expression, null);
+
+        if (functionNames.isEmpty()) {
+            return true;
+        }
+        for (FunctionInfo function : metadata.listFunctions()) {
+            if (!function.isDeterministic() && functionNames.contains(function.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CompiledNode compile(Expression expression, Map<Symbol, Input> symbolToInputMappings, Map<Symbol, Type> types)
+    {
+        checkNotNull(expression, "expression is null");
+        checkNotNull(symbolToInputMappings, "symbolToInputMappings is null");
+        checkNotNull(types, "types is null");
+
+        // only the types of the referenced inputs are part of the cache key
+        ImmutableMap.Builder<Input, Type> inputTypes = ImmutableMap.builder();
+        for (Symbol symbol : DependencyExtractor.extract(expression)) {
+            Input input = symbolToInputMappings.get(symbol);
+            checkArgument(input != null, "Cannot resolve symbol %s", symbol);
+            Type type = types.get(symbol);
+            checkArgument(type != null, "No type for symbol %s", symbol);
+            inputTypes.put(input, type);
+        }
+
+        // pre-compute symbol -> input mappings and replace the corresponding nodes in the tree
+        Expression rewritten = TreeRewriter.rewriteWith(new SymbolToInputRewriter(symbolToInputMappings), expression);
+        return compiledExpressions.getUnchecked(new ExpressionKey(rewritten, inputTypes.build()));
+    }
+
+    private static class CompiledFilterFunction
+            implements FilterFunction
+    {
+        private final CompiledNode predicate;
+        private final EvaluationContext context;
+
+        private CompiledFilterFunction(CompiledNode predicate, EvaluationContext context)
+        {
+            this.predicate = predicate;
+            this.context = context;
+        }
+
+        @Override
+        public boolean filter(TupleReadable... cursors)
+        {
+            context.wasNull = false;
+            boolean result = predicate.getBoolean(cursors, context);
+            return result && !context.wasNull;
+        }
+    }
+
+    private static class SingleChannelCompiledFilterFunction
+            extends CompiledFilterFunction
+            implements SingleChannelFilterFunction
+    {
+        private final int channel;
+
+        private SingleChannelCompiledFilterFunction(CompiledNode predicate, EvaluationContext context, int channel)
+        {
+            super(predicate, context);
+            this.channel = channel;
+        }
+
+        @Override
+        public int getChannel()
+        {
+            return channel;
+        }
+    }
+
+    private static class CompiledProjectionFunction
+            implements ProjectionFunction
+    {
+        private final Type type;
+        private final CompiledNode expression;
+        private final EvaluationContext context;
+
+        private CompiledProjectionFunction(Type type, CompiledNode expression, EvaluationContext context)
+        {
+            this.type = type;
+            this.expression = expression;
+            this.context = context;
+        }
+
+        @Override
+        public TupleInfo getTupleInfo()
+        {
+            return new TupleInfo(type.getRawType());
+        }
+
+        @Override
+        public void project(TupleReadable[] cursors, BlockBuilder output)
+        {
+            context.wasNull = false;
+            switch (type) {
+                case LONG: {
+                    long value = expression.getLong(cursors, context);
+                    if (context.wasNull) {
+                        output.appendNull();
+                    }
+                    else {
+                        output.append(value);
+                    }
+                    break;
+                }
+                case DOUBLE: {
+                    double value = expression.getDouble(cursors, context);
+                    if (context.wasNull) {
+                        output.appendNull();
+                    }
+                    else {
+                        output.append(value);
+                    }
+                    break;
+                }
+                case STRING: {
+                    Slice value = expression.getSlice(cursors, context);
+                    if (context.wasNull) {
+                        output.appendNull();
+                    }
+                    else {
+                        output.append(value);
+                    }
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("not yet implemented: " + type);
+            }
+        }
+    }
+
+    /**
+     * Per function evaluation state.  Typed evaluation methods signal a null result by setting
+     * {@code wasNull}, which callers must check after evaluating each operand.
+     */
+    private static class EvaluationContext
+    {
+        private final Session session;
+        private final TupleInputResolver resolver = new TupleInputResolver();
+        private final ExpressionInterpreter interpreter;
+        private boolean wasNull;
+
+        private EvaluationContext(Metadata metadata, Session session)
+        {
+            this.session = checkNotNull(session, "session is null");
+            this.interpreter = ExpressionInterpreter.expressionInterpreter(resolver, metadata, session);
+        }
+    }
+
+    private static class ExpressionKey
+    {
+        private final Expression expression;
+        private final Map<Input, Type> inputTypes;
+
+        private ExpressionKey(Expression expression, Map<Input, Type> inputTypes)
+        {
+            this.expression = expression;
+            this.inputTypes = inputTypes;
+        }
+
+        public Expression getExpression()
+        {
+            return expression;
+        }
+
+        public Map<Input, Type> getInputTypes()
+        {
+            return inputTypes;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            ExpressionKey that = (ExpressionKey) o;
+            return expression.equals(that.expression) && inputTypes.equals(that.inputTypes);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(expression, inputTypes);
+        }
+    }
+
+    private class Compiler
+            extends AstVisitor<CompiledNode, Void>
+    {
+        private final Map<Input, Type> inputTypes;
+
+        private Compiler(Map<Input, Type> inputTypes)
+        {
+            this.inputTypes = inputTypes;
+        }
+
+        @Override
+        public CompiledNode visitInputReference(InputReference node, Void context)
+        {
+            Input input = node.getInput();
+            return new InputNode(node, inputTypes.get(input), input.getChannel(), input.getField());
+        }
+
+        @Override
+        protected CompiledNode visitLongLiteral(LongLiteral node, Void context)
+        {
+            return new ConstantNode(node, Type.LONG, node.getValue());
+        }
+
+        @Override
+        protected CompiledNode visitDoubleLiteral(DoubleLiteral node, Void context)
+        {
+            return new ConstantNode(node, Type.DOUBLE, node.getValue());
+        }
+
+        @Override
+        protected CompiledNode visitStringLiteral(StringLiteral node, Void context)
+        {
+            return new ConstantNode(node, Type.STRING, node.getSlice());
+        }
+
+        @Override
+        protected CompiledNode visitTimestampLiteral(TimestampLiteral node, Void context)
+        {
+            return new ConstantNode(node, Type.LONG, node.getUnixTime());
+        }
+
+        @Override
+        protected CompiledNode visitBooleanLiteral(BooleanLiteral node, Void context)
+        {
+            return new ConstantNode(node, Type.BOOLEAN, node.equals(BooleanLiteral.TRUE_LITERAL));
+        }
+
+        @Override
+        protected CompiledNode visitNullLiteral(NullLiteral node, Void context)
+        {
+            return new ConstantNode(node, Type.NULL, null);
+        }
+
+        @Override
+        protected CompiledNode visitIsNullPredicate(IsNullPredicate node, Void context)
+        {
+            return new IsNullNode(node, process(node.getValue(), context), false);
+        }
+
+        @Override
+        protected CompiledNode visitIsNotNullPredicate(IsNotNullPredicate node, Void context)
+        {
+            return new IsNullNode(node, process(node.getValue(), context), true);
+        }
+
+        @Override
+        protected CompiledNode visitNotExpression(NotExpression node, Void context)
+        {
+            CompiledNode value = process(node.getValue(), context);
+            if (!isBooleanOperand(value)) {
+                return new InterpretedNode(node);
+            }
+            return new NotNode(node, value);
+        }
+
+        @Override
+        protected CompiledNode visitLogicalBinaryExpression(LogicalBinaryExpression node, Void context)
+        {
+            CompiledNode left = process(node.getLeft(), context);
+            CompiledNode right = process(node.getRight(), context);
+            if (!isBooleanOperand(left) || !isBooleanOperand(right)) {
+                return new InterpretedNode(node);
+            }
+
+            switch (node.getType()) {
+                case AND:
+                    return new AndNode(node, left, right);
+                case OR:
+                    return new OrNode(node, left, right);
+                default:
+                    throw new UnsupportedOperationException("not yet implemented: " + node.getType());
+            }
+        }
+
+        @Override
+        protected CompiledNode visitNegativeExpression(NegativeExpression node, Void context)
+        {
+            CompiledNode value = process(node.getValue(), context);
+            if (!Type.isNumeric(value.getType())) {
+                return new InterpretedNode(node);
+            }
+            return new NegativeNode(node, value);
+        }
+
+        @Override
+        protected CompiledNode visitArithmeticExpression(ArithmeticExpression node, Void context)
+        {
+            CompiledNode left = process(node.getLeft(), context);
+            CompiledNode right = process(node.getRight(), context);
+            if (!Type.isNumeric(left.getType()) || !Type.isNumeric(right.getType())) {
+                return new InterpretedNode(node);
+            }
+
+            if (left.getType() == Type.LONG && right.getType() == Type.LONG) {
+                return new LongArithmeticNode(node, left, right);
+            }
+            return new DoubleArithmeticNode(node, left, right);
+        }
+
+        @Override
+        protected CompiledNode visitComparisonExpression(ComparisonExpression node, Void context)
+        {
+            CompiledNode left = process(node.getLeft(), context);
+            CompiledNode right = process(node.getRight(), context);
+
+            if (left.getType() == Type.LONG && right.getType() == Type.LONG) {
+                return new LongComparisonNode(node, left, right);
+            }
+            if (Type.isNumeric(left.getType()) && Type.isNumeric(right.getType())) {
+                return new DoubleComparisonNode(node, left, right);
+            }
+            if (left.getType() == Type.STRING && right.getType() == Type.STRING) {
+                return new SliceComparisonNode(node, left, right);
+            }
+            return new InterpretedNode(node);
+        }
+
+        @Override
+        protected CompiledNode visitBetweenPredicate(BetweenPredicate node, Void context)
+        {
+            CompiledNode value = process(node.getValue(), context);
+            CompiledNode min = process(node.getMin(), context);
+            CompiledNode max = process(node.getMax(), context);
+
+            if (Type.isNumeric(value.getType()) && Type.isNumeric(min.getType()) && Type.isNumeric(max.getType())) {
+                return new DoubleBetweenNode(node, value, min, max);
+            }
+            if (value.getType() == Type.STRING && min.getType() == Type.STRING && max.getType() == Type.STRING) {
+                return new SliceBetweenNode(node, value, min, max);
+            }
+            return new InterpretedNode(node);
+        }
+
+        @Override
+        protected CompiledNode visitLikePredicate(LikePredicate node, Void context)
+        {
+            CompiledNode value = process(node.getValue(), context);
+            if (value.getType() != Type.STRING || !(node.getPattern() instanceof StringLiteral)) {
+                return new InterpretedNode(node);
+            }
+
+            // compile constant patterns once instead of for every row
+            Slice pattern = ((StringLiteral) node.getPattern()).getSlice();
+            Slice escape = null;
+            if (node.getEscape() != null) {
+                if (!(node.getEscape() instanceof StringLiteral)) {
+                    return new InterpretedNode(node);
+                }
+                escape = ((StringLiteral) node.getEscape()).getSlice();
+            }
+            return new LikeNode(node, value, LikeMatcher.compile(pattern, escape));
+        }
+
+        @Override
+        protected CompiledNode visitFunctionCall(FunctionCall node, Void context)
+        {
+            ImmutableList.Builder<CompiledNode> arguments = ImmutableList.builder();
+            ImmutableList.Builder<Type> argumentTypes = ImmutableList.builder();
+            for (Expression argument : node.getArguments()) {
+                CompiledNode compiled = process(argument, context);
+                Type type = compiled.getType();
+                if (type == null || type.getRawType() == null) {
+                    // the function can only be resolved once the argument types are known
+                    return new InterpretedNode(node);
+                }
+                arguments.add(compiled);
+                argumentTypes.add(type);
+            }
+
+            FunctionInfo function = metadata.getFunction(node.getName(), Lists.transform(argumentTypes.build(), Type.toRaw()));
+            return new FunctionNode(node, Type.fromRaw(function.getReturnType()), function.getScalarFunction(), arguments.build());
+        }
+
+        @Override
+        protected CompiledNode visitExpression(Expression node, Void context)
+        {
+            return new InterpretedNode(node);
+        }
+
+        private boolean isBooleanOperand(CompiledNode node)
+        {
+            return node.getType() == Type.BOOLEAN || node.getType() == Type.NULL || node.getType() == null;
+        }
+    }
+
+    /**
+     * A node of a compiled expression.  The node type is null when it is only known at
+     * evaluation time.  Typed evaluation methods set {@code context.wasNull} for a null result,
+     * and the generic {@link #getValue} returns null instead.
+     */
+    private abstract static class CompiledNode
+    {
+        private final Expression expression;
+        private final Type type;
+
+        protected CompiledNode(Expression expression, Type type)
+        {
+            this.expression = expression;
+            this.type = type;
+        }
+
+        public Expression getExpression()
+        {
+            return expression;
+        }
+
+        public Type getType()
+        {
+            return type;
+        }
+
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            throw new UnsupportedOperationException(type + " expression can not be evaluated as a boolean: " + expression);
+        }
+
+        public long getLong(TupleReadable[] cursors, EvaluationContext context)
+        {
+            throw new UnsupportedOperationException(type + " expression can not be evaluated as a long: " + expression);
+        }
+
+        public double getDouble(TupleReadable[] cursors, EvaluationContext context)
+        {
+            if (type == Type.LONG) {
+                return getLong(cursors, context);
+            }
+            throw new UnsupportedOperationException(type + " expression can not be evaluated as a double: " + expression);
+        }
+
+        public Slice getSlice(TupleReadable[] cursors, EvaluationContext context)
+        {
+            throw new UnsupportedOperationException(type + " expression can not be evaluated as a string: " + expression);
+        }
+
+        public Object getValue(TupleReadable[] cursors, EvaluationContext context)
+        {
+            Object value;
+            switch (type) {
+                case LONG:
+                    value = getLong(cursors, context);
+                    break;
+                case DOUBLE:
+                    value = getDouble(cursors, context);
+                    break;
+                case STRING:
+                    value = getSlice(cursors, context);
+                    break;
+                case BOOLEAN:
+                    value = getBoolean(cursors, context);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("not yet implemented: " + type);
+            }
+
+            if (context.wasNull) {
+                context.wasNull = false;
+                return null;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A node that is evaluated to an object and converted to the requested type.
+     */
+    private abstract static class BoxedNode
+            extends CompiledNode
+    {
+        protected BoxedNode(Expression expression, Type type)
+        {
+            super(expression, type);
+        }
+
+        @Override
+        public abstract Object getValue(TupleReadable[] cursors, EvaluationContext context);
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            Object value = getValue(cursors, context);
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            }
+            // null or an expression that could not be evaluated
+            context.wasNull = true;
+            return false;
+        }
+
+        @Override
+        public long getLong(TupleReadable[] cursors, EvaluationContext context)
+        {
+            Object value = getValue(cursors, context);
+            if (value == null) {
+                context.wasNull = true;
+                return 0;
+            }
+            return ((Number) value).longValue();
+        }
+
+        @Override
+        public double getDouble(TupleReadable[] cursors, EvaluationContext context)
+        {
+            Object value = getValue(cursors, context);
+            if (value == null) {
+                context.wasNull = true;
+                return 0;
+            }
+            return ((Number) value).doubleValue();
+        }
+
+        @Override
+        public Slice getSlice(TupleReadable[] cursors, EvaluationContext context)
+        {
+            Object value = getValue(cursors, context);
+            if (value == null) {
+                context.wasNull = true;
+                return null;
+            }
+            return (Slice) value;
+        }
+    }
+
+    private static class InterpretedNode
+            extends BoxedNode
+    {
+        private InterpretedNode(Expression expression)
+        {
+            super(expression, null);
+        }
+
+        @Override
+        public Object getValue(TupleReadable[] cursors, EvaluationContext context)
+        {
+            context.resolver.setInputs(cursors);
+            return context.interpreter.process(getExpression(), null);
+        }
+    }
+
+    private static class FunctionNode
+            extends BoxedNode
+    {
+        private final MethodHandle function;
+        private final boolean bindSession;
+        private final List<CompiledNode> arguments;
+
+        private FunctionNode(Expression expression, Type type, MethodHandle function, List<CompiledNode> arguments)
+        {
+            super(expression, type);
+            this.bindSession = function.type().parameterCount() > 0 && function.type().parameterType(0) == Session.class;
+            int parameterCount = function.type().parameterCount();
+            this.function = function.asType(function.type().generic()).asSpreader(Object[].class, parameterCount);
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Object getValue(TupleReadable[] cursors, EvaluationContext context)
+        {
+            int offset = bindSession ? 1 : 0;
+            Object[] values = new Object[arguments.size() + offset];
+            if (bindSession) {
+                values[0] = context.session;
+            }
+            for (int i = 0; i < arguments.size(); i++) {
+                Object value = arguments.get(i).getValue(cursors, context);
+                if (value == null) {
+                    return null;
+                }
+                values[i + offset] = value;
+            }
+
+            try {
+                return (Object) function.invokeExact(values);
+            }
+            catch (Throwable throwable) {
+                throw new RuntimeException("Exception from function invocation", throwable);
+            }
+        }
+    }
+
+    private static class InputNode
+            extends CompiledNode
+    {
+        private final int channel;
+        private final int field;
+
+        private InputNode(Expression expression, Type type, int channel, int field)
+        {
+            super(expression, type);
+            this.channel = channel;
+            this.field = field;
+        }
+
+        @Override
+        public long getLong(TupleReadable[] cursors, EvaluationContext context)
+        {
+            TupleReadable cursor = cursors[channel];
+            if (cursor.isNull(field)) {
+                context.wasNull = true;
+                return 0;
+            }
+            return cursor.getLong(field);
+        }
+
+        @Override
+        public double getDouble(TupleReadable[] cursors, EvaluationContext context)
+        {
+            if (getType() == Type.LONG) {
+                return getLong(cursors, context);
+            }
+            TupleReadable cursor = cursors[channel];
+            if (cursor.isNull(field)) {
+                context.wasNull = true;
+                return 0;
+            }
+            return cursor.getDouble(field);
+        }
+
+        @Override
+        public Slice getSlice(TupleReadable[] cursors, EvaluationContext context)
+        {
+            TupleReadable cursor = cursors[channel];
+            if (cursor.isNull(field)) {
+                context.wasNull = true;
+                return null;
+            }
+            return cursor.getSlice(field);
+        }
+    }
+
+    private static class ConstantNode
+            extends CompiledNode
+    {
+        private final Object value;
+
+        private ConstantNode(Expression expression, Type type, Object value)
+        {
+            super(expression, type);
+            this.value = value;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            if (value == null) {
+                context.wasNull = true;
+                return false;
+            }
+            return (Boolean) value;
+        }
+
+        @Override
+        public long getLong(TupleReadable[] cursors, EvaluationContext context)
+        {
+            if (value == null) {
+                context.wasNull = true;
+                return 0;
+            }
+            return (Long) value;
+        }
+
+        @Override
+        public double getDouble(TupleReadable[] cursors, EvaluationContext context)
+        {
+            if (value == null) {
+                context.wasNull = true;
+                return 0;
+            }
+            return ((Number) value).doubleValue();
+        }
+
+        @Override
+        public Slice getSlice(TupleReadable[] cursors, EvaluationContext context)
+        {
+            if (value == null) {
+                context.wasNull = true;
+                return null;
+            }
+            return (Slice) value;
+        }
+
+        @Override
+        public Object getValue(TupleReadable[] cursors, EvaluationContext context)
+        {
+            return value;
+        }
+    }
+
+    private static class IsNullNode
+            extends CompiledNode
+    {
+        private final CompiledNode value;
+        private final boolean negate;
+
+        private IsNullNode(Expression expression, CompiledNode value, boolean negate)
+        {
+            super(expression, Type.BOOLEAN);
+            this.value = value;
+            this.negate = negate;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            boolean isNull;
+            if (value.getType() == Type.LONG) {
+                value.getLong(cursors, context);
+                isNull = context.wasNull;
+            }
+            else if (value.getType() == Type.DOUBLE) {
+                value.getDouble(cursors, context);
+                isNull = context.wasNull;
+            }
+            else if (value.getType() == Type.STRING) {
+                value.getSlice(cursors, context);
+                isNull = context.wasNull;
+            }
+            else {
+                isNull = value.getValue(cursors, context) == null;
+            }
+            context.wasNull = false;
+            return isNull != negate;
+        }
+    }
+
+    private static class NotNode
+            extends CompiledNode
+    {
+        private final CompiledNode value;
+
+        private NotNode(Expression expression, CompiledNode value)
+        {
+            super(expression, Type.BOOLEAN);
+            this.value = value;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            return !value.getBoolean(cursors, context);
+        }
+    }
+
+    private static class AndNode
+            extends CompiledNode
+    {
+        private final CompiledNode left;
+        private final CompiledNode right;
+
+        private AndNode(Expression expression, CompiledNode left, CompiledNode right)
+        {
+            super(expression, Type.BOOLEAN);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            boolean leftValue = left.getBoolean(cursors, context);
+            boolean leftNull = context.wasNull;
+            if (!leftValue && !leftNull) {
+                return false;
+            }
+
+            context.wasNull = false;
+            boolean rightValue = right.getBoolean(cursors, context);
+            if (!rightValue && !context.wasNull) {
+                return false;
+            }
+
+            // both sides are true or null
+            context.wasNull = context.wasNull || leftNull;
+            return true;
+        }
+    }
+
+    private static class OrNode
+            extends CompiledNode
+    {
+        private final CompiledNode left;
+        private final CompiledNode right;
+
+        private OrNode(Expression expression, CompiledNode left, CompiledNode right)
+        {
+            super(expression, Type.BOOLEAN);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            boolean leftValue = left.getBoolean(cursors, context);
+            boolean leftNull = context.wasNull;
+            if (leftValue && !leftNull) {
+                return true;
+            }
+
+            context.wasNull = false;
+            boolean rightValue = right.getBoolean(cursors, context);
+            if (rightValue && !context.wasNull) {
+                return true;
+            }
+
+            // both sides are false or null
+            context.wasNull = context.wasNull || leftNull;
+            return false;
+        }
+    }
+
+    private static class NegativeNode
+            extends CompiledNode
+    {
+        private final CompiledNode value;
+
+        private NegativeNode(Expression expression, CompiledNode value)
+        {
+            super(expression, value.getType());
+            this.value = value;
+        }
+
+        @Override
+        public long getLong(TupleReadable[] cursors, EvaluationContext context)
+        {
+            return -value.getLong(cursors, context);
+        }
+
+        @Override
+        public double getDouble(TupleReadable[] cursors, EvaluationContext context)
+        {
+            return -value.getDouble(cursors, context);
+        }
+    }
+
+    private static class LongArithmeticNode
+            extends CompiledNode
+    {
+        private final ArithmeticExpression.Type operator;
+        private final CompiledNode left;
+        private final CompiledNode right;
+
+        private LongArithmeticNode(ArithmeticExpression expression, CompiledNode left, CompiledNode right)
+        {
+            super(expression, Type.LONG);
+            this.operator = expression.getType();
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public long getLong(TupleReadable[] cursors, EvaluationContext context)
+        {
+            long leftValue = left.getLong(cursors, context);
+            if (context.wasNull) {
+                return 0;
+            }
+            long rightValue = right.getLong(cursors, context);
+            if (context.wasNull) {
+                return 0;
+            }
+
+            switch (operator) {
+                case ADD:
+                    return leftValue + rightValue;
+                case SUBTRACT:
+                    return leftValue - rightValue;
+                case MULTIPLY:
+                    return leftValue * rightValue;
+                case DIVIDE:
+                    return leftValue / rightValue;
+                case MODULUS:
+                    return leftValue % rightValue;
+                default:
+                    throw new UnsupportedOperationException("not yet implemented: " + operator);
+            }
+        }
+    }
+
+    private static class DoubleArithmeticNode
+            extends CompiledNode
+    {
+        private final ArithmeticExpression.Type operator;
+        private final CompiledNode left;
+        private final CompiledNode right;
+
+        private DoubleArithmeticNode(ArithmeticExpression expression, CompiledNode left, CompiledNode right)
+        {
+            super(expression, Type.DOUBLE);
+            this.operator = expression.getType();
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public double getDouble(TupleReadable[] cursors, EvaluationContext context)
+        {
+            double leftValue = left.getDouble(cursors, context);
+            if (context.wasNull) {
+                return 0;
+            }
+            double rightValue = right.getDouble(cursors, context);
+            if (context.wasNull) {
+                return 0;
+            }
+
+            switch (operator) {
+                case ADD:
+                    return leftValue + rightValue;
+                case SUBTRACT:
+                    return leftValue - rightValue;
+                case MULTIPLY:
+                    return leftValue * rightValue;
+                case DIVIDE:
+                    return leftValue / rightValue;
+                case MODULUS:
+                    return leftValue % rightValue;
+                default:
+                    throw new UnsupportedOperationException("not yet implemented: " + operator);
+            }
+        }
+    }
+
+    private static class LongComparisonNode
+            extends CompiledNode
+    {
+        private final ComparisonExpression.Type operator;
+        private final CompiledNode left;
+        private final CompiledNode right;
+
+        private LongComparisonNode(ComparisonExpression expression, CompiledNode left, CompiledNode right)
+        {
+            super(expression, Type.BOOLEAN);
+            this.operator = expression.getType();
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            long leftValue = left.getLong(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            long rightValue = right.getLong(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+
+            switch (operator) {
+                case EQUAL:
+                    return leftValue == rightValue;
+                case NOT_EQUAL:
+                    return leftValue != rightValue;
+                case LESS_THAN:
+                    return leftValue < rightValue;
+                case LESS_THAN_OR_EQUAL:
+                    return leftValue <= rightValue;
+                case GREATER_THAN:
+                    return leftValue > rightValue;
+                case GREATER_THAN_OR_EQUAL:
+                    return leftValue >= rightValue;
+                default:
+                    throw new UnsupportedOperationException("not yet implemented: " + operator);
+            }
+        }
+    }
+
+    private static class DoubleComparisonNode
+            extends CompiledNode
+    {
+        private final ComparisonExpression.Type operator;
+        private final CompiledNode left;
+        private final CompiledNode right;
+
+        private DoubleComparisonNode(ComparisonExpression expression, CompiledNode left, CompiledNode right)
+        {
+            super(expression, Type.BOOLEAN);
+            this.operator = expression.getType();
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            double leftValue = left.getDouble(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            double rightValue = right.getDouble(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+
+            switch (operator) {
+                case EQUAL:
+                    return leftValue == rightValue;
+                case NOT_EQUAL:
+                    return leftValue != rightValue;
+                case LESS_THAN:
+                    return leftValue < rightValue;
+                case LESS_THAN_OR_EQUAL:
+                    return leftValue <= rightValue;
+                case GREATER_THAN:
+                    return leftValue > rightValue;
+                case GREATER_THAN_OR_EQUAL:
+                    return leftValue >= rightValue;
+                default:
+                    throw new UnsupportedOperationException("not yet implemented: " + operator);
+            }
+        }
+    }
+
+    private static class SliceComparisonNode
+            extends CompiledNode
+    {
+        private final ComparisonExpression.Type operator;
+        private final CompiledNode left;
+        private final CompiledNode right;
+
+        private SliceComparisonNode(ComparisonExpression expression, CompiledNode left, CompiledNode right)
+        {
+            super(expression, Type.BOOLEAN);
+            this.operator = expression.getType();
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            Slice leftValue = left.getSlice(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            Slice rightValue = right.getSlice(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+
+            switch (operator) {
+                case EQUAL:
+                    return leftValue.equals(rightValue);
+                case NOT_EQUAL:
+                    return !leftValue.equals(rightValue);
+                case LESS_THAN:
+                    return leftValue.compareTo(rightValue) < 0;
+                case LESS_THAN_OR_EQUAL:
+                    return leftValue.compareTo(rightValue) <= 0;
+                case GREATER_THAN:
+                    return leftValue.compareTo(rightValue) > 0;
+                case GREATER_THAN_OR_EQUAL:
+                    return leftValue.compareTo(rightValue) >= 0;
+                default:
+                    throw new UnsupportedOperationException("not yet implemented: " + operator);
+            }
+        }
+    }
+
+    private static class LikeNode
+            extends CompiledNode
+    {
+        private final CompiledNode value;
+        private final LikeMatcher matcher;
+
+        private LikeNode(Expression expression, CompiledNode value, LikeMatcher matcher)
+        {
+            super(expression, Type.BOOLEAN);
+            this.value = value;
+            this.matcher = matcher;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            Slice slice = value.getSlice(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            return matcher.matches(slice);
+        }
+    }
+
+    private static class DoubleBetweenNode
+            extends CompiledNode
+    {
+        private final CompiledNode value;
+        private final CompiledNode min;
+        private final CompiledNode max;
+
+        private DoubleBetweenNode(Expression expression, CompiledNode value, CompiledNode min, CompiledNode max)
+        {
+            super(expression, Type.BOOLEAN);
+            this.value = value;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            double doubleValue = value.getDouble(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            double minValue = min.getDouble(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            double maxValue = max.getDouble(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            return minValue <= doubleValue && doubleValue <= maxValue;
+        }
+    }
+
+    private static class SliceBetweenNode
+            extends CompiledNode
+    {
+        private final CompiledNode value;
+        private final CompiledNode min;
+        private final CompiledNode max;
+
+        private SliceBetweenNode(Expression expression, CompiledNode value, CompiledNode min, CompiledNode max)
+        {
+            super(expression, Type.BOOLEAN);
+            this.value = value;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean getBoolean(TupleReadable[] cursors, EvaluationContext context)
+        {
+            Slice sliceValue = value.getSlice(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            Slice minValue = min.getSlice(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            Slice maxValue = max.getSlice(cursors, context);
+            if (context.wasNull) {
+                return false;
+            }
+            return minValue.compareTo(sliceValue) <= 0 && sliceValue.compareTo(maxValue) <= 0;
+        }
+    }
+}
@@ -40,6 +40,7 @@ import com.facebook.presto.sql.tree.StringLiteral;
 import com.facebook.presto.sql.tree.TimestampLiteral;
 import com.facebook.presto.sql.tree.WhenClause;
 import com.google.common.base.Function;
+import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
@@ -47,8 +48,6 @@ import javax.annotation.Nullable;
 import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -62,6 +61,10 @@ public class ExpressionInterpreter
     private final Session session;
     private final boolean optimize;
 
+    private Slice likePattern;
+    private Slice likeEscape;
+    private LikeMatcher likeMatcher;
+
     public static ExpressionInterpreter expressionInterpreter(InputResolver inputResolver, Metadata metadata, Session session)
     {
         checkNotNull(inputResolver, "resolver is null");
@@ -598,72 +601,27 @@ public class ExpressionInterpreter
         if (!(value instanceof Slice)) {
             return node;
         }
-        String valueString = ((Slice) value).toString(UTF_8);
 
         Object pattern = process(node.getPattern(), context);
         if (!(pattern instanceof Slice)) {
             return node;
         }
-        String patternString = ((Slice) pattern).toString(UTF_8);
 
-        char escapeChar;
+        Object escape = null;
         if (node.getEscape() != null) {
-            Object escape = process(node.getEscape(), context);
+            escape = process(node.getEscape(), context);
             if (!(escape instanceof Slice)) {
                 return node;
             }
-            String escapeString = ((Slice) escape).toString(UTF_8);
-            if (escapeString.length() == 0) {
-                // escaping disabled
-                escapeChar = (char) -1; // invalid character
-            } else if (escapeString.length() == 1) {
-                escapeChar = escapeString.charAt(0);
-            } else {
-                throw new IllegalArgumentException("escape must be empty or a single character: "  + escapeString);
-            }
-        } else {
-            escapeChar = '\\';
-        }
-
-        Matcher matcher = likeToPattern(patternString, escapeChar).matcher(valueString);
-        return matcher.matches();
-    }
-
-    public static Pattern likeToPattern(String patternString, char escapeChar)
-    {
-        StringBuilder regex = new StringBuilder(patternString.length() * 2);
-
-        boolean escaped = false;
-        for (char currentChar : patternString.toCharArray()) {
-            if (currentChar == escapeChar) {
-                escaped = true;
-            } else {
-                switch (currentChar) {
-                    case '%':
-                        if (escaped) {
-                            regex.append("%");
-                        }
-                        else {
-                            regex.append(".*");
-                        }
-                        escaped = false;
-                        break;
-                    case '_':
-                        if (escaped) {
-                            regex.append("_");
-                        }
-                        else {
-                            regex.append('.');
-                        }
-                        escaped = false;
-                        break;
-                    default:
-                        escaped = false;
-                        regex.append(Pattern.quote(String.valueOf(currentChar)));
-                }
-            }
         }
-        return Pattern.compile(regex.toString());
+
+        // the pattern is almost always a constant, so only recompile it when it changes
+        if (!pattern.equals(likePattern) || !Objects.equal(escape, likeEscape)) {
+            likeMatcher = LikeMatcher.compile((Slice) pattern, (Slice) escape);
+            likePattern = (Slice) pattern;
+            likeEscape = (Slice) escape;
+        }
+        return likeMatcher.matches((Slice) value);
     }
 
     protected Object visitExtract(Extract node, Void context)
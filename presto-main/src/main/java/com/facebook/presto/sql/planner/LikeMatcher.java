@@ -0,0 +1,218 @@
+package com.facebook.presto.sql.planner;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A compiled SQL LIKE pattern.
+ * <p/>
+ * Patterns that only contain {@code %} wildcards, which covers exact, prefix, suffix and
+ * contains matches, are matched directly on the UTF-8 bytes of the value.  Since UTF-8 is
+ * self synchronizing, a byte match of a literal is always a character match.  Patterns
+ * containing {@code _} match a single character, so they are matched with a regular
+ * expression on the decoded value.
+ */
+public abstract class LikeMatcher
+{
+    private static final char DEFAULT_ESCAPE_CHAR = '\\';
+
+    private final String pattern;
+
+    private LikeMatcher(String pattern)
+    {
+        this.pattern = pattern;
+    }
+
+    public abstract boolean matches(Slice value);
+
+    /**
+     * @param escape the escape character, an empty slice to disable escaping, or null for the default escape character
+     */
+    public static LikeMatcher compile(Slice pattern, @Nullable Slice escape)
+    {
+        checkNotNull(pattern, "pattern is null");
+
+        char escapeChar;
+        if (escape != null) {
+            String escapeString = escape.toString(UTF_8);
+            if (escapeString.length() == 0) {
+                // escaping disabled
+                escapeChar = (char) -1; // invalid character
+            }
+            else if (escapeString.length() == 1) {
+                escapeChar = escapeString.charAt(0);
+            }
+            else {
+                throw new IllegalArgumentException("escape must be empty or a single character: " + escapeString);
+            }
+        }
+        else {
+            escapeChar = DEFAULT_ESCAPE_CHAR;
+        }
+
+        return compile(pattern.toString(UTF_8), escapeChar);
+    }
+
+    public static LikeMatcher compile(String pattern, char escapeChar)
+    {
+        checkNotNull(pattern, "pattern is null");
+
+        // split the pattern into the literals between the % wildcards
+        ImmutableList.Builder<Slice> literals = ImmutableList.builder();
+        StringBuilder literal = new StringBuilder();
+        StringBuilder regex = new StringBuilder(pattern.length() * 2);
+        boolean hasSingleCharacterWildcard = false;
+        boolean anchoredStart = true;
+        boolean anchoredEnd = true;
+        boolean escaped = false;
+        for (char currentChar : pattern.toCharArray()) {
+            if (!escaped && currentChar == escapeChar) {
+                escaped = true;
+            }
+            else if (!escaped && currentChar == '%') {
+                if (regex.length() == 0) {
+                    anchoredStart = false;
+                }
+                regex.append(".*");
+                if (literal.length() > 0) {
+                    literals.add(Slices.copiedBuffer(literal.toString(), UTF_8));
+                    literal.setLength(0);
+                }
+                anchoredEnd = false;
+            }
+            else if (!escaped && currentChar == '_') {
+                hasSingleCharacterWildcard = true;
+                regex.append('.');
+                anchoredEnd = true;
+            }
+            else {
+                escaped = false;
+                regex.append(Pattern.quote(String.valueOf(currentChar)));
+                literal.append(currentChar);
+                anchoredEnd = true;
+            }
+        }
+        if (literal.length() > 0) {
+            literals.add(Slices.copiedBuffer(literal.toString(), UTF_8));
+        }
+
+        if (hasSingleCharacterWildcard) {
+            // % matches any sequence of characters, including line terminators
+            return new RegexLikeMatcher(pattern, Pattern.compile(regex.toString(), Pattern.DOTALL));
+        }
+        return new SliceLikeMatcher(pattern, literals.build(), anchoredStart, anchoredEnd);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Objects.toStringHelper(this)
+                .add("pattern", pattern)
+                .toString();
+    }
+
+    private static class SliceLikeMatcher
+            extends LikeMatcher
+    {
+        private final Slice[] literals;
+        private final boolean anchoredStart;
+        private final boolean anchoredEnd;
+
+        private SliceLikeMatcher(String pattern, List<Slice> literals, boolean anchoredStart, boolean anchoredEnd)
+        {
+            super(pattern);
+            this.literals = literals.toArray(new Slice[literals.size()]);
+            this.anchoredStart = anchoredStart;
+            this.anchoredEnd = anchoredEnd;
+        }
+
+        @Override
+        public boolean matches(Slice value)
+        {
+            if (literals.length == 0) {
+                // the pattern is empty or only contains %
+                return !(anchoredStart && anchoredEnd) || value.length() == 0;
+            }
+
+            if (anchoredStart && anchoredEnd && literals.length == 1) {
+                return value.equals(literals[0]);
+            }
+
+            int position = 0;
+            int first = 0;
+            if (anchoredStart) {
+                Slice prefix = literals[0];
+                if (!regionMatches(value, 0, prefix)) {
+                    return false;
+                }
+                position = prefix.length();
+                first++;
+            }
+
+            int limit = value.length();
+            int last = literals.length;
+            if (anchoredEnd) {
+                Slice suffix = literals[literals.length - 1];
+                limit -= suffix.length();
+                if (limit < position || !regionMatches(value, limit, suffix)) {
+                    return false;
+                }
+                last--;
+            }
+
+            // find the remaining literals in order, the % wildcards match anything in between
+            for (int i = first; i < last; i++) {
+                int index = indexOf(value, literals[i], position, limit);
+                if (index < 0) {
+                    return false;
+                }
+                position = index + literals[i].length();
+            }
+            return true;
+        }
+
+        private static boolean regionMatches(Slice value, int offset, Slice literal)
+        {
+            return offset + literal.length() <= value.length() && value.equals(offset, literal.length(), literal, 0, literal.length());
+        }
+
+        private static int indexOf(Slice value, Slice literal, int start, int limit)
+        {
+            int length = literal.length();
+            byte firstByte = literal.getByte(0);
+            for (int index = start; index <= limit - length; index++) {
+                if (value.getByte(index) == firstByte && value.equals(index, length, literal, 0, length)) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class RegexLikeMatcher
+            extends LikeMatcher
+    {
+        private final Pattern regex;
+
+        private RegexLikeMatcher(String pattern, Pattern regex)
+        {
+            super(pattern);
+            this.regex = regex;
+        }
+
+        @Override
+        public boolean matches(Slice value)
+        {
+            return regex.matcher(value.toString(UTF_8)).matches();
+        }
+    }
+}
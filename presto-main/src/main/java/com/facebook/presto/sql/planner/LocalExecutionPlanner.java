@@ -15,11 +15,15 @@ import com.facebook.presto.operator.HashJoinOperator;
 import com.facebook.presto.operator.InMemoryOrderByOperator;
 import com.facebook.presto.operator.Input;
 import com.facebook.presto.operator.LimitOperator;
+import com.facebook.presto.operator.MemoryPool;
+import com.facebook.presto.operator.MergeSortedOperator;
+import com.facebook.presto.operator.MergeSortedSplitsOperator;
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorStats;
 import com.facebook.presto.operator.ProjectionFunction;
 import com.facebook.presto.operator.ProjectionFunctions;
 import com.facebook.presto.operator.SourceHashProvider;
+import com.facebook.presto.operator.SortedSplitsMergerFactory;
 import com.facebook.presto.operator.SourceHashProviderFactory;
 import com.facebook.presto.operator.TopNOperator;
 import com.facebook.presto.sql.analyzer.Session;
@@ -42,12 +46,11 @@ import com.facebook.presto.sql.tree.Expression;
 import com.facebook.presto.sql.tree.FunctionCall;
 import com.facebook.presto.sql.tree.QualifiedNameReference;
 import com.facebook.presto.sql.tree.SortItem;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
-import com.facebook.presto.tuple.TupleReadable;
 import com.facebook.presto.util.IterableTransformer;
 import com.facebook.presto.util.MoreFunctions;
 import com.google.common.base.Functions;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
@@ -59,6 +62,8 @@ import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import io.airlift.units.DataSize;
 
+import java.io.File;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -88,7 +93,11 @@ public class LocalExecutionPlanner
     private final Map<String, ExchangePlanFragmentSource> exchangeSources;
 
     private final SourceHashProviderFactory joinHashFactory;
+    private final SortedSplitsMergerFactory sortedSplitsMergerFactory;
     private final DataSize maxOperatorMemoryUsage;
+    private final Optional<File> operatorSpillPath;
+    private final ExpressionCompiler expressionCompiler;
+    private final MemoryPool memoryPool;
 
     public LocalExecutionPlanner(Session session, Metadata metadata,
             PlanFragmentSourceProvider sourceProvider,
@@ -98,7 +107,11 @@ public class LocalExecutionPlanner
             Map<String, ExchangePlanFragmentSource> exchangeSources,
             OperatorStats operatorStats,
             SourceHashProviderFactory joinHashFactory,
-            DataSize maxOperatorMemoryUsage)
+            SortedSplitsMergerFactory sortedSplitsMergerFactory,
+            DataSize maxOperatorMemoryUsage,
+            Optional<File> operatorSpillPath,
+            ExpressionCompiler expressionCompiler,
+            MemoryPool memoryPool)
     {
         this.session = checkNotNull(session, "session is null");
         this.tableScans = tableScans;
@@ -109,7 +122,11 @@ public class LocalExecutionPlanner
         this.split = split;
         this.exchangeSources = ImmutableMap.copyOf(checkNotNull(exchangeSources, "exchangeSources is null"));
         this.joinHashFactory = checkNotNull(joinHashFactory, "joinHashFactory is null");
+        this.sortedSplitsMergerFactory = checkNotNull(sortedSplitsMergerFactory, "sortedSplitsMergerFactory is null");
         this.maxOperatorMemoryUsage = Preconditions.checkNotNull(maxOperatorMemoryUsage, "maxOperatorMemoryUsage is null");
+        this.operatorSpillPath = checkNotNull(operatorSpillPath, "operatorSpillPath is null");
+        this.expressionCompiler = checkNotNull(expressionCompiler, "expressionCompiler is null");
+        this.memoryPool = checkNotNull(memoryPool, "memoryPool is null");
     }
 
     public Operator plan(PlanNode plan)
@@ -127,8 +144,6 @@ public class LocalExecutionPlanner
             ExchangePlanFragmentSource source = exchangeSources.get(String.valueOf(sourceFragmentId));
             Preconditions.checkState(source != null, "Exchange source for fragment %s was not found: available sources %s", sourceFragmentId, exchangeSources.keySet());
 
-            Operator operator = sourceProvider.createDataStream(source, ImmutableList.<ColumnHandle>of());
-
             // Fow now, we assume that remote plans always produce one symbol per channel. TODO: remove this assumption
             Map<Symbol, Input> outputMappings = new HashMap<>();
             int channel = 0;
@@ -137,6 +152,28 @@ public class LocalExecutionPlanner
                 channel++;
             }
 
+            Operator operator;
+            if (!node.isSorted()) {
+                operator = sourceProvider.createDataStream(source, ImmutableList.<ColumnHandle>of());
+            }
+            else {
+                // the output of each source task is sorted, so read every task separately and merge the outputs
+                List<Operator> taskOperators = new ArrayList<>();
+                for (Map.Entry<String, URI> entry : source.getSources().entrySet()) {
+                    ExchangePlanFragmentSource taskSource = new ExchangePlanFragmentSource(ImmutableMap.of(entry.getKey(), entry.getValue()), source.getOutputId(), source.getTupleInfos());
+                    taskOperators.add(sourceProvider.createDataStream(taskSource, ImmutableList.<ColumnHandle>of()));
+                }
+
+                int[] sortChannels = new int[node.getOrderBy().size()];
+                boolean[] sortOrder = new boolean[node.getOrderBy().size()];
+                for (int i = 0; i < sortChannels.length; i++) {
+                    Symbol symbol = node.getOrderBy().get(i);
+                    sortChannels[i] = outputMappings.get(symbol).getChannel();
+                    sortOrder[i] = (node.getOrderings().get(symbol) == SortItem.Ordering.ASCENDING);
+                }
+                operator = new MergeSortedOperator(source.getTupleInfos(), taskOperators, sortChannels, sortOrder);
+            }
+
             return new PhysicalOperation(operator, outputMappings);
         }
 
@@ -187,19 +224,23 @@ public class LocalExecutionPlanner
 
             List<Symbol> orderBySymbols = node.getOrderBy();
 
-            Preconditions.checkArgument(orderBySymbols.size() == 1, "ORDER BY multiple fields + LIMIT not yet supported"); // TODO
+            // insert a projection to put all the sort fields in a single channel if necessary
+            source = packIfNecessary(orderBySymbols, source);
 
-            Symbol orderBySymbol = Iterables.getOnlyElement(orderBySymbols);
-            int keyChannel = source.getLayout().get(orderBySymbol).getChannel();
+            int keyChannel = Iterables.getOnlyElement(getChannelsForSymbols(orderBySymbols, source.getLayout()));
 
-            Ordering<TupleReadable> ordering = Ordering.from(FieldOrderedTupleComparator.INSTANCE);
-            if (node.getOrderings().get(orderBySymbol) == SortItem.Ordering.ASCENDING) {
-                ordering = ordering.reverse();
+            int[] sortFields = new int[orderBySymbols.size()];
+            boolean[] sortOrder = new boolean[orderBySymbols.size()];
+            for (int i = 0; i < sortFields.length; i++) {
+                Symbol symbol = orderBySymbols.get(i);
+
+                sortFields[i] = source.getLayout().get(symbol).getField();
+                sortOrder[i] = (node.getOrderings().get(symbol) == SortItem.Ordering.ASCENDING);
             }
 
             IdentityProjectionInfo mappings = computeIdentityMapping(node.getOutputSymbols(), source.getLayout(), types);
 
-            TopNOperator operator = new TopNOperator(source.getOperator(), (int) node.getCount(), keyChannel, mappings.getProjections(), ordering);
+            TopNOperator operator = new TopNOperator(source.getOperator(), (int) node.getCount(), keyChannel, mappings.getProjections(), sortFields, sortOrder);
             return new PhysicalOperation(operator, mappings.getOutputLayout());
         }
 
@@ -230,7 +271,11 @@ public class LocalExecutionPlanner
                 outputChannels[i] = i;
             }
 
-            Operator operator = new InMemoryOrderByOperator(source.getOperator(), orderByChannel, outputChannels, 1_000_000, sortFields, sortOrder, maxOperatorMemoryUsage);
+            Operator operator = new InMemoryOrderByOperator(source.getOperator(), orderByChannel, outputChannels, 1_000_000, sortFields, sortOrder, maxOperatorMemoryUsage, operatorSpillPath, memoryPool);
+            if (sortedSplitsMergerFactory.getSplitCount() > 1) {
+                // the splits of the task run in parallel, so the sorted rows of all splits are merged into one sorted output
+                operator = new MergeSortedSplitsOperator(operator, sortedSplitsMergerFactory.getMerger(node), orderByChannel, sortFields, sortOrder);
+            }
             return new PhysicalOperation(operator, source.getLayout());
         }
 
@@ -259,7 +304,7 @@ public class LocalExecutionPlanner
         {
             PhysicalOperation source = node.getSource().accept(this, context);
 
-            FilterFunction filter = new InterpretedFilterFunction(node.getPredicate(), source.getLayout(), metadata, session);
+            FilterFunction filter = expressionCompiler.compileFilterFunction(node.getPredicate(), source.getLayout(), types, session);
 
             IdentityProjectionInfo mappings = computeIdentityMapping(node.getOutputSymbols(), source.getLayout(), types);
 
@@ -285,7 +330,7 @@ public class LocalExecutionPlanner
                     function = ProjectionFunctions.singleColumn(types.get(reference).getRawType(), source.getLayout().get(symbol));
                 }
                 else {
-                    function = new InterpretedProjectionFunction(types.get(symbol), expression, source.getLayout(), metadata, session);
+                    function = expressionCompiler.compileProjectionFunction(types.get(symbol), expression, source.getLayout(), types, session);
                 }
                 projections.add(function);
 
@@ -369,8 +414,18 @@ public class LocalExecutionPlanner
                     .transform(fieldGetter())
                     .any(not(equalTo(0)));
 
+            // the exchange also expects the channels in the order of the output symbols, which is not the case after
+            // operators that rearrange the channels, such as a multi-key sort that packs the sort keys
+            List<Symbol> outputSymbols = node.getOutputSymbols();
+            needsProjection = needsProjection || source.getOperator().getChannelCount() != outputSymbols.size();
+            for (int channel = 0; !needsProjection && channel < outputSymbols.size(); channel++) {
+                needsProjection = source.getLayout().get(outputSymbols.get(channel)).getChannel() != channel;
+            }
+
             if (needsProjection) {
-                return projectToOneFieldPerChannel(source, types);
+                IdentityProjectionInfo mappings = computeIdentityMapping(outputSymbols, source.getLayout(), types);
+                Operator operator = new FilterAndProjectOperator(source.getOperator(), FilterFunctions.TRUE_FUNCTION, mappings.getProjections());
+                return new PhysicalOperation(operator, mappings.getOutputLayout());
             }
 
             return source;
@@ -414,8 +469,11 @@ public class LocalExecutionPlanner
         {
             List<Symbol> groupBySymbols = node.getGroupBy();
 
-            // introduce a projection to put all group by fields from the source into a single channel if necessary
-            source = packIfNecessary(groupBySymbols, source);
+            // the group by channels are hashed and emitted as is, so they must not contain any other fields
+            if (!containsOnlySymbols(groupBySymbols, source)) {
+                source = projectToOneFieldPerChannel(source, types);
+            }
+            List<Integer> groupByChannels = ImmutableList.copyOf(getChannelsForSymbols(groupBySymbols, source.getLayout()));
 
             List<Symbol> aggregationOutputSymbols = new ArrayList<>();
             List<AggregationFunctionDefinition> functionDefinitions = new ArrayList<>();
@@ -427,24 +485,27 @@ public class LocalExecutionPlanner
             }
 
             ImmutableMap.Builder<Symbol, Input> outputMappings = ImmutableMap.builder();
-            // add group-by key fields. They all go in channel 0 in the same order produced by the source operator
+            // add group-by key fields. The group by channels are copied to the output in order with the same field layout
             for (Symbol symbol : groupBySymbols) {
-                outputMappings.put(symbol, new Input(0, source.getLayout().get(symbol).getField()));
+                Input input = source.getLayout().get(symbol);
+                outputMappings.put(symbol, new Input(groupByChannels.indexOf(input.getChannel()), input.getField()));
             }
 
-            // aggregations go in remaining channels starting at 1, one per channel
-            int channel = 1;
+            // aggregations go in remaining channels following the group by channels, one per channel
+            int channel = groupByChannels.size();
             for (Symbol symbol : aggregationOutputSymbols) {
                 outputMappings.put(symbol, new Input(channel, 0));
                 channel++;
             }
 
             Operator aggregationOperator = new HashAggregationOperator(source.getOperator(),
-                    Iterables.getOnlyElement(getChannelsForSymbols(groupBySymbols, source.getLayout())),
+                    groupByChannels,
                     node.getStep(),
                     functionDefinitions,
                     100_000,
-                    maxOperatorMemoryUsage);
+                    maxOperatorMemoryUsage,
+                    operatorSpillPath,
+                    memoryPool);
 
             return new PhysicalOperation(aggregationOperator, outputMappings.build());
         }
@@ -466,6 +527,21 @@ public class LocalExecutionPlanner
         return new IdentityProjectionInfo(outputLayout, projections);
     }
 
+    /**
+     * Returns true if every field of the channels used by the provided symbols is one of the provided symbols
+     */
+    private static boolean containsOnlySymbols(List<Symbol> symbols, PhysicalOperation source)
+    {
+        Set<Integer> channels = getChannelsForSymbols(symbols, source.getLayout());
+        List<TupleInfo> tupleInfos = source.getOperator().getTupleInfos();
+
+        int fieldCount = 0;
+        for (int channel : channels) {
+            fieldCount += tupleInfos.get(channel).getFieldCount();
+        }
+        return fieldCount == ImmutableSet.copyOf(symbols).size();
+    }
+
     /**
      * Inserts a projection if the provided symbols are not in a single channel by themselves
      */
@@ -188,9 +188,23 @@ public class PlanPrinter
         }
 
         @Override
-        public Void visitExchange(ExchangeNode node, Integer indent)
+        public Void visitExchange(final ExchangeNode node, Integer indent)
         {
-            print(indent, "- Exchange[%s] => [%s]", node.getSourceFragmentId(), formatOutputs(node.getOutputSymbols()));
+            if (node.isSorted()) {
+                Iterable<String> keys = Iterables.transform(node.getOrderBy(), new Function<Symbol, String>()
+                {
+                    @Override
+                    public String apply(Symbol input)
+                    {
+                        return input + " " + node.getOrderings().get(input);
+                    }
+                });
+
+                print(indent, "- Exchange[%s, orderBy = %s] => [%s]", node.getSourceFragmentId(), Joiner.on(", ").join(keys), formatOutputs(node.getOutputSymbols()));
+            }
+            else {
+                print(indent, "- Exchange[%s] => [%s]", node.getSourceFragmentId(), formatOutputs(node.getOutputSymbols()));
+            }
 
             return processChildren(node, indent + 1);
         }
@@ -198,7 +212,12 @@ public class PlanPrinter
         @Override
         public Void visitSink(SinkNode node, Integer indent)
         {
-            print(indent, "- Sink[%s] => [%s]", node.getId(), formatOutputs(node.getOutputSymbols()));
+            if (node.isPartitioned()) {
+                print(indent, "- Sink[%s, partitionBy = %s] => [%s]", node.getId(), Joiner.on(", ").join(node.getPartitionBy()), formatOutputs(node.getOutputSymbols()));
+            }
+            else {
+                print(indent, "- Sink[%s] => [%s]", node.getId(), formatOutputs(node.getOutputSymbols()));
+            }
 
             return processChildren(node, indent + 1);
         }
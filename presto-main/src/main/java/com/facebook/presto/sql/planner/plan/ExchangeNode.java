@@ -1,30 +1,54 @@
 package com.facebook.presto.sql.planner.plan;
 
 import com.facebook.presto.sql.analyzer.Symbol;
+import com.facebook.presto.sql.tree.SortItem;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Reads the output of all tasks of a source fragment.  If the exchange has an order by,
+ * the output of each source task is sorted on these symbols, and the exchange merges the
+ * outputs so the rows are produced in this order.
+ */
 @Immutable
 public class ExchangeNode
         extends PlanNode
 {
     private final int sourceFragmentId;
     private final List<Symbol> outputs;
+    private final List<Symbol> orderBy;
+    private final Map<Symbol, SortItem.Ordering> orderings;
+
+    public ExchangeNode(int sourceFragmentId, List<Symbol> outputs)
+    {
+        this(sourceFragmentId, outputs, ImmutableList.<Symbol>of(), ImmutableMap.<Symbol, SortItem.Ordering>of());
+    }
 
     @JsonCreator
-    public ExchangeNode(@JsonProperty("sourceFragmentId") int sourceFragmentId, @JsonProperty("outputs") List<Symbol> outputs)
+    public ExchangeNode(@JsonProperty("sourceFragmentId") int sourceFragmentId,
+            @JsonProperty("outputs") List<Symbol> outputs,
+            @JsonProperty("orderBy") List<Symbol> orderBy,
+            @JsonProperty("orderings") Map<Symbol, SortItem.Ordering> orderings)
     {
         Preconditions.checkNotNull(outputs, "outputs is null");
+        Preconditions.checkNotNull(orderBy, "orderBy is null");
+        Preconditions.checkNotNull(orderings, "orderings is null");
+        Preconditions.checkArgument(orderings.size() == orderBy.size(), "orderBy and orderings sizes don't match");
+        Preconditions.checkArgument(outputs.containsAll(orderBy), "orderBy symbols must be outputs of the exchange");
 
         this.sourceFragmentId = sourceFragmentId;
         this.outputs = ImmutableList.copyOf(outputs);
+        this.orderBy = ImmutableList.copyOf(orderBy);
+        this.orderings = ImmutableMap.copyOf(orderings);
     }
 
     @Override
@@ -45,6 +69,23 @@ public class ExchangeNode
         return sourceFragmentId;
     }
 
+    @JsonProperty("orderBy")
+    public List<Symbol> getOrderBy()
+    {
+        return orderBy;
+    }
+
+    @JsonProperty("orderings")
+    public Map<Symbol, SortItem.Ordering> getOrderings()
+    {
+        return orderings;
+    }
+
+    public boolean isSorted()
+    {
+        return !orderBy.isEmpty();
+    }
+
     @Override
     public <C, R> R accept(PlanVisitor<C, R> visitor, C context)
     {
@@ -15,15 +15,28 @@ public class SinkNode
 {
     private final int id;
     private final PlanNode source;
+    private final List<Symbol> partitionBy;
 
+    public SinkNode(int id, PlanNode source)
+    {
+        this(id, source, ImmutableList.<Symbol>of());
+    }
+
+    /**
+     * @param partitionBy if not empty, the output is hash partitioned on these symbols and each
+     * consumer receives one partition; otherwise every consumer receives all of the output
+     */
     @JsonCreator
-    public SinkNode(@JsonProperty("id") int id, @JsonProperty("source") PlanNode source)
+    public SinkNode(@JsonProperty("id") int id, @JsonProperty("source") PlanNode source, @JsonProperty("partitionBy") List<Symbol> partitionBy)
     {
         checkArgument(id >= 0, "id must be >= 0");
         Preconditions.checkNotNull(source, "source is null");
+        Preconditions.checkNotNull(partitionBy, "partitionBy is null");
+        checkArgument(source.getOutputSymbols().containsAll(partitionBy), "source does not contain all partitionBy symbols");
 
         this.id = id;
         this.source = source;
+        this.partitionBy = ImmutableList.copyOf(partitionBy);
     }
 
     @JsonProperty("id")
@@ -38,6 +51,17 @@ public class SinkNode
         return source;
     }
 
+    @JsonProperty("partitionBy")
+    public List<Symbol> getPartitionBy()
+    {
+        return partitionBy;
+    }
+
+    public boolean isPartitioned()
+    {
+        return !partitionBy.isEmpty();
+    }
+
     @Override
     public List<PlanNode> getSources()
     {
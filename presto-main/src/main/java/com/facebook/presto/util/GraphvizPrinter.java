@@ -104,7 +104,7 @@ public final class GraphvizPrinter
         @Override
         public Void visitExchange(ExchangeNode node, Void context)
         {
-            printNode(node, "Exchange 1:N");
+            printNode(node, node.isSorted() ? "Merge 1:N" : "Exchange 1:N");
 
             return null;
         }
@@ -5,6 +5,7 @@ import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.execution.ExchangePlanFragmentSource;
+import com.facebook.presto.execution.QueryManagerConfig;
 import com.facebook.presto.execution.TaskInfo;
 import com.facebook.presto.ingest.DelimitedRecordSet;
 import com.facebook.presto.ingest.RecordCursor;
@@ -15,11 +16,13 @@ import com.facebook.presto.metadata.TableHandle;
 import com.facebook.presto.metadata.TableMetadata;
 import com.facebook.presto.operator.FilterAndProjectOperator;
 import com.facebook.presto.operator.FilterFunctions;
+import com.facebook.presto.operator.MemoryPool;
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorStats;
 import com.facebook.presto.operator.Page;
 import com.facebook.presto.operator.PageIterator;
 import com.facebook.presto.operator.ProjectionFunction;
+import com.facebook.presto.operator.SortedSplitsMergerFactory;
 import com.facebook.presto.operator.SourceHashProviderFactory;
 import com.facebook.presto.serde.BlocksFileEncoding;
 import com.facebook.presto.server.HackPlanFragmentSourceProvider;
@@ -30,6 +33,7 @@ import com.facebook.presto.sql.analyzer.SemanticException;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.planner.DistributedLogicalPlanner;
+import com.facebook.presto.sql.planner.ExpressionCompiler;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner;
 import com.facebook.presto.sql.planner.LogicalPlanner;
 import com.facebook.presto.sql.planner.PlanPrinter;
@@ -72,6 +76,7 @@ import org.testng.annotations.AfterSuite;
 import org.testng.annotations.BeforeSuite;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -179,6 +184,12 @@ public class TestQueries {
         assertQueryOrdered("SELECT custkey, orderstatus FROM ORDERS ORDER BY orderkey + 1 DESC LIMIT 10");
     }
 
+    @Test
+    public void testOrderByMultipleFieldsWithLimit()
+            throws Exception {
+        assertQueryOrdered("SELECT custkey, orderstatus FROM ORDERS ORDER BY orderstatus, custkey DESC, orderkey LIMIT 10");
+    }
+
     @Test
     public void testGroupByOrderByLimit()
             throws Exception {
@@ -822,14 +833,18 @@ public class TestQueries {
 
         DataSize maxOperatorMemoryUsage = new DataSize(50, MEGABYTE);
         LocalExecutionPlanner executionPlanner = new LocalExecutionPlanner(session, metadata,
-                new HackPlanFragmentSourceProvider(dataProvider, null, TASK_INFO_CODEC),
+                new HackPlanFragmentSourceProvider(dataProvider, null, TASK_INFO_CODEC, new QueryManagerConfig()),
                 analysis.getTypes(),
                 null,
                 builder.build(),
                 ImmutableMap.<String, ExchangePlanFragmentSource>of(),
                 new OperatorStats(),
                 new SourceHashProviderFactory(maxOperatorMemoryUsage),
-                maxOperatorMemoryUsage
+                new SortedSplitsMergerFactory(1),
+                maxOperatorMemoryUsage,
+                Optional.<File>absent(),
+                new ExpressionCompiler(metadata),
+                new MemoryPool()
         );
 
         Operator operator = executionPlanner.plan(plan);
@@ -1,11 +1,14 @@
 package com.facebook.presto.benchmark;
 
 import com.facebook.presto.execution.ExchangePlanFragmentSource;
+import com.facebook.presto.execution.QueryManagerConfig;
 import com.facebook.presto.execution.TaskInfo;
 import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.metadata.TableHandle;
+import com.facebook.presto.operator.MemoryPool;
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorStats;
+import com.facebook.presto.operator.SortedSplitsMergerFactory;
 import com.facebook.presto.operator.SourceHashProviderFactory;
 import com.facebook.presto.server.HackPlanFragmentSourceProvider;
 import com.facebook.presto.sql.analyzer.AnalysisResult;
@@ -13,6 +16,7 @@ import com.facebook.presto.sql.analyzer.Analyzer;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.planner.DistributedLogicalPlanner;
+import com.facebook.presto.sql.planner.ExpressionCompiler;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner;
 import com.facebook.presto.sql.planner.LogicalPlanner;
 import com.facebook.presto.sql.planner.PlanFragment;
@@ -26,10 +30,13 @@ import com.facebook.presto.tpch.TpchDataStreamProvider;
 import com.facebook.presto.tpch.TpchSchema;
 import com.facebook.presto.tpch.TpchSplit;
 import com.facebook.presto.tpch.TpchTableHandle;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import io.airlift.units.DataSize;
 import org.intellij.lang.annotations.Language;
 
+import java.io.File;
+
 import static io.airlift.json.JsonCodec.jsonCodec;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 
@@ -74,14 +81,18 @@ public abstract class AbstractSqlBenchmark
         DataSize maxOperatorMemoryUsage = new DataSize(100, MEGABYTE);
         LocalExecutionPlanner executionPlanner = new LocalExecutionPlanner(session,
                 metadata,
-                new HackPlanFragmentSourceProvider(new TpchDataStreamProvider(provider), null, jsonCodec(TaskInfo.class)),
+                new HackPlanFragmentSourceProvider(new TpchDataStreamProvider(provider), null, jsonCodec(TaskInfo.class), new QueryManagerConfig()),
                 analysis.getTypes(),
                 null,
                 builder.build(),
                 ImmutableMap.<String, ExchangePlanFragmentSource>of(),
                 new OperatorStats(),
                 new SourceHashProviderFactory(maxOperatorMemoryUsage),
-                maxOperatorMemoryUsage
+                new SortedSplitsMergerFactory(1),
+                maxOperatorMemoryUsage,
+                Optional.<File>absent(),
+                new ExpressionCompiler(metadata),
+                new MemoryPool()
         );
 
         return executionPlanner.plan(fragment.getRoot());
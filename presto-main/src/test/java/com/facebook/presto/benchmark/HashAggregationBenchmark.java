@@ -42,7 +42,7 @@ public class HashAggregationBenchmark
 
         AlignmentOperator alignmentOperator = new AlignmentOperator(orderStatusBlockIterable, totalPriceBlockIterable);
         return new HashAggregationOperator(alignmentOperator,
-                0,
+                ImmutableList.of(0),
                 Step.SINGLE,
                 ImmutableList.of(aggregation(DOUBLE_SUM, new Input(1, 0))),
                 100_000,
@@ -1,8 +1,13 @@
 package com.facebook.presto.block;
 
+import com.facebook.presto.block.array.DoubleArrayBlock;
+import com.facebook.presto.block.array.LongArrayBlock;
+import com.facebook.presto.block.dictionary.Dictionary.DictionaryBuilder;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
 import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleInfo.Type;
+import com.facebook.presto.tuple.Tuples;
 import io.airlift.slice.Slice;
 import com.google.common.collect.ImmutableList;
 import org.jetbrains.annotations.Nullable;
@@ -10,6 +15,7 @@ import org.testng.Assert;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -124,6 +130,18 @@ public class BlockAssertions
         return builder.build();
     }
 
+    public static Block createDictionaryEncodedStringsBlock(String... values)
+    {
+        DictionaryBuilder dictionaryBuilder = new DictionaryBuilder(TupleInfo.SINGLE_VARBINARY);
+        BlockBuilder idBlockBuilder = new BlockBuilder(TupleInfo.SINGLE_LONG);
+
+        for (String value : values) {
+            idBlockBuilder.append(dictionaryBuilder.getId(Tuples.createTuple(value)));
+        }
+
+        return new DictionaryEncodedBlock(dictionaryBuilder.build(), idBlockBuilder.build());
+    }
+
     public static BlockIterable createStringsBlockIterable(@Nullable String... values)
     {
         return BlockIterables.createBlockIterable(createStringsBlock(values));
@@ -167,6 +185,21 @@ public class BlockAssertions
         return builder.build();
     }
 
+    public static LongArrayBlock createLongArrayBlock(@Nullable Long... values)
+    {
+        long[] longs = new long[values.length];
+        BitSet nulls = new BitSet();
+        for (int position = 0; position < values.length; position++) {
+            if (values[position] == null) {
+                nulls.set(position);
+            }
+            else {
+                longs[position] = values[position];
+            }
+        }
+        return new LongArrayBlock(values.length, longs, nulls);
+    }
+
     public static BlockIterable createLongsBlockIterable(int... values)
     {
         return BlockIterables.createBlockIterable(createLongsBlock(values));
@@ -217,6 +250,21 @@ public class BlockAssertions
         return builder.build();
     }
 
+    public static DoubleArrayBlock createDoubleArrayBlock(@Nullable Double... values)
+    {
+        double[] doubles = new double[values.length];
+        BitSet nulls = new BitSet();
+        for (int position = 0; position < values.length; position++) {
+            if (values[position] == null) {
+                nulls.set(position);
+            }
+            else {
+                doubles[position] = values[position];
+            }
+        }
+        return new DoubleArrayBlock(values.length, doubles, nulls);
+    }
+
     public static BlockIterable createDoublesBlockIterable(@Nullable Double... values)
     {
         return BlockIterables.createBlockIterable(createDoublesBlock(values));
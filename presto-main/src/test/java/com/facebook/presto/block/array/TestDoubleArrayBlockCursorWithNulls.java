@@ -0,0 +1,39 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.block.array;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.uncompressed.AbstractTestSingleColumnBlockCursorWithNulls;
+import org.testng.annotations.Test;
+
+import static com.facebook.presto.block.BlockAssertions.assertBlockEquals;
+import static com.facebook.presto.block.BlockAssertions.createDoubleArrayBlock;
+import static io.airlift.testing.Assertions.assertInstanceOf;
+
+public class TestDoubleArrayBlockCursorWithNulls
+        extends AbstractTestSingleColumnBlockCursorWithNulls
+{
+    @Override
+    protected Block createExpectedValues()
+    {
+        return createDoubleArrayBlock(null, 11.11, null, 22.22, null, 22.22, null, 22.22, null, 33.33, null);
+    }
+
+    @Test
+    public void testCursorType()
+    {
+        assertInstanceOf(createExpectedValues().cursor(), DoubleArrayBlockCursor.class);
+    }
+
+    @Test
+    public void testToUncompressedBlock()
+    {
+        DoubleArrayBlock block = (DoubleArrayBlock) createExpectedValues();
+        assertBlockEquals(block.toUncompressedBlock(), block);
+
+        // a region starting at an offset, with nulls on both ends
+        DoubleArrayBlock region = (DoubleArrayBlock) block.getRegion(2, 7);
+        assertBlockEquals(region.toUncompressedBlock(), region);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.block.array;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.uncompressed.AbstractTestSingleColumnBlockCursorWithNulls;
+import org.testng.annotations.Test;
+
+import static com.facebook.presto.block.BlockAssertions.assertBlockEquals;
+import static com.facebook.presto.block.BlockAssertions.createLongArrayBlock;
+import static io.airlift.testing.Assertions.assertInstanceOf;
+
+public class TestLongArrayBlockCursorWithNulls
+        extends AbstractTestSingleColumnBlockCursorWithNulls
+{
+    @Override
+    protected Block createExpectedValues()
+    {
+        return createLongArrayBlock(null, 1111L, null, 2222L, null, 2222L, null, 2222L, null, 3333L, null);
+    }
+
+    @Test
+    public void testCursorType()
+    {
+        assertInstanceOf(createExpectedValues().cursor(), LongArrayBlockCursor.class);
+    }
+
+    @Test
+    public void testToUncompressedBlock()
+    {
+        LongArrayBlock block = (LongArrayBlock) createExpectedValues();
+        assertBlockEquals(block.toUncompressedBlock(), block);
+
+        // a region starting at an offset, with nulls on both ends
+        LongArrayBlock region = (LongArrayBlock) block.getRegion(2, 7);
+        assertBlockEquals(region.toUncompressedBlock(), region);
+    }
+}
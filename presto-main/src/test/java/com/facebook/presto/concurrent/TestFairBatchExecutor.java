@@ -15,8 +15,12 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
 public class TestFairBatchExecutor
@@ -94,6 +98,115 @@ public class TestFairBatchExecutor
         executor.shutdown();
     }
 
+    @Test
+    public void testBlockedThreadIsReplaced()
+            throws Exception
+    {
+        FairBatchExecutor executor = new FairBatchExecutor(1, new ThreadFactoryBuilder().setDaemon(true).build());
+        try {
+            // the only thread waits for a task that is queued behind it
+            final CountDownLatch producerDone = new CountDownLatch(1);
+            Future<?> consumer = executor.processBatch(ImmutableList.of(new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                        throws Exception
+                {
+                    FairBatchExecutor.beginBlocking();
+                    try {
+                        producerDone.await();
+                    }
+                    finally {
+                        FairBatchExecutor.endBlocking();
+                    }
+                    return null;
+                }
+            })).get(0);
+
+            Future<?> producer = executor.processBatch(ImmutableList.of(new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    producerDone.countDown();
+                    return null;
+                }
+            })).get(0);
+
+            producer.get(10, TimeUnit.SECONDS);
+            consumer.get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlockedThreadsAreLimited()
+            throws Exception
+    {
+        FairBatchExecutor executor = new FairBatchExecutor(1, 1, new ThreadFactoryBuilder().setDaemon(true).build());
+        try {
+            final AtomicInteger started = new AtomicInteger();
+            final CountDownLatch twoStarted = new CountDownLatch(2);
+            final CountDownLatch release = new CountDownLatch(1);
+            Callable<Object> blockingTask = new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                        throws Exception
+                {
+                    started.incrementAndGet();
+                    twoStarted.countDown();
+                    FairBatchExecutor.beginBlocking();
+                    try {
+                        release.await();
+                    }
+                    finally {
+                        FairBatchExecutor.endBlocking();
+                    }
+                    return null;
+                }
+            };
+            List<FutureTask<Object>> futures = executor.processBatch(ImmutableList.of(blockingTask, blockingTask, blockingTask));
+
+            // one thread is started in place of the first blocked thread, and the third task waits in the queue
+            assertTrue(twoStarted.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertEquals(started.get(), 2);
+
+            release.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(started.get(), 3);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlockingAfterShutdown()
+            throws Exception
+    {
+        final FairBatchExecutor executor = new FairBatchExecutor(1, new ThreadFactoryBuilder().setDaemon(true).build());
+        Future<?> future = executor.processBatch(ImmutableList.of(new Callable<Object>()
+        {
+            @Override
+            public Object call()
+            {
+                // no thread can be started in place of this thread
+                executor.shutdown();
+                FairBatchExecutor.beginBlocking();
+                FairBatchExecutor.endBlocking();
+                return null;
+            }
+        })).get(0);
+
+        future.get(10, TimeUnit.SECONDS);
+    }
+
     private static class MeetingPoint
     {
         private final CountDownLatch arrived = new CountDownLatch(1);
@@ -7,6 +7,7 @@ import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -19,9 +20,15 @@ public class TestQueryManagerConfig
                 .setCoordinator(true)
                 .setImportsEnabled(true)
                 .setMaxShardProcessorThreads(Runtime.getRuntime().availableProcessors() * 4)
+                .setMaxBlockedShardProcessorThreads(8)
                 .setMaxQueryAge(new Duration(15, TimeUnit.MINUTES))
                 .setClientTimeout(new Duration(1, TimeUnit.MINUTES))
                 .setMaxOperatorMemoryUsage(new DataSize(256, Unit.MEGABYTE))
+                .setMaxQueryMemoryUsagePerNode(new DataSize(1, Unit.GIGABYTE))
+                .setMaxTotalMemoryUsagePerNode(new DataSize(2, Unit.GIGABYTE))
+                .setMaxOutputBufferSize(new DataSize(32, Unit.MEGABYTE))
+                .setExchangeCompressionEnabled(false)
+                .setOperatorSpillPath(null)
                 .setMaxSplitCount(100_000));
     }
 
@@ -32,7 +39,13 @@ public class TestQueryManagerConfig
                 .put("coordinator", "false")
                 .put("import.enabled", "false")
                 .put("query.operator.max-memory", "1GB")
+                .put("query.max-memory-per-node", "3GB")
+                .put("query.max-total-memory-per-node", "4GB")
+                .put("query.output.max-buffer-size", "8MB")
+                .put("exchange.compression-enabled", "true")
+                .put("query.operator.spill-path", "/tmp/spill")
                 .put("query.shard.max-threads", "3")
+                .put("query.shard.max-blocked-threads", "2")
                 .put("query.client.timeout", "10s")
                 .put("query.max-age", "30s")
                 .put("query.max-splits", "100")
@@ -41,7 +54,13 @@ public class TestQueryManagerConfig
         QueryManagerConfig expected = new QueryManagerConfig()
                 .setCoordinator(false)
                 .setMaxOperatorMemoryUsage(new DataSize(1, Unit.GIGABYTE))
+                .setMaxQueryMemoryUsagePerNode(new DataSize(3, Unit.GIGABYTE))
+                .setMaxTotalMemoryUsagePerNode(new DataSize(4, Unit.GIGABYTE))
+                .setMaxOutputBufferSize(new DataSize(8, Unit.MEGABYTE))
+                .setExchangeCompressionEnabled(true)
+                .setOperatorSpillPath(new File("/tmp/spill"))
                 .setMaxShardProcessorThreads(3)
+                .setMaxBlockedShardProcessorThreads(2)
                 .setMaxQueryAge(new Duration(30, TimeUnit.SECONDS))
                 .setClientTimeout(new Duration(10, TimeUnit.SECONDS))
                 .setImportsEnabled(false)
@@ -0,0 +1,282 @@
+package com.facebook.presto.execution;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.concurrent.FairBatchExecutor;
+import com.facebook.presto.metadata.ColumnHandle;
+import com.facebook.presto.operator.MemoryPool;
+import com.facebook.presto.operator.Operator;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.server.QueryDriver;
+import com.facebook.presto.server.QueryDriverProvider;
+import com.facebook.presto.server.QueryDriversOperator;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.analyzer.Symbol;
+import com.facebook.presto.sql.analyzer.Type;
+import com.facebook.presto.sql.planner.ExpressionCompiler;
+import com.facebook.presto.sql.planner.PlanFragment;
+import com.facebook.presto.sql.planner.PlanFragmentSource;
+import com.facebook.presto.sql.planner.PlanFragmentSourceProvider;
+import com.facebook.presto.sql.planner.TableScanPlanFragmentSource;
+import com.facebook.presto.sql.planner.plan.ExchangeNode;
+import com.facebook.presto.sql.planner.plan.SinkNode;
+import com.facebook.presto.sql.planner.plan.SortNode;
+import com.facebook.presto.sql.planner.plan.TableScanNode;
+import com.facebook.presto.sql.tree.SortItem.Ordering;
+import com.facebook.presto.tpch.TpchColumnHandle;
+import com.facebook.presto.tpch.TpchSchema;
+import com.facebook.presto.tpch.TpchSplit;
+import com.facebook.presto.tpch.TpchTableHandle;
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
+import static com.facebook.presto.operator.OperatorAssertions.createOperator;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Runs a distributed sort with in process tasks: table scan tasks with many splits sort their
+ * rows, and a coordinator task merges the task outputs with a sorted exchange.
+ */
+public class TestSortedExchange
+{
+    private static final Session SESSION = new Session(null, TpchSchema.CATALOG_NAME, TpchSchema.SCHEMA_NAME);
+    private static final Symbol SYMBOL = new Symbol("value");
+    private static final DataSize BUFFER_SIZE = new DataSize(64, Unit.KILOBYTE);
+
+    private FairBatchExecutor shardExecutor;
+    private ExecutorService exchangeExecutor;
+    private Map<String, SqlTaskExecution> tasks;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        shardExecutor = new FairBatchExecutor(2, new ThreadFactoryBuilder().setDaemon(true).build());
+        exchangeExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).build());
+        tasks = new ConcurrentHashMap<>();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        shardExecutor.shutdown();
+        exchangeExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testDistributedSort()
+            throws Exception
+    {
+        // every split produces a few pages of random values, which are not sorted
+        final Random random = new Random(0);
+        final List<Long> expected = new ArrayList<>();
+        PlanFragmentSourceProvider tableProvider = new PlanFragmentSourceProvider()
+        {
+            @Override
+            public synchronized Operator createDataStream(PlanFragmentSource source, List<ColumnHandle> columns)
+            {
+                List<Page> pages = new ArrayList<>();
+                for (int page = 0; page < 5; page++) {
+                    int[] values = new int[100];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = random.nextInt(1000);
+                        expected.add((long) values[i]);
+                    }
+                    pages.add(new Page(createLongsBlock(values)));
+                }
+                return createOperator(pages);
+            }
+        };
+
+        TpchTableHandle table = new TpchTableHandle("orders");
+        TableScanNode tableScan = new TableScanNode(table, ImmutableMap.<Symbol, ColumnHandle>of(SYMBOL, new TpchColumnHandle(0, TupleInfo.Type.FIXED_INT_64)));
+        SortNode sort = new SortNode(tableScan, ImmutableList.of(SYMBOL), ImmutableMap.of(SYMBOL, Ordering.DESCENDING));
+        PlanFragment sortFragment = new PlanFragment(1, true, ImmutableMap.of(SYMBOL, Type.LONG), new SinkNode(1, sort));
+
+        List<PlanFragmentSource> splits = new ArrayList<>();
+        for (int split = 0; split < 4; split++) {
+            splits.add(new TableScanPlanFragmentSource(new TpchSplit(table)));
+        }
+
+        ImmutableMap.Builder<String, URI> sources = ImmutableMap.builder();
+        for (int task = 0; task < 3; task++) {
+            String taskId = "sort-" + task;
+            SqlTaskExecution sortTask = createTask(taskId, sortFragment, splits, ImmutableMap.<String, ExchangePlanFragmentSource>of(), tableProvider);
+            tasks.put(taskId, sortTask);
+            sources.put(taskId, URI.create("fake://" + taskId));
+        }
+
+        List<Long> actual = runMergeTask(sources.build());
+
+        assertEquals(actual.size(), expected.size());
+        assertEquals(actual, com.google.common.collect.Ordering.natural().reverse().sortedCopy(expected));
+    }
+
+    @Test
+    public void testNoSourceTasks()
+            throws Exception
+    {
+        assertTrue(runMergeTask(ImmutableMap.<String, URI>of()).isEmpty());
+    }
+
+    /**
+     * Runs an unpartitioned task that merges the sorted outputs of the source tasks, and returns the rows of the task.
+     */
+    private List<Long> runMergeTask(Map<String, URI> sources)
+            throws Exception
+    {
+        ExchangeNode exchange = new ExchangeNode(1, ImmutableList.of(SYMBOL), ImmutableList.of(SYMBOL), ImmutableMap.of(SYMBOL, Ordering.DESCENDING));
+        PlanFragment mergeFragment = new PlanFragment(0, false, ImmutableMap.of(SYMBOL, Type.LONG), new SinkNode(0, exchange));
+        ExchangePlanFragmentSource exchangeSource = new ExchangePlanFragmentSource(sources, "out", ImmutableList.of(SINGLE_LONG));
+        SqlTaskExecution mergeTask = createTask("merge", mergeFragment, ImmutableList.<PlanFragmentSource>of(), ImmutableMap.of("1", exchangeSource), new ExchangeProvider());
+
+        for (SqlTaskExecution task : tasks.values()) {
+            task.run();
+        }
+        mergeTask.run();
+
+        List<Long> values = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (true) {
+            assertTrue(System.nanoTime() < deadline, "merge task did not finish");
+            BufferResult result = mergeTask.getResults("out", new DataSize(1, Unit.MEGABYTE), new Duration(100, TimeUnit.MILLISECONDS));
+            for (Page page : result.getPages()) {
+                BlockCursor cursor = page.getBlock(0).cursor();
+                while (cursor.advanceNextPosition()) {
+                    values.add(cursor.getLong(0));
+                }
+            }
+            if (result.isEmpty() && mergeTask.getTaskInfo().getState().isDone()) {
+                break;
+            }
+        }
+        assertEquals(mergeTask.getTaskInfo().getState(), TaskState.FINISHED);
+        return values;
+    }
+
+    private SqlTaskExecution createTask(String taskId,
+            PlanFragment fragment,
+            List<PlanFragmentSource> splits,
+            Map<String, ExchangePlanFragmentSource> exchangeSources,
+            PlanFragmentSourceProvider sourceProvider)
+    {
+        return new SqlTaskExecution(SESSION,
+                "query",
+                "stage-" + fragment.getId(),
+                taskId,
+                URI.create("fake://" + taskId),
+                fragment,
+                splits,
+                exchangeSources,
+                ImmutableList.of("out"),
+                BUFFER_SIZE,
+                sourceProvider,
+                TpchSchema.createMetadata(),
+                shardExecutor,
+                new DataSize(10, Unit.MEGABYTE),
+                Optional.<File>absent(),
+                new ExpressionCompiler(TpchSchema.createMetadata()),
+                new MemoryPool());
+    }
+
+    /**
+     * Reads the output of the in process task named by the source.
+     */
+    private class ExchangeProvider
+            implements PlanFragmentSourceProvider
+    {
+        @Override
+        public Operator createDataStream(PlanFragmentSource source, List<ColumnHandle> columns)
+        {
+            ExchangePlanFragmentSource exchangeSource = (ExchangePlanFragmentSource) source;
+            List<QueryDriverProvider> providers = new ArrayList<>();
+            for (final String taskId : exchangeSource.getSources().keySet()) {
+                providers.add(new QueryDriverProvider()
+                {
+                    @Override
+                    public QueryDriver create(PageBuffer outputBuffer)
+                    {
+                        return new TaskQueryDriver(tasks.get(taskId), outputBuffer);
+                    }
+                });
+            }
+            return new QueryDriversOperator(BUFFER_SIZE, exchangeSource.getTupleInfos(), providers);
+        }
+    }
+
+    private class TaskQueryDriver
+            implements QueryDriver
+    {
+        private final SqlTaskExecution task;
+        private final PageBuffer outputBuffer;
+        private Future<?> future;
+
+        private TaskQueryDriver(SqlTaskExecution task, PageBuffer outputBuffer)
+        {
+            this.task = task;
+            this.outputBuffer = outputBuffer;
+        }
+
+        @Override
+        public synchronized void start()
+        {
+            future = exchangeExecutor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws Exception
+                {
+                    try {
+                        while (true) {
+                            BufferResult result = task.getResults("out", BUFFER_SIZE, new Duration(100, TimeUnit.MILLISECONDS));
+                            for (Page page : result.getPages()) {
+                                outputBuffer.addPage(page);
+                            }
+                            if (result.isEmpty() && task.getTaskInfo().getState().isDone()) {
+                                return null;
+                            }
+                        }
+                    }
+                    finally {
+                        outputBuffer.sourceFinished();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public synchronized boolean isDone()
+        {
+            return future.isDone();
+        }
+
+        @Override
+        public synchronized void abort()
+        {
+            future.cancel(true);
+        }
+    }
+}
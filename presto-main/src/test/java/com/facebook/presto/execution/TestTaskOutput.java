@@ -0,0 +1,94 @@
+package com.facebook.presto.execution;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.operator.MemoryPool;
+import com.facebook.presto.operator.Page;
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
+import static com.facebook.presto.block.BlockAssertions.createStringSequenceBlock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestTaskOutput
+{
+    private static final List<String> OUTPUT_IDS = ImmutableList.of("a", "b", "c");
+
+    @Test
+    public void testBroadcast()
+            throws Exception
+    {
+        TaskOutput taskOutput = new TaskOutput("query", "stage", "task", URI.create("fake://task"), OUTPUT_IDS, new DataSize(1, Unit.MEGABYTE), 0);
+        Page page = new Page(createLongSequenceBlock(0, 1000), createStringSequenceBlock(0, 1000));
+        assertTrue(taskOutput.addPage(page));
+
+        for (String outputId : OUTPUT_IDS) {
+            assertEquals(taskOutput.getResults(outputId, new DataSize(1, Unit.MEGABYTE), new Duration(1, TimeUnit.SECONDS)).getPages(), ImmutableList.of(page));
+        }
+    }
+
+    @Test
+    public void testPartitioned()
+            throws Exception
+    {
+        TaskOutput taskOutput = new TaskOutput("query", "stage", "task", URI.create("fake://task"), OUTPUT_IDS, ImmutableList.of(0), new DataSize(1, Unit.MEGABYTE), 0, new MemoryPool());
+
+        // add the same keys twice, so equal keys must be routed to the same output
+        assertTrue(taskOutput.addPage(new Page(createLongSequenceBlock(0, 1000), createStringSequenceBlock(0, 1000))));
+        assertTrue(taskOutput.addPage(new Page(createLongSequenceBlock(0, 1000), createStringSequenceBlock(1000, 2000))));
+
+        Map<Long, String> keyOutputs = new HashMap<>();
+        int rowCount = 0;
+        for (String outputId : OUTPUT_IDS) {
+            List<Page> pages = taskOutput.getResults(outputId, new DataSize(1, Unit.MEGABYTE), new Duration(1, TimeUnit.SECONDS)).getPages();
+            assertFalse(pages.isEmpty(), "output " + outputId + " has no rows");
+
+            for (Page page : pages) {
+                assertEquals(page.getChannelCount(), 2);
+                BlockCursor cursor = page.getBlock(0).cursor();
+                while (cursor.advanceNextPosition()) {
+                    long key = cursor.getLong(0);
+                    String previousOutput = keyOutputs.put(key, outputId);
+                    assertTrue(previousOutput == null || previousOutput.equals(outputId), "key " + key + " was sent to outputs " + previousOutput + " and " + outputId);
+                    rowCount++;
+                }
+            }
+        }
+
+        // every row is sent to exactly one output
+        assertEquals(keyOutputs.size(), 1000);
+        assertEquals(rowCount, 2000);
+    }
+
+    @Test
+    public void testEnqueueWithoutWaiting()
+            throws Exception
+    {
+        TaskOutput taskOutput = new TaskOutput("query", "stage", "task", URI.create("fake://task"), OUTPUT_IDS, new DataSize(1, Unit.BYTE), 0);
+        Page page = new Page(createLongSequenceBlock(0, 1000), createStringSequenceBlock(0, 1000));
+        assertTrue(taskOutput.waitForSpace().isDone());
+        assertTrue(taskOutput.enqueuePage(page));
+
+        // every output is full, and the producer waits until all of them have room
+        for (String outputId : OUTPUT_IDS) {
+            assertFalse(taskOutput.waitForSpace().isDone());
+            assertEquals(taskOutput.getResults(outputId, new DataSize(1, Unit.MEGABYTE), new Duration(1, TimeUnit.SECONDS)).getPages(), ImmutableList.of(page));
+        }
+        assertTrue(taskOutput.waitForSpace().isDone());
+
+        // a canceled task does not accept pages
+        taskOutput.cancel();
+        assertFalse(taskOutput.enqueuePage(page));
+    }
+}
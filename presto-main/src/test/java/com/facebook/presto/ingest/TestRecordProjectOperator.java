@@ -8,6 +8,8 @@ import com.facebook.presto.operator.AlignmentOperator;
 import com.facebook.presto.operator.OperatorStats;
 import com.facebook.presto.operator.PageIterator;
 import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.Test;
 
 import java.net.URI;
@@ -53,7 +55,7 @@ public class TestRecordProjectOperator
 
         RecordProjectOperator operator = new RecordProjectOperator(records, records.getColumns());
 
-        TaskOutput taskOutput = new TaskOutput("unknown", "unknown", "unknown", URI.create("unknown://unknown"), ImmutableList.of("unknown"), 1000, 1000);
+        TaskOutput taskOutput = new TaskOutput("unknown", "unknown", "unknown", URI.create("unknown://unknown"), ImmutableList.of("unknown"), new DataSize(1, Unit.MEGABYTE), 1000);
 
         int pageCount = 0;
         PageIterator iterator = operator.iterator(new OperatorStats(taskOutput));
@@ -7,6 +7,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
 import io.airlift.testing.FileUtils;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.IDBI;
@@ -21,6 +23,7 @@ import java.util.List;
 import static com.facebook.presto.operator.OperatorAssertions.assertOperatorEquals;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
@@ -28,13 +31,14 @@ public class TestDatabaseStorageManager
 {
     private Handle dummyHandle;
     private File dataDir;
-    private StorageManager storageManager;
+    private IDBI dbi;
+    private DatabaseStorageManager storageManager;
 
     @BeforeMethod
     public void setupDatabase()
             throws IOException
     {
-        IDBI dbi = new DBI("jdbc:h2:mem:test" + System.nanoTime());
+        dbi = new DBI("jdbc:h2:mem:test" + System.nanoTime());
         dummyHandle = dbi.open();
         dataDir = Files.createTempDir();
         StorageManagerConfig config = new StorageManagerConfig().setDataDirectory(dataDir);
@@ -92,4 +96,59 @@ public class TestDatabaseStorageManager
 //                new AlignmentOperator(storageManager.getBlocks(shardId, columnIds.get(0))),
 //                new RecordProjectOperator(records, createProjection(0, VARIABLE_BINARY)));
     }
+
+    @Test
+    public void testFileCache()
+            throws IOException
+    {
+        long shardId = 789;
+        List<Long> columnIds = ImmutableList.of(17L);
+        importLongs(storageManager, shardId, columnIds);
+
+        assertEquals(storageManager.getFileCacheMissCount(), 0);
+        assertEquals(storageManager.getFileCacheHitCount(), 0);
+
+        storageManager.getBlocks(shardId, columnIds.get(0));
+        assertEquals(storageManager.getFileCacheMissCount(), 1);
+        assertEquals(storageManager.getFileCacheFileCount(), 1);
+        assertTrue(storageManager.getFileCacheBytes() > 0);
+
+        storageManager.getBlocks(shardId, columnIds.get(0));
+        assertEquals(storageManager.getFileCacheMissCount(), 1);
+        assertEquals(storageManager.getFileCacheHitCount(), 1);
+
+        storageManager.dropShard(shardId);
+        assertEquals(storageManager.getFileCacheFileCount(), 0);
+        assertEquals(storageManager.getFileCacheBytes(), 0);
+    }
+
+    @Test
+    public void testFileCacheEviction()
+            throws IOException
+    {
+        StorageManagerConfig config = new StorageManagerConfig()
+                .setDataDirectory(dataDir)
+                .setFileCacheSize(new DataSize(1, Unit.BYTE));
+        DatabaseStorageManager storageManager = new DatabaseStorageManager(dbi, config);
+
+        long shardId = 321;
+        List<Long> columnIds = ImmutableList.of(19L);
+        InMemoryRecordSet records = importLongs(storageManager, shardId, columnIds);
+
+        // the column file is larger than the cache, so it is evicted but can still be read
+        assertOperatorEquals(
+                new AlignmentOperator(storageManager.getBlocks(shardId, columnIds.get(0))),
+                new RecordProjectOperator(records, records.getColumns()));
+        assertEquals(storageManager.getFileCacheEvictionCount(), 1);
+        assertEquals(storageManager.getFileCacheFileCount(), 0);
+        assertEquals(storageManager.getFileCacheBytes(), 0);
+    }
+
+    private static InMemoryRecordSet importLongs(StorageManager storageManager, long shardId, List<Long> columnIds)
+            throws IOException
+    {
+        InMemoryRecordSet records = new InMemoryRecordSet(ImmutableList.of(FIXED_INT_64), ImmutableList.copyOf(new List<?>[]{ImmutableList.of(1L), ImmutableList.of(2L), ImmutableList.of(3L)}));
+        storageManager.importShard(shardId, columnIds, new RecordProjectOperator(records, records.getColumns()));
+        return records;
+    }
 }
@@ -2,8 +2,11 @@ package com.facebook.presto.metadata;
 
 import com.google.common.collect.ImmutableMap;
 import io.airlift.configuration.testing.ConfigAssertions;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.Test;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.io.File;
 import java.util.Map;
@@ -16,7 +19,10 @@ public class TestStorageManagerConfig
     public void testDefaults()
     {
         ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(StorageManagerConfig.class)
-                .setDataDirectory(new File("var/data")));
+                .setDataDirectory(new File("var/data"))
+                .setFileCacheSize(new DataSize(1, Unit.GIGABYTE))
+                .setMinRunLength(1024)
+                .setDictionaryCardinalityCutoff(1000));
     }
 
     @Test
@@ -24,10 +30,16 @@ public class TestStorageManagerConfig
     {
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("storage-manager.data-directory", "/data")
+                .put("storage-manager.file-cache-size", "100MB")
+                .put("storage-manager.min-run-length", "4096")
+                .put("storage-manager.dictionary-cardinality-cutoff", "50")
                 .build();
 
         StorageManagerConfig expected = new StorageManagerConfig()
-                .setDataDirectory(new File("/data"));
+                .setDataDirectory(new File("/data"))
+                .setFileCacheSize(new DataSize(100, Unit.MEGABYTE))
+                .setMinRunLength(4096)
+                .setDictionaryCardinalityCutoff(50);
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
@@ -36,5 +48,8 @@ public class TestStorageManagerConfig
     public void testValidations()
     {
         assertFailsValidation(new StorageManagerConfig().setDataDirectory(null), "dataDirectory", "may not be null", NotNull.class);
+        assertFailsValidation(new StorageManagerConfig().setFileCacheSize(null), "fileCacheSize", "may not be null", NotNull.class);
+        assertFailsValidation(new StorageManagerConfig().setMinRunLength(-1), "minRunLength", "must be greater than or equal to 0", Min.class);
+        assertFailsValidation(new StorageManagerConfig().setDictionaryCardinalityCutoff(-1), "dictionaryCardinalityCutoff", "must be greater than or equal to 0", Min.class);
     }
 }
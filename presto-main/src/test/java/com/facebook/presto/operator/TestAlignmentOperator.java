@@ -4,6 +4,8 @@ import com.facebook.presto.block.BlockAssertions;
 import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.execution.TaskOutput;
 import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.Test;
 
 import java.net.URI;
@@ -39,7 +41,7 @@ public class TestAlignmentOperator
     {
         AlignmentOperator operator = createAlignmentOperator();
 
-        TaskOutput taskOutput = new TaskOutput("unknown", "unknown", "unknown", URI.create("unknown://unknown"), ImmutableList.of("unknown"), 1000, 1000);
+        TaskOutput taskOutput = new TaskOutput("unknown", "unknown", "unknown", URI.create("unknown://unknown"), ImmutableList.of("unknown"), new DataSize(1, Unit.MEGABYTE), 1000);
 
         int pageCount = 0;
         PageIterator iterator = operator.iterator(new OperatorStats(taskOutput));
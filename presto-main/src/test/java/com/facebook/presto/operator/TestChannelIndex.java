@@ -0,0 +1,73 @@
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.serde.PagesSerde;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.facebook.presto.block.BlockAssertions.assertBlockEquals;
+import static com.facebook.presto.block.BlockAssertions.createStringSequenceBlock;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestChannelIndex
+{
+    @Test
+    public void testViewOfLargeBufferIsCopied()
+            throws Exception
+    {
+        // every block read from a response body with a known size is a view of the body
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            pages.add(new Page(createStringSequenceBlock(i * 100, (i + 1) * 100)));
+        }
+        DynamicSliceOutput output = new DynamicSliceOutput(1024);
+        PagesSerde.writePages(output, pages);
+        byte[] body = output.slice().getBytes();
+        Iterator<Page> pageIterator = PagesSerde.readPages(new ByteArrayInputStream(body), body.length);
+        UncompressedBlock block = (UncompressedBlock) pageIterator.next().getBlock(0);
+        assertTrue(block.getSlice().getRetainedSize() >= body.length);
+
+        ChannelIndex index = new ChannelIndex(100, SINGLE_VARBINARY);
+        index.indexBlock(block);
+
+        // the index retains a copy of the block instead of the whole body
+        Slice indexed = index.getSlices().get(0);
+        assertNotSame(indexed.byteArray(), block.getSlice().byteArray());
+        assertTrue(index.getEstimatedSize().toBytes() < body.length);
+        assertBlockEquals(toBlock(index), block);
+    }
+
+    @Test
+    public void testFullBlockIsNotCopied()
+    {
+        UncompressedBlock block = (UncompressedBlock) createStringSequenceBlock(0, 100);
+        Slice slice = block.getSlice().copy();
+        block = new UncompressedBlock(block.getPositionCount(), SINGLE_VARBINARY, slice);
+
+        ChannelIndex index = new ChannelIndex(100, SINGLE_VARBINARY);
+        index.indexBlock(block);
+
+        assertSame(index.getSlices().get(0), slice);
+        assertTrue(index.getEstimatedSize().toBytes() >= slice.getRetainedSize());
+        assertBlockEquals(toBlock(index), block);
+    }
+
+    private static UncompressedBlock toBlock(ChannelIndex index)
+    {
+        BlockBuilder blockBuilder = new BlockBuilder(index.getTupleInfo());
+        for (int position = 0; position < index.getPositionCount(); position++) {
+            index.appendTo(position, blockBuilder);
+        }
+        return blockBuilder.build();
+    }
+}
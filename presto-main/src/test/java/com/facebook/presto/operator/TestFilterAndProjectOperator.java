@@ -2,8 +2,11 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockAssertions;
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.tuple.TupleInfo;
 import com.facebook.presto.tuple.TupleReadable;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import org.testng.annotations.Test;
 
 import static com.facebook.presto.operator.CancelTester.assertCancel;
@@ -11,8 +14,12 @@ import static com.facebook.presto.operator.CancelTester.createCancelableDataSour
 import static com.facebook.presto.operator.OperatorAssertions.assertOperatorEquals;
 import static com.facebook.presto.operator.OperatorAssertions.createOperator;
 import static com.facebook.presto.operator.ProjectionFunctions.singleColumn;
+import static com.facebook.presto.tuple.TupleInfo.Type.DOUBLE;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertEquals;
 
 public class TestFilterAndProjectOperator
 {
@@ -50,6 +57,174 @@ public class TestFilterAndProjectOperator
         assertOperatorEquals(actual, expected);
     }
 
+    @Test
+    public void testBatchProjection()
+            throws Exception
+    {
+        Operator source = createOperator(new Page(
+                BlockAssertions.createStringSequenceBlock(0, 100),
+                BlockAssertions.createLongSequenceBlock(0, 100)));
+
+        // select a run of positions and some isolated positions
+        FilterAndProjectOperator actual = new FilterAndProjectOperator(source, new FilterFunction()
+        {
+            @Override
+            public boolean filter(TupleReadable... cursors)
+            {
+                long value = cursors[1].getLong(0);
+                return (10 <= value && value < 13) || value == 50 || value == 99;
+            }
+        }, singleColumn(FIXED_INT_64, 1, 0), singleColumn(VARIABLE_BINARY, 0, 0));
+
+        Operator expected = createOperator(new Page(
+                BlockAssertions.createLongsBlock(10, 11, 12, 50, 99),
+                BlockAssertions.createStringsBlock("10", "11", "12", "50", "99")));
+
+        assertOperatorEquals(actual, expected);
+    }
+
+    @Test
+    public void testBatchProjectionWithoutFilter()
+            throws Exception
+    {
+        Operator source = createOperator(new Page(
+                BlockAssertions.createStringSequenceBlock(0, 100),
+                BlockAssertions.createLongSequenceBlock(0, 100)));
+
+        FilterAndProjectOperator actual = new FilterAndProjectOperator(source, FilterFunctions.TRUE_FUNCTION, singleColumn(VARIABLE_BINARY, 0, 0));
+
+        Operator expected = createOperator(new Page(BlockAssertions.createStringSequenceBlock(0, 100)));
+
+        assertOperatorEquals(actual, expected);
+    }
+
+    @Test
+    public void testBatchAndComputedProjections()
+            throws Exception
+    {
+        Operator source = createOperator(new Page(
+                BlockAssertions.createStringSequenceBlock(0, 100),
+                BlockAssertions.createLongSequenceBlock(0, 100)));
+
+        // the column is copied from the page, and the computed value is only evaluated for the selected positions
+        final int[] computedInvocations = new int[1];
+        ProjectionFunction doubled = new ProjectionFunction()
+        {
+            @Override
+            public TupleInfo getTupleInfo()
+            {
+                return TupleInfo.SINGLE_LONG;
+            }
+
+            @Override
+            public void project(TupleReadable[] cursors, BlockBuilder output)
+            {
+                computedInvocations[0]++;
+                output.append(cursors[1].getLong(0) * 2);
+            }
+        };
+
+        FilterAndProjectOperator actual = new FilterAndProjectOperator(source, new FilterFunction()
+        {
+            @Override
+            public boolean filter(TupleReadable... cursors)
+            {
+                long value = cursors[1].getLong(0);
+                return (10 <= value && value < 13) || value == 50 || value == 99;
+            }
+        }, singleColumn(VARIABLE_BINARY, 0, 0), doubled);
+
+        Operator expected = createOperator(new Page(
+                BlockAssertions.createStringsBlock("10", "11", "12", "50", "99"),
+                BlockAssertions.createLongsBlock(20, 22, 24, 100, 198)));
+
+        assertOperatorEquals(actual, expected);
+        assertEquals(computedInvocations[0], 5);
+    }
+
+    @Test
+    public void testArrayBlockProjection()
+            throws Exception
+    {
+        Operator source = createOperator(new Page(
+                BlockAssertions.createLongArrayBlock(0L, null, 2L, 3L, null),
+                BlockAssertions.createDoubleArrayBlock(0.5, 1.5, null, 3.5, 4.5)));
+
+        FilterAndProjectOperator actual = new FilterAndProjectOperator(source, new FilterFunction()
+        {
+            @Override
+            public boolean filter(TupleReadable... cursors)
+            {
+                return cursors[1].isNull(0) || cursors[1].getDouble(0) > 1.0;
+            }
+        }, singleColumn(DOUBLE, 1, 0), singleColumn(FIXED_INT_64, 0, 0));
+
+        Operator expected = createOperator(new Page(
+                BlockAssertions.createDoublesBlock(1.5, null, 3.5, 4.5),
+                BlockAssertions.createLongsBlock(null, 2L, 3L, null)));
+
+        assertOperatorEquals(actual, expected);
+    }
+
+    @Test
+    public void testDictionaryFilter()
+            throws Exception
+    {
+        Operator source = createOperator(new Page(
+                BlockAssertions.createDictionaryEncodedStringsBlock("a", "b", "c", "a", "b", "c", "a"),
+                BlockAssertions.createLongSequenceBlock(0, 7)));
+
+        CountingSingleChannelFilter filter = new CountingSingleChannelFilter(0, "a");
+        FilterAndProjectOperator actual = new FilterAndProjectOperator(source, filter, singleColumn(FIXED_INT_64, 1, 0), singleColumn(VARIABLE_BINARY, 0, 0));
+
+        Operator expected = createOperator(new Page(
+                BlockAssertions.createLongsBlock(0, 3, 6),
+                BlockAssertions.createStringsBlock("a", "a", "a")));
+
+        assertOperatorEquals(actual, expected);
+        assertEquals(filter.getInvocations(), 3);
+    }
+
+    @Test
+    public void testDictionaryFilterRowOriented()
+            throws Exception
+    {
+        Operator source = createOperator(new Page(
+                BlockAssertions.createDictionaryEncodedStringsBlock("a", "b", "c", "a", "b", "c", "a"),
+                BlockAssertions.createLongSequenceBlock(0, 7)));
+
+        CountingSingleChannelFilter filter = new CountingSingleChannelFilter(0, "b");
+        FilterAndProjectOperator actual = new FilterAndProjectOperator(source, filter, ProjectionFunctions.concat(singleColumn(VARIABLE_BINARY, 0, 0), singleColumn(FIXED_INT_64, 1, 0)));
+
+        Operator expected = createOperator(new Page(new BlockBuilder(new TupleInfo(VARIABLE_BINARY, FIXED_INT_64))
+                .append("b").append(1)
+                .append("b").append(4)
+                .build()));
+
+        assertOperatorEquals(actual, expected);
+        assertEquals(filter.getInvocations(), 3);
+    }
+
+    @Test
+    public void testRunLengthEncodedFilter()
+            throws Exception
+    {
+        Operator source = createOperator(
+                new Page(new RunLengthEncodedBlock(createTuple("a"), 3), BlockAssertions.createLongSequenceBlock(0, 3)),
+                new Page(new RunLengthEncodedBlock(createTuple("b"), 4), BlockAssertions.createLongSequenceBlock(3, 7)),
+                new Page(new RunLengthEncodedBlock(createTuple("a"), 2), BlockAssertions.createLongSequenceBlock(7, 9)));
+
+        CountingSingleChannelFilter filter = new CountingSingleChannelFilter(0, "a");
+        FilterAndProjectOperator actual = new FilterAndProjectOperator(source, filter, singleColumn(FIXED_INT_64, 1, 0), singleColumn(VARIABLE_BINARY, 0, 0));
+
+        Operator expected = createOperator(new Page(
+                BlockAssertions.createLongsBlock(0, 1, 2, 7, 8),
+                BlockAssertions.createStringsBlock("a", "a", "a", "a", "a")));
+
+        assertOperatorEquals(actual, expected);
+        assertEquals(filter.getInvocations(), 3);
+    }
+
     @Test
     public void testCancel()
             throws Exception
@@ -58,4 +233,36 @@ public class TestFilterAndProjectOperator
         Operator operator = new FilterAndProjectOperator(blockingOperator, FilterFunctions.TRUE_FUNCTION, ProjectionFunctions.singleColumn(VARIABLE_BINARY, 0, 0));
         assertCancel(operator, blockingOperator);
     }
+
+    private static class CountingSingleChannelFilter
+            implements SingleChannelFilterFunction
+    {
+        private final int channel;
+        private final Slice value;
+        private int invocations;
+
+        private CountingSingleChannelFilter(int channel, String value)
+        {
+            this.channel = channel;
+            this.value = Slices.copiedBuffer(value, UTF_8);
+        }
+
+        @Override
+        public int getChannel()
+        {
+            return channel;
+        }
+
+        @Override
+        public boolean filter(TupleReadable... cursors)
+        {
+            invocations++;
+            return cursors[channel].getSlice(0).equals(value);
+        }
+
+        public int getInvocations()
+        {
+            return invocations;
+        }
+    }
 }
@@ -1,18 +1,31 @@
 package com.facebook.presto.operator;
 
+import com.facebook.presto.block.Block;
 import com.facebook.presto.block.BlockAssertions;
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockIterable;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import io.airlift.testing.FileUtils;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
 import static com.facebook.presto.operator.AggregationFunctionDefinition.aggregation;
 import static com.facebook.presto.operator.CancelTester.assertCancel;
 import static com.facebook.presto.operator.CancelTester.createCancelableDataSource;
 import static com.facebook.presto.operator.OperatorAssertions.createOperator;
+import static com.facebook.presto.operator.OperatorAssertions.loadColumns;
 import static com.facebook.presto.operator.aggregation.CountAggregation.COUNT;
 import static com.facebook.presto.operator.aggregation.CountColumnAggregation.COUNT_COLUMN;
 import static com.facebook.presto.operator.aggregation.DoubleSumAggregation.DOUBLE_SUM;
@@ -22,6 +35,7 @@ import static com.facebook.presto.operator.aggregation.VarBinaryMaxAggregation.V
 import static com.facebook.presto.tuple.TupleInfo.Type.DOUBLE;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 
@@ -164,7 +178,7 @@ public class TestHashAggregationOperator
         );
 
         HashAggregationOperator actual = new HashAggregationOperator(source,
-                1,
+                ImmutableList.of(1),
                 Step.SINGLE,
                 ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
                         aggregation(LONG_SUM, new Input(3, 0)),
@@ -186,6 +200,132 @@ public class TestHashAggregationOperator
         assertFalse(pages.hasNext());
     }
 
+    @Test
+    public void testMultiChannelGroupBy()
+            throws Exception
+    {
+        Page expectedPage = new Page(
+                new BlockBuilder(new TupleInfo(VARIABLE_BINARY))
+                        .append("0")
+                        .append("1")
+                        .append("0")
+                        .append("1")
+                        .build(),
+                new BlockBuilder(new TupleInfo(FIXED_INT_64))
+                        .append(0)
+                        .append(1)
+                        .append(2)
+                        .append(3)
+                        .build(),
+                new BlockBuilder(new TupleInfo(FIXED_INT_64))
+                        .append(2)
+                        .append(2)
+                        .append(1)
+                        .append(1)
+                        .build(),
+                new BlockBuilder(new TupleInfo(FIXED_INT_64))
+                        .append(10 + 14)
+                        .append(11 + 15)
+                        .append(12)
+                        .append(13)
+                        .build()
+        );
+
+        Operator source = createOperator(
+                new Page(
+                        new BlockBuilder(new TupleInfo(VARIABLE_BINARY)).append("0").append("1").append("0").append("1").build(),
+                        new BlockBuilder(new TupleInfo(FIXED_INT_64)).append(0).append(1).append(2).append(3).build(),
+                        BlockAssertions.createLongSequenceBlock(10, 14)),
+                new Page(
+                        new BlockBuilder(new TupleInfo(VARIABLE_BINARY)).append("0").append("1").build(),
+                        new BlockBuilder(new TupleInfo(FIXED_INT_64)).append(0).append(1).build(),
+                        BlockAssertions.createLongSequenceBlock(14, 16))
+        );
+
+        HashAggregationOperator actual = new HashAggregationOperator(source,
+                ImmutableList.of(0, 1),
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                        aggregation(LONG_SUM, new Input(2, 0))),
+                100_000,
+                new DataSize(100, Unit.MEGABYTE));
+
+        PageIterator pages = actual.iterator(new OperatorStats());
+
+        Page actualPage = pages.next();
+        assertEquals(actualPage.getChannelCount(), 4);
+        PageAssertions.assertPageEquals(actualPage, expectedPage);
+
+        assertFalse(pages.hasNext());
+    }
+
+    @Test
+    public void testDictionaryGroupBy()
+            throws Exception
+    {
+        Page expectedPage = new Page(
+                BlockAssertions.createStringsBlock("a", "b", "c"),
+                BlockAssertions.createLongsBlock(5, 4, 3),
+                BlockAssertions.createLongsBlock(0 + 3 + 10 + 13, 1 + 4 + 11 + 14, 2 + 12));
+
+        // the first two pages share a dictionary and the last page has a dictionary with a different order
+        Block dictionaryBlock = BlockAssertions.createDictionaryEncodedStringsBlock("a", "b", "c", "a", "b");
+        Operator source = createOperator(
+                new Page(dictionaryBlock, BlockAssertions.createLongSequenceBlock(0, 5)),
+                new Page(dictionaryBlock, BlockAssertions.createLongSequenceBlock(10, 15)),
+                new Page(BlockAssertions.createDictionaryEncodedStringsBlock("c", "a"), BlockAssertions.createLongsBlock(0, 0)));
+
+        HashAggregationOperator actual = new HashAggregationOperator(source,
+                ImmutableList.of(0),
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                        aggregation(LONG_SUM, new Input(1, 0))),
+                100_000,
+                new DataSize(100, Unit.MEGABYTE));
+
+        PageIterator pages = actual.iterator(new OperatorStats());
+
+        Page actualPage = pages.next();
+        assertEquals(actualPage.getChannelCount(), 3);
+        PageAssertions.assertPageEquals(actualPage, expectedPage);
+
+        assertFalse(pages.hasNext());
+    }
+
+    @Test
+    public void testRunLengthEncodedGroupBy()
+            throws Exception
+    {
+        Page expectedPage = new Page(
+                BlockAssertions.createStringsBlock("a", "b"),
+                BlockAssertions.createLongsBlock(6, 4),
+                BlockAssertions.createLongsBlock(0 + 1 + 2 + 7 + 8 + 9, 3 + 4 + 5 + 6),
+                BlockAssertions.createStringsBlock("9", "6"));
+
+        // the last page mixes run length encoded and uncompressed keys
+        Operator source = createOperator(
+                new Page(new RunLengthEncodedBlock(createTuple("a"), 3), BlockAssertions.createLongSequenceBlock(0, 3), BlockAssertions.createStringSequenceBlock(0, 3)),
+                new Page(new RunLengthEncodedBlock(createTuple("b"), 4), BlockAssertions.createLongSequenceBlock(3, 7), BlockAssertions.createStringSequenceBlock(3, 7)),
+                new Page(BlockAssertions.createStringsBlock("a", "a", "a"), BlockAssertions.createLongSequenceBlock(7, 10), BlockAssertions.createStringSequenceBlock(7, 10)));
+
+        HashAggregationOperator actual = new HashAggregationOperator(source,
+                ImmutableList.of(0),
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                        aggregation(LONG_SUM, new Input(1, 0)),
+                        aggregation(VAR_BINARY_MAX, new Input(2, 0))),
+                100_000,
+                new DataSize(100, Unit.MEGABYTE));
+
+        PageIterator pages = actual.iterator(new OperatorStats());
+
+        Page actualPage = pages.next();
+        assertEquals(actualPage.getChannelCount(), 4);
+        PageAssertions.assertPageEquals(actualPage, expectedPage);
+
+        assertFalse(pages.hasNext());
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Query exceeded max operator memory size of 10B")
     public void testMemoryLimit()
     {
@@ -208,7 +348,7 @@ public class TestHashAggregationOperator
         );
 
         HashAggregationOperator actual = new HashAggregationOperator(source,
-                1,
+                ImmutableList.of(1),
                 Step.SINGLE,
                 ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
                         aggregation(LONG_SUM, new Input(3, 0)),
@@ -220,6 +360,178 @@ public class TestHashAggregationOperator
         actual.iterator(new OperatorStats()).next();
     }
 
+    @Test
+    public void testSpillWhenMemoryLimitExceeded()
+            throws Exception
+    {
+        File spillDirectory = Files.createTempDir();
+        try {
+            Operator expected = createSpillTestOperator(new DataSize(100, Unit.MEGABYTE), Optional.<File>absent());
+            Operator actual = createSpillTestOperator(new DataSize(512, Unit.KILOBYTE), Optional.of(spillDirectory));
+
+            // spilled groups are produced in partition order
+            Set<List<List<Object>>> expectedRows = toRows(expected);
+            assertEquals(expectedRows.size(), 10_000);
+            assertEquals(toRows(actual), expectedRows);
+
+            // all spill files are removed once the operator is finished
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillDirectory);
+        }
+    }
+
+    @Test
+    public void testRespillPartitionExceedingMemoryLimit()
+            throws Exception
+    {
+        File spillDirectory = Files.createTempDir();
+        try {
+            // each of the 16 partitions has about 10,000 groups, which do not fit in the limit either
+            Operator expected = createSpillTestOperator(160_000, new DataSize(100, Unit.MEGABYTE), Optional.<File>absent(), new MemoryPool());
+            Operator actual = createSpillTestOperator(160_000, new DataSize(512, Unit.KILOBYTE), Optional.of(spillDirectory), new MemoryPool());
+
+            Set<List<List<Object>>> expectedRows = toRows(expected);
+            assertEquals(expectedRows.size(), 160_000);
+            assertEquals(toRows(actual), expectedRows);
+
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillDirectory);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Query exceeded max operator memory size of 512kB")
+    public void testSpillTestExceedsMemoryLimit()
+    {
+        // verify the spill test really needs to spill
+        toRows(createSpillTestOperator(new DataSize(512, Unit.KILOBYTE), Optional.<File>absent()));
+    }
+
+    @Test
+    public void testSpillWhenQueryMemoryPoolExhausted()
+            throws Exception
+    {
+        File spillDirectory = Files.createTempDir();
+        try {
+            // the operator limit is not reached, but the query pool is exhausted
+            MemoryPool queryPool = new MemoryPool("max memory per node", new DataSize(512, Unit.KILOBYTE));
+            Operator expected = createSpillTestOperator(new DataSize(100, Unit.MEGABYTE), Optional.<File>absent());
+            Operator actual = createSpillTestOperator(new DataSize(100, Unit.MEGABYTE), Optional.of(spillDirectory), queryPool);
+
+            assertEquals(toRows(actual), toRows(expected));
+
+            // the memory of the operator is returned once it is finished
+            assertEquals(queryPool.getReservedSize().toBytes(), 0);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillDirectory);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Query exceeded max memory per node of 512kB")
+    public void testQueryMemoryPoolExhausted()
+    {
+        MemoryPool queryPool = new MemoryPool("max memory per node", new DataSize(512, Unit.KILOBYTE));
+        toRows(createSpillTestOperator(new DataSize(100, Unit.MEGABYTE), Optional.<File>absent(), queryPool));
+    }
+
+    private static Operator createSpillTestOperator(DataSize maxSize, Optional<File> spillDirectory)
+    {
+        return createSpillTestOperator(maxSize, spillDirectory, new MemoryPool());
+    }
+
+    private static Operator createSpillTestOperator(DataSize maxSize, Optional<File> spillDirectory, MemoryPool memoryPool)
+    {
+        return createSpillTestOperator(10_000, maxSize, spillDirectory, memoryPool);
+    }
+
+    private static Operator createSpillTestOperator(int groupCount, DataSize maxSize, Optional<File> spillDirectory, MemoryPool memoryPool)
+    {
+        ImmutableList.Builder<Page> pages = ImmutableList.builder();
+        for (int i = 0; i < groupCount / 500; i++) {
+            // every group appears in two pages
+            int start = (i / 2) * 1000;
+            pages.add(new Page(
+                    BlockAssertions.createStringSequenceBlock(start, start + 1000),
+                    BlockAssertions.createStringSequenceBlock(start, start + 1000),
+                    BlockAssertions.createStringSequenceBlock(i * 1000, (i + 1) * 1000),
+                    BlockAssertions.createLongSequenceBlock(start, start + 1000)));
+        }
+
+        return new HashAggregationOperator(createOperator(pages.build()),
+                ImmutableList.of(1, 3),
+                Step.SINGLE,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                        aggregation(LONG_SUM, new Input(3, 0)),
+                        aggregation(LONG_AVERAGE, new Input(3, 0)),
+                        aggregation(VAR_BINARY_MAX, new Input(2, 0))),
+                10,
+                maxSize,
+                spillDirectory,
+                memoryPool);
+    }
+
+    private static Set<List<List<Object>>> toRows(Operator operator)
+    {
+        List<List<List<Object>>> columns = new ArrayList<>();
+        for (BlockIterable column : loadColumns(operator)) {
+            columns.add(BlockAssertions.toValues(column));
+        }
+
+        ImmutableSet.Builder<List<List<Object>>> rows = ImmutableSet.builder();
+        for (int position = 0; position < columns.get(0).size(); position++) {
+            ImmutableList.Builder<List<Object>> row = ImmutableList.builder();
+            for (List<List<Object>> column : columns) {
+                row.add(column.get(position));
+            }
+            rows.add(row.build());
+        }
+        return rows.build();
+    }
+
+    @Test
+    public void testPartialAggregationBypassesHashForUniqueKeys()
+    {
+        // every row is a distinct group, so after the first two pages the remaining rows are streamed without hashing
+        Operator source = createOperator(
+                new Page(BlockAssertions.createLongSequenceBlock(0, 5000), BlockAssertions.createLongSequenceBlock(0, 5000)),
+                new Page(BlockAssertions.createLongSequenceBlock(5000, 10_000), BlockAssertions.createLongSequenceBlock(5000, 10_000)),
+                new Page(BlockAssertions.createLongSequenceBlock(10_000, 15_000), BlockAssertions.createLongSequenceBlock(10_000, 15_000)),
+                new Page(BlockAssertions.createLongSequenceBlock(0, 5000), BlockAssertions.createLongSequenceBlock(0, 5000)));
+
+        HashAggregationOperator actual = new HashAggregationOperator(source,
+                ImmutableList.of(0),
+                Step.PARTIAL,
+                ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
+                        aggregation(LONG_SUM, new Input(1, 0))),
+                100_000,
+                new DataSize(100, Unit.MEGABYTE));
+
+        // streamed rows produce one intermediate value per row, so the repeated keys are not combined
+        List<Long> expectedKeys = new ArrayList<>();
+        for (long key = 0; key < 15_000; key++) {
+            expectedKeys.add(key);
+        }
+        for (long key = 0; key < 5000; key++) {
+            expectedKeys.add(key);
+        }
+
+        List<BlockIterable> columns = loadColumns(actual);
+        List<List<Object>> keys = BlockAssertions.toValues(columns.get(0));
+        List<List<Object>> counts = BlockAssertions.toValues(columns.get(1));
+        List<List<Object>> sums = BlockAssertions.toValues(columns.get(2));
+        assertEquals(keys.size(), expectedKeys.size());
+        for (int position = 0; position < keys.size(); position++) {
+            long key = (Long) keys.get(position).get(0);
+            assertEquals(key, (long) expectedKeys.get(position));
+            assertEquals(counts.get(position).get(0), 1L);
+            assertEquals(sums.get(position).get(0), key);
+        }
+    }
+
     @Test
     public void testMultiSliceAggregationOutput()
     {
@@ -232,7 +544,7 @@ public class TestHashAggregationOperator
         );
 
         HashAggregationOperator actual = new HashAggregationOperator(source,
-                1,
+                ImmutableList.of(1),
                 Step.SINGLE,
                 ImmutableList.of(aggregation(COUNT, new Input(0, 0)),
                         aggregation(LONG_AVERAGE, new Input(1, 0))),
@@ -247,7 +559,7 @@ public class TestHashAggregationOperator
             throws Exception
     {
         BlockingOperator blockingOperator = createCancelableDataSource(new TupleInfo(VARIABLE_BINARY), new TupleInfo(VARIABLE_BINARY));
-        Operator operator = new HashAggregationOperator(blockingOperator, 0, Step.SINGLE, ImmutableList.of(aggregation(COUNT, new Input(0, 0))), 10, new DataSize(1, Unit.MEGABYTE));
+        Operator operator = new HashAggregationOperator(blockingOperator, ImmutableList.of(0), Step.SINGLE, ImmutableList.of(aggregation(COUNT, new Input(0, 0))), 10, new DataSize(1, Unit.MEGABYTE));
         assertCancel(operator, blockingOperator);
     }
 
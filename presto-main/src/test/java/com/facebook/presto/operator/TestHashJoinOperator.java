@@ -4,8 +4,17 @@ import com.facebook.presto.tuple.TupleInfo;
 import io.airlift.units.DataSize;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.facebook.presto.block.BlockAssertions.createDictionaryEncodedStringsBlock;
 import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.block.BlockAssertions.createStringSequenceBlock;
+import static com.facebook.presto.block.BlockAssertions.createStringsBlock;
 import static com.facebook.presto.operator.CancelTester.assertCancel;
 import static com.facebook.presto.operator.CancelTester.createCancelableDataSource;
 import static com.facebook.presto.operator.OperatorAssertions.assertOperatorEquals;
@@ -13,6 +22,7 @@ import static com.facebook.presto.operator.OperatorAssertions.createOperator;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
 import static io.airlift.units.DataSize.Unit.BYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static org.testng.Assert.assertSame;
 
 public class TestHashJoinOperator
 {
@@ -43,6 +53,76 @@ public class TestHashJoinOperator
         assertOperatorEquals(joinOperator, expected);
     }
 
+    @Test
+    public void testDictionaryProbe()
+            throws Exception
+    {
+        Operator buildSource = createOperator(new Page(
+                createStringsBlock("a", "b", "c"),
+                createLongSequenceBlock(0, 3)));
+
+        Operator probeSource = createOperator(new Page(
+                createDictionaryEncodedStringsBlock("b", "x", "a", "b", "x"),
+                createLongSequenceBlock(10, 15)));
+
+        HashJoinOperator joinOperator = new HashJoinOperator(new SourceHashProvider(buildSource, 0, 10, new DataSize(1, MEGABYTE), new OperatorStats()), probeSource, 0);
+
+        Operator expected = createOperator(new Page(
+                createStringsBlock("b", "a", "b"),
+                createLongsBlock(10, 12, 13),
+                createStringsBlock("b", "a", "b"),
+                createLongsBlock(1, 0, 1)));
+
+        assertOperatorEquals(joinOperator, expected);
+    }
+
+    @Test
+    public void testSharedSourceHash()
+            throws Exception
+    {
+        Operator buildSource = createOperator(new Page(
+                createStringSequenceBlock(20, 30),
+                createLongSequenceBlock(30, 40),
+                createLongSequenceBlock(40, 50)));
+
+        final SourceHashProvider sourceHashProvider = new SourceHashProvider(buildSource, 0, 10, new DataSize(1, MEGABYTE), new OperatorStats());
+        assertSame(sourceHashProvider.get(), sourceHashProvider.get());
+
+        final Operator expected = createOperator(new Page(
+                createStringSequenceBlock(20, 30),
+                createLongSequenceBlock(1020, 1030),
+                createLongSequenceBlock(2020, 2030),
+                createStringSequenceBlock(20, 30),
+                createLongSequenceBlock(30, 40),
+                createLongSequenceBlock(40, 50)));
+
+        // all probes share the same hash instance
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Operator probeSource = createOperator(new Page(
+                                createStringSequenceBlock(0, 1000),
+                                createLongSequenceBlock(1000, 2000),
+                                createLongSequenceBlock(2000, 3000)));
+                        assertOperatorEquals(new HashJoinOperator(sourceHashProvider, probeSource, 0), expected);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Query exceeded max operator memory size.*")
     public void testMemoryLimit()
             throws Exception
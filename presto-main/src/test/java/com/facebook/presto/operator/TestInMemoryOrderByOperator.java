@@ -2,17 +2,28 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockAssertions;
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.BlockIterable;
 import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import io.airlift.testing.FileUtils;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.util.List;
+
+import static com.facebook.presto.block.BlockAssertions.toValues;
 import static com.facebook.presto.operator.CancelTester.assertCancel;
 import static com.facebook.presto.operator.CancelTester.createCancelableDataSource;
 import static com.facebook.presto.operator.OperatorAssertions.assertOperatorEquals;
 import static com.facebook.presto.operator.OperatorAssertions.createOperator;
+import static com.facebook.presto.operator.OperatorAssertions.loadColumns;
 import static com.facebook.presto.tuple.TupleInfo.Type.FIXED_INT_64;
 import static com.facebook.presto.tuple.TupleInfo.Type.VARIABLE_BINARY;
+import static org.testng.Assert.assertEquals;
 
 public class TestInMemoryOrderByOperator
 {
@@ -117,6 +128,49 @@ public class TestInMemoryOrderByOperator
         iterator.next();
     }
 
+    @Test
+    public void testExternalSort()
+            throws Exception
+    {
+        File spillDirectory = Files.createTempDir();
+        try {
+            // 20 pages of 1000 distinct keys in scrambled order
+            ImmutableList.Builder<Page> pages = ImmutableList.builder();
+            for (int page = 0; page < 20; page++) {
+                BlockBuilder keys = new BlockBuilder(TupleInfo.SINGLE_LONG);
+                BlockBuilder values = new BlockBuilder(TupleInfo.SINGLE_VARBINARY);
+                for (int i = page * 1000; i < (page + 1) * 1000; i++) {
+                    long key = (i * 7919L) % 20_000;
+                    keys.append(key);
+                    values.append(String.valueOf(key));
+                }
+                pages.add(new Page(keys.build(), values.build()));
+            }
+            Operator source = createOperator(pages.build());
+
+            InMemoryOrderByOperator actual = new InMemoryOrderByOperator(source,
+                    0,
+                    new int[]{0, 1},
+                    10,
+                    new int[]{0},
+                    new boolean[]{true},
+                    new DataSize(64, Unit.KILOBYTE),
+                    Optional.of(spillDirectory),
+                    new MemoryPool());
+
+            // the output pages are cut differently than the expected block
+            List<BlockIterable> columns = loadColumns(actual);
+            assertEquals(toValues(columns.get(0)), toValues(BlockAssertions.createLongSequenceBlock(0, 20_000)));
+            assertEquals(toValues(columns.get(1)), toValues(BlockAssertions.createStringSequenceBlock(0, 20_000)));
+
+            // all runs are removed once the operator is finished
+            assertEquals(spillDirectory.list().length, 0);
+        }
+        finally {
+            FileUtils.deleteRecursively(spillDirectory);
+        }
+    }
+
     @Test
     public void testCancel()
             throws Exception
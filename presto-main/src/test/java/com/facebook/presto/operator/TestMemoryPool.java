@@ -0,0 +1,93 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.operator;
+
+import io.airlift.units.DataSize;
+import org.testng.annotations.Test;
+
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestMemoryPool
+{
+    @Test
+    public void testReserveAndFree()
+    {
+        MemoryPool pool = new MemoryPool("test memory", new DataSize(100, BYTE));
+
+        assertTrue(pool.tryReserve(60));
+        assertFalse(pool.tryReserve(41));
+        assertEquals(pool.getReservedSize().toBytes(), 60);
+
+        pool.reserve(40);
+        assertEquals(pool.getReservedSize().toBytes(), 100);
+
+        pool.free(70);
+        assertEquals(pool.getReservedSize().toBytes(), 30);
+    }
+
+    @Test
+    public void testReservationsAreChargedToAncestors()
+    {
+        MemoryPool root = new MemoryPool("root memory", new DataSize(100, BYTE));
+        MemoryPool child = new MemoryPool(root);
+        MemoryPool grandChild = new MemoryPool("operator memory", new DataSize(80, BYTE), child);
+
+        grandChild.reserve(50);
+        assertEquals(root.getReservedSize().toBytes(), 50);
+        assertEquals(child.getReservedSize().toBytes(), 50);
+
+        // the limit of the grand child is reached first
+        assertFalse(grandChild.tryReserve(40));
+
+        // the limit of the root is reached through a sibling
+        MemoryPool sibling = new MemoryPool(root);
+        assertTrue(sibling.tryReserve(30));
+        assertFalse(grandChild.tryReserve(25));
+
+        // a failed reservation does not change any pool
+        assertEquals(root.getReservedSize().toBytes(), 80);
+        assertEquals(child.getReservedSize().toBytes(), 50);
+        assertEquals(grandChild.getReservedSize().toBytes(), 50);
+
+        grandChild.free(50);
+        assertEquals(root.getReservedSize().toBytes(), 30);
+        assertEquals(child.getReservedSize().toBytes(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Query exceeded root memory of 100B")
+    public void testReserveReportsExhaustedAncestor()
+    {
+        MemoryPool root = new MemoryPool("root memory", new DataSize(100, BYTE));
+        MemoryPool child = new MemoryPool("child memory", new DataSize(1000, BYTE), root);
+        child.reserve(101);
+    }
+
+    @Test
+    public void testCloseReturnsMemoryToParent()
+    {
+        MemoryPool root = new MemoryPool("root memory", new DataSize(100, BYTE));
+        MemoryPool child = new MemoryPool(root);
+
+        child.reserve(60);
+        child.close();
+        assertEquals(root.getReservedSize().toBytes(), 0);
+
+        // a closed pool only tracks its own reservations
+        child.reserve(200);
+        child.free(260);
+        assertEquals(root.getReservedSize().toBytes(), 0);
+        assertEquals(child.getReservedSize().toBytes(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testFreeMoreThanReserved()
+    {
+        MemoryPool pool = new MemoryPool();
+        pool.reserve(10);
+        pool.free(11);
+    }
+}
@@ -0,0 +1,73 @@
+package com.facebook.presto.operator;
+
+import com.facebook.presto.tuple.TupleInfo;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import static com.facebook.presto.block.BlockAssertions.createDoublesBlock;
+import static com.facebook.presto.block.BlockAssertions.createLongArrayBlock;
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
+import static com.facebook.presto.block.BlockAssertions.createStringsBlock;
+import static com.facebook.presto.block.BlockAssertions.toValues;
+import static com.facebook.presto.operator.OperatorAssertions.createOperator;
+import static com.facebook.presto.operator.OperatorAssertions.loadColumns;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestMergeSortedOperator
+{
+    @Test
+    public void testMergeSingleKey()
+            throws Exception
+    {
+        Operator first = createOperator(
+                new Page(createLongsBlock(1, 4), createDoublesBlock(0.1, 0.4)),
+                new Page(createLongsBlock(7), createDoublesBlock(0.7)));
+        Operator second = createOperator(
+                new Page(createLongArrayBlock(2L, 3L, 8L), createDoublesBlock(0.2, 0.3, 0.8)));
+        Operator third = createOperator(
+                new Page(createLongsBlock(0, 5), createDoublesBlock(0.0, 0.5)),
+                new Page(createLongsBlock(6, 9), createDoublesBlock(0.6, 0.9)));
+
+        Operator actual = new MergeSortedOperator(first.getTupleInfos(), ImmutableList.of(first, second, third), new int[] {0}, new boolean[] {true});
+
+        assertEquals(toValues(loadColumns(actual).get(0)), toValues(createLongsBlock(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)));
+        assertEquals(toValues(loadColumns(actual).get(1)), toValues(createDoublesBlock(0.0, 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9)));
+    }
+
+    @Test
+    public void testMergeMultipleKeys()
+            throws Exception
+    {
+        // sorted by the first channel descending and the second channel ascending
+        Operator first = createOperator(
+                new Page(createStringsBlock("b", "b", "a"), createLongsBlock(1, 3, 2)));
+        Operator second = createOperator(
+                new Page(createStringsBlock("b", "a", "a"), createLongsBlock(2, 1, 3)));
+
+        Operator actual = new MergeSortedOperator(first.getTupleInfos(), ImmutableList.of(first, second), new int[] {0, 1}, new boolean[] {false, true});
+
+        assertEquals(toValues(loadColumns(actual).get(0)), toValues(createStringsBlock("b", "b", "b", "a", "a", "a")));
+        assertEquals(toValues(loadColumns(actual).get(1)), toValues(createLongsBlock(1, 2, 3, 1, 2, 3)));
+    }
+
+    @Test
+    public void testNoSources()
+            throws Exception
+    {
+        // a sorted exchange over a fragment without tasks
+        Operator actual = new MergeSortedOperator(ImmutableList.of(TupleInfo.SINGLE_LONG), ImmutableList.<Operator>of(), new int[] {0}, new boolean[] {true});
+
+        PageIterator iterator = actual.iterator(new OperatorStats());
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDifferentTupleInfos()
+    {
+        Operator longs = createOperator(new Page(createLongsBlock(1)));
+        Operator doubles = createOperator(new Page(createDoublesBlock(1.0)));
+        new MergeSortedOperator(longs.getTupleInfos(), ImmutableList.of(longs, doubles), new int[] {0}, new boolean[] {true});
+    }
+}
@@ -0,0 +1,99 @@
+package com.facebook.presto.operator;
+
+import com.facebook.presto.block.BlockIterable;
+import com.google.common.base.Optional;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static com.facebook.presto.block.BlockAssertions.createDoublesBlock;
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
+import static com.facebook.presto.block.BlockAssertions.toValues;
+import static com.facebook.presto.operator.OperatorAssertions.createOperator;
+import static com.facebook.presto.operator.OperatorAssertions.loadColumns;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestMergeSortedSplitsOperator
+{
+    @Test
+    public void testLastSplitMergesAllSplits()
+            throws Exception
+    {
+        SortedSplitsMerger merger = new SortedSplitsMerger(3);
+        Operator first = createSplitOperator(merger, new Page(createLongsBlock(7, 1, 4), createDoublesBlock(0.7, 0.1, 0.4)));
+        Operator second = createSplitOperator(merger, new Page(createLongsBlock(3, 8), createDoublesBlock(0.3, 0.8)), new Page(createLongsBlock(2), createDoublesBlock(0.2)));
+        Operator third = createSplitOperator(merger, new Page(createLongsBlock(5, 0, 6), createDoublesBlock(0.5, 0.0, 0.6)));
+
+        // the splits that finish first hand their sorted rows to the last split
+        assertFalse(first.iterator(new OperatorStats()).hasNext());
+        assertFalse(second.iterator(new OperatorStats()).hasNext());
+
+        List<BlockIterable> actual = loadColumns(third);
+        assertEquals(toValues(actual.get(0)), toValues(createLongsBlock(0, 1, 2, 3, 4, 5, 6, 7, 8)));
+        assertEquals(toValues(actual.get(1)), toValues(createDoublesBlock(0.0, 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8)));
+    }
+
+    @Test
+    public void testClosedSplitClosesOtherRuns()
+            throws Exception
+    {
+        MemoryPool memoryPool = new MemoryPool();
+        SortedSplitsMerger merger = new SortedSplitsMerger(2);
+        Operator first = createSplitOperator(merger, memoryPool, new Page(createLongsBlock(2, 1), createDoublesBlock(0.2, 0.1)));
+        Operator second = createSplitOperator(merger, memoryPool, new Page(createLongsBlock(3), createDoublesBlock(0.3)));
+
+        // the sorted rows of the first split are kept for the merge
+        assertFalse(first.iterator(new OperatorStats()).hasNext());
+        assertTrue(memoryPool.getReservedSize().toBytes() > 0);
+
+        // the last split is canceled before it sorts, so it releases the run of the first split
+        second.iterator(new OperatorStats()).close();
+        assertEquals(memoryPool.getReservedSize().toBytes(), 0);
+    }
+
+    @Test
+    public void testCloseReleasesRuns()
+            throws Exception
+    {
+        MemoryPool memoryPool = new MemoryPool();
+        SortedSplitsMerger merger = new SortedSplitsMerger(3);
+        Operator first = createSplitOperator(merger, memoryPool, new Page(createLongsBlock(2, 1), createDoublesBlock(0.2, 0.1)));
+        Operator last = createSplitOperator(merger, memoryPool, new Page(createLongsBlock(3), createDoublesBlock(0.3)));
+
+        assertFalse(first.iterator(new OperatorStats()).hasNext());
+        assertTrue(memoryPool.getReservedSize().toBytes() > 0);
+
+        // the second split never runs, so the task closes the merger when it ends
+        merger.close();
+        assertEquals(memoryPool.getReservedSize().toBytes(), 0);
+
+        // a split that sorts after the task ended releases its own run
+        assertFalse(last.iterator(new OperatorStats()).hasNext());
+        assertEquals(memoryPool.getReservedSize().toBytes(), 0);
+    }
+
+    private static Operator createSplitOperator(SortedSplitsMerger merger, Page... pages)
+    {
+        return createSplitOperator(merger, new MemoryPool(), pages);
+    }
+
+    private static Operator createSplitOperator(SortedSplitsMerger merger, MemoryPool memoryPool, Page... pages)
+    {
+        Operator source = createOperator(pages);
+        Operator sort = new InMemoryOrderByOperator(source,
+                0,
+                new int[] {0, 1},
+                10,
+                new int[] {0},
+                new boolean[] {true},
+                new DataSize(1, Unit.MEGABYTE),
+                Optional.<File>absent(),
+                memoryPool);
+        return new MergeSortedSplitsOperator(sort, merger, 0, new int[] {0}, new boolean[] {true});
+    }
+}
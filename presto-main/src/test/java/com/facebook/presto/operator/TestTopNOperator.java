@@ -2,10 +2,8 @@ package com.facebook.presto.operator;
 
 import com.facebook.presto.block.BlockAssertions;
 import com.facebook.presto.block.BlockBuilder;
-import com.facebook.presto.tuple.FieldOrderedTupleComparator;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
 import org.testng.annotations.Test;
 
 import static com.facebook.presto.operator.CancelTester.assertCancel;
@@ -116,7 +114,8 @@ public class TestTopNOperator
 
         TopNOperator actual = new TopNOperator(
                 source, 2, 0, ImmutableList.of(singleColumn(FIXED_INT_64, 0, 0), singleColumn(DOUBLE, 1, 0)),
-                Ordering.from(FieldOrderedTupleComparator.INSTANCE).reverse()
+                new int[] {0},
+                new boolean[] {true}
         );
 
         Operator expected = createOperator(
@@ -128,6 +127,68 @@ public class TestTopNOperator
         assertOperatorEquals(actual, expected);
     }
 
+    @Test
+    public void testMixedSortOrder()
+            throws Exception
+    {
+        TupleInfo tupleInfo = new TupleInfo(VARIABLE_BINARY, FIXED_INT_64);
+        Operator source = createOperator(
+                new Page(
+                        new BlockBuilder(tupleInfo)
+                                .append("a").append(1)
+                                .append("b").append(2)
+                                .build(),
+                        BlockAssertions.createDoublesBlock(0.1, 0.2)
+                ),
+                new Page(
+                        new BlockBuilder(tupleInfo)
+                                .append("f").append(3)
+                                .append("a").append(4)
+                                .build(),
+                        BlockAssertions.createDoublesBlock(0.3, 0.4)
+                ),
+                new Page(
+                        new BlockBuilder(tupleInfo)
+                                .append("d").append(5)
+                                .append("a").append(7)
+                                .append("b").append(6)
+                                .build(),
+                        BlockAssertions.createDoublesBlock(0.5, 0.7, 0.6)
+                )
+        );
+
+        // order by the first field ascending and the second field descending
+        TopNOperator actual = new TopNOperator(
+                source, 4, 0, ImmutableList.of(singleColumn(DOUBLE, 1, 0), singleColumn(FIXED_INT_64, 0, 1)),
+                new int[] {0, 1},
+                new boolean[] {true, false}
+        );
+
+        Operator expected = createOperator(
+                new Page(
+                        BlockAssertions.createDoublesBlock(0.7, 0.4, 0.1, 0.6),
+                        BlockAssertions.createLongsBlock(7, 4, 1, 6)
+                )
+        );
+        assertOperatorEquals(actual, expected);
+    }
+
+    @Test
+    public void testCompactCandidates()
+            throws Exception
+    {
+        // every page contains a new candidate, so the candidates are compacted many times
+        ImmutableList.Builder<Page> pages = ImmutableList.builder();
+        for (int page = 0; page < 1000; page++) {
+            pages.add(new Page(BlockAssertions.createLongSequenceBlock(page * 1000, (page + 1) * 1000)));
+        }
+
+        TopNOperator actual = new TopNOperator(createOperator(pages.build()), 3, 0, ImmutableList.of(singleColumn(FIXED_INT_64, 0, 0)));
+
+        Operator expected = createOperator(new Page(BlockAssertions.createLongsBlock(999_999, 999_998, 999_997)));
+        assertOperatorEquals(actual, expected);
+    }
+
     @Test
     public void testCancel()
             throws Exception
@@ -10,11 +10,13 @@ import com.facebook.presto.operator.AggregationOperator;
 import com.facebook.presto.operator.AggregationOperator.Aggregator;
 import com.facebook.presto.operator.Input;
 import com.facebook.presto.operator.Page;
+import com.facebook.presto.serde.ArrayBlockEncoding;
 import com.facebook.presto.sql.planner.plan.AggregationNode;
 import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
 import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo;
 import com.google.common.collect.Iterables;
+import io.airlift.slice.DynamicSliceOutput;
 import org.testng.annotations.Test;
 
 import java.util.Arrays;
@@ -134,6 +136,57 @@ public abstract class AbstractTestAggregationFunction
         testVectorMultiplePositions(alternatingNullsBlock, getExpectedValue(0, 5));
     }
 
+    @Test
+    public void testVectorRunLengthEncoded()
+    {
+        BlockCursor cursor = getSequenceBlock(3, 1).cursor();
+        assertTrue(cursor.advanceNextPosition());
+        Tuple value = cursor.getTuple();
+
+        testVectorRunLengthEncoded(value);
+        testVectorRunLengthEncoded(nullTuple(value.getTupleInfo()));
+    }
+
+    private void testVectorRunLengthEncoded(Tuple value)
+    {
+        // a run must produce the same result as the same values added one at a time
+        BlockBuilder blockBuilder = new BlockBuilder(value.getTupleInfo());
+        for (int i = 0; i < 5; i++) {
+            blockBuilder.append(value);
+        }
+        Aggregator expected = createAggregator(aggregation(getFunction(), new Input(0, 0)), Step.SINGLE);
+        BlockCursor cursor = blockBuilder.build().cursor();
+        while (cursor.advanceNextPosition()) {
+            expected.addValue(cursor);
+        }
+
+        Aggregator function = createAggregator(aggregation(getFunction(), new Input(0, 0)), Step.SINGLE);
+        function.addValue(new Page(new RunLengthEncodedBlock(value, 5)));
+        assertEquals(getActualValue(function), getActualValue(expected));
+    }
+
+    @Test
+    public void testVectorArrayBlock()
+    {
+        Block block = createAlternatingNullsBlock(getSequenceBlock(0, 10));
+        if (!ArrayBlockEncoding.isSupported(block.getTupleInfo())) {
+            return;
+        }
+
+        // read the values back as a dense array with a null bitmap
+        ArrayBlockEncoding encoding = new ArrayBlockEncoding(block.getTupleInfo());
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        encoding.writeBlock(sliceOutput, block);
+        Block arrayBlock = encoding.readBlock(sliceOutput.slice().getInput());
+
+        Aggregator expected = createAggregator(aggregation(getFunction(), new Input(0, 0)), Step.SINGLE);
+        expected.addValue(new Page(block));
+
+        Aggregator function = createAggregator(aggregation(getFunction(), new Input(0, 0)), Step.SINGLE);
+        function.addValue(new Page(arrayBlock));
+        assertEquals(getActualValue(function), getActualValue(expected));
+    }
+
     protected void testVectorMultiplePositions(Block block, Object expectedValue)
     {
         // test with input at field 0
@@ -5,6 +5,7 @@ package com.facebook.presto.operator.scalar;
 
 import com.facebook.presto.block.BlockCursor;
 import com.facebook.presto.execution.ExchangePlanFragmentSource;
+import com.facebook.presto.execution.QueryManagerConfig;
 import com.facebook.presto.execution.TaskInfo;
 import com.facebook.presto.metadata.AbstractMetadata;
 import com.facebook.presto.metadata.ColumnHandle;
@@ -18,10 +19,12 @@ import com.facebook.presto.metadata.Metadata;
 import com.facebook.presto.metadata.TableHandle;
 import com.facebook.presto.metadata.TableMetadata;
 import com.facebook.presto.operator.AlignmentOperator;
+import com.facebook.presto.operator.MemoryPool;
 import com.facebook.presto.operator.Operator;
 import com.facebook.presto.operator.OperatorStats;
 import com.facebook.presto.operator.Page;
 import com.facebook.presto.operator.PageIterator;
+import com.facebook.presto.operator.SortedSplitsMergerFactory;
 import com.facebook.presto.operator.SourceHashProviderFactory;
 import com.facebook.presto.server.HackPlanFragmentSourceProvider;
 import io.airlift.slice.Slice;
@@ -33,6 +36,7 @@ import com.facebook.presto.sql.analyzer.Analyzer;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.planner.DistributedLogicalPlanner;
+import com.facebook.presto.sql.planner.ExpressionCompiler;
 import com.facebook.presto.sql.planner.LocalExecutionPlanner;
 import com.facebook.presto.sql.planner.LogicalPlanner;
 import com.facebook.presto.sql.planner.SubPlan;
@@ -43,6 +47,7 @@ import com.facebook.presto.sql.tree.QualifiedName;
 import com.facebook.presto.sql.tree.Statement;
 import com.facebook.presto.tuple.Tuple;
 import com.facebook.presto.tuple.TupleInfo.Type;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -50,6 +55,7 @@ import com.google.common.collect.Iterables;
 import io.airlift.json.JsonCodec;
 import io.airlift.units.DataSize;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 
@@ -181,14 +187,18 @@ public final class FunctionAssertions
         LocalExecutionPlanner executionPlanner = new LocalExecutionPlanner(
                 session,
                 METADATA,
-                new HackPlanFragmentSourceProvider(DATA_PROVIDER, null, TASK_INFO_CODEC),
+                new HackPlanFragmentSourceProvider(DATA_PROVIDER, null, TASK_INFO_CODEC, new QueryManagerConfig()),
                 analysis.getTypes(),
                 null,
                 builder.build(),
                 ImmutableMap.<String, ExchangePlanFragmentSource>of(),
                 new OperatorStats(),
                 new SourceHashProviderFactory(maxOperatorMemoryUsage),
-                maxOperatorMemoryUsage
+                new SortedSplitsMergerFactory(1),
+                maxOperatorMemoryUsage,
+                Optional.<File>absent(),
+                new ExpressionCompiler(METADATA),
+                new MemoryPool()
         );
 
         return executionPlanner.plan(plan);
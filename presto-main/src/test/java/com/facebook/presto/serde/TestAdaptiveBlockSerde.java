@@ -0,0 +1,245 @@
+/*
+ * Copyright 2004-present Facebook. All Rights Reserved.
+ */
+package com.facebook.presto.serde;
+
+import com.facebook.presto.block.Block;
+import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.array.DoubleArrayBlock;
+import com.facebook.presto.block.array.LongArrayBlock;
+import com.facebook.presto.block.dictionary.Dictionary;
+import com.facebook.presto.block.dictionary.DictionaryEncodedBlock;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
+import com.facebook.presto.block.uncompressed.UncompressedBlock;
+import com.facebook.presto.operator.AlignmentOperator;
+import com.facebook.presto.operator.OperatorStats;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.tuple.Tuple;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.SliceInput;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static com.facebook.presto.block.BlockAssertions.assertBlockEquals;
+import static com.facebook.presto.block.BlockAssertions.createDoublesBlock;
+import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
+import static com.facebook.presto.block.BlockAssertions.createStringSequenceBlock;
+import static com.facebook.presto.block.BlockAssertions.createStringsBlock;
+import static com.facebook.presto.block.BlockAssertions.toTuplesList;
+import static com.facebook.presto.block.BlockIterables.createBlockIterable;
+import static com.facebook.presto.block.BlockUtils.toTupleIterable;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_DOUBLE;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
+import static io.airlift.testing.Assertions.assertInstanceOf;
+import static java.util.Collections.nCopies;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestAdaptiveBlockSerde
+{
+    @Test
+    public void testRoundTrip()
+    {
+        Block uncompressedBlock = createStringsBlock("alice", "bob", "charlie");
+        Block runLengthBlock = new RunLengthEncodedBlock(createTuple("dave"), 5);
+        Block dictionaryBlock = new DictionaryEncodedBlock(
+                new Dictionary(SINGLE_VARBINARY, createTuple("alice").getTupleSlice(), createTuple("bob").getTupleSlice()),
+                new BlockBuilder(SINGLE_LONG).append(1).append(0).append(1).build());
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        AdaptiveBlockEncoding blockEncoding = new AdaptiveBlockEncoding(SINGLE_VARBINARY);
+        blockEncoding.writeBlock(sliceOutput, uncompressedBlock);
+        blockEncoding.writeBlock(sliceOutput, runLengthBlock);
+        blockEncoding.writeBlock(sliceOutput, dictionaryBlock);
+
+        SliceInput sliceInput = sliceOutput.slice().getInput();
+        Block actualBlock = blockEncoding.readBlock(sliceInput);
+        assertInstanceOf(actualBlock, UncompressedBlock.class);
+        assertBlockEquals(actualBlock, uncompressedBlock);
+
+        actualBlock = blockEncoding.readBlock(sliceInput);
+        assertInstanceOf(actualBlock, RunLengthEncodedBlock.class);
+        assertBlockEquals(actualBlock, runLengthBlock);
+
+        actualBlock = blockEncoding.readBlock(sliceInput);
+        assertInstanceOf(actualBlock, DictionaryEncodedBlock.class);
+        assertBlockEquals(actualBlock, dictionaryBlock);
+
+        assertFalse(sliceInput.isReadable());
+    }
+
+    @Test
+    public void testRegionRoundTrip()
+    {
+        Block region = createLongSequenceBlock(0, 10).getRegion(3, 4);
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        AdaptiveBlockEncoding blockEncoding = new AdaptiveBlockEncoding(SINGLE_LONG);
+        blockEncoding.writeBlock(sliceOutput, region);
+
+        assertBlockEquals(blockEncoding.readBlock(sliceOutput.slice().getInput()), createLongSequenceBlock(3, 7));
+    }
+
+    @Test
+    public void testEncoderChoosesRunLength()
+    {
+        int runLength = AdaptiveEncoder.DEFAULT_MIN_RUN_LENGTH;
+        List<Block> blocks = encode(ImmutableList.<Tuple>builder()
+                .addAll(nCopies(runLength, createTuple("alice")))
+                .addAll(nCopies(runLength, createTuple("bob")))
+                .build());
+
+        assertEquals(blocks.size(), 2);
+        assertInstanceOf(blocks.get(0), RunLengthEncodedBlock.class);
+        assertEquals(((RunLengthEncodedBlock) blocks.get(0)).getSingleValue(), createTuple("alice"));
+        assertEquals(blocks.get(0).getPositionCount(), runLength);
+        assertInstanceOf(blocks.get(1), RunLengthEncodedBlock.class);
+        assertEquals(((RunLengthEncodedBlock) blocks.get(1)).getSingleValue(), createTuple("bob"));
+        assertEquals(blocks.get(1).getPositionCount(), runLength);
+    }
+
+    @Test
+    public void testEncoderWritesShortRunsTogether()
+    {
+        int runLength = AdaptiveEncoder.DEFAULT_MIN_RUN_LENGTH;
+        ImmutableList.Builder<Tuple> shortRuns = ImmutableList.builder();
+        for (int i = 0; i < 10; i++) {
+            shortRuns.addAll(nCopies(4, createTuple(i % 2 == 0 ? "a long string value" : "another long string value")));
+        }
+        List<Tuple> expected = ImmutableList.<Tuple>builder()
+                .addAll(nCopies(runLength, createTuple("alice")))
+                .addAll(shortRuns.build())
+                .addAll(nCopies(runLength, createTuple("bob")))
+                .build();
+
+        // the short runs between the long runs are written as a single dictionary block
+        List<Block> blocks = encode(expected);
+        assertEquals(blocks.size(), 3);
+        assertInstanceOf(blocks.get(0), RunLengthEncodedBlock.class);
+        assertEquals(blocks.get(0).getPositionCount(), runLength);
+        assertInstanceOf(blocks.get(1), DictionaryEncodedBlock.class);
+        assertEquals(blocks.get(1).getPositionCount(), 40);
+        assertInstanceOf(blocks.get(2), RunLengthEncodedBlock.class);
+        assertEquals(blocks.get(2).getPositionCount(), runLength);
+
+        ImmutableList.Builder<Tuple> actual = ImmutableList.builder();
+        for (Block block : blocks) {
+            actual.addAll(toTuplesList(block));
+        }
+        assertEquals(actual.build(), expected);
+    }
+
+    @Test
+    public void testScanWithShortRuns()
+    {
+        // a column with runs of four rows next to a column without runs
+        ImmutableList.Builder<Tuple> runs = ImmutableList.builder();
+        ImmutableList.Builder<Tuple> values = ImmutableList.builder();
+        for (int i = 0; i < 20_000; i++) {
+            runs.add(createTuple(i / 4));
+            values.add(createTuple(i));
+        }
+        List<Block> runsBlocks = encode(runs.build());
+        List<Block> valuesBlocks = encode(values.build());
+
+        // the short runs do not cut the pages of the scan into more pages than the other column
+        AlignmentOperator scan = new AlignmentOperator(createBlockIterable(runsBlocks), createBlockIterable(valuesBlocks));
+        ImmutableList.Builder<Integer> pageSizes = ImmutableList.builder();
+        for (Page page : ImmutableList.copyOf(scan.iterator(new OperatorStats()))) {
+            pageSizes.add(page.getPositionCount());
+        }
+
+        ImmutableList.Builder<Integer> blockSizes = ImmutableList.builder();
+        for (Block block : valuesBlocks) {
+            blockSizes.add(block.getPositionCount());
+        }
+        assertEquals(pageSizes.build(), blockSizes.build());
+    }
+
+    @Test
+    public void testEncoderChoosesDictionary()
+    {
+        ImmutableList.Builder<Tuple> tuples = ImmutableList.builder();
+        for (int i = 0; i < 100; i++) {
+            tuples.add(createTuple(i % 2 == 0 ? "a long string value" : "another long string value"));
+        }
+        List<Tuple> expected = tuples.build();
+
+        List<Block> blocks = encode(expected);
+        assertEquals(blocks.size(), 1);
+        assertInstanceOf(blocks.get(0), DictionaryEncodedBlock.class);
+        assertEquals(((DictionaryEncodedBlock) blocks.get(0)).getDictionary().size(), 2);
+        assertEquals(toTuplesList(blocks.get(0)), expected);
+    }
+
+    @Test
+    public void testEncoderChoosesUncompressed()
+    {
+        // every value is unique and longer than a dictionary id
+        Block expected = createStringSequenceBlock(0, 100);
+
+        List<Block> blocks = encode(ImmutableList.copyOf(toTupleIterable(expected)));
+        assertEquals(blocks.size(), 1);
+        assertInstanceOf(blocks.get(0), UncompressedBlock.class);
+        assertBlockEquals(blocks.get(0), expected);
+    }
+
+    @Test
+    public void testEncoderChoosesArray()
+    {
+        // dictionary ids are no smaller than longs, and every run has a single value
+        Block expected = createLongSequenceBlock(0, 100);
+
+        List<Block> blocks = encode(ImmutableList.copyOf(toTupleIterable(expected)));
+        assertEquals(blocks.size(), 1);
+        assertInstanceOf(blocks.get(0), LongArrayBlock.class);
+        assertBlockEquals(blocks.get(0), expected);
+    }
+
+    @Test
+    public void testArrayRoundTrip()
+    {
+        Block longBlock = createLongsBlock(1L, null, 3L, null);
+        Block doubleBlock = createDoublesBlock(1.5, null, -2.5);
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        new AdaptiveBlockEncoding(SINGLE_LONG).writeBlock(sliceOutput, longBlock);
+        new AdaptiveBlockEncoding(SINGLE_DOUBLE).writeBlock(sliceOutput, doubleBlock);
+
+        SliceInput sliceInput = sliceOutput.slice().getInput();
+        Block actualLongBlock = new AdaptiveBlockEncoding(SINGLE_LONG).readBlock(sliceInput);
+        assertInstanceOf(actualLongBlock, LongArrayBlock.class);
+        assertBlockEquals(actualLongBlock, longBlock);
+
+        Block actualDoubleBlock = new AdaptiveBlockEncoding(SINGLE_DOUBLE).readBlock(sliceInput);
+        assertInstanceOf(actualDoubleBlock, DoubleArrayBlock.class);
+        assertBlockEquals(actualDoubleBlock, doubleBlock);
+
+        assertFalse(sliceInput.isReadable());
+
+        // array blocks and their regions are written directly
+        sliceOutput = new DynamicSliceOutput(1024);
+        new AdaptiveBlockEncoding(SINGLE_LONG).writeBlock(sliceOutput, actualLongBlock.getRegion(1, 3));
+        assertBlockEquals(new AdaptiveBlockEncoding(SINGLE_LONG).readBlock(sliceOutput.slice().getInput()), createLongsBlock(null, 3L, null));
+    }
+
+    private static List<Block> encode(List<Tuple> tuples)
+    {
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        BlockEncoding blockEncoding = new AdaptiveEncoder(sliceOutput, AdaptiveEncoder.DEFAULT_MIN_RUN_LENGTH, AdaptiveEncoder.DEFAULT_DICTIONARY_CARDINALITY_CUTOFF)
+                .append(tuples)
+                .finish();
+
+        ImmutableList.Builder<Block> blocks = ImmutableList.builder();
+        SliceInput sliceInput = sliceOutput.slice().getInput();
+        while (sliceInput.isReadable()) {
+            blocks.add(blockEncoding.readBlock(sliceInput));
+        }
+        return blocks.build();
+    }
+}
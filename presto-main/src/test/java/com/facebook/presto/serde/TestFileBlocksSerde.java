@@ -7,17 +7,24 @@ import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import io.airlift.slice.DynamicSliceOutput;
 import io.airlift.slice.Slice;
+import io.airlift.slice.SliceInput;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.OutputSupplier;
 import org.testng.annotations.Test;
 
 import java.util.List;
 
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static com.facebook.presto.block.BlockAssertions.toValues;
+import static com.google.common.base.Charsets.UTF_8;
 import static com.facebook.presto.serde.BlocksFileReader.readBlocks;
 import static com.facebook.presto.serde.BlocksFileWriter.writeBlocks;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static io.airlift.slice.SizeOf.SIZE_OF_INT;
+import static io.airlift.slice.SizeOf.SIZE_OF_LONG;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestFileBlocksSerde
 {
@@ -66,6 +73,71 @@ public class TestFileBlocksSerde
         assertEquals(stats.getRowCount(), 12);
         assertEquals(stats.getRunsCount(), 12);
         assertEquals(stats.getUniqueCount(), 4);
+
+        // zone maps of the file and of each appended block
+        assertEquals(stats.getNullCount(), 0);
+        assertEquals(stats.getMin().getSlice(0).toString(UTF_8), "alice");
+        assertEquals(stats.getMax().getSlice(0).toString(UTF_8), "dave");
+        assertEquals(stats.getBlockStats().size(), 3);
+        for (BlockStats blockStats : stats.getBlockStats()) {
+            assertEquals(blockStats.getPositionCount(), 4);
+            assertEquals(blockStats.getMin().getSlice(0).toString(UTF_8), "alice");
+            assertEquals(blockStats.getMax().getSlice(0).toString(UTF_8), "dave");
+        }
+    }
+
+    @Test
+    public void testNullZoneMap()
+    {
+        DynamicSliceOutputSupplier sliceOutput = new DynamicSliceOutputSupplier(1024);
+        writeBlocks(BlocksFileEncoding.RAW, sliceOutput, createLongsBlock(3L, null, 1L), createLongsBlock(null, null));
+        BlocksFileStats stats = readBlocks(sliceOutput.getLastSlice()).getStats();
+
+        assertEquals(stats.getNullCount(), 3);
+        assertEquals(stats.getMin().getLong(0), 1);
+        assertEquals(stats.getMax().getLong(0), 3);
+
+        BlockStats first = stats.getBlockStats().get(0);
+        assertEquals(first.getPositionCount(), 3);
+        assertEquals(first.getNullCount(), 1);
+        assertEquals(first.getMin().getLong(0), 1);
+        assertEquals(first.getMax().getLong(0), 3);
+
+        BlockStats second = stats.getBlockStats().get(1);
+        assertEquals(second.getPositionCount(), 2);
+        assertEquals(second.getNullCount(), 2);
+        assertNull(second.getMin());
+        assertNull(second.getMax());
+    }
+
+    @Test
+    public void testFooterWithoutZoneMaps()
+    {
+        DynamicSliceOutputSupplier sliceOutput = new DynamicSliceOutputSupplier(1024);
+        writeBlocks(BlocksFileEncoding.RAW, sliceOutput, expectedBlock, expectedBlock, expectedBlock);
+        Slice slice = sliceOutput.getLastSlice();
+
+        // rewrite the footer as it was written before zone maps: the encoding followed by the row, run and unique counts
+        int footerLength = slice.getInt(slice.length() - SIZE_OF_INT);
+        int footerOffset = slice.length() - footerLength - SIZE_OF_INT;
+        SliceInput footer = slice.slice(footerOffset, footerLength).getInput();
+        BlockEncodings.readBlockEncoding(footer);
+        int oldFooterLength = (int) footer.position() + SIZE_OF_LONG + SIZE_OF_LONG + SIZE_OF_LONG + SIZE_OF_INT;
+
+        DynamicSliceOutput oldFile = new DynamicSliceOutput(1024);
+        oldFile.writeBytes(slice, 0, footerOffset + oldFooterLength);
+        oldFile.appendInt(oldFooterLength);
+
+        BlocksFileReader actualBlocks = readBlocks(oldFile.slice());
+        assertEquals(toValues(actualBlocks), expectedValues);
+
+        BlocksFileStats stats = actualBlocks.getStats();
+        assertEquals(stats.getRowCount(), 12);
+        assertEquals(stats.getUniqueCount(), 4);
+        assertEquals(stats.getFileStats().getPositionCount(), 12);
+        assertNull(stats.getMin());
+        assertNull(stats.getMax());
+        assertTrue(stats.getBlockStats().isEmpty());
     }
 
     private static class DynamicSliceOutputSupplier implements OutputSupplier<DynamicSliceOutput>
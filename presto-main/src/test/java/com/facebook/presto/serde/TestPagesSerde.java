@@ -4,18 +4,31 @@
 package com.facebook.presto.serde;
 
 import com.facebook.presto.block.BlockBuilder;
+import com.facebook.presto.block.rle.RunLengthEncodedBlock;
 import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.operator.Page;
+import com.google.common.collect.ImmutableList;
 import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
+import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
+import static com.facebook.presto.block.BlockAssertions.createStringsBlock;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
+import static com.facebook.presto.tuple.Tuples.createTuple;
 import static com.facebook.presto.operator.PageAssertions.assertPageEquals;
 import static com.facebook.presto.serde.PagesSerde.readPages;
 import static com.facebook.presto.serde.PagesSerde.writePages;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 public class TestPagesSerde
 {
@@ -38,4 +51,99 @@ public class TestPagesSerde
         assertPageEquals(pageIterator.next(), expectedPage);
         assertFalse(pageIterator.hasNext());
     }
+
+    @Test
+    public void testMixedBlockEncodings()
+    {
+        Page uncompressedPage = new Page(createStringsBlock("alice", "bob"));
+        Page runLengthPage = new Page(new RunLengthEncodedBlock(createTuple("charlie"), 3));
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        writePages(sliceOutput, uncompressedPage, runLengthPage, uncompressedPage);
+        Iterator<Page> pageIterator = readPages(sliceOutput.slice().getInput());
+        assertPageEquals(pageIterator.next(), uncompressedPage);
+        assertPageEquals(pageIterator.next(), runLengthPage);
+        assertPageEquals(pageIterator.next(), uncompressedPage);
+        assertFalse(pageIterator.hasNext());
+    }
+
+    @Test
+    public void testCompressedRoundTrip()
+    {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add("value" + (i % 10));
+        }
+        Page stringPage = new Page(createStringsBlock(values));
+        Page runLengthPage = new Page(new RunLengthEncodedBlock(createTuple("charlie"), 3));
+
+        DynamicSliceOutput uncompressedOutput = new DynamicSliceOutput(1024);
+        writePages(uncompressedOutput, ImmutableList.of(stringPage, runLengthPage).iterator(), false);
+        DynamicSliceOutput compressedOutput = new DynamicSliceOutput(1024);
+        writePages(compressedOutput, ImmutableList.of(stringPage, runLengthPage).iterator(), true);
+        assertTrue(compressedOutput.size() < uncompressedOutput.size() / 4, "pages were not compressed");
+
+        Iterator<Page> pageIterator = readPages(compressedOutput.slice().getInput());
+        assertPageEquals(pageIterator.next(), stringPage);
+        assertPageEquals(pageIterator.next(), runLengthPage);
+        assertFalse(pageIterator.hasNext());
+    }
+
+    @Test
+    public void testIncompressibleBlock()
+    {
+        Random random = new Random(0);
+        Long[] values = new Long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+        }
+        Page expectedPage = new Page(createLongsBlock(values));
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        writePages(sliceOutput, ImmutableList.of(expectedPage).iterator(), true);
+        Iterator<Page> pageIterator = readPages(sliceOutput.slice().getInput());
+        assertPageEquals(pageIterator.next(), expectedPage);
+        assertFalse(pageIterator.hasNext());
+    }
+
+    @Test
+    public void testReadPagesFromStream()
+            throws Exception
+    {
+        UncompressedBlock expectedBlock = new BlockBuilder(SINGLE_VARBINARY)
+                .append("alice")
+                .append("bob")
+                .append("charlie")
+                .append("dave")
+                .build();
+        Page expectedPage = new Page(expectedBlock, expectedBlock);
+
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        writePages(sliceOutput, expectedPage, expectedPage);
+        byte[] bytes = sliceOutput.slice().getBytes();
+
+        // the exact size, and a size that is too small
+        for (long expectedSize : new long[] {bytes.length, 1}) {
+            Iterator<Page> pageIterator = readPages(new ByteArrayInputStream(bytes), expectedSize);
+            Page first = pageIterator.next();
+            Page second = pageIterator.next();
+            assertPageEquals(first, expectedPage);
+            assertPageEquals(second, expectedPage);
+            assertFalse(pageIterator.hasNext());
+
+            // the blocks are views of the stream contents
+            UncompressedBlock firstBlock = (UncompressedBlock) first.getBlock(0);
+            UncompressedBlock secondBlock = (UncompressedBlock) second.getBlock(1);
+            assertSame(firstBlock.getSlice().byteArray(), secondBlock.getSlice().byteArray());
+        }
+
+        // a stream of unknown size is read block by block
+        Iterator<Page> pageIterator = readPages(new ByteArrayInputStream(bytes), -1);
+        Page first = pageIterator.next();
+        assertPageEquals(first, expectedPage);
+        assertPageEquals(pageIterator.next(), expectedPage);
+        assertFalse(pageIterator.hasNext());
+        Slice blockSlice = ((UncompressedBlock) first.getBlock(0)).getSlice();
+        assertEquals(blockSlice.byteArray().length, blockSlice.length());
+    }
 }
@@ -10,10 +10,13 @@ import com.facebook.presto.block.uncompressed.UncompressedBlock;
 import com.facebook.presto.tuple.Tuple;
 import com.google.common.collect.ImmutableList;
 import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.SliceInput;
 import org.testng.annotations.Test;
 
+import static com.facebook.presto.tuple.TupleInfo.SINGLE_LONG;
 import static com.facebook.presto.tuple.TupleInfo.SINGLE_VARBINARY;
 import static com.facebook.presto.tuple.Tuples.createTuple;
+import static org.testng.Assert.assertFalse;
 
 public class TestUncompressedBlockSerde
 {
@@ -34,6 +37,43 @@ public class TestUncompressedBlockSerde
         BlockAssertions.assertBlockEquals(actualBlock, expectedBlock);
     }
 
+    @Test
+    public void testRegionRoundTrip()
+    {
+        UncompressedBlock variableWidthBlock = new BlockBuilder(SINGLE_VARBINARY)
+                .append("alice")
+                .append("bob")
+                .append("charlie")
+                .append("dave")
+                .build();
+        assertRegionRoundTrip(variableWidthBlock.getRegion(0, 2));
+        assertRegionRoundTrip(variableWidthBlock.getRegion(1, 2));
+        assertRegionRoundTrip(variableWidthBlock.getRegion(1, 3));
+
+        UncompressedBlock fixedWidthBlock = new BlockBuilder(SINGLE_LONG)
+                .append(1)
+                .append(2)
+                .append(3)
+                .append(4)
+                .build();
+        assertRegionRoundTrip(fixedWidthBlock.getRegion(0, 2));
+        assertRegionRoundTrip(fixedWidthBlock.getRegion(1, 2));
+        assertRegionRoundTrip(fixedWidthBlock.getRegion(1, 3));
+    }
+
+    private static void assertRegionRoundTrip(Block region)
+    {
+        DynamicSliceOutput sliceOutput = new DynamicSliceOutput(1024);
+        BlockEncoding blockEncoding = region.getEncoding();
+        blockEncoding.writeBlock(sliceOutput, region);
+
+        // only the tuples of the region are written
+        SliceInput input = sliceOutput.slice().getInput();
+        Block actualBlock = blockEncoding.readBlock(input);
+        assertFalse(input.isReadable());
+        BlockAssertions.assertBlockEquals(actualBlock, region);
+    }
+
     @Test
     public void testCreateBlockWriter()
     {
@@ -3,6 +3,7 @@
  */
 package com.facebook.presto.server;
 
+import com.facebook.presto.execution.BufferResult;
 import com.facebook.presto.execution.ExchangePlanFragmentSource;
 import com.facebook.presto.execution.TaskInfo;
 import com.facebook.presto.execution.TaskManager;
@@ -16,6 +17,8 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import io.airlift.http.server.HttpServerInfo;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
 
 import javax.inject.Inject;
@@ -34,7 +37,7 @@ public class MockTaskManager
         implements TaskManager
 {
     private final HttpServerInfo httpServerInfo;
-    private final int pageBufferMax;
+    private final DataSize maxBufferSize;
     private final int initialPages;
 
     private final ConcurrentMap<String, TaskOutput> tasks = new ConcurrentHashMap<>();
@@ -42,17 +45,19 @@ public class MockTaskManager
     @Inject
     public MockTaskManager(HttpServerInfo httpServerInfo)
     {
-        this(httpServerInfo, 20, 12);
+        this(httpServerInfo, new DataSize(1, Unit.MEGABYTE), 12);
     }
 
-    public MockTaskManager(HttpServerInfo httpServerInfo, int pageBufferMax, int initialPages)
+    /**
+     * @param maxBufferSize must be large enough to hold the initial pages, which are added before any reader exists
+     */
+    public MockTaskManager(HttpServerInfo httpServerInfo, DataSize maxBufferSize, int initialPages)
     {
         Preconditions.checkNotNull(httpServerInfo, "httpServerInfo is null");
-        Preconditions.checkArgument(pageBufferMax > 0, "pageBufferMax must be at least 1");
+        Preconditions.checkNotNull(maxBufferSize, "maxBufferSize is null");
         Preconditions.checkArgument(initialPages >= 0, "initialPages is negative");
-        Preconditions.checkArgument(initialPages <= pageBufferMax, "initialPages is greater than pageBufferMax");
         this.httpServerInfo = httpServerInfo;
-        this.pageBufferMax = pageBufferMax;
+        this.maxBufferSize = maxBufferSize;
         this.initialPages = initialPages;
     }
 
@@ -91,7 +96,7 @@ public class MockTaskManager
         Preconditions.checkArgument(!taskId.isEmpty(), "taskId is empty");
 
         URI location = uriBuilderFrom(httpServerInfo.getHttpUri()).appendPath("v1/task").appendPath(taskId).build();
-        TaskOutput taskOutput = new TaskOutput(queryId, stageId, taskId, location, ImmutableList.copyOf(outputIds), pageBufferMax, 0);
+        TaskOutput taskOutput = new TaskOutput(queryId, stageId, taskId, location, ImmutableList.copyOf(outputIds), maxBufferSize, 0);
         tasks.put(taskId, taskOutput);
 
         List<String> data = ImmutableList.of("apple", "banana", "cherry", "date");
@@ -112,7 +117,7 @@ public class MockTaskManager
     }
 
     @Override
-    public List<Page> getTaskResults(String taskId, String outputId, int maxPageCount, Duration maxWaitTime)
+    public BufferResult getTaskResults(String taskId, String outputId, DataSize maxSize, Duration maxWaitTime)
             throws InterruptedException
     {
         Preconditions.checkNotNull(taskId, "taskId is null");
@@ -122,7 +127,7 @@ public class MockTaskManager
         if (taskOutput == null) {
             throw new NoSuchElementException();
         }
-        return taskOutput.getResults(outputId, maxPageCount, maxWaitTime);
+        return taskOutput.getResults(outputId, maxSize, maxWaitTime);
     }
 
     @Override
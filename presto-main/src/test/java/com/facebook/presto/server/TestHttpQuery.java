@@ -0,0 +1,368 @@
+package com.facebook.presto.server;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.execution.FailedQueryException;
+import com.facebook.presto.execution.PageBuffer;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.serde.PagesSerde;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.http.client.AsyncHttpClient;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.RequestStats;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.ResponseHandler;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_PAGE_SEQUENCE;
+import static com.facebook.presto.server.PrestoMediaTypes.PRESTO_PAGES;
+import static io.airlift.testing.Assertions.assertInstanceOf;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestHttpQuery
+{
+    private static final URI LOCATION = URI.create("http://localhost/v1/task/0/results/out");
+    private static final DataSize MAX_RESPONSE_SIZE = new DataSize(10, Unit.KILOBYTE);
+
+    private ExecutorService executor;
+    private TestingHttpClient httpClient;
+    private PageBuffer outputBuffer;
+    private HttpQuery query;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = Executors.newCachedThreadPool();
+        httpClient = new TestingHttpClient();
+        outputBuffer = new PageBuffer("test", 1, new DataSize(1, Unit.MEGABYTE));
+        query = new HttpQuery(LOCATION, outputBuffer, new AsyncHttpClient(httpClient, executor), MAX_RESPONSE_SIZE, 3, false);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOutOfOrderResponses()
+            throws Exception
+    {
+        query.start();
+        TestingRequest first = httpClient.takeRequest();
+        TestingRequest second = httpClient.takeRequest();
+        TestingRequest third = httpClient.takeRequest();
+
+        // each completed response is followed by a new request, after the response has been processed
+        third.respond(2);
+        TestingRequest fourth = httpClient.takeRequest();
+        second.respond(1);
+        TestingRequest fifth = httpClient.takeRequest();
+        assertEquals(outputBuffer.getBufferedPageCount(), 0);
+
+        first.respond(0);
+        TestingRequest sixth = httpClient.takeRequest();
+        assertEquals(outputBuffer.getBufferedPageCount(), 3);
+
+        fourth.respondGone();
+        fifth.respondGone();
+        sixth.respondGone();
+        waitForDone();
+
+        // the pages are added in sequence order
+        List<Long> values = new ArrayList<>();
+        for (Page page : outputBuffer.getNextPages(10, new Duration(1, TimeUnit.SECONDS))) {
+            BlockCursor cursor = page.getBlock(0).cursor();
+            while (cursor.advanceNextPosition()) {
+                values.add(cursor.getLong(0));
+            }
+        }
+        assertEquals(values, sequence(0, 30));
+        assertTrue(outputBuffer.isDone());
+        assertEquals(outputBuffer.getReservedSize().toBytes(), 0);
+    }
+
+    @Test
+    public void testLostPages()
+            throws Exception
+    {
+        query.start();
+        TestingRequest first = httpClient.takeRequest();
+        TestingRequest second = httpClient.takeRequest();
+        TestingRequest third = httpClient.takeRequest();
+
+        first.respond(0);
+        TestingRequest fourth = httpClient.takeRequest();
+
+        // the response with page 1 is dropped, and the response with page 2 waits for it
+        second.fail(new IOException("connection reset"));
+        TestingRequest fifth = httpClient.takeRequest();
+        third.respond(2);
+        TestingRequest sixth = httpClient.takeRequest();
+
+        // once no request is in flight, page 1 can never arrive
+        fourth.respondGone();
+        fifth.respondGone();
+        sixth.respondGone();
+        waitForDone();
+
+        try {
+            outputBuffer.getNextPages(10, new Duration(1, TimeUnit.SECONDS));
+            fail("expected FailedQueryException");
+        }
+        catch (FailedQueryException e) {
+            Throwable cause = e.getSuppressed()[0];
+            assertInstanceOf(cause, IllegalStateException.class);
+            assertEquals(cause.getMessage(), "Pages 1 to 1 of " + LOCATION + " were lost");
+        }
+
+        // the reservation of the waiting response is returned
+        assertEquals(outputBuffer.getReservedSize().toBytes(), 0);
+    }
+
+    @Test
+    public void testLostLastPages()
+            throws Exception
+    {
+        query.start();
+        TestingRequest first = httpClient.takeRequest();
+        TestingRequest second = httpClient.takeRequest();
+        TestingRequest third = httpClient.takeRequest();
+
+        first.respond(0);
+        TestingRequest fourth = httpClient.takeRequest();
+
+        // the response with the last page is dropped, and the output is finished after two pages
+        second.fail(new IOException("connection reset"));
+        TestingRequest fifth = httpClient.takeRequest();
+        third.respondGone(2);
+        fourth.respondGone(2);
+        fifth.respondGone(2);
+        waitForDone();
+
+        try {
+            outputBuffer.getNextPages(10, new Duration(1, TimeUnit.SECONDS));
+            fail("expected FailedQueryException");
+        }
+        catch (FailedQueryException e) {
+            Throwable cause = e.getSuppressed()[0];
+            assertInstanceOf(cause, IllegalStateException.class);
+            assertEquals(cause.getMessage(), "Pages 1 to 1 of " + LOCATION + " were lost");
+        }
+    }
+
+    @Test
+    public void testErrorBackoff()
+            throws Exception
+    {
+        query = new HttpQuery(LOCATION, outputBuffer, new AsyncHttpClient(httpClient, executor), MAX_RESPONSE_SIZE, 1, false);
+        query.start();
+
+        // each consecutive failure doubles the delay before the request is sent again
+        long start = System.nanoTime();
+        httpClient.takeRequest().respondError(500);
+        TestingRequest second = httpClient.takeRequest();
+        long firstDelay = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        second.respondError(503);
+        TestingRequest third = httpClient.takeRequest();
+        long secondDelay = System.nanoTime() - start;
+
+        assertTrue(firstDelay >= TimeUnit.MILLISECONDS.toNanos(50), "first delay " + firstDelay);
+        assertTrue(secondDelay >= TimeUnit.MILLISECONDS.toNanos(100), "second delay " + secondDelay);
+
+        third.respond(0);
+        httpClient.takeRequest().respondGone(1);
+        waitForDone();
+        assertEquals(outputBuffer.getNextPages(10, new Duration(1, TimeUnit.SECONDS)).size(), 1);
+    }
+
+    private void waitForDone()
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!query.isDone()) {
+            assertTrue(System.nanoTime() < deadline, "query is not done");
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<Long> sequence(long start, long end)
+    {
+        List<Long> values = new ArrayList<>();
+        for (long value = start; value < end; value++) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    private static class TestingHttpClient
+            implements HttpClient
+    {
+        private final BlockingQueue<TestingRequest> requests = new LinkedBlockingQueue<>();
+
+        public TestingRequest takeRequest()
+                throws InterruptedException
+        {
+            TestingRequest request = requests.poll(10, TimeUnit.SECONDS);
+            assertNotNull(request, "no request was sent");
+            return request;
+        }
+
+        @Override
+        public <T, E extends Exception> T execute(Request request, ResponseHandler<T, E> responseHandler)
+                throws E
+        {
+            if (request.getMethod().equals("DELETE")) {
+                return responseHandler.handle(request, new TestingResponse(204, null, null));
+            }
+
+            TestingRequest testingRequest = new TestingRequest();
+            requests.add(testingRequest);
+            Response response;
+            try {
+                response = testingRequest.response.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw responseHandler.handleException(request, e);
+            }
+            catch (ExecutionException e) {
+                throw responseHandler.handleException(request, (Exception) e.getCause());
+            }
+            return responseHandler.handle(request, response);
+        }
+
+        @Override
+        public RequestStats getStats()
+        {
+            return new RequestStats();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    private static class TestingRequest
+    {
+        private final SettableFuture<Response> response = SettableFuture.create();
+
+        /**
+         * Responds with page {@code sequence}, which holds the ten values starting at {@code 10 * sequence}.
+         */
+        public void respond(long sequence)
+        {
+            DynamicSliceOutput output = new DynamicSliceOutput(1024);
+            PagesSerde.writePages(output, new Page(createLongSequenceBlock((int) sequence * 10, (int) sequence * 10 + 10)));
+            response.set(new TestingResponse(200, String.valueOf(sequence), output.slice().getBytes()));
+        }
+
+        public void respondGone()
+        {
+            response.set(new TestingResponse(410, null, null));
+        }
+
+        /**
+         * Responds that the output is finished after {@code sentPages} pages.
+         */
+        public void respondGone(long sentPages)
+        {
+            response.set(new TestingResponse(410, String.valueOf(sentPages), null));
+        }
+
+        public void respondError(int statusCode)
+        {
+            response.set(new TestingResponse(statusCode, null, null));
+        }
+
+        public void fail(Exception exception)
+        {
+            response.setException(exception);
+        }
+    }
+
+    private static class TestingResponse
+            implements Response
+    {
+        private final int statusCode;
+        private final String sequence;
+        private final byte[] body;
+
+        private TestingResponse(int statusCode, String sequence, byte[] body)
+        {
+            this.statusCode = statusCode;
+            this.sequence = sequence;
+            this.body = body;
+        }
+
+        @Override
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        @Override
+        public String getStatusMessage()
+        {
+            return String.valueOf(statusCode);
+        }
+
+        @Override
+        public String getHeader(String name)
+        {
+            if (name.equalsIgnoreCase("Content-Type")) {
+                return PRESTO_PAGES;
+            }
+            if (name.equalsIgnoreCase(PRESTO_PAGE_SEQUENCE)) {
+                return sequence;
+            }
+            return null;
+        }
+
+        @Override
+        public ListMultimap<String, String> getHeaders()
+        {
+            return ImmutableListMultimap.of();
+        }
+
+        @Override
+        public long getBytesRead()
+        {
+            return body == null ? 0 : body.length;
+        }
+
+        @Override
+        public InputStream getInputStream()
+        {
+            return new ByteArrayInputStream(body);
+        }
+    }
+}
@@ -38,6 +38,8 @@ import io.airlift.http.server.testing.TestingHttpServerModule;
 import io.airlift.jaxrs.JaxrsModule;
 import io.airlift.json.JsonModule;
 import io.airlift.node.testing.TestingNodeModule;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -134,7 +136,7 @@ public class TestHttpQueryProvider
     public void testQuery()
             throws Exception
     {
-        QueryDriversOperator operator = new QueryDriversOperator(10,
+        QueryDriversOperator operator = new QueryDriversOperator(new DataSize(1, Unit.MEGABYTE),
                 TUPLE_INFOS,
                 createHttpQueryProvider(server1),
                 createHttpQueryProvider(server2),
@@ -157,7 +159,7 @@ public class TestHttpQueryProvider
     public void testCancel()
             throws Exception
     {
-        QueryDriversOperator operator = new QueryDriversOperator(10,
+        QueryDriversOperator operator = new QueryDriversOperator(new DataSize(1, Unit.MEGABYTE),
                 TUPLE_INFOS,
                 createHttpQueryProvider(server1),
                 createHttpQueryProvider(server2),
@@ -217,6 +219,7 @@ public class TestHttpQueryProvider
                 "out",
                 httpClient,
                 executor,
-                jsonCodec(TaskInfo.class));
+                jsonCodec(TaskInfo.class),
+                true);
     }
 }
@@ -12,6 +12,9 @@ import com.facebook.presto.operator.PageIterator;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import org.testng.annotations.Test;
 
 import java.net.URI;
@@ -45,7 +48,7 @@ public class TestQueryDriversOperator
         ExecutorService executor = Executors.newCachedThreadPool();
         try {
 
-            QueryDriversOperator operator = new QueryDriversOperator(10,
+            QueryDriversOperator operator = new QueryDriversOperator(new DataSize(1, Unit.MEGABYTE),
                     TUPLE_INFOS,
                     new StaticQueryDriverProvider(executor, pages),
                     new StaticQueryDriverProvider(executor, pages),
@@ -75,14 +78,14 @@ public class TestQueryDriversOperator
         List<Page> pages = createPages();
         ExecutorService executor = Executors.newCachedThreadPool();
         try {
-            QueryDriversOperator operator = new QueryDriversOperator(10,
+            QueryDriversOperator operator = new QueryDriversOperator(new DataSize(1, Unit.MEGABYTE),
                     TUPLE_INFOS,
                     new StaticQueryDriverProvider(executor, pages),
                     new StaticQueryDriverProvider(executor, pages),
                     new StaticQueryDriverProvider(executor, pages)
             );
 
-            TaskOutput taskOutput = new TaskOutput("unknown", "unknown", "unknown", URI.create("unknown://unknown"), ImmutableList.of("unknown"), 1000, 1000);
+            TaskOutput taskOutput = new TaskOutput("unknown", "unknown", "unknown", URI.create("unknown://unknown"), ImmutableList.of("unknown"), new DataSize(1, Unit.MEGABYTE), 1000);
 
             int pageCount = 0;
             PageIterator iterator = operator.iterator(new OperatorStats(taskOutput));
@@ -104,6 +107,43 @@ public class TestQueryDriversOperator
         }
     }
 
+    @Test
+    public void testWaitForExchanges()
+            throws Exception
+    {
+        final List<PageBuffer> buffers = new ArrayList<>();
+        QueryDriversOperator operator = new QueryDriversOperator(new DataSize(1, Unit.MEGABYTE), TUPLE_INFOS, new QueryDriverProvider()
+        {
+            @Override
+            public QueryDriver create(PageBuffer outputBuffer)
+            {
+                buffers.add(outputBuffer);
+                return new IdleQueryDriver();
+            }
+        });
+
+        OperatorStats operatorStats = new OperatorStats();
+        PageIterator iterator = operator.iterator(operatorStats);
+        PageBuffer buffer = Iterables.getOnlyElement(buffers);
+
+        // the split waits for the exchange instead of blocking in the iterator
+        ListenableFuture<?> exchanges = operatorStats.waitForExchanges();
+        assertFalse(exchanges.isDone());
+
+        Page page = createPages().get(0);
+        buffer.addPage(page);
+        assertTrue(exchanges.isDone());
+        assertTrue(operatorStats.waitForExchanges().isDone());
+        assertTrue(iterator.hasNext());
+        assertEquals(iterator.next().getPositionCount(), page.getPositionCount());
+        assertFalse(operatorStats.waitForExchanges().isDone());
+
+        // a finished exchange does not hold the split
+        buffer.sourceFinished();
+        assertTrue(operatorStats.waitForExchanges().isDone());
+        assertFalse(iterator.hasNext());
+    }
+
     @Test(enabled = false) // TODO fix this test
     public void testCancel()
             throws Exception
@@ -112,7 +152,7 @@ public class TestQueryDriversOperator
         ExecutorService executor = Executors.newCachedThreadPool();
         try {
             StaticQueryDriverProvider provider = new StaticQueryDriverProvider(executor, pages);
-            QueryDriversOperator operator = new QueryDriversOperator(1, TUPLE_INFOS, provider, provider, provider);
+            QueryDriversOperator operator = new QueryDriversOperator(new DataSize(1, Unit.BYTE), TUPLE_INFOS, provider, provider, provider);
 
             int count = 0;
             PageIterator iterator = operator.iterator(new OperatorStats());
@@ -165,6 +205,26 @@ public class TestQueryDriversOperator
         return pages.build();
     }
 
+    private static class IdleQueryDriver
+            implements QueryDriver
+    {
+        @Override
+        public void start()
+        {
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return false;
+        }
+
+        @Override
+        public void abort()
+        {
+        }
+    }
+
     private class StaticQueryDriverProvider implements QueryDriverProvider
     {
         private final ExecutorService executor;
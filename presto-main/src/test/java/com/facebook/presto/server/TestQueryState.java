@@ -4,12 +4,17 @@
 package com.facebook.presto.server;
 
 import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.execution.BufferResult;
 import com.facebook.presto.execution.FailedQueryException;
 import com.facebook.presto.execution.PageBuffer;
+import com.facebook.presto.operator.MemoryPool;
 import com.facebook.presto.operator.Page;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -25,6 +30,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
 import static com.facebook.presto.block.BlockAssertions.createLongsBlock;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
@@ -58,14 +64,14 @@ public class TestQueryState
             throws Exception
     {
         try {
-            new PageBuffer("bufferId", 0, 4);
+            new PageBuffer("bufferId", 0, sizeOfPages(4));
             fail("Expected IllegalArgumentException");
         }
         catch (IllegalArgumentException e) {
 
         }
         try {
-            new PageBuffer("bufferId", 4, 0);
+            new PageBuffer("bufferId", 4, new DataSize(0, Unit.BYTE));
             fail("Expected IllegalArgumentException");
         }
         catch (IllegalArgumentException e) {
@@ -77,7 +83,7 @@ public class TestQueryState
     public void testNormalExecution()
             throws Exception
     {
-        PageBuffer outputBuffer = new PageBuffer("bufferId", 1, 20);
+        PageBuffer outputBuffer = new PageBuffer("bufferId", 1, sizeOfPages(20));
         assertRunning(outputBuffer);
 
         // fill the buffer
@@ -140,16 +146,52 @@ public class TestQueryState
         assertFinished(outputBuffer);
     }
 
+    @Test
+    public void testBufferedPagesReserveMemory()
+            throws Exception
+    {
+        long pageBytes = createLongPage(0).getDataSize().toBytes();
+        MemoryPool memoryPool = new MemoryPool("test memory", new DataSize(pageBytes * 2, Unit.BYTE));
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(20), memoryPool);
+
+        assertTrue(pageBuffer.addPage(createLongPage(0)));
+        assertTrue(pageBuffer.addPage(createLongPage(1)));
+        assertEquals(memoryPool.getReservedSize().toBytes(), pageBytes * 2);
+
+        // the pool is exhausted
+        try {
+            pageBuffer.addPage(createLongPage(2));
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), String.format("Query exceeded test memory of %s", new DataSize(pageBytes * 2, Unit.BYTE).convertToMostSuccinctDataSize()));
+        }
+
+        // reading a page returns its memory
+        assertEquals(pageBuffer.getNextPages(1, MAX_WAIT).size(), 1);
+        assertEquals(memoryPool.getReservedSize().toBytes(), pageBytes);
+        assertTrue(pageBuffer.addPage(createLongPage(2)));
+
+        // failing the query drops the buffered pages
+        pageBuffer.queryFailed(new RuntimeException());
+        assertEquals(memoryPool.getReservedSize().toBytes(), 0);
+    }
+
     private Page createLongPage(int value)
     {
         return new Page(createLongsBlock(value));
     }
 
+    private DataSize sizeOfPages(int count)
+    {
+        return new DataSize(createLongPage(0).getDataSize().toBytes() * count, Unit.BYTE);
+    }
+
     @Test
     public void testFailedExecution()
             throws Exception
     {
-        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, 20);
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(20));
         assertRunning(pageBuffer);
 
         // fill the buffer
@@ -205,7 +247,7 @@ public class TestQueryState
     public void testEarlyFinishExecution()
             throws Exception
     {
-        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, 20);
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(20));
         assertRunning(pageBuffer);
 
         // fill the buffer
@@ -255,7 +297,7 @@ public class TestQueryState
     public void testMultiSourceNormalExecution()
             throws Exception
     {
-        PageBuffer pageBuffer = new PageBuffer("bufferId", 3, 20);
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 3, sizeOfPages(20));
         assertRunning(pageBuffer);
 
         // add some pages
@@ -313,7 +355,7 @@ public class TestQueryState
     public void testBufferSizeNormal()
             throws Exception
     {
-        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, 5);
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(5));
         assertRunning(pageBuffer);
 
         // exec thread to get two pages
@@ -368,11 +410,145 @@ public class TestQueryState
         assertEquals(addPagesJob.getPages().size(), 0);
     }
 
+    @Test
+    public void testBufferBoundedBySize()
+            throws Exception
+    {
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(2));
+
+        // a page larger than the buffer is accepted while the buffer is below its limit
+        Page largePage = new Page(createLongSequenceBlock(0, 100));
+        assertTrue(pageBuffer.addPage(largePage));
+        assertEquals(pageBuffer.getBufferedSize(), largePage.getDataSize());
+
+        // exec thread to add a small page
+        AddPagesJob addPagesJob = new AddPagesJob(pageBuffer, createLongPage(0));
+        executor.submit(addPagesJob);
+        addPagesJob.waitForStarted();
+
+        // "verify" thread is blocked by the size of the large page
+        addPagesJob.assertBlockedWithCount(1);
+
+        // get the large page
+        assertEquals(pageBuffer.getNextPages(1, MAX_WAIT).size(), 1);
+
+        // verify thread is released
+        addPagesJob.waitForFinished();
+        assertEquals(pageBuffer.getBufferedPageCount(), 1);
+        assertEquals(pageBuffer.getBufferedSize(), sizeOfPages(1));
+    }
+
+    @Test
+    public void testEnqueueWithoutWaiting()
+            throws Exception
+    {
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(1));
+        assertTrue(pageBuffer.waitForSpace().isDone());
+
+        // pages are accepted beyond the limit, but the producer is told to wait
+        assertTrue(pageBuffer.enqueuePage(createLongPage(0)));
+        assertTrue(pageBuffer.enqueuePage(createLongPage(1)));
+        assertEquals(pageBuffer.getBufferedPageCount(), 2);
+        ListenableFuture<?> space = pageBuffer.waitForSpace();
+        assertFalse(space.isDone());
+
+        // the producer is woken when a page is removed, and checks again
+        assertEquals(pageBuffer.getNextPages(1, MAX_WAIT).size(), 1);
+        assertTrue(space.isDone());
+        assertFalse(pageBuffer.waitForSpace().isDone());
+
+        // the producer can continue once the buffer is below the limit
+        assertEquals(pageBuffer.getNextPages(1, MAX_WAIT).size(), 1);
+        assertTrue(pageBuffer.waitForSpace().isDone());
+
+        // a finished buffer does not accept pages
+        pageBuffer.finish();
+        assertFalse(pageBuffer.enqueuePage(createLongPage(2)));
+        assertTrue(pageBuffer.waitForSpace().isDone());
+    }
+
+    @Test
+    public void testWaitForPages()
+            throws Exception
+    {
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(1));
+
+        ListenableFuture<?> pages = pageBuffer.waitForPages();
+        assertFalse(pages.isDone());
+        assertTrue(pageBuffer.waitForSpace().isDone());
+
+        pageBuffer.addPage(createLongPage(0));
+        assertTrue(pages.isDone());
+        assertTrue(pageBuffer.waitForPages().isDone());
+
+        // the buffer is full until the page is read
+        ListenableFuture<?> space = pageBuffer.waitForSpace();
+        assertFalse(space.isDone());
+        assertEquals(pageBuffer.getNextPages(1, MAX_WAIT).size(), 1);
+        assertTrue(space.isDone());
+
+        // finishing the last source completes the waiting readers
+        pages = pageBuffer.waitForPages();
+        assertFalse(pages.isDone());
+        pageBuffer.sourceFinished();
+        assertTrue(pages.isDone());
+        assertFinished(pageBuffer);
+    }
+
+    @Test
+    public void testGetNextPagesBySize()
+            throws Exception
+    {
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(20));
+        for (int i = 0; i < 5; i++) {
+            pageBuffer.addPage(createLongPage(i));
+        }
+
+        // the pages are numbered in the order they are read
+        BufferResult result = pageBuffer.getNextPages(sizeOfPages(2), MAX_WAIT);
+        assertEquals(result.getStartingSequence(), 0);
+        assertEquals(result.getPages().size(), 2);
+        assertEquals(getPageOnlyValue(result.getPages().get(0)), 0);
+
+        // the first page is returned even if it is larger than the max size
+        result = pageBuffer.getNextPages(new DataSize(1, Unit.BYTE), MAX_WAIT);
+        assertEquals(result.getStartingSequence(), 2);
+        assertEquals(result.getPages().size(), 1);
+        assertEquals(getPageOnlyValue(result.getPages().get(0)), 2);
+
+        result = pageBuffer.getNextPages(sizeOfPages(20), MAX_WAIT);
+        assertEquals(result.getStartingSequence(), 3);
+        assertEquals(result.getPages().size(), 2);
+
+        pageBuffer.sourceFinished();
+        assertTrue(pageBuffer.getNextPages(sizeOfPages(20), MAX_WAIT).isEmpty());
+        assertFinished(pageBuffer);
+    }
+
+    @Test
+    public void testReserve()
+            throws Exception
+    {
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(3));
+
+        assertTrue(pageBuffer.tryReserve(sizeOfPages(2)));
+        pageBuffer.addPage(createLongPage(0));
+
+        // the reservation and the buffered page use the whole buffer
+        assertFalse(pageBuffer.tryReserve(sizeOfPages(1)));
+
+        // writers are not blocked by reservations
+        assertTrue(pageBuffer.waitForSpace().isDone());
+
+        pageBuffer.release(sizeOfPages(2));
+        assertTrue(pageBuffer.tryReserve(sizeOfPages(2)));
+    }
+
     @Test
     public void testFinishFreesReader()
             throws Exception
     {
-        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, 5);
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(5));
         assertRunning(pageBuffer);
 
         ExecutorService executor = Executors.newCachedThreadPool();
@@ -406,7 +582,7 @@ public class TestQueryState
     public void testFinishFreesWriter()
             throws Exception
     {
-        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, 5);
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(5));
         assertRunning(pageBuffer);
 
         ExecutorService executor = Executors.newCachedThreadPool();
@@ -442,7 +618,7 @@ public class TestQueryState
     public void testFailFreesReader()
             throws Exception
     {
-        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, 5);
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(5));
         assertRunning(pageBuffer);
 
         ExecutorService executor = Executors.newCachedThreadPool();
@@ -478,7 +654,7 @@ public class TestQueryState
     public void testFailFreesWriter()
             throws Exception
     {
-        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, 5);
+        PageBuffer pageBuffer = new PageBuffer("bufferId", 1, sizeOfPages(5));
         assertRunning(pageBuffer);
 
         ExecutorService executor = Executors.newCachedThreadPool();
@@ -0,0 +1,52 @@
+package com.facebook.presto.server;
+
+import com.facebook.presto.execution.ExchangePlanFragmentSource;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.planner.PlanFragmentSource;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.http.server.HttpServerConfig;
+import io.airlift.http.server.HttpServerInfo;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.DataSize;
+import io.airlift.units.DataSize.Unit;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import static com.facebook.presto.server.PrestoHeaders.PRESTO_PAGE_SEQUENCE;
+import static com.facebook.presto.sql.analyzer.Session.DEFAULT_CATALOG;
+import static com.facebook.presto.sql.analyzer.Session.DEFAULT_SCHEMA;
+import static org.testng.Assert.assertEquals;
+
+public class TestTaskResource
+{
+    @Test
+    public void testInvalidMaxSize()
+            throws Exception
+    {
+        TaskResource resource = new TaskResource(new MockTaskManager(new HttpServerInfo(new HttpServerConfig(), new NodeInfo("test"))));
+
+        Response response = resource.getResults("0", "out", "lots", null);
+        assertEquals(response.getStatus(), Status.BAD_REQUEST.getStatusCode());
+    }
+
+    @Test
+    public void testFinishedResultsHaveSequence()
+            throws Exception
+    {
+        MockTaskManager taskManager = new MockTaskManager(new HttpServerInfo(new HttpServerConfig(), new NodeInfo("test")), new DataSize(1, Unit.MEGABYTE), 3);
+        taskManager.createTask(new Session(null, DEFAULT_CATALOG, DEFAULT_SCHEMA), "query", "stage", "task", null, ImmutableList.<PlanFragmentSource>of(), ImmutableMap.<String, ExchangePlanFragmentSource>of(), ImmutableList.of("out"));
+        TaskResource resource = new TaskResource(taskManager);
+
+        Response response = resource.getResults("task", "out", "1MB", null);
+        assertEquals(response.getStatus(), Status.OK.getStatusCode());
+        assertEquals(response.getMetadata().getFirst(PRESTO_PAGE_SEQUENCE), 0L);
+
+        // the finished output reports the number of pages sent, so a client can detect a lost last response
+        response = resource.getResults("task", "out", "1MB", null);
+        assertEquals(response.getStatus(), Status.GONE.getStatusCode());
+        assertEquals(response.getMetadata().getFirst(PRESTO_PAGE_SEQUENCE), 3L);
+    }
+}
@@ -0,0 +1,124 @@
+package com.facebook.presto.split;
+
+import com.facebook.presto.block.BlockCursor;
+import com.facebook.presto.metadata.ColumnHandle;
+import com.facebook.presto.metadata.DatabaseStorageManager;
+import com.facebook.presto.metadata.NativeColumnHandle;
+import com.facebook.presto.metadata.StorageManagerConfig;
+import com.facebook.presto.operator.Operator;
+import com.facebook.presto.operator.OperatorStats;
+import com.facebook.presto.operator.Page;
+import com.facebook.presto.operator.PageIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import io.airlift.testing.FileUtils;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.IDBI;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static com.facebook.presto.block.BlockAssertions.createLongSequenceBlock;
+import static com.facebook.presto.block.BlockAssertions.createStringSequenceBlock;
+import static com.facebook.presto.operator.OperatorAssertions.createOperator;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestNativeDataStreamProvider
+{
+    private static final long SHARD_ID = 42;
+    private static final long LONG_COLUMN_ID = 1;
+    private static final long STRING_COLUMN_ID = 2;
+    private static final List<ColumnHandle> COLUMNS = ImmutableList.<ColumnHandle>of(new NativeColumnHandle(LONG_COLUMN_ID), new NativeColumnHandle(STRING_COLUMN_ID));
+
+    private Handle dummyHandle;
+    private File dataDir;
+    private NativeDataStreamProvider dataStreamProvider;
+
+    @BeforeMethod
+    public void setup()
+            throws IOException
+    {
+        IDBI dbi = new DBI("jdbc:h2:mem:test" + System.nanoTime());
+        dummyHandle = dbi.open();
+        dataDir = Files.createTempDir();
+        DatabaseStorageManager storageManager = new DatabaseStorageManager(dbi, new StorageManagerConfig().setDataDirectory(dataDir));
+        dataStreamProvider = new NativeDataStreamProvider(storageManager);
+
+        // each page is written as a separate block with its own zone map
+        storageManager.importShard(SHARD_ID, ImmutableList.of(LONG_COLUMN_ID, STRING_COLUMN_ID), createOperator(
+                new Page(createLongSequenceBlock(0, 100), createStringSequenceBlock(0, 100)),
+                new Page(createLongSequenceBlock(100, 200), createStringSequenceBlock(100, 200)),
+                new Page(createLongSequenceBlock(200, 300), createStringSequenceBlock(200, 300))));
+    }
+
+    @AfterMethod
+    public void cleanup()
+    {
+        dummyHandle.close();
+        FileUtils.deleteRecursively(dataDir);
+    }
+
+    @Test
+    public void testNoRanges()
+    {
+        assertPositions(ImmutableList.<NativeColumnRange>of(), 0, 300);
+    }
+
+    @Test
+    public void testSkipBlocks()
+    {
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, 150L, null)), 100, 300);
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, null, 99L)), 0, 100);
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, 120L, 130L)), 100, 200);
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, 99.5, 100.5)), 100, 200);
+    }
+
+    @Test
+    public void testSkipShard()
+    {
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, 300L, null)), 0, 0);
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, -10L, -1L)), 0, 0);
+    }
+
+    @Test
+    public void testMultipleRanges()
+    {
+        // the ranges of all columns must match
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, 50L, null), new NativeColumnRange(LONG_COLUMN_ID, null, 150L)), 0, 200);
+
+        // strings are ordered lexicographically, so only the "100" to "199" block is below "250"
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, 0L, 150L), new NativeColumnRange(STRING_COLUMN_ID, "250", null)), 0, 100);
+    }
+
+    @Test
+    public void testIncomparableRange()
+    {
+        assertPositions(ImmutableList.of(new NativeColumnRange(LONG_COLUMN_ID, "abc", "abc")), 0, 300);
+    }
+
+    private void assertPositions(List<NativeColumnRange> columnRanges, int start, int end)
+    {
+        Operator operator = dataStreamProvider.createDataStream(new NativeSplit(SHARD_ID, columnRanges), COLUMNS);
+
+        long expected = start;
+        PageIterator iterator = operator.iterator(new OperatorStats());
+        while (iterator.hasNext()) {
+            Page page = iterator.next();
+            BlockCursor longCursor = page.getBlock(0).cursor();
+            BlockCursor stringCursor = page.getBlock(1).cursor();
+            while (longCursor.advanceNextPosition()) {
+                assertTrue(stringCursor.advanceNextPosition());
+                assertEquals(longCursor.getLong(0), expected);
+                assertEquals(stringCursor.getSlice(0).toStringUtf8(), String.valueOf(expected));
+                expected++;
+            }
+        }
+        assertEquals(expected, end);
+    }
+}
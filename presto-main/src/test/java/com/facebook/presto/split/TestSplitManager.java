@@ -0,0 +1,60 @@
+package com.facebook.presto.split;
+
+import com.facebook.presto.metadata.NativeColumnHandle;
+import com.facebook.presto.sql.analyzer.Symbol;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.json.JsonCodec;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.facebook.presto.sql.parser.SqlParser.createExpression;
+import static com.facebook.presto.split.SplitManager.extractColumnRanges;
+import static org.testng.Assert.assertEquals;
+
+public class TestSplitManager
+{
+    private static final Map<Symbol, NativeColumnHandle> COLUMNS = ImmutableMap.of(
+            new Symbol("a"), new NativeColumnHandle(1),
+            new Symbol("b"), new NativeColumnHandle(2));
+
+    @Test
+    public void testExtractColumnRanges()
+    {
+        assertColumnRanges("a = 5", new NativeColumnRange(1, 5L, 5L));
+        assertColumnRanges("a < 5", new NativeColumnRange(1, null, 5L));
+        assertColumnRanges("a >= 5.5", new NativeColumnRange(1, 5.5, null));
+        assertColumnRanges("5 > a", new NativeColumnRange(1, null, 5L));
+        assertColumnRanges("'x' <= b", new NativeColumnRange(2, "x", null));
+        assertColumnRanges("a BETWEEN 1 AND 10", new NativeColumnRange(1, 1L, 10L));
+        assertColumnRanges("a > 1 AND b < 'x' AND a <= 10", new NativeColumnRange(1, 1L, null), new NativeColumnRange(2, null, "x"), new NativeColumnRange(1, null, 10L));
+
+        // not ranges of a known column
+        assertColumnRanges("a != 5");
+        assertColumnRanges("c = 5");
+        assertColumnRanges("a = b");
+        assertColumnRanges("a > 1 OR a < 0");
+    }
+
+    @Test
+    public void testNativeSplitJsonRoundTrip()
+    {
+        JsonCodec<Split> codec = JsonCodec.jsonCodec(Split.class);
+        NativeSplit expected = new NativeSplit(42, ImmutableList.of(new NativeColumnRange(1, 5L, null), new NativeColumnRange(2, "x", "y"), new NativeColumnRange(3, null, 1.5)));
+
+        NativeSplit actual = (NativeSplit) codec.fromJson(codec.toJson(expected));
+        assertEquals(actual.getShardId(), 42);
+        assertEquals(actual.getColumnRanges().size(), 3);
+        assertEquals(((Number) actual.getColumnRanges().get(0).getMin()).longValue(), 5);
+        assertEquals(actual.getColumnRanges().get(1), expected.getColumnRanges().get(1));
+        assertEquals(actual.getColumnRanges().get(2), expected.getColumnRanges().get(2));
+    }
+
+    private static void assertColumnRanges(String predicate, NativeColumnRange... expected)
+    {
+        List<NativeColumnRange> ranges = extractColumnRanges(createExpression(predicate), COLUMNS);
+        assertEquals(ranges, ImmutableList.copyOf(expected));
+    }
+}
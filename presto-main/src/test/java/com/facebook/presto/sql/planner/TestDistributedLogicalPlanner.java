@@ -0,0 +1,161 @@
+package com.facebook.presto.sql.planner;
+
+import com.facebook.presto.metadata.Metadata;
+import com.facebook.presto.sql.analyzer.AnalysisResult;
+import com.facebook.presto.sql.analyzer.Analyzer;
+import com.facebook.presto.sql.analyzer.Session;
+import com.facebook.presto.sql.parser.SqlParser;
+import com.facebook.presto.sql.planner.plan.AggregationNode;
+import com.facebook.presto.sql.planner.plan.AggregationNode.Step;
+import com.facebook.presto.sql.planner.plan.ExchangeNode;
+import com.facebook.presto.sql.planner.plan.JoinNode;
+import com.facebook.presto.sql.planner.plan.PlanNode;
+import com.facebook.presto.sql.planner.plan.SinkNode;
+import com.facebook.presto.sql.planner.plan.SortNode;
+import com.facebook.presto.sql.planner.plan.TableScanNode;
+import com.facebook.presto.tpch.TpchSchema;
+import com.google.common.collect.Lists;
+import org.intellij.lang.annotations.Language;
+import org.testng.annotations.Test;
+
+import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.leftGetter;
+import static com.facebook.presto.sql.planner.plan.JoinNode.EquiJoinClause.rightGetter;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestDistributedLogicalPlanner
+{
+    private final Metadata metadata = TpchSchema.createMetadata();
+
+    @Test
+    public void testPartitionedJoin()
+    {
+        SubPlan subplan = createSubplans("SELECT * FROM lineitem JOIN orders ON lineitem.orderkey = orders.orderkey", false);
+
+        SubPlan joinPlan = findSubplan(subplan, JoinNode.class);
+        assertNotNull(joinPlan, "no fragment contains the join");
+        assertTrue(joinPlan.getFragment().isPartitioned());
+
+        // both sides are read from an exchange, and each source fragment partitions its output on its join keys
+        JoinNode join = findNode(joinPlan.getFragment().getRoot(), JoinNode.class);
+        assertTrue(join.getLeft() instanceof ExchangeNode);
+        assertTrue(join.getRight() instanceof ExchangeNode);
+
+        SinkNode leftSink = getSink(joinPlan, ((ExchangeNode) join.getLeft()).getSourceFragmentId());
+        SinkNode rightSink = getSink(joinPlan, ((ExchangeNode) join.getRight()).getSourceFragmentId());
+        assertEquals(leftSink.getPartitionBy(), Lists.transform(join.getCriteria(), leftGetter()));
+        assertEquals(rightSink.getPartitionBy(), Lists.transform(join.getCriteria(), rightGetter()));
+    }
+
+    @Test
+    public void testSingleNodeJoin()
+    {
+        SubPlan subplan = createSubplans("SELECT * FROM lineitem JOIN orders ON lineitem.orderkey = orders.orderkey", true);
+
+        assertTrue(subplan.getChildren().isEmpty());
+        assertFalse(subplan.getFragment().isPartitioned());
+    }
+
+    @Test
+    public void testGroupedAggregation()
+    {
+        SubPlan subplan = createSubplans("SELECT orderstatus, SUM(totalprice) FROM orders GROUP BY orderstatus", false);
+
+        // the final aggregation runs in a partitioned fragment fed by partial aggregations partitioned on the group by keys
+        SubPlan finalPlan = findSubplan(subplan, AggregationNode.class);
+        AggregationNode aggregation = findNode(finalPlan.getFragment().getRoot(), AggregationNode.class);
+        assertEquals(aggregation.getStep(), Step.FINAL);
+        assertTrue(finalPlan.getFragment().isPartitioned());
+
+        SinkNode partialSink = getSink(finalPlan, ((ExchangeNode) aggregation.getSource()).getSourceFragmentId());
+        assertEquals(((AggregationNode) partialSink.getSource()).getStep(), Step.PARTIAL);
+        assertEquals(partialSink.getPartitionBy(), aggregation.getGroupBy());
+    }
+
+    @Test
+    public void testGlobalAggregation()
+    {
+        SubPlan subplan = createSubplans("SELECT SUM(totalprice) FROM orders", false);
+
+        // a single group is finished in an unpartitioned fragment that receives all partial results
+        SubPlan finalPlan = findSubplan(subplan, AggregationNode.class);
+        AggregationNode aggregation = findNode(finalPlan.getFragment().getRoot(), AggregationNode.class);
+        assertEquals(aggregation.getStep(), Step.FINAL);
+        assertFalse(finalPlan.getFragment().isPartitioned());
+
+        SinkNode partialSink = getSink(finalPlan, ((ExchangeNode) aggregation.getSource()).getSourceFragmentId());
+        assertEquals(((AggregationNode) partialSink.getSource()).getStep(), Step.PARTIAL);
+        assertFalse(partialSink.isPartitioned());
+    }
+
+    @Test
+    public void testSort()
+    {
+        SubPlan subplan = createSubplans("SELECT orderkey, totalprice FROM orders ORDER BY totalprice DESC", false);
+
+        // the coordinator fragment merges the sorted outputs of the tasks
+        ExchangeNode exchange = findNode(subplan.getFragment().getRoot(), ExchangeNode.class);
+        assertFalse(subplan.getFragment().isPartitioned());
+        assertTrue(exchange.isSorted());
+
+        // each table scan task sorts its own rows, so the rows are not repartitioned to sort them
+        SinkNode sink = getSink(subplan, exchange.getSourceFragmentId());
+        SubPlan sortPlan = findSubplan(subplan, SortNode.class);
+        assertTrue(sortPlan.getFragment().isPartitioned());
+        assertTrue(sortPlan.getChildren().isEmpty());
+        assertNotNull(findNode(sortPlan.getFragment().getRoot(), TableScanNode.class));
+        assertTrue(sink.getSource() instanceof SortNode);
+        assertFalse(sink.isPartitioned());
+        assertEquals(exchange.getOrderBy(), ((SortNode) sink.getSource()).getOrderBy());
+    }
+
+    private SubPlan createSubplans(@Language("SQL") String sql, boolean createSingleNodePlan)
+    {
+        Session session = new Session(null, TpchSchema.CATALOG_NAME, TpchSchema.SCHEMA_NAME);
+        AnalysisResult analysis = new Analyzer(session, metadata).analyze(SqlParser.createStatement(sql));
+        PlanNode plan = new LogicalPlanner(session, metadata).plan(analysis);
+        return new DistributedLogicalPlanner(metadata).createSubplans(plan, analysis.getSymbolAllocator(), createSingleNodePlan);
+    }
+
+    private static SinkNode getSink(SubPlan parent, int fragmentId)
+    {
+        for (SubPlan child : parent.getChildren()) {
+            if (child.getFragment().getId() == fragmentId) {
+                PlanNode root = child.getFragment().getRoot();
+                assertTrue(root instanceof SinkNode, "root of fragment " + fragmentId + " is not a sink");
+                return (SinkNode) root;
+            }
+        }
+        throw new AssertionError("no child fragment " + fragmentId);
+    }
+
+    private static SubPlan findSubplan(SubPlan subplan, Class<? extends PlanNode> type)
+    {
+        if (findNode(subplan.getFragment().getRoot(), type) != null) {
+            return subplan;
+        }
+        for (SubPlan child : subplan.getChildren()) {
+            SubPlan result = findSubplan(child, type);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static <T extends PlanNode> T findNode(PlanNode node, Class<T> type)
+    {
+        if (type.isInstance(node)) {
+            return type.cast(node);
+        }
+        for (PlanNode source : node.getSources()) {
+            T result = findNode(source, type);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+}
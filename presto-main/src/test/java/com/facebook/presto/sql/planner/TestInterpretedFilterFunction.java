@@ -4,9 +4,11 @@
 package com.facebook.presto.sql.planner;
 
 import com.facebook.presto.metadata.TestingMetadata;
+import com.facebook.presto.operator.FilterFunction;
 import com.facebook.presto.operator.Input;
 import com.facebook.presto.sql.analyzer.Session;
 import com.facebook.presto.sql.analyzer.Symbol;
+import com.facebook.presto.sql.analyzer.Type;
 import com.facebook.presto.sql.parser.SqlParser;
 import com.facebook.presto.sql.tree.ComparisonExpression;
 import com.facebook.presto.sql.tree.Expression;
@@ -175,6 +177,21 @@ public class TestInterpretedFilterFunction
         }
     }
 
+    @Test
+    public void testLikePredicate()
+    {
+        assertFilter("'abc' like 'abc'", true);
+        assertFilter("'abc' like 'a%'", true);
+        assertFilter("'abc' like '%c'", true);
+        assertFilter("'abc' like '%b%'", true);
+        assertFilter("'abc' like 'a_c'", true);
+        assertFilter("'abc' like 'b%'", false);
+        assertFilter("'a%c' like 'a#%c' escape '#'", true);
+        assertFilter("'abc' like 'a#%c' escape '#'", false);
+        assertFilter("null like 'a%'", false);
+        assertFilter("'abc' like null", false);
+    }
+
     public static void assertFilter(String expression, boolean expectedValue)
     {
         Expression parsed = SqlParser.createExpression(expression);
@@ -182,5 +199,9 @@ public class TestInterpretedFilterFunction
         InterpretedFilterFunction filterFunction = new InterpretedFilterFunction(parsed, ImmutableMap.<Symbol, Input>of(), new TestingMetadata(), session);
         boolean result = filterFunction.filter();
         assertEquals(result, expectedValue);
+
+        // the compiled filter must agree with the interpreter
+        FilterFunction compiledFunction = new ExpressionCompiler(new TestingMetadata()).compileFilterFunction(parsed, ImmutableMap.<Symbol, Input>of(), ImmutableMap.<Symbol, Type>of(), session);
+        assertEquals(compiledFunction.filter(), expectedValue);
     }
 }
@@ -8,6 +8,7 @@ import com.facebook.presto.block.BlockBuilder;
 import com.facebook.presto.metadata.ColumnHandle;
 import com.facebook.presto.metadata.TestingMetadata;
 import com.facebook.presto.operator.Input;
+import com.facebook.presto.operator.ProjectionFunction;
 import com.facebook.presto.sql.analyzer.Field;
 import com.facebook.presto.sql.analyzer.NameToSymbolRewriter;
 import com.facebook.presto.sql.analyzer.Session;
@@ -142,12 +143,21 @@ public class TestInterpretedProjectionFunction
 
     public static void assertProjection(Type outputType, Expression expression, @Nullable Object expectedValue, Map<Symbol, Input> symbolToInputMappings, Map<Symbol, Type> types, TupleReadable... channels)
     {
+        Session session = new Session(null, Session.DEFAULT_CATALOG, Session.DEFAULT_SCHEMA);
         InterpretedProjectionFunction projectionFunction = new InterpretedProjectionFunction(outputType,
                 expression,
                 symbolToInputMappings,
                 new TestingMetadata(),
-                new Session(null, Session.DEFAULT_CATALOG, Session.DEFAULT_SCHEMA));
+                session);
+        assertProjection(projectionFunction, outputType, expectedValue, channels);
 
+        // the compiled projection must agree with the interpreter
+        ProjectionFunction compiledFunction = new ExpressionCompiler(new TestingMetadata()).compileProjectionFunction(outputType, expression, symbolToInputMappings, types, session);
+        assertProjection(compiledFunction, outputType, expectedValue, channels);
+    }
+
+    private static void assertProjection(ProjectionFunction projectionFunction, Type outputType, @Nullable Object expectedValue, TupleReadable... channels)
+    {
         // create output
         BlockBuilder builder = new BlockBuilder(new TupleInfo(outputType.getRawType()));
 
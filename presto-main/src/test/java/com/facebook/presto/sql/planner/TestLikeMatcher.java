@@ -0,0 +1,126 @@
+package com.facebook.presto.sql.planner;
+
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import org.testng.annotations.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestLikeMatcher
+{
+    @Test
+    public void testExact()
+    {
+        assertMatches("abc", "abc");
+        assertNotMatches("abc", "abcd");
+        assertNotMatches("abc", "ab");
+        assertMatches("", "");
+        assertNotMatches("", "a");
+    }
+
+    @Test
+    public void testPrefix()
+    {
+        assertMatches("abc%", "abc");
+        assertMatches("abc%", "abcdef");
+        assertNotMatches("abc%", "ab");
+        assertNotMatches("abc%", "xabc");
+    }
+
+    @Test
+    public void testSuffix()
+    {
+        assertMatches("%abc", "abc");
+        assertMatches("%abc", "xyzabc");
+        assertNotMatches("%abc", "abcx");
+        assertNotMatches("%abc", "bc");
+    }
+
+    @Test
+    public void testContains()
+    {
+        assertMatches("%abc%", "abc");
+        assertMatches("%abc%", "xxabcxx");
+        assertMatches("%abc%", "ababc");
+        assertNotMatches("%abc%", "abxc");
+        assertMatches("%", "");
+        assertMatches("%", "anything");
+        assertMatches("%%", "anything");
+    }
+
+    @Test
+    public void testMultipleLiterals()
+    {
+        assertMatches("a%b%c", "abc");
+        assertMatches("a%b%c", "axxbxxc");
+        assertNotMatches("a%b%c", "axxcxxb");
+        assertMatches("a%a", "aa");
+        assertNotMatches("a%a", "a");
+        assertMatches("%ab%ab%", "xabyabz");
+        assertNotMatches("%ab%ab%", "xaby");
+    }
+
+    @Test
+    public void testSingleCharacterWildcard()
+    {
+        assertMatches("a_c", "abc");
+        assertNotMatches("a_c", "abbc");
+        assertMatches("_%", "a");
+        assertNotMatches("_%", "");
+        assertMatches("a_c", "aéc");
+    }
+
+    @Test
+    public void testEscape()
+    {
+        assertMatches("100\\%", "100%");
+        assertNotMatches("100\\%", "1000");
+        assertMatches("a\\_c", "a_c");
+        assertNotMatches("a\\_c", "abc");
+        assertMatches("a\\\\%", "a\\bc");
+        assertMatches(LikeMatcher.compile("a#%%", '#'), "a%bc");
+        assertNotMatches(LikeMatcher.compile("a#%%", '#'), "abc");
+    }
+
+    @Test
+    public void testMultiByteCharacters()
+    {
+        assertMatches("%été%", "l'été dernier");
+        assertMatches("日%", "日本");
+        assertNotMatches("日%", "本日");
+    }
+
+    @Test
+    public void testLineTerminators()
+    {
+        assertMatches("a%c", "a\nb\nc");
+        assertMatches("a_c", "a\nc");
+    }
+
+    private static void assertMatches(String pattern, String value)
+    {
+        assertMatches(LikeMatcher.compile(pattern, '\\'), value);
+    }
+
+    private static void assertNotMatches(String pattern, String value)
+    {
+        assertNotMatches(LikeMatcher.compile(pattern, '\\'), value);
+    }
+
+    private static void assertMatches(LikeMatcher matcher, String value)
+    {
+        assertTrue(matcher.matches(toSlice(value)), matcher + " should match " + value);
+    }
+
+    private static void assertNotMatches(LikeMatcher matcher, String value)
+    {
+        assertFalse(matcher.matches(toSlice(value)), matcher + " should not match " + value);
+    }
+
+    private static Slice toSlice(String value)
+    {
+        return Slices.copiedBuffer(value, UTF_8);
+    }
+}